@@ -157,7 +157,7 @@ public class ModuleGenerator {
         for(Requires require: requires) {
             mv.visitRequire(
                 require.getModule(),
-                (require.isStatic() ? ACC_STATIC : 0)|( require.isTransitive() ? ACC_TRANSITIVE : 0),
+                (require.isStatic() ? ACC_STATIC_PHASE : 0)|( require.isTransitive() ? ACC_TRANSITIVE : 0),
                 null);
         }
         for(Exports export: exports) {
@@ -0,0 +1,138 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.Function;
+import com.sun.jna.Memory;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Pointer;
+import com.sun.jna.benchmarks.TestLibraries.DirectTestLibrary;
+import com.sun.jna.benchmarks.TestLibraries.TestLibrary;
+
+/** Native calls through interface mapping, direct mapping and {@link Function}. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CallBenchmark {
+
+    private TestLibrary library;
+    private Function returnInt32Magic;
+    private Function returnInt32Argument;
+    private Function returnDoubleArgument;
+    private Function returnPointerArgument;
+    private Object[] intArgs;
+    private Object[] doubleArgs;
+    private Object[] pointerArgs;
+    private Pointer pointer;
+
+    @Setup
+    public void setup() {
+        library = TestLibraries.library();
+        NativeLibrary lib = NativeLibrary.getInstance(TestLibraries.LIBRARY);
+        returnInt32Magic = lib.getFunction("returnInt32Magic");
+        returnInt32Argument = lib.getFunction("returnInt32Argument");
+        returnDoubleArgument = lib.getFunction("returnDoubleArgument");
+        returnPointerArgument = lib.getFunction("returnPointerArgument");
+        pointer = new Memory(8);
+        intArgs = new Object[] { Integer.valueOf(42) };
+        doubleArgs = new Object[] { Double.valueOf(42) };
+        pointerArgs = new Object[] { pointer };
+        DirectTestLibrary.returnInt32Magic();
+    }
+
+    @Benchmark
+    public int interfaceNoArgs() {
+        return library.returnInt32Magic();
+    }
+
+    @Benchmark
+    public int directNoArgs() {
+        return DirectTestLibrary.returnInt32Magic();
+    }
+
+    @Benchmark
+    public int functionNoArgs() {
+        return returnInt32Magic.invokeInt(null);
+    }
+
+    @Benchmark
+    public int interfaceInt() {
+        return library.returnInt32Argument(42);
+    }
+
+    @Benchmark
+    public int directInt() {
+        return DirectTestLibrary.returnInt32Argument(42);
+    }
+
+    @Benchmark
+    public int functionInt() {
+        return returnInt32Argument.invokeInt(intArgs);
+    }
+
+    @Benchmark
+    public double interfaceDouble() {
+        return library.returnDoubleArgument(42);
+    }
+
+    @Benchmark
+    public double directDouble() {
+        return DirectTestLibrary.returnDoubleArgument(42);
+    }
+
+    @Benchmark
+    public double functionDouble() {
+        return returnDoubleArgument.invokeDouble(doubleArgs);
+    }
+
+    @Benchmark
+    public Pointer interfacePointer() {
+        return library.returnPointerArgument(pointer);
+    }
+
+    @Benchmark
+    public Pointer directPointer() {
+        return DirectTestLibrary.returnPointerArgument(pointer);
+    }
+
+    @Benchmark
+    public Pointer functionPointer() {
+        return returnPointerArgument.invokePointer(pointerArgs);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.benchmarks.TestLibraries.DirectTestLibrary;
+import com.sun.jna.benchmarks.TestLibraries.Int32Callback;
+import com.sun.jna.benchmarks.TestLibraries.TestLibrary;
+
+/** Upcalls from native code into Java callbacks. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CallbackBenchmark {
+
+    /** Upcalls per native call in the repeated benchmarks. */
+    private static final int REPEAT = 100;
+
+    private TestLibrary library;
+    private Int32Callback callback;
+
+    @Setup
+    public void setup() {
+        library = TestLibraries.library();
+        callback = new Int32Callback() {
+            @Override
+            public int callback(int arg, int arg2) {
+                return arg + arg2;
+            }
+        };
+        DirectTestLibrary.returnInt32Magic();
+    }
+
+    @Benchmark
+    public int interfaceCallback() {
+        return library.callInt32Callback(callback, 1, 2);
+    }
+
+    @Benchmark
+    public int directCallback() {
+        return DirectTestLibrary.callInt32Callback(callback, 1, 2);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REPEAT)
+    public int interfaceUpcall() {
+        return library.callInt32CallbackRepeatedly(callback, 1, 2, REPEAT);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REPEAT)
+    public int directUpcall() {
+        return DirectTestLibrary.callInt32CallbackRepeatedly(callback, 1, 2, REPEAT);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.CallbackReference;
+import com.sun.jna.Function;
+import com.sun.jna.IntegerType;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.NativeMappedConverter;
+import com.sun.jna.Pointer;
+import com.sun.jna.benchmarks.TestLibraries.Int32Callback;
+import com.sun.jna.benchmarks.TestLibraries.SmallStructure;
+import com.sun.jna.benchmarks.TestLibraries.TestLibrary;
+
+/**
+ * Workloads which go through state shared by all threads.  Run with
+ * increasing thread counts, e.g. through {@link ScalingRunner}, to see how
+ * they scale:
+ * <ul>
+ * <li>{@link Memory} allocation, tracked in a global map and released
+ * explicitly or by the {@link com.sun.jna.internal.Cleaner}</li>
+ * <li>{@link com.sun.jna.Structure} construction, which looks up the cached
+ * layout</li>
+ * <li>callback registration in the {@link CallbackReference} maps</li>
+ * <li>{@link NativeLibrary#getFunction} lookups</li>
+ * <li>{@link NativeMappedConverter#getInstance} lookups</li>
+ * <li>binding of library methods on first call</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContentionBenchmark {
+
+    private static final String[] FUNCTIONS = {
+        "returnInt32Magic", "returnInt32Argument", "returnDoubleArgument",
+        "returnPointerArgument", "returnStringArgument", "fillInt8Buffer",
+        "fillInt32Buffer", "callInt32Callback",
+    };
+
+    public static class Handle extends IntegerType {
+        private static final long serialVersionUID = 1L;
+        public Handle() { super(Native.POINTER_SIZE, true); }
+    }
+
+    private NativeLibrary library;
+    private Int32Callback callback;
+
+    @Setup
+    public void setup() {
+        library = NativeLibrary.getInstance(TestLibraries.LIBRARY);
+        for (String name : FUNCTIONS) {
+            library.getFunction(name);
+        }
+        callback = new Int32Callback() {
+            @Override
+            public int callback(int arg, int arg2) {
+                return arg + arg2;
+            }
+        };
+        CallbackReference.getFunctionPointer(callback);
+    }
+
+    @Benchmark
+    public long allocateMemory() {
+        Memory m = new Memory(64);
+        long peer = Pointer.nativeValue(m);
+        m.close();
+        return peer;
+    }
+
+    @Benchmark
+    public Memory allocateMemoryCleaner() {
+        return new Memory(64);
+    }
+
+    @Benchmark
+    public SmallStructure newStructure() {
+        return new SmallStructure();
+    }
+
+    @Benchmark
+    public Pointer registerCallback() {
+        return CallbackReference.getFunctionPointer(new Int32Callback() {
+            @Override
+            public int callback(int arg, int arg2) {
+                return arg;
+            }
+        });
+    }
+
+    @Benchmark
+    public Pointer lookupCallback() {
+        return CallbackReference.getFunctionPointer(callback);
+    }
+
+    @Benchmark
+    public Function getFunction() {
+        return library.getFunction(FUNCTIONS[ThreadLocalRandom.current().nextInt(FUNCTIONS.length)]);
+    }
+
+    @Benchmark
+    public NativeMappedConverter nativeMappedConverter() {
+        return NativeMappedConverter.getInstance(Handle.class);
+    }
+
+    @Benchmark
+    public int firstCallBinding() {
+        // A new proxy has no bound methods
+        return Native.load(TestLibraries.LIBRARY, TestLibrary.class).returnInt32Magic();
+    }
+}
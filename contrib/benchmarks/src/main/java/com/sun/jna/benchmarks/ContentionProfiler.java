@@ -0,0 +1,109 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/**
+ * Reports how often, and how long, the benchmark threads were blocked on a
+ * monitor or waiting (which includes parking on a
+ * {@link java.util.concurrent.locks.Lock}) during each iteration, using the
+ * thread contention monitoring of {@link ThreadMXBean}.  Use with
+ * <code>-prof com.sun.jna.benchmarks.ContentionProfiler</code>.
+ */
+public class ContentionProfiler implements InternalProfiler {
+
+    public static final String BLOCKED_COUNT = "contention.blocked";
+    public static final String BLOCKED_TIME = "contention.blocked.time";
+    public static final String WAITED_COUNT = "contention.waited";
+    public static final String WAITED_TIME = "contention.waited.time";
+
+    private static final String WORKER = "-jmh-worker-";
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private long blockedCount, blockedTime, waitedCount, waitedTime;
+    private long start;
+
+    public ContentionProfiler() {
+        if (threads.isThreadContentionMonitoringSupported()) {
+            threads.setThreadContentionMonitoringEnabled(true);
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return "Monitor and lock contention of the benchmark threads";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        long[] totals = totals();
+        blockedCount = totals[0];
+        blockedTime = totals[1];
+        waitedCount = totals[2];
+        waitedTime = totals[3];
+        start = System.nanoTime();
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long[] totals = totals();
+        List<Result> results = new ArrayList<>();
+        results.add(new ScalarResult(BLOCKED_COUNT, (totals[0] - blockedCount) / seconds, "#/s", AggregationPolicy.AVG));
+        results.add(new ScalarResult(WAITED_COUNT, (totals[2] - waitedCount) / seconds, "#/s", AggregationPolicy.AVG));
+        if (threads.isThreadContentionMonitoringEnabled()) {
+            results.add(new ScalarResult(BLOCKED_TIME, (totals[1] - blockedTime) / seconds, "ms/s", AggregationPolicy.AVG));
+            results.add(new ScalarResult(WAITED_TIME, (totals[3] - waitedTime) / seconds, "ms/s", AggregationPolicy.AVG));
+        }
+        return results;
+    }
+
+    /** Sums blocked count and time, waited count and time of the worker threads. */
+    private long[] totals() {
+        long[] totals = new long[4];
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info == null || !info.getThreadName().contains(WORKER)) {
+                continue;
+            }
+            totals[0] += info.getBlockedCount();
+            totals[1] += Math.max(0, info.getBlockedTime());
+            totals[2] += info.getWaitedCount();
+            totals[3] += Math.max(0, info.getWaitedTime());
+        }
+        return totals;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.benchmarks.TestLibraries.TestLibrary;
+
+/** Lookup of loaded libraries, library loading and proxy creation. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LibraryLoadBenchmark {
+
+    private NativeLibrary loaded;
+
+    @Setup
+    public void setup() {
+        // Keep the library loaded, so that the cached lookup is measured
+        loaded = NativeLibrary.getInstance(TestLibraries.LIBRARY);
+    }
+
+    @Benchmark
+    public NativeLibrary getInstanceCached() {
+        return NativeLibrary.getInstance(TestLibraries.LIBRARY);
+    }
+
+    @Benchmark
+    public NativeLibrary loadAndClose() {
+        // A library not otherwise in use, so that each call opens it
+        NativeLibrary lib = NativeLibrary.getInstance("testlib2");
+        lib.close();
+        return lib;
+    }
+
+    @Benchmark
+    public TestLibrary loadInterface() {
+        return Native.load(TestLibraries.LIBRARY, TestLibrary.class);
+    }
+}
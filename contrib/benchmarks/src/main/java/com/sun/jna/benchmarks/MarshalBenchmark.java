@@ -0,0 +1,105 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.benchmarks.TestLibraries.DirectTestLibrary;
+import com.sun.jna.benchmarks.TestLibraries.TestLibrary;
+
+/** Conversion of String and primitive array arguments. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MarshalBenchmark {
+
+    @Param({"16", "1024"})
+    public int length;
+
+    private TestLibrary library;
+    private String string;
+    private byte[] bytes;
+    private int[] ints;
+
+    @Setup
+    public void setup() {
+        library = TestLibraries.library();
+        StringBuilder sb = new StringBuilder(length);
+        for (int i=0;i < length;i++) {
+            sb.append((char)('a' + i % 26));
+        }
+        string = sb.toString();
+        bytes = new byte[length];
+        ints = new int[length];
+        DirectTestLibrary.returnInt32Magic();
+    }
+
+    @Benchmark
+    public String interfaceString() {
+        return library.returnStringArgument(string);
+    }
+
+    @Benchmark
+    public String directString() {
+        return DirectTestLibrary.returnStringArgument(string);
+    }
+
+    @Benchmark
+    public byte[] interfaceByteArray() {
+        library.fillInt8Buffer(bytes, length, (byte)1);
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] directByteArray() {
+        DirectTestLibrary.fillInt8Buffer(bytes, length, (byte)1);
+        return bytes;
+    }
+
+    @Benchmark
+    public int[] interfaceIntArray() {
+        library.fillInt32Buffer(ints, length, 1);
+        return ints;
+    }
+
+    @Benchmark
+    public int[] directIntArray() {
+        DirectTestLibrary.fillInt32Buffer(ints, length, 1);
+        return ints;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.Memory;
+
+/** Single value and bulk access to native memory through {@link com.sun.jna.Pointer}. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PointerBenchmark {
+
+    @Param({"16", "4096"})
+    public int length;
+
+    private Memory memory;
+    private int[] ints;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        memory = new Memory(length * 4L);
+        memory.clear();
+        ints = new int[length];
+        bytes = new byte[length];
+    }
+
+    @TearDown
+    public void tearDown() {
+        memory.close();
+    }
+
+    @Benchmark
+    public int getInt() {
+        return memory.getInt(4);
+    }
+
+    @Benchmark
+    public Memory setInt() {
+        memory.setInt(4, 42);
+        return memory;
+    }
+
+    @Benchmark
+    public long getLong() {
+        return memory.getLong(8);
+    }
+
+    @Benchmark
+    public int[] readInts() {
+        memory.read(0, ints, 0, length);
+        return ints;
+    }
+
+    @Benchmark
+    public Memory writeInts() {
+        memory.write(0, ints, 0, length);
+        return memory;
+    }
+
+    @Benchmark
+    public byte[] readBytes() {
+        memory.read(0, bytes, 0, length);
+        return bytes;
+    }
+
+    @Benchmark
+    public Memory writeBytes() {
+        memory.write(0, bytes, 0, length);
+        return memory;
+    }
+}
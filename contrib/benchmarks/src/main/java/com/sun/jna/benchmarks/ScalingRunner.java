@@ -0,0 +1,139 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.benchmarks;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks, by default {@link ContentionBenchmark}, at 1, 2, 4, ...
+ * threads up to the number of available processors, and prints the
+ * throughput, the speedup over one thread and the contention reported by
+ * {@link ContentionProfiler} for each thread count.  Arguments are JMH
+ * command line options; the thread counts may be given with the
+ * <code>scaling.threads</code> system property (e.g. "1,2,8,16") and the
+ * curve is also written as CSV to <code>scaling.result</code> if set.
+ */
+public class ScalingRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        int[] counts = threadCounts(System.getProperty("scaling.threads"));
+        // benchmark -> threads -> results
+        Map<String, Map<Integer, RunResult>> curves = new TreeMap<>();
+        for (int count : counts) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(cmd)
+                .threads(count)
+                .addProfiler(ContentionProfiler.class);
+            if (cmd.getIncludes().isEmpty()) {
+                options.include(ContentionBenchmark.class.getName());
+            }
+            for (RunResult result : new Runner(options.build()).run()) {
+                String name = result.getParams().getBenchmark();
+                String params = result.getParams().getParamsKeys().isEmpty()
+                    ? "" : result.getParams().toString();
+                curves.computeIfAbsent(name + params, k -> new TreeMap<>()).put(count, result);
+            }
+        }
+
+        List<String> lines = new ArrayList<>();
+        lines.add("benchmark,threads,score,error,unit,speedup,efficiency,blocked/s,blocked ms/s,waited/s,waited ms/s");
+        for (Map.Entry<String, Map<Integer, RunResult>> e : curves.entrySet()) {
+            Map<Integer, RunResult> curve = e.getValue();
+            RunResult first = curve.values().iterator().next();
+            int baseThreads = curve.keySet().iterator().next();
+            double base = first.getPrimaryResult().getScore() / baseThreads;
+            for (Map.Entry<Integer, RunResult> point : curve.entrySet()) {
+                int threads = point.getKey();
+                RunResult r = point.getValue();
+                Result<?> primary = r.getPrimaryResult();
+                double speedup = primary.getScore() / base;
+                lines.add(String.format(Locale.ROOT, "%s,%d,%.3f,%.3f,%s,%.2f,%.2f,%s,%s,%s,%s",
+                                        e.getKey(), threads, primary.getScore(),
+                                        primary.getScoreError(), primary.getScoreUnit(),
+                                        speedup, speedup / threads,
+                                        secondary(r, ContentionProfiler.BLOCKED_COUNT),
+                                        secondary(r, ContentionProfiler.BLOCKED_TIME),
+                                        secondary(r, ContentionProfiler.WAITED_COUNT),
+                                        secondary(r, ContentionProfiler.WAITED_TIME)));
+            }
+        }
+
+        System.out.println();
+        System.out.println("Scaling:");
+        for (String line : lines) {
+            System.out.println(line.replace(',', '\t'));
+        }
+        String file = System.getProperty("scaling.result");
+        if (file != null) {
+            try (PrintWriter w = new PrintWriter(new FileWriter(file))) {
+                for (String line : lines) {
+                    w.println(line);
+                }
+            }
+        }
+    }
+
+    private static String secondary(RunResult r, String label) {
+        Result<?> result = r.getSecondaryResults().get(label);
+        return result != null ? String.format(Locale.ROOT, "%.1f", result.getScore()) : "";
+    }
+
+    /** Explicit counts, or powers of two up to and including the number of processors. */
+    static int[] threadCounts(String spec) {
+        List<Integer> counts = new ArrayList<>();
+        if (spec != null && !spec.trim().isEmpty()) {
+            for (String s : spec.split(",")) {
+                counts.add(Integer.valueOf(s.trim()));
+            }
+        }
+        else {
+            int max = Runtime.getRuntime().availableProcessors();
+            for (int n = 1; n < max; n *= 2) {
+                counts.add(n);
+            }
+            counts.add(max);
+        }
+        int[] result = new int[counts.size()];
+        for (int i=0;i < result.length;i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+}
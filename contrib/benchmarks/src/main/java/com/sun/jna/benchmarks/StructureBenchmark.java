@@ -0,0 +1,105 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.Structure;
+import com.sun.jna.benchmarks.TestLibraries.LargeStructure;
+import com.sun.jna.benchmarks.TestLibraries.SmallStructure;
+
+/** Creation, read and write of small and large structures, and {@link Structure#toArray}. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StructureBenchmark {
+
+    private SmallStructure small;
+    private LargeStructure large;
+
+    @Setup
+    public void setup() {
+        small = new SmallStructure();
+        large = new LargeStructure();
+    }
+
+    @Benchmark
+    public SmallStructure newSmall() {
+        return new SmallStructure();
+    }
+
+    @Benchmark
+    public LargeStructure newLarge() {
+        return new LargeStructure();
+    }
+
+    @Benchmark
+    public SmallStructure writeSmall() {
+        small.a++;
+        small.write();
+        return small;
+    }
+
+    @Benchmark
+    public SmallStructure readSmall() {
+        small.read();
+        return small;
+    }
+
+    @Benchmark
+    public LargeStructure writeLarge() {
+        large.id++;
+        large.write();
+        return large;
+    }
+
+    @Benchmark
+    public LargeStructure readLarge() {
+        large.read();
+        return large;
+    }
+
+    @Benchmark
+    public Structure[] toArraySmall() {
+        return new SmallStructure().toArray(16);
+    }
+
+    @Benchmark
+    public Structure[] toArrayLarge() {
+        return new LargeStructure().toArray(16);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.benchmarks;
+
+import com.sun.jna.Callback;
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+
+/**
+ * Mappings of the JNA test library (<code>native/testlib.c</code>) shared by
+ * the benchmarks.  The library is found through <code>jna.library.path</code>.
+ */
+public final class TestLibraries {
+
+    public static final String LIBRARY = "testlib";
+
+    public interface Int32Callback extends Callback {
+        int callback(int arg, int arg2);
+    }
+
+    /** Interface mapping, invoked through a proxy. */
+    public interface TestLibrary extends Library {
+        int returnInt32Magic();
+        int returnInt32Argument(int arg);
+        double returnDoubleArgument(double arg);
+        Pointer returnPointerArgument(Pointer arg);
+        String returnStringArgument(String arg);
+        void fillInt8Buffer(byte[] buf, int len, byte value);
+        void fillInt32Buffer(int[] buf, int len, int value);
+        int callInt32Callback(Int32Callback cb, int arg, int arg2);
+        int callInt32CallbackRepeatedly(Int32Callback cb, int arg, int arg2, int count);
+    }
+
+    /** Direct mapping, registered with {@link Native#register}. */
+    public static final class DirectTestLibrary {
+        public static native int returnInt32Magic();
+        public static native int returnInt32Argument(int arg);
+        public static native double returnDoubleArgument(double arg);
+        public static native Pointer returnPointerArgument(Pointer arg);
+        public static native String returnStringArgument(String arg);
+        public static native void fillInt8Buffer(byte[] buf, int len, byte value);
+        public static native void fillInt32Buffer(int[] buf, int len, int value);
+        public static native int callInt32Callback(Int32Callback cb, int arg, int arg2);
+        public static native int callInt32CallbackRepeatedly(Int32Callback cb, int arg, int arg2, int count);
+
+        static {
+            Native.register(LIBRARY);
+        }
+
+        private DirectTestLibrary() { }
+    }
+
+    @Structure.FieldOrder({"a", "b"})
+    public static class SmallStructure extends Structure {
+        public int a;
+        public int b;
+    }
+
+    @Structure.FieldOrder({"id", "value", "next", "data", "weights"})
+    public static class LargeStructure extends Structure {
+        public long id;
+        public double value;
+        public Pointer next;
+        public int[] data = new int[64];
+        public double[] weights = new double[16];
+    }
+
+    private static TestLibrary library;
+
+    /** @return the shared interface mapping of the test library */
+    public static synchronized TestLibrary library() {
+        if (library == null) {
+            library = Native.load(LIBRARY, TestLibrary.class);
+        }
+        return library;
+    }
+
+    private TestLibraries() { }
+}
@@ -0,0 +1,447 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor which checks the field order of JNA
+ * <code>Structure</code> subclasses and records their native layout, so
+ * that JNA does not need to derive it by reflection at runtime.
+ *
+ * <p>For each concrete <code>Structure</code> subclass compiled, the
+ * processor</p>
+ * <ul>
+ * <li>reports an error if the names given by <code>@FieldOrder</code> do
+ * not match the public fields, which JNA would otherwise only report when
+ * the structure is first instantiated;</li>
+ * <li>computes the size, alignment and field offsets for each ABI named by
+ * the <code>jna.abi</code> processor option, and writes them to
+ * <code>META-INF/jna/structure-layouts</code>.</li>
+ * </ul>
+ *
+ * <p>Layouts are only computed for structures whose fields are primitives,
+ * their wrappers, <code>String</code>, <code>WString</code>,
+ * <code>Pointer</code>, callbacks, structures by reference and nested
+ * structures with a computable layout, and which do not override any of the
+ * <code>Structure</code> methods involved in layout.  Array and
+ * <code>NativeMapped</code> fields are left to the runtime.</p>
+ *
+ * <p>An ABI is written as <code>p&lt;pointer size&gt;w&lt;wchar_t
+ * size&gt;a&lt;maximum alignment&gt;</code>, e.g. <code>p8w4a8</code> for
+ * linux-x86-64 and <code>p8w2a8</code> for win32-x86-64.  JNA only uses a
+ * layout whose ABI matches the running platform.</p>
+ */
+@SupportedAnnotationTypes("*")
+@SupportedOptions(StructureLayoutProcessor.OPTION_ABI)
+public class StructureLayoutProcessor extends AbstractProcessor {
+
+    /** Processor option listing the ABIs to compute layouts for. */
+    public static final String OPTION_ABI = "jna.abi";
+    /** Default ABIs: 64-bit unix and windows, 32-bit x86 unix, 32-bit arm, 32-bit windows. */
+    public static final String DEFAULT_ABI = "p8w4a8,p8w2a8,p4w4a4,p4w4a8,p4w2a8";
+    /** Resource holding the computed layouts. */
+    public static final String RESOURCE = "META-INF/jna/structure-layouts";
+
+    private static final String STRUCTURE = "com.sun.jna.Structure";
+    private static final String UNION = "com.sun.jna.Union";
+    private static final String FIELD_ORDER = "com.sun.jna.Structure.FieldOrder";
+    private static final String BY_REFERENCE = "com.sun.jna.Structure.ByReference";
+    private static final String POINTER = "com.sun.jna.Pointer";
+    private static final String FUNCTION = "com.sun.jna.Function";
+    private static final String CALLBACK = "com.sun.jna.Callback";
+    private static final String WSTRING = "com.sun.jna.WString";
+    /** Structure methods which, if overridden, may change the layout. */
+    private static final Set<String> LAYOUT_METHODS = new HashSet<>(Arrays.asList(
+        "getFieldOrder", "getFieldList", "getFields", "sortFields", "getNativeAlignment",
+        "getNativeSize", "calculateSize", "getStructAlignment"));
+
+    /** Layout of a structure for one ABI. */
+    static final class Layout {
+        int size;
+        int alignment = 1;
+        final List<String> fields = new ArrayList<>();
+    }
+
+    private static final class ABI {
+        final String key;
+        final int pointerSize;
+        final int wcharSize;
+        final int maxAlignment;
+
+        ABI(String key) {
+            if (!key.matches("p\\d+w\\d+a\\d+")) {
+                throw new IllegalArgumentException("Invalid ABI '" + key + "'");
+            }
+            this.key = key;
+            int w = key.indexOf('w');
+            int a = key.indexOf('a');
+            pointerSize = Integer.parseInt(key.substring(1, w));
+            wcharSize = Integer.parseInt(key.substring(w + 1, a));
+            maxAlignment = Integer.parseInt(key.substring(a + 1));
+        }
+    }
+
+    private Elements elements;
+    private Types types;
+    private final List<ABI> abis = new ArrayList<>();
+    private final Map<String, String> layouts = new TreeMap<>();
+    private final Set<String> processed = new HashSet<>();
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+        String option = processingEnv.getOptions().get(OPTION_ABI);
+        for (String key : (option != null ? option : DEFAULT_ABI).split(",")) {
+            try {
+                abis.add(new ABI(key.trim()));
+            }
+            catch(IllegalArgumentException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement structure = elements.getTypeElement(STRUCTURE);
+        if (structure == null) {
+            return false;
+        }
+        if (!roundEnv.processingOver()) {
+            Deque<TypeElement> queue = new ArrayDeque<>(ElementFilter.typesIn(roundEnv.getRootElements()));
+            while (!queue.isEmpty()) {
+                TypeElement type = queue.poll();
+                queue.addAll(ElementFilter.typesIn(type.getEnclosedElements()));
+                if (type.getKind() == ElementKind.CLASS
+                    && !type.getModifiers().contains(Modifier.ABSTRACT)
+                    && isSubtype(type.asType(), STRUCTURE)
+                    && processed.add(elements.getBinaryName(type).toString())) {
+                    process(type);
+                }
+            }
+        }
+        else if (!layouts.isEmpty()) {
+            writeLayouts();
+        }
+        return false;
+    }
+
+    private void process(TypeElement type) {
+        if (!checkFieldOrder(type)) {
+            return;
+        }
+        String name = elements.getBinaryName(type).toString();
+        for (ABI abi : abis) {
+            Layout layout = computeLayout(type, abi, new LinkedHashSet<TypeElement>());
+            if (layout != null) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(layout.size).append(',').append(layout.alignment);
+                for (String field : layout.fields) {
+                    sb.append(';').append(field);
+                }
+                layouts.put(name + "@" + abi.key, sb.toString());
+            }
+        }
+    }
+
+    /** Report field order names which do not match the public fields.
+     * @return whether the field order could be checked and matches
+     */
+    private boolean checkFieldOrder(TypeElement type) {
+        List<String> order = getFieldOrder(type);
+        if (order == null) {
+            return false;
+        }
+        Set<String> names = new LinkedHashSet<>();
+        for (VariableElement field : getFields(type)) {
+            names.add(field.getSimpleName().toString());
+        }
+        if (!new HashSet<>(order).equals(names) || order.size() != names.size()) {
+            List<String> sortedOrder = new ArrayList<>(order);
+            List<String> sortedNames = new ArrayList<>(names);
+            Collections.sort(sortedOrder);
+            Collections.sort(sortedNames);
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                "Structure field order " + sortedOrder
+                + " does not match declared public fields " + sortedNames, type);
+            return false;
+        }
+        return true;
+    }
+
+    /** @return the field order declared by annotations, or null if the
+     * class or a superclass computes its own layout
+     */
+    private List<String> getFieldOrder(TypeElement type) {
+        List<String> order = new ArrayList<>();
+        for (TypeElement t = type; t != null && !isStructureClass(t); t = superclass(t)) {
+            for (ExecutableElement method : ElementFilter.methodsIn(t.getEnclosedElements())) {
+                if (LAYOUT_METHODS.contains(method.getSimpleName().toString())) {
+                    return null;
+                }
+            }
+            List<String> names = getFieldOrderAnnotation(t);
+            if (names != null) {
+                order.addAll(0, names);
+            }
+        }
+        if (isSubtype(type.asType(), UNION)) {
+            // Unions use the declared fields as field order
+            order.clear();
+            for (VariableElement field : getFields(type)) {
+                order.add(field.getSimpleName().toString());
+            }
+        }
+        return order;
+    }
+
+    private List<String> getFieldOrderAnnotation(TypeElement type) {
+        for (AnnotationMirror mirror : type.getAnnotationMirrors()) {
+            TypeElement annotation = (TypeElement)mirror.getAnnotationType().asElement();
+            if (!FIELD_ORDER.equals(annotation.getQualifiedName().toString())) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e : mirror.getElementValues().entrySet()) {
+                if ("value".equals(e.getKey().getSimpleName().toString())) {
+                    List<String> names = new ArrayList<>();
+                    Object value = e.getValue().getValue();
+                    if (value instanceof List) {
+                        for (Object v : (List<?>)value) {
+                            names.add(String.valueOf(((AnnotationValue)v).getValue()));
+                        }
+                    }
+                    else {
+                        names.add(String.valueOf(value));
+                    }
+                    return names;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** @return public non-static fields of the class and its superclasses,
+     * superclass fields first
+     */
+    private List<VariableElement> getFields(TypeElement type) {
+        List<VariableElement> fields = new ArrayList<>();
+        for (TypeElement t = type; t != null && !isStructureClass(t); t = superclass(t)) {
+            List<VariableElement> declared = new ArrayList<>();
+            for (VariableElement field : ElementFilter.fieldsIn(t.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.PUBLIC) && !modifiers.contains(Modifier.STATIC)) {
+                    declared.add(field);
+                }
+            }
+            fields.addAll(0, declared);
+        }
+        return fields;
+    }
+
+    /** Compute the layout the way <code>Structure.deriveLayout</code> does
+     * for default alignment.
+     * @return the layout, or null if it can only be derived at runtime
+     */
+    Layout computeLayout(TypeElement type, ABI abi, Set<TypeElement> visiting) {
+        if (!visiting.add(type)) {
+            return null;
+        }
+        try {
+            List<String> order = getFieldOrder(type);
+            if (order == null) {
+                return null;
+            }
+            Map<String, VariableElement> fields = new LinkedHashMap<>();
+            for (VariableElement field : getFields(type)) {
+                fields.put(field.getSimpleName().toString(), field);
+            }
+            if (!fields.keySet().equals(new HashSet<>(order)) || fields.size() != order.size()) {
+                return null;
+            }
+            boolean union = isSubtype(type.asType(), UNION);
+            Layout layout = new Layout();
+            int calculatedSize = 0;
+            for (String name : order) {
+                TypeMirror fieldType = fields.get(name).asType();
+                int[] sizeAndAlignment = getSizeAndAlignment(fieldType, abi, visiting);
+                if (sizeAndAlignment == null) {
+                    return null;
+                }
+                int size = sizeAndAlignment[0];
+                int alignment = Math.min(abi.maxAlignment, sizeAndAlignment[1]);
+                layout.alignment = Math.max(layout.alignment, alignment);
+                if ((calculatedSize % alignment) != 0) {
+                    calculatedSize += alignment - (calculatedSize % alignment);
+                }
+                int offset;
+                if (union) {
+                    offset = 0;
+                    calculatedSize = Math.max(calculatedSize, size);
+                }
+                else {
+                    offset = calculatedSize;
+                    calculatedSize += size;
+                }
+                layout.fields.add(name + "," + typeName(fieldType) + "," + offset + "," + size);
+            }
+            if (calculatedSize == 0) {
+                return null;
+            }
+            if ((calculatedSize % layout.alignment) != 0) {
+                calculatedSize += layout.alignment - (calculatedSize % layout.alignment);
+            }
+            layout.size = calculatedSize;
+            return layout;
+        }
+        finally {
+            visiting.remove(type);
+        }
+    }
+
+    private int[] getSizeAndAlignment(TypeMirror type, ABI abi, Set<TypeElement> visiting) {
+        switch(type.getKind()) {
+        case BOOLEAN: return new int[] { 4, 4 };
+        case BYTE: return new int[] { 1, 1 };
+        case SHORT: return new int[] { 2, 2 };
+        case CHAR: return new int[] { abi.wcharSize, abi.wcharSize };
+        case INT: return new int[] { 4, 4 };
+        case LONG: return new int[] { 8, 8 };
+        case FLOAT: return new int[] { 4, 4 };
+        case DOUBLE: return new int[] { 8, 8 };
+        case DECLARED: break;
+        default: return null;
+        }
+        TypeElement element = (TypeElement)((DeclaredType)type).asElement();
+        String name = element.getQualifiedName().toString();
+        if (name.startsWith("java.lang.")) {
+            try {
+                return getSizeAndAlignment(types.unboxedType(type), abi, visiting);
+            }
+            catch(IllegalArgumentException e) {
+                // not a wrapper type
+            }
+        }
+        if ("java.lang.String".equals(name) || WSTRING.equals(name)
+            || (isSubtype(type, POINTER) && !isSubtype(type, FUNCTION))
+            || (isSubtype(type, CALLBACK) && element.getKind() == ElementKind.INTERFACE)
+            || (isSubtype(type, STRUCTURE) && isSubtype(type, BY_REFERENCE))) {
+            return new int[] { abi.pointerSize, abi.pointerSize };
+        }
+        // Nested structures are assumed to use default alignment; at run
+        // time the enclosing layout is only used if the nested structure's
+        // own layout was precomputed as well
+        if (isSubtype(type, STRUCTURE) && !element.getModifiers().contains(Modifier.ABSTRACT)) {
+            Layout nested = computeLayout(element, abi, visiting);
+            if (nested != null) {
+                return new int[] { nested.size, nested.alignment };
+            }
+        }
+        return null;
+    }
+
+    /** @return the name of the type as returned by <code>Class.getName()</code> */
+    private String typeName(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return type.toString();
+        }
+        return elements.getBinaryName((TypeElement)((DeclaredType)type).asElement()).toString();
+    }
+
+    private boolean isSubtype(TypeMirror type, String name) {
+        TypeElement element = elements.getTypeElement(name);
+        return element != null && types.isSubtype(types.erasure(type), types.erasure(element.asType()));
+    }
+
+    /** @return whether the class is one of the JNA base classes, whose
+     * layout methods are mirrored by this processor
+     */
+    private boolean isStructureClass(TypeElement type) {
+        String name = type.getQualifiedName().toString();
+        return STRUCTURE.equals(name) || UNION.equals(name);
+    }
+
+    private TypeElement superclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        return superclass.getKind() == TypeKind.DECLARED
+            ? (TypeElement)((DeclaredType)superclass).asElement() : null;
+    }
+
+    private void writeLayouts() {
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", RESOURCE);
+            try (Writer w = file.openWriter()) {
+                w.write("# JNA structure layouts, generated by " + getClass().getName() + "\n");
+                for (Map.Entry<String, String> e : layouts.entrySet()) {
+                    w.write(e.getKey() + "=" + e.getValue() + "\n");
+                }
+            }
+        }
+        catch(IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                "Failed to write " + RESOURCE + ": " + e.getMessage());
+        }
+    }
+}
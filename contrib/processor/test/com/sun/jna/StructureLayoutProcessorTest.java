@@ -0,0 +1,232 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import com.sun.jna.processor.StructureLayoutProcessor;
+
+import junit.framework.TestCase;
+
+public class StructureLayoutProcessorTest extends TestCase {
+
+    private static final String SAMPLES =
+        "package sample;\n"
+        + "import com.sun.jna.*;\n"
+        + "public class Samples {\n"
+        + "    public interface TestCallback extends Callback { void callback(); }\n"
+        + "    @Structure.FieldOrder({\"b\",\"i\",\"d\",\"p\",\"c\",\"s\"})\n"
+        + "    public static class Mixed extends Structure {\n"
+        + "        public byte b; public int i; public double d; public Pointer p; public char c; public short s;\n"
+        + "        public static class ByReference extends Mixed implements Structure.ByReference { }\n"
+        + "    }\n"
+        + "    @Structure.FieldOrder({\"x\",\"inner\",\"flag\"})\n"
+        + "    public static class Outer extends Structure {\n"
+        + "        public byte x; public Mixed inner; public boolean flag;\n"
+        + "    }\n"
+        + "    public static class OuterByValue extends Outer implements Structure.ByValue { }\n"
+        + "    @Structure.FieldOrder({\"extra\"})\n"
+        + "    public static class Extended extends Outer { public long extra; }\n"
+        + "    @Structure.FieldOrder({\"i\",\"l\",\"p\"})\n"
+        + "    public static class Choice extends Union { public int i; public long l; public Pointer p; }\n"
+        + "    @Structure.FieldOrder({\"ref\",\"text\",\"wide\",\"cb\",\"boxed\"})\n"
+        + "    public static class Refs extends Structure {\n"
+        + "        public Mixed.ByReference ref; public String text; public WString wide; public TestCallback cb; public Integer boxed;\n"
+        + "    }\n"
+        + "    @Structure.FieldOrder({\"count\",\"data\"})\n"
+        + "    public static class WithArray extends Structure { public int count; public byte[] data = new byte[3]; }\n"
+        + "    @Structure.FieldOrder({\"a\",\"b\"})\n"
+        + "    public static class CustomAlignment extends Structure {\n"
+        + "        public int a; public int b;\n"
+        + "        @Override protected int getNativeAlignment(Class<?> type, Object value, boolean first) { return 1; }\n"
+        + "    }\n"
+        + "}\n";
+
+    private static final String[] LAYOUT_CLASSES = {
+        "sample.Samples$Mixed", "sample.Samples$Mixed$ByReference", "sample.Samples$Outer",
+        "sample.Samples$OuterByValue", "sample.Samples$Extended", "sample.Samples$Choice",
+        "sample.Samples$Refs",
+    };
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("jna-processor").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        delete(dir);
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+
+    private List<Diagnostic<? extends JavaFileObject>> compile(String source, String... options) throws IOException {
+        File src = new File(dir, "src/sample/Samples.java");
+        src.getParentFile().mkdirs();
+        Files.write(src.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        File out = new File(dir, "classes");
+        out.mkdirs();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fm = compiler.getStandardFileManager(diagnostics, Locale.ROOT, StandardCharsets.UTF_8)) {
+            List<String> args = new ArrayList<>(Arrays.asList(
+                "-classpath", System.getProperty("java.class.path"),
+                "-d", out.getAbsolutePath(),
+                "-processor", StructureLayoutProcessor.class.getName()));
+            args.addAll(Arrays.asList(options));
+            compiler.getTask(null, fm, diagnostics, args, null, fm.getJavaFileObjects(src)).call();
+        }
+        return diagnostics.getDiagnostics();
+    }
+
+    private void assertCompiled(List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+        for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
+            assertFalse("Compilation failed: " + d, d.getKind() == Diagnostic.Kind.ERROR);
+        }
+    }
+
+    private Properties readLayouts() throws IOException {
+        Properties props = new Properties();
+        File resource = new File(dir, "classes/" + StructureLayoutProcessor.RESOURCE);
+        assertTrue("Layout resource not generated", resource.isFile());
+        try (InputStream is = new FileInputStream(resource)) {
+            props.load(is);
+        }
+        return props;
+    }
+
+    public void testGenerateLayouts() throws Exception {
+        assertCompiled(compile(SAMPLES));
+        Properties props = readLayouts();
+        for (String abi : StructureLayoutProcessor.DEFAULT_ABI.split(",")) {
+            for (String cls : LAYOUT_CLASSES) {
+                assertNotNull("Missing layout for " + cls + " on " + abi, props.getProperty(cls + "@" + abi));
+            }
+            assertNull("Array fields have no static layout", props.getProperty("sample.Samples$WithArray@" + abi));
+            assertNull("Custom alignment has no static layout", props.getProperty("sample.Samples$CustomAlignment@" + abi));
+        }
+        assertEquals("Wrong layout", "32,8;b,byte,0,1;i,int,4,4;d,double,8,8;p,com.sun.jna.Pointer,16,8;c,char,24,4;s,short,28,2",
+                     props.getProperty("sample.Samples$Mixed@p8w4a8"));
+        assertEquals("Wrong layout", "28,4;b,byte,0,1;i,int,4,4;d,double,8,8;p,com.sun.jna.Pointer,16,4;c,char,20,4;s,short,24,2",
+                     props.getProperty("sample.Samples$Mixed@p4w4a4"));
+        assertEquals("Wrong union layout", "8,8;i,int,0,4;l,long,0,8;p,com.sun.jna.Pointer,0,8",
+                     props.getProperty("sample.Samples$Choice@p8w4a8"));
+    }
+
+    public void testSelectABI() throws Exception {
+        assertCompiled(compile(SAMPLES, "-A" + StructureLayoutProcessor.OPTION_ABI + "=p8w4a8"));
+        Properties props = readLayouts();
+        assertNotNull("Missing requested ABI", props.getProperty("sample.Samples$Mixed@p8w4a8"));
+        assertNull("Unrequested ABI", props.getProperty("sample.Samples$Mixed@p4w4a4"));
+    }
+
+    public void testReportFieldOrderMismatch() throws Exception {
+        String source = SAMPLES.replace("{\"b\",\"i\",\"d\",\"p\",\"c\",\"s\"}", "{\"b\",\"i\",\"d\",\"p\",\"c\"}");
+        boolean reported = false;
+        for (Diagnostic<? extends JavaFileObject> d : compile(source)) {
+            if (d.getKind() == Diagnostic.Kind.ERROR && d.getMessage(Locale.ROOT).contains("field order")) {
+                reported = true;
+            }
+        }
+        assertTrue("Field order mismatch should fail compilation", reported);
+    }
+
+    /** The precomputed layout for this platform must match the layout JNA
+     * derives at runtime.
+     */
+    public void testLayoutsMatchRuntime() throws Exception {
+        assertCompiled(compile(SAMPLES));
+        Properties props = readLayouts();
+        String abi = StructureLayouts.getABI(Platform.isWindows() ? Structure.ALIGN_MSVC : Structure.ALIGN_GNUC);
+        if (abi == null) {
+            return;
+        }
+        // Load the classes without the resource, so layouts are derived
+        new File(dir, "classes/" + StructureLayoutProcessor.RESOURCE).delete();
+        Method fieldOffset = Structure.class.getDeclaredMethod("fieldOffset", String.class);
+        fieldOffset.setAccessible(true);
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { new File(dir, "classes").toURI().toURL() },
+                                                        getClass().getClassLoader())) {
+            for (String cls : LAYOUT_CLASSES) {
+                String value = props.getProperty(cls + "@" + abi);
+                if (value == null) {
+                    continue;
+                }
+                StructureLayouts.Layout layout = StructureLayouts.parse(value);
+                Structure s = (Structure)loader.loadClass(cls).getConstructor().newInstance();
+                assertEquals("Wrong size for " + cls, s.size(), layout.size);
+                for (int i=0;i < layout.names.length;i++) {
+                    assertEquals("Wrong offset of " + layout.names[i] + " in " + cls,
+                                 ((Integer)fieldOffset.invoke(s, layout.names[i])).intValue(), layout.offsets[i]);
+                }
+            }
+        }
+    }
+
+    public void testRuntimeUsesLayouts() throws Exception {
+        assertCompiled(compile(SAMPLES));
+        String abi = StructureLayouts.getABI(Platform.isWindows() ? Structure.ALIGN_MSVC : Structure.ALIGN_GNUC);
+        if (abi == null) {
+            return;
+        }
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { new File(dir, "classes").toURI().toURL() },
+                                                        getClass().getClassLoader())) {
+            Class<?> cls = loader.loadClass("sample.Samples$Outer");
+            assertNotNull("Layout not found at runtime", StructureLayouts.get(cls, abi));
+            Structure s = (Structure)cls.getConstructor().newInstance();
+            assertEquals("Wrong size", StructureLayouts.get(cls, abi).size, s.size());
+            s.getPointer().setByte(0, (byte)42);
+            s.read();
+            assertEquals("Field not read from precomputed offset", Byte.valueOf((byte)42), s.readField("x"));
+        }
+    }
+}
@@ -39,6 +39,7 @@
 #  include <sys/types.h>
 #  include <sys/param.h>
 #  include <pthread.h>
+#  include <sched.h>
 #  define PTHREADS
 #  define TLS_SET(KEY,VALUE) (pthread_setspecific(KEY,VALUE)==0)
 #  define TLS_GET(KEY) pthread_getspecific(KEY)
@@ -96,6 +97,10 @@ typedef struct _tls {
   int* termination_flag;
   jboolean jvm_thread;
   jboolean needs_detach;
+  // Set to JNI_TRUE while a callback runs which had to attach the thread
+  jboolean callback_attached;
+  // Recent native calls, if traced
+  call_trace* trace;
   char name[256];
 } thread_storage;
 
@@ -330,9 +335,169 @@ create_callback(JNIEnv* env, jobject obj, jobject method,
 
   return NULL;
 }
+/* Atomic access to the positions of an event ring */
+#ifdef _MSC_VER
+#define RING_LOAD(P) ((size_t)InterlockedCompareExchangePointer((PVOID volatile*)(P), NULL, NULL))
+#define RING_STORE(P,V) InterlockedExchangePointer((PVOID volatile*)(P), (PVOID)(V))
+#define RING_CAS(P,E,V) (InterlockedCompareExchangePointer((PVOID volatile*)(P), (PVOID)(V), (PVOID)(E)) == (PVOID)(E))
+#else
+#define RING_LOAD(P) __atomic_load_n((P), __ATOMIC_ACQUIRE)
+#define RING_STORE(P,V) __atomic_store_n((P), (V), __ATOMIC_RELEASE)
+#define RING_CAS(P,E,V) __sync_bool_compare_and_swap((P), (E), (V))
+#endif
+#ifdef _WIN32
+#define RING_YIELD() SwitchToThread()
+#else
+#define RING_YIELD() sched_yield()
+#endif
+
+#define RING_SLOT(RING,POS) ((RING)->slots + ((POS) & (RING)->mask) * (RING)->slot_size)
+#define RING_HEADER_SIZE sizeof(jlong)
+
+/* Policies when the ring is full, see CallbackRingBuffer.OverflowPolicy */
+#define RING_POLICY_DROP 0
+#define RING_POLICY_BLOCK 1
+
+/* Closure handler for event rings.  Copies the arguments into the next free
+ * slot; does not call into the VM.
+ */
+static void
+event_ring_dispatch(ffi_cif* cif, void* resp, void** args, void* user_data) {
+  event_ring* ring = (event_ring*)user_data;
+  size_t pos;
+  char* slot;
+  char* record;
+  unsigned i;
+
+  if (cif->rtype->type != FFI_TYPE_VOID) {
+    memset(resp, 0, cif->rtype->size > sizeof(ffi_arg) ? cif->rtype->size : sizeof(ffi_arg));
+  }
+  for (;;) {
+    size_t seq;
+    pos = RING_LOAD(&ring->enqueue_pos);
+    slot = RING_SLOT(ring, pos);
+    seq = RING_LOAD((size_t*)slot);
+    if (seq == pos) {
+      if (RING_CAS(&ring->enqueue_pos, pos, pos + 1)) {
+        break;
+      }
+    }
+    else if ((ptrdiff_t)(seq - pos) < 0) {
+      // Full; the consumer has not yet released this slot
+      if (ring->policy == RING_POLICY_DROP) {
+        size_t dropped;
+        do {
+          dropped = RING_LOAD(&ring->dropped);
+        } while (!RING_CAS(&ring->dropped, dropped, dropped + 1));
+        return;
+      }
+      RING_YIELD();
+    }
+    // Otherwise another producer claimed the slot; retry
+  }
+  record = slot + RING_HEADER_SIZE;
+  for (i=0;i < cif->nargs;i++) {
+    memcpy(record + i * sizeof(jlong), args[i], cif->arg_types[i]->size);
+  }
+  RING_STORE((size_t*)slot, pos + 1);
+}
+
+event_ring*
+create_event_ring(JNIEnv* env, ffi_type** arg_types, int argc,
+                  ffi_type* return_type, callconv_t calling_convention,
+                  jint capacity, jint policy) {
+  ffi_abi abi = (calling_convention == CALLCONV_C
+                 ? FFI_DEFAULT_ABI : (ffi_abi)calling_convention);
+  ffi_status status;
+  event_ring* ring;
+  size_t i;
+
+#if defined(_WIN32)
+  if (calling_convention == CALLCONV_STDCALL) {
+#if defined(_WIN64) || defined(_WIN32_WCE)
+    abi = FFI_DEFAULT_ABI;
+#else
+    abi = FFI_STDCALL;
+#endif
+  }
+#endif // _WIN32
+
+  ring = (event_ring*)calloc(1, sizeof(event_ring));
+  if (ring == NULL) {
+    free(arg_types);
+    throwByName(env, EOutOfMemory, "Can't allocate event ring");
+    return NULL;
+  }
+  ring->arg_types = arg_types;
+  ring->record_size = argc * sizeof(jlong);
+  ring->slot_size = RING_HEADER_SIZE + ring->record_size;
+  ring->mask = (size_t)capacity - 1;
+  ring->policy = policy;
+  ring->slots = (char*)malloc(ring->slot_size * capacity);
+  ring->closure = ffi_closure_alloc(sizeof(ffi_closure), &ring->x_closure);
+  if (ring->slots == NULL || ring->closure == NULL) {
+    free_event_ring(ring);
+    throwByName(env, EOutOfMemory, "Can't allocate event ring");
+    return NULL;
+  }
+  for (i=0;i < (size_t)capacity;i++) {
+    *(size_t*)(ring->slots + i * ring->slot_size) = i;
+  }
+  status = ffi_prep_cif(&ring->cif, abi, argc, return_type, ring->arg_types);
+  if (ffi_error(env, "event ring setup", status)) {
+    free_event_ring(ring);
+    return NULL;
+  }
+  status = ffi_prep_closure_loc(ring->closure, &ring->cif, event_ring_dispatch,
+                                ring, ring->x_closure);
+  if (ffi_error(env, "event ring setup (2)", status)) {
+    free_event_ring(ring);
+    return NULL;
+  }
+  return ring;
+}
+
+void
+free_event_ring(event_ring* ring) {
+  if (ring->closure) {
+    ffi_closure_free(ring->closure);
+  }
+  free(ring->arg_types);
+  free(ring->slots);
+  free(ring);
+}
+
+/* Copy up to max published records into buf and release their slots.  Only
+ * one thread may drain a ring at a time.
+ */
+jint
+drain_event_ring(event_ring* ring, char* buf, jint max) {
+  size_t pos = ring->dequeue_pos;
+  jint count = 0;
+  while (count < max) {
+    char* slot = RING_SLOT(ring, pos);
+    if (RING_LOAD((size_t*)slot) != pos + 1) {
+      break;
+    }
+    memcpy(buf + count * ring->record_size, slot + RING_HEADER_SIZE, ring->record_size);
+    RING_STORE((size_t*)slot, pos + ring->mask + 1);
+    ++pos;
+    ++count;
+  }
+  ring->dequeue_pos = pos;
+  return count;
+}
+
+size_t
+event_ring_dropped(event_ring* ring) {
+  return RING_LOAD(&ring->dropped);
+}
+
 void 
 free_callback(JNIEnv* env, callback *cb) {
-  (*env)->DeleteWeakGlobalRef(env, cb->object);
+  if (cb->object) {
+    (*env)->DeleteWeakGlobalRef(env, cb->object);
+  }
   ffi_closure_free(cb->closure);
   free(cb->arg_types);
   if (cb->arg_classes) {
@@ -361,6 +526,18 @@ free_callback(JNIEnv* env, callback *cb) {
   free(cb);
 }
 
+/* Bind an existing trampoline to a different callback object of the same
+   signature, or to none while the trampoline is unused. */
+void
+rebind_callback(JNIEnv* env, callback *cb, jobject obj) {
+  jobject old = cb->object;
+  cb->object = obj ? (*env)->NewWeakGlobalRef(env, obj) : NULL;
+  cb->behavior_flags = 0;
+  if (old) {
+    (*env)->DeleteWeakGlobalRef(env, old);
+  }
+}
+
 static int
 handle_exception(JNIEnv* env, jobject cb, jthrowable throwable) {
 #define HANDLER_TYPE "com/sun/jna/Callback$UncaughtExceptionHandler"
@@ -608,6 +785,10 @@ static void dispose_thread_data(void* data) {
   if (tls->termination_flag && detached) {
     *(tls->termination_flag) = JNI_TRUE;
   }
+  if (tls->trace) {
+    // Keep the records until another thread takes over the buffer
+    RING_STORE(&tls->trace->owner, NULL);
+  }
   free(data);
 }
 
@@ -680,6 +861,75 @@ JNA_get_last_error(JNIEnv* env) {
   return 0;
 }
 
+/** Whether the current callback attached its thread to the VM */
+jboolean
+JNA_callback_attached(JNIEnv* env) {
+  thread_storage* tls = get_thread_storage(env);
+  return tls ? tls->callback_attached : JNI_FALSE;
+}
+
+/** Record the Java ID and name of the current thread in its call trace. */
+static void
+identify_call_trace(JNIEnv* env, call_trace* trace) {
+  jclass cls = (*env)->FindClass(env, "java/lang/Thread");
+  jmethodID current = cls ? (*env)->GetStaticMethodID(env, cls, "currentThread", "()Ljava/lang/Thread;") : NULL;
+  jobject thread = current ? (*env)->CallStaticObjectMethod(env, cls, current) : NULL;
+  trace->thread_id = 0;
+  trace->thread_name[0] = 0;
+  if (thread) {
+    jmethodID get_id = (*env)->GetMethodID(env, cls, "getId", "()J");
+    jmethodID get_name = (*env)->GetMethodID(env, cls, "getName", "()Ljava/lang/String;");
+    jstring name = get_name ? (jstring)(*env)->CallObjectMethod(env, thread, get_name) : NULL;
+    if (get_id) {
+      trace->thread_id = (*env)->CallLongMethod(env, thread, get_id);
+    }
+    if (name) {
+      const char* chars = (*env)->GetStringUTFChars(env, name, NULL);
+      if (chars) {
+        strncpy(trace->thread_name, chars, sizeof(trace->thread_name) - 1);
+        trace->thread_name[sizeof(trace->thread_name) - 1] = 0;
+        (*env)->ReleaseStringUTFChars(env, name, chars);
+      }
+    }
+  }
+  // The trace is only informative
+  (*env)->ExceptionClear(env);
+}
+
+/** The call trace of the current thread, taken over from a terminated
+ * thread or allocated on first use.
+ */
+call_trace*
+JNA_call_trace(JNIEnv* env) {
+  thread_storage* tls = get_thread_storage(env);
+  call_trace* trace;
+  if (!tls) {
+    return NULL;
+  }
+  if (tls->trace) {
+    return tls->trace;
+  }
+  for (trace = (call_trace*)RING_LOAD(&jna_call_traces);trace;trace = trace->next) {
+    if (!RING_LOAD(&trace->owner) && RING_CAS(&trace->owner, NULL, tls)) {
+      break;
+    }
+  }
+  if (!trace) {
+    trace = (call_trace*)calloc(1, sizeof(call_trace));
+    if (!trace) {
+      return NULL;
+    }
+    trace->owner = tls;
+    do {
+      trace->next = (call_trace*)RING_LOAD(&jna_call_traces);
+    } while (!RING_CAS(&jna_call_traces, trace->next, trace));
+  }
+  trace->count = 0;
+  identify_call_trace(env, trace);
+  tls->trace = trace;
+  return trace;
+}
+
 static void
 dispatch_callback(ffi_cif* cif, void* resp, void** cbargs, void* user_data) {
   callback* cb = ((callback *)user_data); 
@@ -745,7 +995,10 @@ dispatch_callback(ffi_cif* cif, void* resp, void** cbargs, void* user_data) {
     fprintf(stderr, "JNA: Out of memory: Can't allocate local frame\n");
   }
   else {
+    jboolean callback_attached = tls->callback_attached;
+    tls->callback_attached = was_attached ? JNI_FALSE : JNI_TRUE;
     invoke_callback(env, cb, cif, resp, cbargs);
+    tls->callback_attached = callback_attached;
     // Make note of whether the callback wants to avoid detach
     needs_detach = tls->needs_detach && !tls->jvm_thread;
     (*env)->PopLocalFrame(env, NULL);
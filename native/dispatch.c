@@ -36,6 +36,7 @@
 #define WIN32_LEAN_AND_MEAN
 #include <windows.h>
 #include <psapi.h>
+#include <malloc.h>
 #define STRTYPE wchar_t*
 #define NAME2CSTR(ENV,JSTR) newWideCString(ENV,JSTR)
 #ifdef _WIN32_WCE
@@ -62,6 +63,8 @@
 #include <dlfcn.h>
 #include <errno.h>
 #include <assert.h>
+#include <sys/mman.h>
+#include <time.h>
 #define STRTYPE char*
 #ifdef USE_DEFAULT_LIBNAME_ENCODING
 #define NAME2CSTR(ENV,JSTR) newCString(ENV,JSTR)
@@ -163,6 +166,7 @@ static jclass classLong, classPrimitiveLong;
 static jclass classFloat, classPrimitiveFloat;
 static jclass classDouble, classPrimitiveDouble;
 static jclass classString, classWString;
+static jclass classByteArray;
 #ifndef NO_NIO_BUFFERS
 static jclass classBuffer;
 static jclass classByteBuffer;
@@ -458,6 +462,223 @@ ffi_error(JNIEnv* env, const char* op, ffi_status status) {
   }
 }
 
+/* Per-function accounting of wall and thread CPU time spent in native
+ * calls, keyed by function address in an open addressing table which is
+ * never shrunk, so that entries can be claimed without locking.
+ */
+#define CALL_TIMES_SIZE 4096
+#ifdef _MSC_VER
+#define CT_LOAD(P) InterlockedCompareExchangePointer((PVOID volatile*)(P), NULL, NULL)
+#define CT_CAS(P,E,V) (InterlockedCompareExchangePointer((PVOID volatile*)(P), (PVOID)(V), (PVOID)(E)) == (PVOID)(E))
+#define CT_ADD(P,V) InterlockedExchangeAdd64((LONGLONG volatile*)(P), (V))
+#define CT_STORE(P,V) InterlockedExchange64((LONGLONG volatile*)(P), (V))
+#define CT_GET(P,RESET) ((RESET) ? InterlockedExchange64((LONGLONG volatile*)(P), 0) : InterlockedCompareExchange64((LONGLONG volatile*)(P), 0, 0))
+#else
+#define CT_LOAD(P) __atomic_load_n((P), __ATOMIC_ACQUIRE)
+#define CT_CAS(P,E,V) __sync_bool_compare_and_swap((P), (E), (V))
+#define CT_ADD(P,V) __atomic_fetch_add((P), (V), __ATOMIC_RELAXED)
+#define CT_STORE(P,V) __atomic_store_n((P), (V), __ATOMIC_RELEASE)
+#define CT_GET(P,RESET) ((RESET) ? __atomic_exchange_n((P), 0, __ATOMIC_RELAXED) : __atomic_load_n((P), __ATOMIC_RELAXED))
+#endif
+
+typedef struct _call_times {
+  void* volatile fptr;
+  volatile jlong calls;
+  volatile jlong wall_time;
+  volatile jlong cpu_time;
+} call_times;
+
+typedef struct _call_clock {
+  jlong wall_time;
+  jlong cpu_time;
+} call_clock;
+
+static call_times* volatile call_times_table;
+static volatile int call_timing;
+
+/** Monotonic clock in nanoseconds, as used by System.nanoTime */
+static jlong
+monotonic_nanos() {
+#ifdef _WIN32
+  static LARGE_INTEGER frequency;
+  LARGE_INTEGER counter;
+  if (!frequency.QuadPart) {
+    QueryPerformanceFrequency(&frequency);
+  }
+  QueryPerformanceCounter(&counter);
+  return (jlong)((double)counter.QuadPart * 1e9 / (double)frequency.QuadPart);
+#else
+  struct timespec ts;
+  clock_gettime(CLOCK_MONOTONIC, &ts);
+  return (jlong)ts.tv_sec * 1000000000 + ts.tv_nsec;
+#endif
+}
+
+static void
+call_clock_read(call_clock* clock) {
+#ifdef _WIN32
+  FILETIME created, exited, kernel, user;
+  clock->wall_time = monotonic_nanos();
+  // Windows only updates thread times at the scheduler tick
+  if (GetThreadTimes(GetCurrentThread(), &created, &exited, &kernel, &user)) {
+    clock->cpu_time = ((((jlong)kernel.dwHighDateTime << 32) | kernel.dwLowDateTime)
+                       + (((jlong)user.dwHighDateTime << 32) | user.dwLowDateTime)) * 100;
+  }
+  else {
+    clock->cpu_time = 0;
+  }
+#else
+  clock->wall_time = monotonic_nanos();
+#ifdef CLOCK_THREAD_CPUTIME_ID
+  struct timespec ts;
+  if (clock_gettime(CLOCK_THREAD_CPUTIME_ID, &ts) == 0) {
+    clock->cpu_time = (jlong)ts.tv_sec * 1000000000 + ts.tv_nsec;
+  }
+  else
+#endif
+  {
+    clock->cpu_time = 0;
+  }
+#endif
+}
+
+/** Add the time elapsed since the given start to the counters of the given
+ * function.  Functions which find the table full are not counted.
+ */
+static void
+call_times_add(void* fptr, const call_clock* start) {
+  call_times* table = call_times_table;
+  call_clock end;
+  size_t i, n;
+
+  call_clock_read(&end);
+  i = ((size_t)fptr >> 4) * 2654435761u;
+  for (n=0;n < CALL_TIMES_SIZE;n++) {
+    call_times* entry = &table[(i + n) & (CALL_TIMES_SIZE - 1)];
+    void* key = CT_LOAD(&entry->fptr);
+    if (key == NULL) {
+      if (!CT_CAS(&entry->fptr, NULL, fptr)) {
+        key = CT_LOAD(&entry->fptr);
+      }
+      else {
+        key = fptr;
+      }
+    }
+    if (key == fptr) {
+      CT_ADD(&entry->calls, 1);
+      CT_ADD(&entry->wall_time, end.wall_time - start->wall_time);
+      CT_ADD(&entry->cpu_time, end.cpu_time - start->cpu_time);
+      return;
+    }
+  }
+}
+
+/* Per-thread rings of the most recent native calls; the list head is
+ * exported so that crash handlers and debuggers can find it.
+ */
+JNIEXPORT call_trace* volatile jna_call_traces;
+static volatile int call_tracing;
+
+/** Record the start of a call in the current thread's trace.
+ * @return the record, to be completed with the end time, or NULL
+ */
+static call_trace_record*
+call_trace_begin(JNIEnv* env, void* fptr, int nargs) {
+  call_trace* trace = JNA_call_trace(env);
+  call_trace_record* record;
+  if (!trace) {
+    return NULL;
+  }
+  record = &trace->records[trace->count & (CALL_TRACE_SIZE - 1)];
+  record->end = 0;
+  record->fptr = fptr;
+  record->nargs = nargs;
+  record->start = monotonic_nanos();
+  // Only this thread writes the count; publish the record with it
+  CT_STORE(&trace->count, trace->count + 1);
+  return record;
+}
+
+#ifdef _WIN32
+#include <io.h>
+#define TRACE_WRITE(FD,BUF,LEN) _write(FD,BUF,(unsigned)(LEN))
+#else
+#include <unistd.h>
+#define TRACE_WRITE(FD,BUF,LEN) write(FD,BUF,LEN)
+#endif
+
+/** Append a number, without using any library function. */
+static char*
+trace_number(char* p, unsigned long long value, unsigned base) {
+  char digits[32];
+  int n = 0;
+  do {
+    digits[n++] = "0123456789abcdef"[value % base];
+    value /= base;
+  } while (value);
+  while (n) {
+    *p++ = digits[--n];
+  }
+  return p;
+}
+
+static char*
+trace_string(char* p, const char* s, size_t max) {
+  while (*s && max--) {
+    *p++ = *s++;
+  }
+  return p;
+}
+
+/** Write the call traces of all threads to the given file descriptor.
+ * Only async-signal-safe functions are used, so that a signal or crash
+ * handler may call this.  Times are those of the monotonic clock, in
+ * nanoseconds; calls still in progress have no end time.
+ */
+JNIEXPORT void
+jna_dump_call_trace(int fd) {
+  call_trace* trace;
+  char line[256];
+  char* p = trace_string(line, "JNA call trace at ", 32);
+  p = trace_number(p, (unsigned long long)monotonic_nanos(), 10);
+  *p++ = '\n';
+  TRACE_WRITE(fd, line, p - line);
+  for (trace = jna_call_traces;trace;trace = trace->next) {
+    jlong count = trace->count;
+    jlong i = count > CALL_TRACE_SIZE ? count - CALL_TRACE_SIZE : 0;
+    if (!count) {
+      continue;
+    }
+    p = trace_string(line, "thread \"", 16);
+    p = trace_string(p, trace->thread_name, sizeof(trace->thread_name));
+    p = trace_string(p, "\" id=", 16);
+    p = trace_number(p, (unsigned long long)trace->thread_id, 10);
+    if (!trace->owner) {
+      p = trace_string(p, " (terminated)", 16);
+    }
+    *p++ = '\n';
+    TRACE_WRITE(fd, line, p - line);
+    for (;i < count;i++) {
+      call_trace_record* record = &trace->records[i & (CALL_TRACE_SIZE - 1)];
+      p = trace_string(line, "  0x", 8);
+      p = trace_number(p, (unsigned long long)(size_t)record->fptr, 16);
+      p = trace_string(p, " args=", 8);
+      p = trace_number(p, (unsigned long long)record->nargs, 10);
+      p = trace_string(p, " start=", 8);
+      p = trace_number(p, (unsigned long long)record->start, 10);
+      if (record->end) {
+        p = trace_string(p, " end=", 8);
+        p = trace_number(p, (unsigned long long)record->end, 10);
+      }
+      else {
+        p = trace_string(p, " in progress", 16);
+      }
+      *p++ = '\n';
+      TRACE_WRITE(fd, line, p - line);
+    }
+  }
+}
+
 /* invoke the real native function */
 static void
 dispatch(JNIEnv *env, void* func, jint flags, jobjectArray args,
@@ -685,11 +906,23 @@ dispatch(JNIEnv *env, void* func, jint flags, jobjectArray args,
     ? ffi_prep_cif_var(&cif, abi, fixed_args, nargs, return_type, arg_types)
     : ffi_prep_cif(&cif, abi, nargs, return_type, arg_types);
   if (!ffi_error(env, "Native call setup", status)) {
+    call_clock start;
+    int timed = call_timing;
+    call_trace_record* trace = call_tracing ? call_trace_begin(env, func, nargs) : NULL;
     PSTART();
     if ((flags & THROW_LAST_ERROR) != 0) {
       SET_LAST_ERROR(0);
     }
+    if (timed) {
+      call_clock_read(&start);
+    }
     ffi_call(&cif, FFI_FN(func), presult, arg_values);
+    if (timed) {
+      call_times_add(func, &start);
+    }
+    if (trace) {
+      trace->end = monotonic_nanos();
+    }
     {
       int err = GET_LAST_ERROR();
       JNA_set_last_error(env, err);
@@ -1421,6 +1654,7 @@ JNA_init(JNIEnv* env) {
   if (!LOAD_CREF(env, Class, "java/lang/Class")) return "java.lang.Class";
   if (!LOAD_CREF(env, Method, "java/lang/reflect/Method")) return "java.lang.reflect.Method";
   if (!LOAD_CREF(env, String, "java/lang/String")) return "java.lang.String";
+  if (!LOAD_CREF(env, ByteArray, "[B")) return "byte[]";
 #ifndef NO_NIO_BUFFERS
   if (!LOAD_CREF(env, Buffer, "java/nio/Buffer")) return "java.nio.Buffer";
   if (!LOAD_CREF(env, ByteBuffer, "java/nio/ByteBuffer")) return "java.nio.ByteBuffer";
@@ -1767,8 +2001,48 @@ typedef struct _method_data {
   jobject  from_native;
   jboolean throw_last_error;
   const char* encoding;
+  // Receives the boxed arguments and result around each call, if not NULL
+  jobject interceptor;
+  jmethodID before_invoke;
+  jmethodID after_invoke;
+  // JNI signature characters of the Java arguments and result, used to
+  // box them for the interceptor ('*' for objects)
+  char*   jtypes;
+  char    rjtype;
 } method_data;
 
+/** Store the JNI type character of each argument and of the result of the
+    given method signature, using '*' for objects and arrays.
+ */
+static void
+parse_java_types(const char* sig, char* jtypes, int argc, char* rjtype) {
+  const char* p = sig + 1;
+  int i;
+  for (i=0;i <= argc && *p;i++) {
+    char jtype = *p;
+    if (jtype == ')') {
+      jtype = *++p;
+    }
+    while (*p == '[') {
+      ++p;
+    }
+    if (*p == 'L') {
+      const char* end = strchr(p, ';');
+      p = end ? end : p + strlen(p) - 1;
+    }
+    ++p;
+    if (jtype == 'L' || jtype == '[') {
+      jtype = '*';
+    }
+    if (i < argc) {
+      jtypes[i] = jtype;
+    }
+    else {
+      *rjtype = jtype;
+    }
+  }
+}
+
 /** Direct invocation glue.  VM vectors to this callback, which in turn calls
     native code
 */
@@ -1787,6 +2061,27 @@ dispatch_direct(ffi_cif* cif, void* volatile resp, void** argp, void *cdata) {
   const char* volatile throw_type = NULL;
   const char* volatile throw_msg = NULL;
   char msg[MSG_SIZE];
+  jobjectArray volatile intercepted_args = NULL;
+  jobject volatile intercepted_context = NULL;
+
+  if (data->interceptor) {
+    // Pass the Java arguments, before any conversion
+    intercepted_args = (*env)->NewObjectArray(env, data->cif.nargs, classObject, NULL);
+    if (intercepted_args == NULL) {
+      return;
+    }
+    for (i=0;i < data->cif.nargs;i++) {
+      int jtype = data->jtypes[i];
+      jobject arg = jtype == '*'
+        ? *(void **)args[i]
+        : new_object(env, (char)jtype, args[i], JNI_FALSE, NULL);
+      (*env)->SetObjectArrayElement(env, intercepted_args, i, arg);
+    }
+    intercepted_context = (*env)->CallObjectMethod(env, data->interceptor, data->before_invoke, intercepted_args);
+    if ((*env)->ExceptionCheck(env)) {
+      return;
+    }
+  }
 
   if (data->flags) {
     objects = alloca(data->cif.nargs * sizeof(void*));
@@ -1932,11 +2227,23 @@ dispatch_direct(ffi_cif* cif, void* volatile resp, void** argp, void *cdata) {
   }
 
   {
+    call_clock start;
+    int timed = call_timing;
+    call_trace_record* trace = call_tracing ? call_trace_begin(env, data->fptr, data->cif.nargs) : NULL;
     PSTART();
     if (data->throw_last_error) {
       SET_LAST_ERROR(0);
     }
+    if (timed) {
+      call_clock_read(&start);
+    }
     ffi_call(&data->cif, FFI_FN(data->fptr), resp, args);
+    if (timed) {
+      call_times_add(data->fptr, &start);
+    }
+    if (trace) {
+      trace->end = monotonic_nanos();
+    }
     {
       int err = GET_LAST_ERROR();
       JNA_set_last_error(env, err);
@@ -2046,6 +2353,30 @@ dispatch_direct(ffi_cif* cif, void* volatile resp, void** argp, void *cdata) {
     }
   }
 
+  if (data->interceptor) {
+    jobject result = NULL;
+    jthrowable error = NULL;
+    if (throw_type) {
+      throwByName(env, throw_type, throw_msg);
+      throw_type = NULL;
+    }
+    if ((*env)->ExceptionCheck(env)) {
+      error = (*env)->ExceptionOccurred(env);
+      (*env)->ExceptionClear(env);
+    }
+    else if (data->closure_cif.rtype->type != FFI_TYPE_VOID) {
+      int jtype = data->rjtype;
+      result = jtype == '*'
+        ? *(void **)oldresp
+        : new_object(env, (char)jtype, oldresp, JNI_TRUE, NULL);
+    }
+    (*env)->CallVoidMethod(env, data->interceptor, data->after_invoke,
+                           intercepted_args, result, error, intercepted_context);
+    if (error && !(*env)->ExceptionCheck(env)) {
+      (*env)->Throw(env, error);
+    }
+  }
+
   if (throw_type) {
     throwByName(env, throw_type, throw_msg);
   }
@@ -2248,6 +2579,87 @@ Java_com_sun_jna_Native_freeNativeCallback(JNIEnv *env,
   free_callback(env, (callback*)L2A(ptr));
 }
 
+/*
+ * Class:     Native
+ * Method:    rebindNativeCallback
+ * Signature: (JLcom/sun/jna/Callback;)V
+ */
+JNIEXPORT void JNICALL
+Java_com_sun_jna_Native_rebindNativeCallback(JNIEnv *env,
+                                             jclass UNUSED(cls),
+                                             jlong ptr,
+                                             jobject obj) {
+  rebind_callback(env, (callback*)L2A(ptr), obj);
+}
+
+/*
+ * Class:     Native
+ * Method:    createEventRing
+ * Signature: ([JJIII)J
+ */
+JNIEXPORT jlong JNICALL
+Java_com_sun_jna_Native_createEventRing(JNIEnv *env, jclass UNUSED(cls),
+                                        jlongArray arg_types, jlong return_type,
+                                        jint call_conv, jint capacity,
+                                        jint policy) {
+  jsize argc = (*env)->GetArrayLength(env, arg_types);
+  ffi_type** types = (ffi_type**)calloc(argc > 0 ? argc : 1, sizeof(ffi_type*));
+  jlong* values;
+  jsize i;
+  if (types == NULL) {
+    throwByName(env, EOutOfMemory, "Can't allocate event ring");
+    return 0;
+  }
+  values = (*env)->GetLongArrayElements(env, arg_types, NULL);
+  if (values == NULL) {
+    free(types);
+    return 0;
+  }
+  for (i=0;i < argc;i++) {
+    types[i] = (ffi_type*)L2A(values[i]);
+  }
+  (*env)->ReleaseLongArrayElements(env, arg_types, values, JNI_ABORT);
+  return A2L(create_event_ring(env, types, argc, (ffi_type*)L2A(return_type),
+                               (callconv_t)call_conv, capacity, policy));
+}
+
+/*
+ * Class:     Native
+ * Method:    freeEventRing
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL
+Java_com_sun_jna_Native_freeEventRing(JNIEnv *UNUSED(env), jclass UNUSED(cls),
+                                      jlong ring) {
+  free_event_ring((event_ring*)L2A(ring));
+}
+
+/*
+ * Class:     Native
+ * Method:    drainEventRing
+ * Signature: (JJI)I
+ */
+JNIEXPORT jint JNICALL
+Java_com_sun_jna_Native_drainEventRing(JNIEnv *env, jclass UNUSED(cls),
+                                       jlong ring, jlong buf, jint max) {
+  volatile jint count = 0;
+  PSTART();
+  count = drain_event_ring((event_ring*)L2A(ring), (char*)L2A(buf), max);
+  PEND(env);
+  return count;
+}
+
+/*
+ * Class:     Native
+ * Method:    getEventRingDropped
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL
+Java_com_sun_jna_Native_getEventRingDropped(JNIEnv *UNUSED(env), jclass UNUSED(cls),
+                                            jlong ring) {
+  return (jlong)event_ring_dropped((event_ring*)L2A(ring));
+}
+
 /*
  * Class:     Native
  * Method:    open
@@ -2687,6 +3099,113 @@ JNIEXPORT jbyteArray JNICALL Java_com_sun_jna_Native_getStringBytes
   return bytes;
 }
 
+/*
+ * Class:     com_sun_jna_Native
+ * Method:    readStringBytes
+ * Signature: (Lcom/sun/jna/Pointer;JJ[B)I
+ */
+JNIEXPORT jint JNICALL Java_com_sun_jna_Native_readStringBytes
+(JNIEnv *env, jclass UNUSED(cls), jobject UNUSED(pointer), jlong baseaddr, jlong offset, jbyteArray buf)
+{
+  volatile jint len = 0;
+  PSTART();
+  {
+    void* addr = L2A(baseaddr + offset);
+    len = (jint)strlen(addr);
+    if (len <= (*env)->GetArrayLength(env, buf)) {
+      (*env)->SetByteArrayRegion(env, buf, 0, len, (jbyte *)addr);
+    }
+  }
+  PEND(env);
+  return len;
+}
+
+/* Returns the number of elements to convert from a native pointer array,
+ * either the given length or the number of elements preceding a NULL
+ * element, but never more than the given length.
+ */
+static jint
+string_array_length(void** elements, jint length, jboolean terminated) {
+  jint count = length < 0 ? 0 : length;
+  if (terminated) {
+    for (count=0;count < length && elements[count] != NULL;count++) {
+    }
+  }
+  return count;
+}
+
+/*
+ * Class:     com_sun_jna_Native
+ * Method:    getStringArrayBytes
+ * Signature: (Lcom/sun/jna/Pointer;JJIZ)[[B
+ */
+JNIEXPORT jobjectArray JNICALL Java_com_sun_jna_Native_getStringArrayBytes
+(JNIEnv *env, jclass UNUSED(cls), jobject UNUSED(pointer), jlong baseaddr, jlong offset, jint length, jboolean terminated)
+{
+  volatile jobjectArray result = 0;
+  PSTART();
+  {
+    void** elements = (void**)L2A(baseaddr + offset);
+    jint count = string_array_length(elements, length, terminated);
+    jint i;
+    result = (*env)->NewObjectArray(env, count, classByteArray, NULL);
+    if (result == 0) {
+      throwByName(env, EOutOfMemory, "Can't allocate string array");
+    }
+    for (i=0;result != 0 && i < count;i++) {
+      const char* str = (const char*)elements[i];
+      if (str != NULL) {
+        jint len = (jint)strlen(str);
+        jbyteArray bytes = (*env)->NewByteArray(env, len);
+        if (bytes == 0) {
+          throwByName(env, EOutOfMemory, "Can't allocate byte array");
+          result = 0;
+          break;
+        }
+        (*env)->SetByteArrayRegion(env, bytes, 0, len, (jbyte *)str);
+        (*env)->SetObjectArrayElement(env, result, i, bytes);
+        (*env)->DeleteLocalRef(env, bytes);
+      }
+    }
+  }
+  PEND(env);
+  return result;
+}
+
+/*
+ * Class:     com_sun_jna_Native
+ * Method:    getWideStringArray
+ * Signature: (Lcom/sun/jna/Pointer;JJIZ)[Ljava/lang/String;
+ */
+JNIEXPORT jobjectArray JNICALL Java_com_sun_jna_Native_getWideStringArray
+(JNIEnv *env, jclass UNUSED(cls), jobject UNUSED(pointer), jlong baseaddr, jlong offset, jint length, jboolean terminated)
+{
+  volatile jobjectArray result = 0;
+  PSTART();
+  {
+    void** elements = (void**)L2A(baseaddr + offset);
+    jint count = string_array_length(elements, length, terminated);
+    jint i;
+    result = (*env)->NewObjectArray(env, count, classString, NULL);
+    if (result == 0) {
+      throwByName(env, EOutOfMemory, "Can't allocate string array");
+    }
+    for (i=0;result != 0 && i < count;i++) {
+      if (elements[i] != NULL) {
+        jstring str = newJavaString(env, (const char*)elements[i], NULL);
+        if ((*env)->ExceptionCheck(env)) {
+          result = 0;
+          break;
+        }
+        (*env)->SetObjectArrayElement(env, result, i, str);
+        (*env)->DeleteLocalRef(env, str);
+      }
+    }
+  }
+  PEND(env);
+  return result;
+}
+
 /*
  * Class:     com_sun_jna_Native
  * Method:    setMemory
@@ -2698,6 +3217,17 @@ JNIEXPORT void JNICALL Java_com_sun_jna_Native_setMemory
   MEMSET(env, L2A(addr + offset), (int)value, (size_t)count);
 }
 
+/*
+ * Class:     com_sun_jna_Native
+ * Method:    copyMemory
+ * Signature: (JJJ)V
+ */
+JNIEXPORT void JNICALL Java_com_sun_jna_Native_copyMemory
+(JNIEnv *UNUSED_ENV(env), jclass UNUSED(cls), jlong dst, jlong src, jlong count)
+{
+  MEMCPY(env, L2A(dst), L2A(src), (size_t)count);
+}
+
 /*
  * Class:     com_sun_jna_Native
  * Method:    setByte
@@ -2829,6 +3359,111 @@ JNIEXPORT void JNICALL Java_com_sun_jna_Native_free
     free(L2A(ptr));
 }
 
+/*
+ * Class:     Native
+ * Method:    calloc
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_com_sun_jna_Native_calloc
+(JNIEnv *UNUSED(env), jclass UNUSED(cls), jlong size)
+{
+    return A2L(calloc(1, (size_t)size));
+}
+
+/*
+ * Class:     Native
+ * Method:    alignedMalloc
+ * Signature: (JJ)J
+ */
+JNIEXPORT jlong JNICALL Java_com_sun_jna_Native_alignedMalloc
+(JNIEnv *UNUSED(env), jclass UNUSED(cls), jlong size, jlong alignment)
+{
+#ifdef _WIN32
+    return A2L(_aligned_malloc((size_t)size, (size_t)alignment));
+#else
+    void* ptr = NULL;
+    // posix_memalign requires a multiple of sizeof(void*)
+    if (alignment < (jlong)sizeof(void*)) {
+      alignment = sizeof(void*);
+    }
+    if (posix_memalign(&ptr, (size_t)alignment, (size_t)size) != 0) {
+      return 0;
+    }
+    return A2L(ptr);
+#endif
+}
+
+/*
+ * Class:     Native
+ * Method:    alignedFree
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_sun_jna_Native_alignedFree
+(JNIEnv *UNUSED(env), jclass UNUSED(cls), jlong ptr)
+{
+#ifdef _WIN32
+    _aligned_free(L2A(ptr));
+#else
+    free(L2A(ptr));
+#endif
+}
+
+
+/*
+ * Class:     Native
+ * Method:    mmap
+ * Signature: (JI)J
+ */
+JNIEXPORT jlong JNICALL Java_com_sun_jna_Native_mmap
+(JNIEnv *UNUSED(env), jclass UNUSED(cls), jlong size, jint flags)
+{
+#ifdef _WIN32
+    (void)flags;
+    return A2L(VirtualAlloc(NULL, (SIZE_T)size, MEM_RESERVE|MEM_COMMIT, PAGE_READWRITE));
+#else
+    int mflags = MAP_PRIVATE | MAP_ANONYMOUS;
+    void* ptr;
+#ifdef MAP_POPULATE
+    if (flags & com_sun_jna_Native_MAP_POPULATE) {
+      mflags |= MAP_POPULATE;
+    }
+#endif
+    if (flags & com_sun_jna_Native_MAP_HUGETLB) {
+#ifdef MAP_HUGETLB
+      mflags |= MAP_HUGETLB;
+#else
+      return 0;
+#endif
+    }
+    ptr = mmap(NULL, (size_t)size, PROT_READ|PROT_WRITE, mflags, -1, 0);
+    if (ptr == MAP_FAILED) {
+      return 0;
+    }
+#ifdef MADV_HUGEPAGE
+    if (flags & com_sun_jna_Native_MAP_ADVISE_HUGEPAGE) {
+      // advisory only, failure leaves the regular page size in place
+      madvise(ptr, (size_t)size, MADV_HUGEPAGE);
+    }
+#endif
+    return A2L(ptr);
+#endif
+}
+
+/*
+ * Class:     Native
+ * Method:    munmap
+ * Signature: (JJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_sun_jna_Native_munmap
+(JNIEnv *UNUSED(env), jclass UNUSED(cls), jlong ptr, jlong size)
+{
+#ifdef _WIN32
+    (void)size;
+    return VirtualFree(L2A(ptr), 0, MEM_RELEASE) ? 0 : (jint)GetLastError();
+#else
+    return munmap(L2A(ptr), (size_t)size) == 0 ? 0 : errno;
+#endif
+}
 
 /*
  * Class:     Native
@@ -3330,6 +3965,111 @@ Java_com_sun_jna_Native_getLastError(JNIEnv *env, jclass UNUSED(classp)) {
   return JNA_get_last_error(env);
 }
 
+JNIEXPORT jboolean JNICALL
+Java_com_sun_jna_Native_isCallbackAttached(JNIEnv *env, jclass UNUSED(classp)) {
+  return JNA_callback_attached(env);
+}
+
+JNIEXPORT void JNICALL
+Java_com_sun_jna_Native_setCallTiming(JNIEnv *env, jclass UNUSED(classp), jboolean enable) {
+  if (enable && !call_times_table) {
+    call_times* table = (call_times*)calloc(CALL_TIMES_SIZE, sizeof(call_times));
+    if (!table) {
+      throwByName(env, EOutOfMemory, "Can't allocate call time table");
+      return;
+    }
+    if (!CT_CAS(&call_times_table, NULL, table)) {
+      free(table);
+    }
+  }
+  call_timing = enable ? 1 : 0;
+}
+
+JNIEXPORT jlongArray JNICALL
+Java_com_sun_jna_Native_getCallTimes(JNIEnv *env, jclass UNUSED(classp), jboolean reset) {
+  call_times* table = call_times_table;
+  jlong* values;
+  jlongArray result;
+  int i, count = 0;
+
+  if (!table) {
+    return (*env)->NewLongArray(env, 0);
+  }
+  values = (jlong*)malloc(CALL_TIMES_SIZE * 4 * sizeof(jlong));
+  if (!values) {
+    throwByName(env, EOutOfMemory, "Can't read call times");
+    return NULL;
+  }
+  for (i=0;i < CALL_TIMES_SIZE;i++) {
+    void* fptr = CT_LOAD(&table[i].fptr);
+    if (fptr) {
+      values[count++] = A2L(fptr);
+      values[count++] = CT_GET(&table[i].calls, reset);
+      values[count++] = CT_GET(&table[i].wall_time, reset);
+      values[count++] = CT_GET(&table[i].cpu_time, reset);
+    }
+  }
+  result = (*env)->NewLongArray(env, count);
+  if (result) {
+    (*env)->SetLongArrayRegion(env, result, 0, count, values);
+  }
+  free(values);
+  return result;
+}
+
+JNIEXPORT void JNICALL
+Java_com_sun_jna_Native_setCallTracing(JNIEnv *UNUSED(env), jclass UNUSED(classp), jboolean enable) {
+  call_tracing = enable ? 1 : 0;
+}
+
+JNIEXPORT jobjectArray JNICALL
+Java_com_sun_jna_Native_getCallTraces(JNIEnv *env, jclass UNUSED(classp)) {
+  call_trace* trace;
+  jobjectArray result;
+  jlongArray now;
+  jlong values[3 + CALL_TRACE_SIZE * 4];
+  jlong t = monotonic_nanos();
+  int count = 0, index = 0;
+
+  for (trace = jna_call_traces;trace;trace = trace->next) {
+    count++;
+  }
+  // The current time, then the name and records of each thread
+  result = (*env)->NewObjectArray(env, 1 + count * 2, classObject, NULL);
+  if (!result || !(now = (*env)->NewLongArray(env, 1))) {
+    return NULL;
+  }
+  (*env)->SetLongArrayRegion(env, now, 0, 1, &t);
+  (*env)->SetObjectArrayElement(env, result, index++, now);
+  for (trace = jna_call_traces;trace && index < 1 + count * 2;trace = trace->next) {
+    jlong total = trace->count;
+    jlong i = total > CALL_TRACE_SIZE ? total - CALL_TRACE_SIZE : 0;
+    int n = 0;
+    jlongArray records;
+    jstring name = newJavaString(env, trace->thread_name, CHARSET_UTF8);
+    values[n++] = trace->thread_id;
+    values[n++] = trace->owner ? JNI_TRUE : JNI_FALSE;
+    values[n++] = total;
+    for (;i < total;i++) {
+      call_trace_record* record = &trace->records[i & (CALL_TRACE_SIZE - 1)];
+      values[n++] = record->start;
+      values[n++] = record->end;
+      values[n++] = A2L(record->fptr);
+      values[n++] = record->nargs;
+    }
+    records = (*env)->NewLongArray(env, n);
+    if (!name || !records) {
+      return NULL;
+    }
+    (*env)->SetLongArrayRegion(env, records, 0, n, values);
+    (*env)->SetObjectArrayElement(env, result, index++, name);
+    (*env)->SetObjectArrayElement(env, result, index++, records);
+    (*env)->DeleteLocalRef(env, name);
+    (*env)->DeleteLocalRef(env, records);
+  }
+  return result;
+}
+
 JNIEXPORT jstring JNICALL
 Java_com_sun_jna_Native_getNativeVersion(JNIEnv *env, jclass UNUSED(classp)) {
 #ifndef JNA_JNI_VERSION
@@ -3381,7 +4121,7 @@ JNIEXPORT void JNICALL
 JNI_OnUnload(JavaVM *vm, void *UNUSED(reserved)) {
   jobject* refs[] = {
     &classObject, &classClass, &classMethod,
-    &classString,
+    &classString, &classByteArray,
 #ifndef NO_NIO_BUFFERS
     &classBuffer, &classByteBuffer, &classCharBuffer,
     &classShortBuffer, &classIntBuffer, &classLongBuffer,
@@ -3459,8 +4199,10 @@ Java_com_sun_jna_Native_unregister(JNIEnv *env, jclass UNUSED(ncls), jclass cls,
     }
     if (md->from_native) (*env)->DeleteWeakGlobalRef(env, md->from_native);
     if (md->closure_method) (*env)->DeleteGlobalRef(env, md->closure_method);
+    if (md->interceptor) (*env)->DeleteGlobalRef(env, md->interceptor);
     free(md->arg_types);
     free(md->closure_arg_types);
+    free(md->jtypes);
     free(md->flags);
     free((void *)md->encoding);
     free(md);
@@ -3490,7 +4232,8 @@ Java_com_sun_jna_Native_registerMethod(JNIEnv *env, jclass UNUSED(ncls),
                                        jboolean throw_last_error,
                                        jobjectArray to_native,
                                        jobject from_native,
-                                       jstring encoding)
+                                       jstring encoding,
+                                       jobject interceptor)
 {
   int argc = atypes ? (*env)->GetArrayLength(env, atypes) : 0;
   const char* cname = newCStringUTF8(env, name);
@@ -3551,6 +4294,18 @@ Java_com_sun_jna_Native_registerMethod(JNIEnv *env, jclass UNUSED(ncls),
   if (cvts) (*env)->ReleaseIntArrayElements(env, conversions, cvts, 0);
   data->fptr = L2A(function);
   data->closure_method = (*env)->NewGlobalRef(env, closure_method);
+  if (interceptor) {
+    jclass icls = (*env)->GetObjectClass(env, interceptor);
+    data->before_invoke = (*env)->GetMethodID(env, icls, "beforeInvoke", "([Ljava/lang/Object;)Ljava/lang/Object;");
+    data->after_invoke = (*env)->GetMethodID(env, icls, "afterInvoke", "([Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Throwable;Ljava/lang/Object;)V");
+    if (!data->before_invoke || !data->after_invoke) {
+      status = FFI_BAD_ABI;
+      goto cleanup;
+    }
+    data->interceptor = (*env)->NewGlobalRef(env, interceptor);
+    data->jtypes = calloc(argc + 1, sizeof(char));
+    parse_java_types(sig, data->jtypes, argc, &data->rjtype);
+  }
 
   status = ffi_prep_cif(closure_cif, abi, argc+2, closure_rtype, data->closure_arg_types);
   if (ffi_error(env, "Native method mapping", status)) {
@@ -3581,7 +4336,9 @@ Java_com_sun_jna_Native_registerMethod(JNIEnv *env, jclass UNUSED(ncls),
 
  cleanup:
   if (status != FFI_OK) {
+    if (data->interceptor) (*env)->DeleteGlobalRef(env, data->interceptor);
     free(data->arg_types);
+    free(data->jtypes);
     free(data->flags);
     free(data);
     data = NULL;
@@ -149,6 +149,51 @@ typedef struct _callback {
   const char* encoding;
 } callback;
 
+/* Padding to keep producer and consumer positions in separate cache lines */
+#define EVENT_RING_PAD 64
+
+typedef struct _event_ring {
+  /* CallbackRingBuffer expects this field at offset 0. */
+  void* x_closure;
+  ffi_closure* closure;
+  ffi_cif cif;
+  ffi_type** arg_types;
+  /* Each slot holds a sequence number followed by one 8-byte cell per argument */
+  size_t record_size;
+  size_t slot_size;
+  size_t mask;
+  int policy;
+  char* slots;
+  char pad0[EVENT_RING_PAD];
+  volatile size_t enqueue_pos;
+  volatile size_t dropped;
+  char pad1[EVENT_RING_PAD];
+  size_t dequeue_pos;
+} event_ring;
+
+/* Number of recent calls kept per thread; a power of two */
+#define CALL_TRACE_SIZE 64
+
+typedef struct _call_trace_record {
+  jlong start;  /* monotonic clock, nanoseconds */
+  jlong end;    /* zero while the call is in progress */
+  void* fptr;
+  jint nargs;
+} call_trace_record;
+
+/* Recent native calls of one thread, for post-mortem analysis.  Buffers are
+ * linked from jna_call_traces and never freed; the buffer of a terminated
+ * thread has no owner and is reused by the next thread which needs one.
+ */
+typedef struct _call_trace {
+  struct _call_trace* next;
+  void* volatile owner;
+  volatile jlong count;  /* number of records written */
+  jlong thread_id;       /* Java thread ID */
+  char thread_name[64];
+  call_trace_record records[CALL_TRACE_SIZE];
+} call_trace;
+
 #if defined(SOLARIS2) || defined(__GNUC__)
 #if defined(_WIN64)
 #define L2A(X) ((void *)(long long)(X))
@@ -210,12 +255,21 @@ extern ffi_type* get_ffi_return_type(JNIEnv*, jclass, char);
 extern const char* JNA_callback_init(JNIEnv*);
 extern void JNA_set_last_error(JNIEnv*,int);
 extern int JNA_get_last_error(JNIEnv*);
+extern jboolean JNA_callback_attached(JNIEnv*);
+extern call_trace* JNA_call_trace(JNIEnv*);
+extern JNIEXPORT call_trace* volatile jna_call_traces;
 extern void JNA_callback_dispose(JNIEnv*);
 extern void JNA_detach(JNIEnv*,jboolean,void*);
 extern callback* create_callback(JNIEnv*, jobject, jobject,
                                  jobjectArray, jclass,
                                  callconv_t, jint, jstring);
 extern void free_callback(JNIEnv*, callback*);
+extern void rebind_callback(JNIEnv*, callback*, jobject);
+extern event_ring* create_event_ring(JNIEnv*, ffi_type**, int, ffi_type*,
+                                     callconv_t, jint, jint);
+extern void free_event_ring(event_ring*);
+extern jint drain_event_ring(event_ring*, char*, jint);
+extern size_t event_ring_dropped(event_ring*);
 extern void extract_value(JNIEnv*, jobject, void*, size_t, jboolean, const char*);
 extern jobject new_object(JNIEnv*, char, void*, jboolean, const char*);
 extern jboolean is_protected();
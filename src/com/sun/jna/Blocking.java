@@ -0,0 +1,57 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks {@link Library} methods which may block in native code, such as
+ * calls doing I/O or waiting on locks.
+ * <p>
+ * A blocking call pins a virtual thread to its carrier thread, so that many
+ * virtual threads making such calls can starve the carrier pool.  When a
+ * virtual thread calls a method with this annotation, or any method of an
+ * interface with this annotation, the call is made on a bounded pool of
+ * platform threads instead while the virtual thread is parked.  Calls from
+ * platform threads, and calls of methods without this annotation, are made
+ * inline.
+ * <pre><code>
+ * interface SocketLibrary extends Library {
+ *     &#64;Blocking
+ *     int recv(int fd, byte[] buf, int len, int flags);
+ *     int getpid();
+ * }
+ * </code></pre>
+ * All methods of a library may be marked with
+ * {@link Library#OPTION_BLOCKING}.  Directly mapped methods are not
+ * offloaded.  The pool has <code>jna.blocking.threads</code> threads, and
+ * its use is reported by {@link Native#getBlockingCallStats()}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface Blocking {
+}
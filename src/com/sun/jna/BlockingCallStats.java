@@ -0,0 +1,119 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics for {@link Blocking} calls made by virtual threads and
+ * offloaded onto platform threads, see
+ * {@link Native#getBlockingCallStats()}.
+ *
+ * <p>The latency of a call is the time between its submission by the
+ * virtual thread and the start of the native call on a platform thread.</p>
+ */
+public final class BlockingCallStats {
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private final AtomicLong totalCallTime = new AtomicLong();
+
+    BlockingCallStats() {
+    }
+
+    void submitted() {
+        submitted.incrementAndGet();
+        queued.incrementAndGet();
+    }
+
+    void started(long latency) {
+        queued.decrementAndGet();
+        active.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        long max;
+        while (latency > (max = maxLatency.get())
+               && !maxLatency.compareAndSet(max, latency)) {
+        }
+    }
+
+    void completed(long callTime) {
+        active.decrementAndGet();
+        completed.incrementAndGet();
+        totalCallTime.addAndGet(callTime);
+    }
+
+    /** @return the number of calls waiting for a platform thread */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /** @return the number of calls running on platform threads */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /** @return the number of calls offloaded from virtual threads */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /** @return the number of offloaded calls which have returned */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /** @return the average latency of started calls in nanoseconds, or
+     * zero if none has started
+     */
+    public long getAverageLatency() {
+        long started = submitted.get() - queued.get();
+        return started > 0 ? totalLatency.get() / started : 0;
+    }
+
+    /** @return the maximum latency of started calls in nanoseconds */
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    /** @return the average duration of completed calls in nanoseconds, or
+     * zero if none has completed
+     */
+    public long getAverageCallTime() {
+        long count = completed.get();
+        return count > 0 ? totalCallTime.get() / count : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "queued=" + getQueueDepth() + ", active=" + getActiveCount()
+            + ", submitted=" + getSubmittedCount() + ", completed=" + getCompletedCount()
+            + ", average latency=" + getAverageLatency() + "ns"
+            + ", max latency=" + getMaxLatency() + "ns"
+            + ", average call time=" + getAverageCallTime() + "ns";
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Offloads {@link Blocking} calls of virtual threads onto a bounded pool
+ * of platform threads.
+ */
+final class BlockingCalls {
+
+    /** <code>Thread.isVirtual()</code>, or null before Java 21. */
+    private static final MethodHandle IS_VIRTUAL = lookupIsVirtual();
+
+    /** Number of platform threads, set with the system property
+     * <code>jna.blocking.threads</code>.
+     */
+    static final int THREADS = Integer.getInteger("jna.blocking.threads",
+        Math.max(16, 4 * Runtime.getRuntime().availableProcessors()));
+
+    static final BlockingCallStats STATS = new BlockingCallStats();
+
+    private BlockingCalls() { }
+
+    private static MethodHandle lookupIsVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /** @return whether calls of the given thread should be offloaded */
+    static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    private static final class Pool {
+        static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "JNA blocking " + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        static {
+            EXECUTOR.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /** Make the given call on a platform thread, waiting for its result
+     * without pinning the calling virtual thread.  The last error of the
+     * call is copied to the calling thread.
+     */
+    static Object invoke(final Callable<Object> call) {
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        final int[] lastError = new int[1];
+        final long submitted = System.nanoTime();
+        STATS.submitted();
+        Pool.EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                STATS.started(start - submitted);
+                Object value = null;
+                Throwable error = null;
+                try {
+                    value = call.call();
+                } catch (Throwable t) {
+                    error = t;
+                }
+                lastError[0] = Native.getLastError();
+                // Account for the call before the caller resumes
+                STATS.completed(System.nanoTime() - start);
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            }
+        });
+        try {
+            // Parks a virtual thread, and can't be interrupted while the
+            // native call runs
+            return result.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        } finally {
+            Native.setLastError(lastError[0]);
+        }
+    }
+}
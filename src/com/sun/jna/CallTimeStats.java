@@ -0,0 +1,81 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+/** Wall and CPU time spent by the calling threads in a native function,
+ * accumulated while call time accounting is enabled, as returned by
+ * {@link Native#getCallTimeStats(boolean)}.  Times are in nanoseconds.  A
+ * function which uses little CPU time relative to its wall time spends most
+ * of its time blocked, waiting on I/O or locks, rather than computing.
+ */
+public class CallTimeStats {
+
+    private final long address;
+    private final Function function;
+    private final long calls;
+    private final long wallTime;
+    private final long cpuTime;
+
+    CallTimeStats(long address, Function function, long calls, long wallTime, long cpuTime) {
+        this.address = address;
+        this.function = function;
+        this.calls = calls;
+        this.wallTime = wallTime;
+        this.cpuTime = cpuTime;
+    }
+
+    /** @return the address of the native function */
+    public long getAddress() { return address; }
+
+    /** @return the function, or null if it was not looked up from a
+     * {@link NativeLibrary} still open
+     */
+    public Function getFunction() { return function; }
+
+    /** @return number of calls */
+    public long getCalls() { return calls; }
+
+    /** @return total elapsed time of the calls */
+    public long getWallTime() { return wallTime; }
+
+    /** @return total CPU time used by the calling threads during the calls;
+     * on Windows, this is only updated at each scheduler tick
+     */
+    public long getCpuTime() { return cpuTime; }
+
+    /** @return total time of the calls not spent on the CPU */
+    public long getWaitTime() { return Math.max(wallTime - cpuTime, 0); }
+
+    /** @return the fraction of the elapsed time spent on the CPU */
+    public double getCpuRatio() {
+        return wallTime > 0 ? Math.min((double) cpuTime / wallTime, 1) : 0;
+    }
+
+    @Override
+    public String toString() {
+        String name = function != null
+            ? function.getLibraryName() + ":" + function.getName()
+            : "0x" + Long.toHexString(address);
+        return name + " calls=" + calls + " wall=" + wallTime + "ns cpu=" + cpuTime + "ns";
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics for a callback whose invocations are dispatched onto an
+ * {@link java.util.concurrent.Executor}, see
+ * {@link Native#setCallbackExecutor} and
+ * {@link Library#OPTION_CALLBACK_EXECUTOR}.
+ *
+ * <p>The latency of an invocation is the time between the native call of the
+ * callback and the start of the Java callback method on the executor.</p>
+ */
+public final class CallbackQueueStats {
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    CallbackQueueStats() {
+    }
+
+    void submitted() {
+        submitted.incrementAndGet();
+        queued.incrementAndGet();
+    }
+
+    void rejected() {
+        rejected.incrementAndGet();
+        queued.decrementAndGet();
+    }
+
+    void started(long latency) {
+        queued.decrementAndGet();
+        totalLatency.addAndGet(latency);
+        long max;
+        while (latency > (max = maxLatency.get())
+               && !maxLatency.compareAndSet(max, latency)) {
+        }
+    }
+
+    void completed() {
+        completed.incrementAndGet();
+    }
+
+    /** @return the number of invocations waiting to be run by the executor */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /** @return the number of invocations handed to the executor */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /** @return the number of invocations which have finished running */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /** @return the number of invocations refused by the executor */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /** @return the average latency of started invocations in nanoseconds,
+     * or zero if none has started
+     */
+    public long getAverageLatency() {
+        long started = submitted.get() - rejected.get() - queued.get();
+        return started > 0 ? totalLatency.get() / started : 0;
+    }
+
+    /** @return the maximum latency of started invocations in nanoseconds */
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    @Override
+    public String toString() {
+        return "queued=" + getQueueDepth() + ", submitted=" + getSubmittedCount()
+            + ", completed=" + getCompletedCount() + ", rejected=" + getRejectedCount()
+            + ", average latency=" + getAverageLatency() + "ns"
+            + ", max latency=" + getMaxLatency() + "ns";
+    }
+}
@@ -40,9 +40,11 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
-import java.util.Collections;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Provides a reference to an association between a native callback closure
@@ -51,18 +53,44 @@ import java.util.concurrent.ConcurrentHashMap;
 
 public class CallbackReference extends WeakReference<Callback> implements Closeable {
 
-    // Access to callbackMap, directCallbackMap, pointerCallbackMap is protected
-    // by synchonizing on pointerCallbackMap
-    static final Map<Callback, CallbackReference> callbackMap = new WeakHashMap<>();
-    static final Map<Callback, CallbackReference> directCallbackMap = new WeakHashMap<>();
+    // Lookups in callbackMap, directCallbackMap and pointerCallbackMap do not
+    // lock; updates are serialized per callback by CALLBACK_LOCKS and per
+    // pointer by POINTER_LOCKS, always acquired in that order
+    static final Map<Callback, CallbackReference> callbackMap = new ConcurrentWeakMap<>(true);
+    static final Map<Callback, CallbackReference> directCallbackMap = new ConcurrentWeakMap<>(true);
     //callbacks with different signatures sharing the same pointer
-    static final Map<Pointer, Reference<Callback>[]> pointerCallbackMap = new WeakHashMap<>();
+    static final Map<Pointer, Reference<Callback>[]> pointerCallbackMap = new ConcurrentWeakMap<>(false);
     // Track memory allocations associated with this closure (usually String args)
-    static final Map<Object, Object> allocations =
-            Collections.synchronizedMap(new WeakHashMap<>());
+    static final Map<Object, Object> allocations = new ConcurrentWeakMap<>(true);
+    private static final Object[] CALLBACK_LOCKS = createLocks(32);
+    private static final Object[] POINTER_LOCKS = createLocks(32);
+
+    private static Object[] createLocks(int count) {
+        Object[] locks = new Object[count];
+        for (int i=0;i < count;i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+
+    private static Object getLock(Object[] locks, int hash) {
+        hash ^= hash >>> 16;
+        return locks[hash & (locks.length - 1)];
+    }
     // Global map of allocated closures to facilitate centralized cleanup
     private static final Map<Long, Reference<CallbackReference>> allocatedMemory =
             new ConcurrentHashMap<>();
+    /** Maximum number of unused trampolines kept per signature, set by the
+     * system property <code>jna.callback.poolsize</code>.  Zero disables
+     * pooling.
+     */
+    static final int TRAMPOLINE_POOL_SIZE = Integer.getInteger("jna.callback.poolsize", 16);
+    // Unused trampolines, by signature
+    private static final Map<TrampolineKey, TrampolinePool> trampolinePools =
+            new ConcurrentHashMap<>();
+    private static final AtomicLong createdTrampolines = new AtomicLong();
+    private static final AtomicInteger liveTrampolines = new AtomicInteger();
+    private static final AtomicInteger pooledTrampolines = new AtomicInteger();
     private static final Method PROXY_CALLBACK_METHOD;
 
     static {
@@ -87,7 +115,7 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
         }
     }
 
-    private static final Map<Callback, CallbackThreadInitializer> initializers = new WeakHashMap<>();
+    private static final Map<Callback, CallbackThreadInitializer> initializers = new ConcurrentWeakMap<>(true);
     /**
      * @param cb The {@link Callback} instance
      * @param initializer The {@link CallbackThreadInitializer} - if {@code null} then the
@@ -95,13 +123,49 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
      * @return The previous initializer instance (may be {@code null})
      */
     static CallbackThreadInitializer setCallbackThreadInitializer(Callback cb, CallbackThreadInitializer initializer) {
-        synchronized(initializers) {
-            if (initializer != null) {
-                return initializers.put(cb, initializer);
-            } else {
-                return initializers.remove(cb);
+        if (initializer != null) {
+            return initializers.put(cb, initializer);
+        } else {
+            return initializers.remove(cb);
+        }
+    }
+
+    private static final Map<Callback, Executor> executors = new ConcurrentWeakMap<>(true);
+    /**
+     * @param cb The {@link Callback} instance
+     * @param executor The {@link Executor} on which the callback runs - if
+     * {@code null} then the callback runs synchronously
+     */
+    static void setCallbackExecutor(Callback cb, Executor executor) {
+        if (executor != null && getCallbackMethod(cb).getReturnType() != void.class) {
+            throw new IllegalArgumentException("Only callbacks returning void may run on an Executor: " + getCallbackMethod(cb));
+        }
+        if (executor != null) {
+            executors.put(cb, executor);
+        } else {
+            executors.remove(cb);
+        }
+    }
+
+    private static Executor getCallbackExecutor(Callback cb, Method method) {
+        Executor executor = executors.get(cb);
+        if (executor == null && method.getReturnType() == void.class) {
+            executor = (Executor)Native.getLibraryOptions(cb.getClass()).get(Library.OPTION_CALLBACK_EXECUTOR);
+        }
+        return executor;
+    }
+
+    static CallbackQueueStats getCallbackQueueStats(Callback cb) {
+        for (Map<Callback, CallbackReference> map : Arrays.asList(callbackMap, directCallbackMap)) {
+            CallbackReference cbref = map.get(cb);
+            if (cbref != null && cbref.proxy instanceof DefaultCallbackProxy) {
+                CallbackQueueStats stats = ((DefaultCallbackProxy)cbref.proxy).stats;
+                if (stats != null) {
+                    return stats;
+                }
             }
         }
+        return null;
     }
 
     static class AttachOptions extends Structure {
@@ -122,13 +186,10 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
 
     /* Called from native code to initialize a callback thread. */
     private static ThreadGroup initializeThread(Callback cb, AttachOptions args) {
-        CallbackThreadInitializer init = null;
         if (cb instanceof DefaultCallbackProxy) {
             cb = ((DefaultCallbackProxy)cb).getCallback();
         }
-        synchronized(initializers) {
-            init = initializers.get(cb);
-        }
+        CallbackThreadInitializer init = initializers.get(cb);
         ThreadGroup group = null;
         if (init != null) {
             group = init.getThreadGroup(cb);
@@ -159,9 +220,13 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
         if (!type.isInterface())
             throw new IllegalArgumentException("Callback type must be an interface");
         Map<Callback, CallbackReference> map = direct ? directCallbackMap : callbackMap;
-        synchronized(pointerCallbackMap) {
+        Callback cb = getTypeAssignableCallback(type, pointerCallbackMap.get(p));
+        if (cb != null) {
+            return cb;
+        }
+        synchronized(getLock(POINTER_LOCKS, p.hashCode())) {
             Reference<Callback>[] array = pointerCallbackMap.get(p);
-            Callback cb = getTypeAssignableCallback(type, array);
+            cb = getTypeAssignableCallback(type, array);
             if (cb != null) {
                 return cb;
             }
@@ -187,15 +252,15 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
     }
 
 
+    /** Arrays in pointerCallbackMap are read without locking, so a new
+     * array is always returned instead of modifying the existing one.
+     */
     private static Reference<Callback>[] addCallbackToArray(Callback cb,Reference<Callback>[] array) {
         int reqArraySize = 1; //space for the new item
         if (array != null) {
             //drop any freed reference
             for (int i=0;i < array.length;i++) {
-                if( array[i].get() == null ) {
-                    array[i] = null;
-                }
-                else {
+                if (array[i].get() != null) {
                     reqArraySize++;
                 }
             }
@@ -204,15 +269,15 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
         Reference<Callback>[] newArray = new Reference[reqArraySize];
         int nidx=0;
         if (array != null) {
-            //shift items if needed
-            for (int i=0;i < array.length;i++) {
-                if (array[i] != null) {
+            for (int i=0;i < array.length && nidx < reqArraySize - 1;i++) {
+                if (array[i].get() != null) {
                     newArray[nidx++] = array[i];
                 }
             }
         }
-        newArray[nidx] = new WeakReference<>(cb);
-        return newArray;
+        newArray[nidx++] = new WeakReference<>(cb);
+        // references may have been cleared while copying
+        return nidx < reqArraySize ? Arrays.copyOf(newArray, nidx) : newArray;
     }
 
     private static Callback createCallback(Class<?> type, Pointer p) {
@@ -232,6 +297,7 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
     CallbackProxy proxy;
     Method method;
     int callingConvention;
+    private TrampolinePool pool;
     private CallbackReference(Callback callback, int callingConvention, boolean direct) {
         super(callback);
         TypeMapper mapper = Native.getTypeMapper(callback.getClass());
@@ -239,6 +305,29 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
         Class<?>[] nativeParamTypes;
         Class<?> returnType;
 
+        // Callbacks which only use primitive and Pointer types need no
+        // argument or result conversion, so they are always invoked
+        // directly, avoiding boxing of the arguments into an Object[] and
+        // reflective invocation.  Recording JFR events requires the proxy.
+        if (!direct && !(callback instanceof CallbackProxy) && !NativeEvents.ENABLED) {
+            direct = isPrimitiveCallback(getCallbackMethod(callback));
+        }
+
+        // Asynchronous invocation requires the arguments to be converted
+        // and copied by the proxy before the native call returns
+        Executor executor = callback instanceof CallbackProxy
+            ? null : getCallbackExecutor(callback, getCallbackMethod(callback));
+        if (executor != null) {
+            direct = false;
+        }
+        // Structure reuse is implemented by the proxy
+        boolean reuseStructures = executor == null
+            && !(callback instanceof CallbackProxy)
+            && isStructureReuse(callback, getCallbackMethod(callback));
+        if (reuseStructures) {
+            direct = false;
+        }
+
         // Check whether direct mapping may be used, or whether
         // we need to fall back to conventional mapping
         boolean ppc = Platform.isPPC();
@@ -277,16 +366,16 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
                 && DLL_CALLBACK_CLASS.isInstance(callback)) {
                 flags |= Native.CB_OPTION_IN_DLL;
             }
-            peer = Native.createNativeCallback(callback, method,
-                                               nativeParamTypes, returnType,
-                                               callingConvention, flags,
-                                               encoding);
+            peer = createTrampoline(callback, method,
+                                    nativeParamTypes, returnType,
+                                    callingConvention, flags,
+                                    encoding);
         } else {
             if (callback instanceof CallbackProxy) {
                 proxy = (CallbackProxy)callback;
             }
             else {
-                proxy = new DefaultCallbackProxy(getCallbackMethod(callback), mapper, encoding);
+                proxy = new DefaultCallbackProxy(getCallbackMethod(callback), mapper, encoding, executor, reuseStructures);
             }
             nativeParamTypes = proxy.getParameterTypes();
             returnType = proxy.getReturnType();
@@ -323,18 +412,187 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
             int flags = DLL_CALLBACK_CLASS != null
                 && DLL_CALLBACK_CLASS.isInstance(callback)
                 ? Native.CB_OPTION_IN_DLL : 0;
-            peer = Native.createNativeCallback(proxy, PROXY_CALLBACK_METHOD,
-                                               nativeParamTypes, returnType,
-                                               callingConvention, flags,
-                                               encoding);
+            peer = createTrampoline(proxy, PROXY_CALLBACK_METHOD,
+                                    nativeParamTypes, returnType,
+                                    callingConvention, flags,
+                                    encoding);
         }
         cbstruct = peer != 0 ? new Pointer(peer) : null;
         if(peer != 0) {
             allocatedMemory.put(peer, new WeakReference<>(this));
-            cleanable = Cleaner.getCleaner().register(this, new CallbackReferenceDisposer(cbstruct));
+            cleanable = Cleaner.getCleaner().register(this, new CallbackReferenceDisposer(cbstruct, pool));
+        }
+    }
+
+    /** Obtain a trampoline for the given signature, reusing an unused one
+     * from the pool if possible.
+     */
+    private long createTrampoline(Callback obj, Method method,
+                                  Class<?>[] parameterTypes, Class<?> returnType,
+                                  int callingConvention, int flags,
+                                  String encoding) {
+        // DLL-resident function pointers are a limited resource
+        if (TRAMPOLINE_POOL_SIZE > 0 && (flags & Native.CB_OPTION_IN_DLL) == 0) {
+            TrampolineKey key = new TrampolineKey(method, parameterTypes, returnType,
+                                                  callingConvention, flags, encoding);
+            pool = trampolinePools.get(key);
+            if (pool == null) {
+                TrampolinePool existing = trampolinePools.putIfAbsent(key, pool = new TrampolinePool());
+                if (existing != null) {
+                    pool = existing;
+                }
+            }
+            long peer = pool.acquire();
+            if (peer != 0) {
+                Native.rebindNativeCallback(peer, obj);
+                liveTrampolines.incrementAndGet();
+                return peer;
+            }
+        }
+        long peer = Native.createNativeCallback(obj, method,
+                                                parameterTypes, returnType,
+                                                callingConvention, flags,
+                                                encoding);
+        if (peer != 0) {
+            createdTrampolines.incrementAndGet();
+            liveTrampolines.incrementAndGet();
+        }
+        return peer;
+    }
+
+    /** @return the number of native callback trampolines currently bound to
+     * a {@link Callback}
+     */
+    public static int getLiveTrampolineCount() {
+        return liveTrampolines.get();
+    }
+
+    /** @return the number of unused native callback trampolines kept for
+     * reuse
+     */
+    public static int getPooledTrampolineCount() {
+        return pooledTrampolines.get();
+    }
+
+    /** @return the total number of native callback trampolines allocated */
+    public static long getCreatedTrampolineCount() {
+        return createdTrampolines.get();
+    }
+
+    /** Identifies trampolines which may be bound to any callback object with
+     * the same method and native signature.
+     */
+    private static final class TrampolineKey {
+        private final Method method;
+        private final Class<?>[] parameterTypes;
+        private final Class<?> returnType;
+        private final int callingConvention;
+        private final int flags;
+        private final String encoding;
+        private final int hashCode;
+
+        TrampolineKey(Method method, Class<?>[] parameterTypes, Class<?> returnType,
+                      int callingConvention, int flags, String encoding) {
+            this.method = method;
+            this.parameterTypes = parameterTypes.clone();
+            this.returnType = returnType;
+            this.callingConvention = callingConvention;
+            this.flags = flags;
+            this.encoding = encoding;
+            int h = method.hashCode();
+            h = 31 * h + Arrays.hashCode(this.parameterTypes);
+            h = 31 * h + returnType.hashCode();
+            h = 31 * h + callingConvention;
+            h = 31 * h + flags;
+            this.hashCode = 31 * h + (encoding != null ? encoding.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TrampolineKey)) {
+                return false;
+            }
+            TrampolineKey other = (TrampolineKey)o;
+            return hashCode == other.hashCode
+                && method.equals(other.method)
+                && Arrays.equals(parameterTypes, other.parameterTypes)
+                && returnType == other.returnType
+                && callingConvention == other.callingConvention
+                && flags == other.flags
+                && (encoding == null ? other.encoding == null : encoding.equals(other.encoding));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /** Unused trampolines of a single signature. */
+    private static final class TrampolinePool {
+        private final ConcurrentLinkedQueue<Long> free = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        /** @return an unused trampoline, or zero if there is none */
+        long acquire() {
+            Long peer = free.poll();
+            if (peer == null) {
+                return 0;
+            }
+            size.decrementAndGet();
+            pooledTrampolines.decrementAndGet();
+            return peer;
+        }
+
+        /** Unbind the trampoline from its callback and keep it for reuse.
+         * @return false if the pool is full
+         */
+        boolean release(long peer) {
+            if (size.incrementAndGet() > TRAMPOLINE_POOL_SIZE) {
+                size.decrementAndGet();
+                return false;
+            }
+            Native.rebindNativeCallback(peer, null);
+            pooledTrampolines.incrementAndGet();
+            free.offer(peer);
+            return true;
+        }
+
+        void freeAll() {
+            long peer;
+            while ((peer = acquire()) != 0) {
+                Native.freeNativeCallback(peer);
+            }
         }
     }
 
+    /** Whether the callback reuses its {@link Structure} arguments. */
+    private static boolean isStructureReuse(Callback cb, Method m) {
+        boolean structures = false;
+        for (Class<?> type : m.getParameterTypes()) {
+            structures |= Structure.class.isAssignableFrom(type);
+        }
+        return structures
+            && (m.isAnnotationPresent(ReuseStructures.class)
+                || m.getDeclaringClass().isAnnotationPresent(ReuseStructures.class)
+                || Boolean.TRUE.equals(Native.getLibraryOptions(cb.getClass()).get(Library.OPTION_REUSE_STRUCTURES)));
+    }
+
+    private static boolean isPrimitiveCallback(Method m) {
+        for (Class<?> type : m.getParameterTypes()) {
+            if (!isPrimitiveCallbackType(type)) {
+                return false;
+            }
+        }
+        Class<?> returnType = m.getReturnType();
+        return returnType == void.class || isPrimitiveCallbackType(returnType);
+    }
+
+    private static boolean isPrimitiveCallbackType(Class<?> type) {
+        return type == Pointer.class
+            || (type.isPrimitive() && type != char.class && type != void.class);
+    }
+
     private Class<?> getNativeType(Class<?> cls) {
         if (Structure.class.isAssignableFrom(cls)) {
             // Make sure we can instantiate an argument of this type
@@ -397,7 +655,7 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
         return getCallbackMethod(findCallbackClass(callback.getClass()));
     }
 
-    private static Method getCallbackMethod(Class<?> cls) {
+    static Method getCallbackMethod(Class<?> cls) {
         // Look at only public methods defined by the Callback class
         Method[] pubMethods = cls.getDeclaredMethods();
         Method[] classMethods = cls.getMethods();
@@ -463,6 +721,9 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
                 ref.close();
             }
         }
+        for (TrampolinePool pool : trampolinePools.values()) {
+            pool.freeAll();
+        }
     }
 
     private Callback getCallback() {
@@ -506,17 +767,22 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
                : Function.C_CONVENTION);
 
         Map<Callback, CallbackReference> map = direct ? directCallbackMap : callbackMap;
-        synchronized(pointerCallbackMap) {
-            CallbackReference cbref = map.get(cb);
+        CallbackReference cbref = map.get(cb);
+        if (cbref != null && cbref.cbstruct != null) {
+            return cbref.getTrampoline();
+        }
+        synchronized(getLock(CALLBACK_LOCKS, System.identityHashCode(cb))) {
+            cbref = map.get(cb);
             if (cbref == null || cbref.cbstruct == null) {
                 cbref = new CallbackReference(cb, callingConvention, direct);
-                map.put(cb, cbref);
-                pointerCallbackMap.put(cbref.getTrampoline(),
-                        addCallbackToArray(cb, null));
-
                 if (initializers.containsKey(cb)) {
                     cbref.setCallbackOptions(Native.CB_HAS_INITIALIZER);
                 }
+                Pointer trampoline = cbref.getTrampoline();
+                synchronized(getLock(POINTER_LOCKS, trampoline.hashCode())) {
+                    pointerCallbackMap.put(trampoline, addCallbackToArray(cb, null));
+                }
+                map.put(cb, cbref);
             }
             return cbref.getTrampoline();
         }
@@ -527,9 +793,22 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
         private ToNativeConverter toNative;
         private final FromNativeConverter[] fromNative;
         private final String encoding;
-        public DefaultCallbackProxy(Method callbackMethod, TypeMapper mapper, String encoding) {
+        private final Executor executor;
+        final CallbackQueueStats stats;
+        // Structure arguments kept for reuse, per thread and argument
+        private final ThreadLocal<Structure[]> reusedArguments;
+        public DefaultCallbackProxy(Method callbackMethod, TypeMapper mapper, String encoding, Executor executor, boolean reuseStructures) {
             this.callbackMethod = callbackMethod;
             this.encoding = encoding;
+            this.executor = executor;
+            this.stats = executor != null ? new CallbackQueueStats() : null;
+            final int nargs = callbackMethod.getParameterTypes().length;
+            this.reusedArguments = !reuseStructures ? null : new ThreadLocal<Structure[]>() {
+                @Override
+                protected Structure[] initialValue() {
+                    return new Structure[nargs];
+                }
+            };
             Class<?>[] argTypes = callbackMethod.getParameterTypes();
             Class<?> returnType = callbackMethod.getReturnType();
             fromNative = new FromNativeConverter[argTypes.length];
@@ -561,7 +840,7 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
             return CallbackReference.this.getCallback();
         }
 
-        private Object invokeCallback(Object[] args) {
+        private Object[] convertArguments(Object[] args) {
             Class<?>[] paramTypes = callbackMethod.getParameterTypes();
             Object[] callbackArgs = new Object[args.length];
 
@@ -574,10 +853,13 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
                         new CallbackParameterContext(type, callbackMethod, args, i);
                     callbackArgs[i] = fromNative[i].fromNative(arg, context);
                 } else {
-                    callbackArgs[i] = convertArgument(arg, type);
+                    callbackArgs[i] = convertArgument(arg, type, i);
                 }
             }
+            return callbackArgs;
+        }
 
+        private Object invokeCallback(Object[] callbackArgs) {
             Object result = null;
             Callback cb = DefaultCallbackProxy.this.getCallback();
             if (cb != null) {
@@ -591,16 +873,38 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
                     Native.getCallbackExceptionHandler().uncaughtException(cb, e.getTargetException());
                 }
             }
-            // Synch any structure arguments back to native memory
-            for (int i=0;i < callbackArgs.length;i++) {
-                if (callbackArgs[i] instanceof Structure
-                    && !(callbackArgs[i] instanceof Structure.ByValue)) {
-                    ((Structure)callbackArgs[i]).autoWrite();
-                }
-            }
-
             return result;
         }
+
+        /** Hand the invocation to the executor.  The arguments have already
+         * been copied out of native memory, so nothing is written back.
+         */
+        private void dispatchCallback(final Object[] callbackArgs) {
+            final long start = System.nanoTime();
+            stats.submitted();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        stats.started(System.nanoTime() - start);
+                        try {
+                            invokeCallback(callbackArgs);
+                        }
+                        catch (Throwable t) {
+                            Native.getCallbackExceptionHandler().uncaughtException(getCallback(), t);
+                        }
+                        finally {
+                            stats.completed();
+                        }
+                    }
+                });
+            }
+            catch (RuntimeException e) {
+                stats.rejected();
+                throw e;
+            }
+        }
+
         /** Called from native code.  All arguments are in an array of
          * Object as the first argument.  Converts all arguments to types
          * required by the actual callback method signature, and converts
@@ -609,19 +913,74 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
          */
         @Override
         public Object callback(Object[] args) {
+            NativeEvents.Event event = NativeEvents.NATIVE_CALLBACK.begin();
             try {
-                return invokeCallback(args);
+                Object[] callbackArgs = convertArguments(args);
+                if (executor != null) {
+                    dispatchCallback(callbackArgs);
+                    return null;
+                }
+                Object result = invokeCallback(callbackArgs);
+                // Synch any structure arguments back to native memory
+                for (int i=0;i < callbackArgs.length;i++) {
+                    if (callbackArgs[i] instanceof Structure
+                        && !(callbackArgs[i] instanceof Structure.ByValue)) {
+                        ((Structure)callbackArgs[i]).autoWrite();
+                    }
+                }
+                if (reusedArguments != null) {
+                    Structure[] reused = reusedArguments.get();
+                    for (int i=0;i < callbackArgs.length;i++) {
+                        if (callbackArgs[i] instanceof Structure) {
+                            reused[i] = (Structure)callbackArgs[i];
+                        }
+                    }
+                }
+                return result;
             }
             catch (Throwable t) {
                 Native.getCallbackExceptionHandler().uncaughtException(getCallback(), t);
                 return null;
             }
+            finally {
+                if (event != null) {
+                    event.commit(callbackMethod.getDeclaringClass(), Native.isCallbackAttached());
+                }
+            }
+        }
+
+        /** Return the instance kept for the given argument, pointed at or
+         * overwritten with the native argument.  The instance is taken out
+         * of the thread's slots while in use, so that a nested invocation of
+         * the same callback gets its own instance.
+         */
+        private Structure reuseStructure(Class<? extends Structure> type, Pointer p, int index) {
+            Structure[] reused = reusedArguments.get();
+            Structure s = reused[index];
+            reused[index] = null;
+            boolean byValue = Structure.ByValue.class.isAssignableFrom(type);
+            if (s == null || s.getClass() != type) {
+                if (!byValue) {
+                    s = Structure.newInstance(type, p);
+                    s.conditionalAutoRead();
+                    return s;
+                }
+                s = Structure.newInstance(type);
+            }
+            else if (!byValue) {
+                s.useMemory(p);
+                s.conditionalAutoRead();
+                return s;
+            }
+            Native.copyMemory(s.getPointer().peer, p.peer, s.size());
+            s.read();
+            return s;
         }
 
         /** Convert argument from its basic native type to the given
          * Java parameter type.
          */
-        private Object convertArgument(Object value, Class<?> dstType) {
+        private Object convertArgument(Object value, Class<?> dstType, int index) {
             if (value instanceof Pointer) {
                 if (dstType == String.class) {
                     value = ((Pointer)value).getString(0, encoding);
@@ -638,10 +997,15 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
                 else if (Callback.class.isAssignableFrom(dstType)) {
                     value = CallbackReference.getCallback(dstType, (Pointer)value);
                 }
+                else if (Structure.class.isAssignableFrom(dstType) && reusedArguments != null) {
+                    value = reuseStructure((Class<? extends Structure>) dstType, (Pointer)value, index);
+                }
                 else if (Structure.class.isAssignableFrom(dstType)) {
                     // If passed by value, don't hold onto the pointer, which
-                    // is only valid for the duration of the callback call
-                    if (Structure.ByValue.class.isAssignableFrom(dstType)) {
+                    // is only valid for the duration of the callback call.
+                    // The same applies to callbacks run asynchronously.
+                    if (Structure.ByValue.class.isAssignableFrom(dstType)
+                        || executor != null) {
                         Structure s = Structure.newInstance((Class<? extends Structure>) dstType);
                         byte[] buf = new byte[s.size()];
                         ((Pointer)value).read(0, buf, 0, buf.length);
@@ -777,19 +1141,30 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
     private static final class CallbackReferenceDisposer implements Runnable {
 
         private Pointer cbstruct;
+        private final TrampolinePool pool;
 
-        public CallbackReferenceDisposer(Pointer cbstruct) {
+        public CallbackReferenceDisposer(Pointer cbstruct, TrampolinePool pool) {
             this.cbstruct = cbstruct;
+            this.pool = pool;
         }
 
         public synchronized void run() {
             if (cbstruct != null) {
-                try {
-                    Native.freeNativeCallback(cbstruct.peer);
-                } finally {
-                    allocatedMemory.remove(cbstruct.peer);
-                    cbstruct.peer = 0;
-                    cbstruct = null;
+                long peer = cbstruct.peer;
+                // Unregister before the trampoline may be reused; the
+                // pointerCallbackMap entry must go as well, since a new
+                // callback bound to the trampoline would otherwise keep the
+                // weak key of this callback's trampoline pointer
+                allocatedMemory.remove(peer);
+                Pointer trampoline = cbstruct.getPointer(0);
+                synchronized(getLock(POINTER_LOCKS, trampoline.hashCode())) {
+                    pointerCallbackMap.remove(trampoline);
+                }
+                cbstruct.peer = 0;
+                cbstruct = null;
+                liveTrampolines.decrementAndGet();
+                if (pool == null || !pool.release(peer)) {
+                    Native.freeNativeCallback(peer);
                 }
             }
         }
@@ -0,0 +1,291 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+
+import com.sun.jna.internal.Cleaner;
+
+/**
+ * Records invocations of a native callback in a ring buffer in native
+ * memory, to be processed later by Java code in batches.
+ *
+ * <p>The {@link #getFunctionPointer() function pointer} may be passed to a
+ * native library wherever it expects a callback of the given
+ * {@link Callback} type.  Each invocation copies the arguments into the
+ * buffer and returns immediately without calling into the VM, so neither a
+ * JNI upcall nor attaching the calling thread is required.  The arguments
+ * are retrieved with {@link #drain(EventHandler)}:</p>
+ * <pre><code>
+ * interface SampleCallback extends Callback {
+ *     void invoke(Pointer context, int channel, double value);
+ * }
+ * CallbackRingBuffer events = new CallbackRingBuffer(SampleCallback.class, 4096);
+ * lib.set_sample_callback(events.getFunctionPointer(), null);
+ * ...
+ * events.drain(new CallbackRingBuffer.EventHandler() {
+ *     public void handleEvent(CallbackRingBuffer.Event e) {
+ *         record(e.getInt(1), e.getDouble(2));
+ *     }
+ * });
+ * </code></pre>
+ *
+ * <p>The callback may only use primitive and {@link Pointer} parameters;
+ * <code>char</code> is not supported.  If it declares a return type, the
+ * native caller receives zero.  Pointer arguments are recorded as addresses
+ * only; the memory they reference is not copied.  Any number of native
+ * threads may invoke the callback concurrently, while events are drained by
+ * one thread at a time.</p>
+ *
+ * <p>As with any callback, the native code must not use the function
+ * pointer after this object has been {@link #close() closed} or garbage
+ * collected.</p>
+ */
+public class CallbackRingBuffer implements Closeable {
+
+    /** What happens when the callback is invoked while the buffer is full. */
+    public enum OverflowPolicy {
+        /** Discard the event and count it, see {@link #getDroppedCount()}. */
+        DROP,
+        /** Wait, yielding the processor, until an event is drained.  The
+         * native caller is blocked in the meantime, so events must be drained
+         * from a different thread.
+         */
+        BLOCK
+    }
+
+    /** Processes events drained from the buffer. */
+    public interface EventHandler {
+        /**
+         * @param event the arguments of a single invocation; only valid
+         * until this method returns
+         */
+        void handleEvent(Event event);
+    }
+
+    /** Provides access to the arguments of a recorded invocation. */
+    public static final class Event {
+        private final Pointer buffer;
+        private final int argumentCount;
+        private long offset;
+
+        private Event(Pointer buffer, int argumentCount) {
+            this.buffer = buffer;
+            this.argumentCount = argumentCount;
+        }
+
+        public int getArgumentCount() {
+            return argumentCount;
+        }
+
+        private long offset(int index) {
+            if (index < 0 || index >= argumentCount) {
+                throw new IndexOutOfBoundsException("Invalid argument index: " + index);
+            }
+            return offset + (long) index * CELL_SIZE;
+        }
+
+        public boolean getBoolean(int index) {
+            return buffer.getInt(offset(index)) != 0;
+        }
+
+        public byte getByte(int index) {
+            return buffer.getByte(offset(index));
+        }
+
+        public short getShort(int index) {
+            return buffer.getShort(offset(index));
+        }
+
+        public int getInt(int index) {
+            return buffer.getInt(offset(index));
+        }
+
+        public long getLong(int index) {
+            return buffer.getLong(offset(index));
+        }
+
+        public float getFloat(int index) {
+            return buffer.getFloat(offset(index));
+        }
+
+        public double getDouble(int index) {
+            return buffer.getDouble(offset(index));
+        }
+
+        public Pointer getPointer(int index) {
+            return buffer.getPointer(offset(index));
+        }
+    }
+
+    /** Storage used for each argument of a recorded invocation. */
+    private static final int CELL_SIZE = 8;
+    /** Number of events copied out of the ring with each native call. */
+    private static final int BATCH_SIZE = 256;
+
+    private final Class<?>[] parameterTypes;
+    private final Pointer functionPointer;
+    private final Memory batch;
+    private final Event event;
+    private final Cleaner.Cleanable cleanable;
+    private long ring;
+
+    /**
+     * Create a buffer which discards events when full.
+     *
+     * @param type the callback type
+     * @param capacity the minimum number of events which can be held, rounded
+     * up to a power of two
+     */
+    public CallbackRingBuffer(Class<? extends Callback> type, int capacity) {
+        this(type, capacity, OverflowPolicy.DROP);
+    }
+
+    /**
+     * @param type the callback type
+     * @param capacity the minimum number of events which can be held, rounded
+     * up to a power of two
+     * @param policy what to do with events when the buffer is full
+     * @throws IllegalArgumentException if the callback signature is not
+     * supported or the capacity is not positive.
+     */
+    public CallbackRingBuffer(Class<? extends Callback> type, int capacity, OverflowPolicy policy) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        Class<?> cls = CallbackReference.findCallbackClass(type);
+        Method method = CallbackReference.getCallbackMethod(cls);
+        parameterTypes = method.getParameterTypes();
+        long[] argTypes = new long[parameterTypes.length];
+        for (int i=0;i < parameterTypes.length;i++) {
+            if (!isSupported(parameterTypes[i])) {
+                throw new IllegalArgumentException("Callback argument " + parameterTypes[i]
+                                                   + " is not supported in a ring buffer: " + method);
+            }
+            argTypes[i] = Structure.FFIType.get(parameterTypes[i]).getPointer().peer;
+        }
+        Class<?> returnType = method.getReturnType();
+        if (returnType != void.class && !isSupported(returnType)) {
+            throw new IllegalArgumentException("Callback return type " + returnType
+                                               + " is not supported in a ring buffer: " + method);
+        }
+        int callingConvention = AltCallingConvention.class.isAssignableFrom(cls)
+            ? Function.ALT_CONVENTION : Function.C_CONVENTION;
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+
+        ring = Native.createEventRing(argTypes,
+                                      Structure.FFIType.get(returnType).getPointer().peer,
+                                      callingConvention, size, policy.ordinal());
+        functionPointer = new Pointer(ring).getPointer(0);
+        batch = new Memory(Math.max(1, (long) BATCH_SIZE * parameterTypes.length * CELL_SIZE));
+        event = new Event(batch, parameterTypes.length);
+        cleanable = Cleaner.getCleaner().register(this, new RingDisposer(ring));
+    }
+
+    private static boolean isSupported(Class<?> type) {
+        return type == Pointer.class
+            || (type.isPrimitive() && type != char.class && type != void.class);
+    }
+
+    /** @return the native function to be passed to native code as callback */
+    public Pointer getFunctionPointer() {
+        return functionPointer;
+    }
+
+    /** @return the parameter types of the callback */
+    public Class<?>[] getParameterTypes() {
+        return parameterTypes.clone();
+    }
+
+    /**
+     * Process all events currently held in the buffer.
+     *
+     * @param handler invoked for each event, in the order the events were
+     * recorded
+     * @return the number of events processed
+     */
+    public int drain(EventHandler handler) {
+        return drain(handler, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Process events currently held in the buffer.  If the handler throws an
+     * exception, the events copied out of the buffer together with the
+     * failing one are lost.
+     *
+     * @param handler invoked for each event, in the order the events were
+     * recorded
+     * @param maxEvents maximum number of events to process
+     * @return the number of events processed
+     */
+    public synchronized int drain(EventHandler handler, int maxEvents) {
+        if (ring == 0) {
+            throw new IllegalStateException("Ring buffer has been closed");
+        }
+        int recordSize = parameterTypes.length * CELL_SIZE;
+        int total = 0;
+        while (total < maxEvents) {
+            int count = Native.drainEventRing(ring, batch.peer, Math.min(BATCH_SIZE, maxEvents - total));
+            for (int i=0;i < count;i++) {
+                event.offset = (long) i * recordSize;
+                handler.handleEvent(event);
+            }
+            total += count;
+            if (count < BATCH_SIZE) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /** @return the number of events discarded because the buffer was full */
+    public synchronized long getDroppedCount() {
+        return ring == 0 ? 0 : Native.getEventRingDropped(ring);
+    }
+
+    /** Free the native function and buffer.  The native code must no longer
+     * invoke the function.
+     */
+    @Override
+    public synchronized void close() {
+        ring = 0;
+        cleanable.clean();
+    }
+
+    private static final class RingDisposer implements Runnable {
+        private long ring;
+
+        RingDisposer(long ring) {
+            this.ring = ring;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (ring != 0) {
+                Native.freeEventRing(ring);
+                ring = 0;
+            }
+        }
+    }
+}
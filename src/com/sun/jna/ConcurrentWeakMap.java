@@ -0,0 +1,227 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Map with weakly referenced keys which may be accessed concurrently
+ * without locking, like a {@link java.util.WeakHashMap} backed by a
+ * {@link ConcurrentHashMap}.
+ *
+ * <p>Keys are compared by identity or, for keys such as {@link Pointer} which
+ * are looked up by value, by {@link Object#equals}.  An entry is removed
+ * once its key has been garbage collected; stale entries are purged on
+ * modification, on {@link #size} and on {@link #containsValue}.  Null keys
+ * are not supported.</p>
+ */
+final class ConcurrentWeakMap<K, V> extends AbstractMap<K, V> {
+
+    private final ConcurrentHashMap<Object, V> map = new ConcurrentHashMap<>();
+    private final ReferenceQueue<K> queue = new ReferenceQueue<>();
+    private final boolean identity;
+    private final EntrySet entrySet = new EntrySet();
+
+    /**
+     * @param identity whether keys are compared by identity rather than
+     * {@link Object#equals}
+     */
+    ConcurrentWeakMap(boolean identity) {
+        this.identity = identity;
+    }
+
+    private int hash(Object key) {
+        return identity ? System.identityHashCode(key) : key.hashCode();
+    }
+
+    private boolean same(Object key, Object other) {
+        return key == other || (!identity && key != null && key.equals(other));
+    }
+
+    /** Implemented by stored and lookup keys so that they compare equal. */
+    private interface Key {
+        Object get();
+    }
+
+    private final class WeakKey extends WeakReference<K> implements Key {
+        private final int hash;
+
+        WeakKey(K key) {
+            super(key, queue);
+            this.hash = hash(key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            Object key = get();
+            return key != null && o instanceof Key && same(key, ((Key)o).get());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final class LookupKey implements Key {
+        private final Object key;
+
+        LookupKey(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public Object get() {
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && same(key, ((Key)o).get());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash(key);
+        }
+    }
+
+    private void expunge() {
+        for (Reference<? extends K> ref = queue.poll(); ref != null; ref = queue.poll()) {
+            map.remove(ref);
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        return key == null ? null : map.get(new LookupKey(key));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && map.containsKey(new LookupKey(key));
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        expunge();
+        return map.containsValue(value);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        expunge();
+        return map.put(new WeakKey(key), value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        expunge();
+        return key == null ? null : map.remove(new LookupKey(key));
+    }
+
+    @Override
+    public void clear() {
+        expunge();
+        map.clear();
+    }
+
+    @Override
+    public int size() {
+        expunge();
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return entrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public int size() {
+            return ConcurrentWeakMap.this.size();
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            final Iterator<Map.Entry<Object, V>> iter = map.entrySet().iterator();
+            return new Iterator<Map.Entry<K, V>>() {
+                private Map.Entry<K, V> next;
+                private Object nextKey;
+                private Object lastKey;
+
+                @Override
+                public boolean hasNext() {
+                    while (next == null && iter.hasNext()) {
+                        Map.Entry<Object, V> e = iter.next();
+                        @SuppressWarnings("unchecked")
+                        K key = ((WeakKey)e.getKey()).get();
+                        if (key != null) {
+                            next = new SimpleImmutableEntry<>(key, e.getValue());
+                            nextKey = e.getKey();
+                        }
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Map.Entry<K, V> e = next;
+                    next = null;
+                    lastKey = nextKey;
+                    return e;
+                }
+
+                @Override
+                public void remove() {
+                    if (lastKey == null) {
+                        throw new IllegalStateException();
+                    }
+                    map.remove(lastKey);
+                    lastKey = null;
+                }
+            };
+        }
+    }
+}
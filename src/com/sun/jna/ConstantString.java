@@ -0,0 +1,53 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a {@link String} or {@link WString} parameter of a {@link Library}
+ * method, or of a directly mapped native method, whose values are reused
+ * across calls, such as attribute names, keys or format strings.
+ * <p>
+ * Instead of encoding the argument and allocating a new native copy on every
+ * invocation, the native copy is taken from a bounded cache shared by all
+ * libraries, keyed by the string value and its encoding:
+ * <pre><code>
+ * interface XAttr extends Library {
+ *     int getxattr(String path, &#64;ConstantString String name, Pointer value, int size);
+ * }
+ * </code></pre>
+ * The native function must treat the argument as <code>const</code>.  Use
+ * {@link InternedString} to request the same behavior for individual values
+ * or outside of method signatures.
+ *
+ * @see InternedString
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface ConstantString {
+}
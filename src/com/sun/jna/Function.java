@@ -25,6 +25,8 @@ package com.sun.jna;
 import java.lang.reflect.Method;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * <p>An abstraction for a native function pointer.  An instance of
@@ -211,9 +213,13 @@ public class Function extends Pointer {
     final String encoding;
     final int callFlags;
     final Map<String, ?> options;
+    // Per-thread by-value result, see ReuseStructures
+    private volatile ThreadLocal<Structure> reusedResult;
 
     /** For internal JNA use. */
     static final String OPTION_INVOKING_METHOD = "invoking-method";
+    /** For internal JNA use: parameters annotated with {@link ConstantString}. */
+    static final String OPTION_CONSTANT_STRINGS = "constant-strings";
 
     /** For checking if methods declare varargs */
     private static final VarArgsChecker IS_VARARGS = VarArgsChecker.create();
@@ -298,6 +304,11 @@ public class Function extends Pointer {
         return functionName;
     }
 
+    /** @return the name of the library containing this function, or null */
+    String getLibraryName() {
+        return library != null ? library.getName() : null;
+    }
+
     public int getCallingConvention() {
         return callFlags & MASK_CC;
     }
@@ -324,6 +335,77 @@ public class Function extends Pointer {
      * the method has to be in the options under key {@link Function#OPTION_INVOKING_METHOD}.
      */
     Object invoke(Method invokingMethod, Class<?>[] paramTypes, Class<?> returnType, Object[] inArgs, Map<String, ?> options) {
+        NativeEvents.Event event = NativeEvents.NATIVE_CALL.begin();
+        if (event == null) {
+            return invoke(invokingMethod, paramTypes, returnType, inArgs, options, null);
+        }
+        try {
+            return invoke(invokingMethod, paramTypes, returnType, inArgs, options, event);
+        } finally {
+            event.commit(getLibraryName(), functionName, event.outsideNative());
+        }
+    }
+
+    /** Convert the arguments on the calling thread, then make the native
+     * call, convert its result and read back memory it may have modified
+     * with the given executor.
+     * @return a future completed with the converted result or the error
+     */
+    CompletableFuture<Object> invokeAsync(Method invokingMethod, Class<?>[] paramTypes, Class<?> returnType, Object[] inArgs, Map<String, ?> options, Executor executor) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        try {
+            Object[] args = convertArguments(invokingMethod, paramTypes, inArgs, options);
+            executor.execute(new AsyncCall(invokingMethod, returnType, inArgs, args, options, future));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /** A native call queued by {@link #invokeAsync}. */
+    final class AsyncCall implements Runnable {
+        private final Method invokingMethod;
+        private final Class<?> returnType;
+        private final Object[] inArgs;
+        private final Object[] args;
+        private final Map<String, ?> options;
+        private final CompletableFuture<Object> future;
+
+        AsyncCall(Method invokingMethod, Class<?> returnType, Object[] inArgs, Object[] args, Map<String, ?> options, CompletableFuture<Object> future) {
+            this.invokingMethod = invokingMethod;
+            this.returnType = returnType;
+            this.inArgs = inArgs;
+            this.args = args;
+            this.options = options;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            NativeEvents.Event event = NativeEvents.NATIVE_CALL.begin();
+            try {
+                future.complete(invokeConverted(invokingMethod, returnType, inArgs, args, options, event));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                if (event != null) {
+                    event.commit(getLibraryName(), functionName, event.outsideNative());
+                }
+            }
+        }
+
+        /** Complete the call with the given error instead of running it. */
+        void fail(Throwable t) {
+            future.completeExceptionally(t);
+        }
+    }
+
+    private Object invoke(Method invokingMethod, Class<?>[] paramTypes, Class<?> returnType, Object[] inArgs, Map<String, ?> options, NativeEvents.Event event) {
+        Object[] args = convertArguments(invokingMethod, paramTypes, inArgs, options);
+        return invokeConverted(invokingMethod, returnType, inArgs, args, options, event);
+    }
+
+    private Object[] convertArguments(Method invokingMethod, Class<?>[] paramTypes, Object[] inArgs, Map<String, ?> options) {
         // Clone the argument array to obtain a scratch space for modified
         // types/values
         Object[] args = { };
@@ -338,16 +420,23 @@ public class Function extends Pointer {
         TypeMapper mapper = (TypeMapper)options.get(Library.OPTION_TYPE_MAPPER);
         boolean allowObjects = Boolean.TRUE.equals(options.get(Library.OPTION_ALLOW_OBJECTS));
         boolean isVarArgs = args.length > 0 && invokingMethod != null ? isVarArgs(invokingMethod) : false;
-        int fixedArgs = args.length > 0 && invokingMethod != null ? fixedArgs(invokingMethod) : 0;
+        boolean[] constants = (boolean[])options.get(OPTION_CONSTANT_STRINGS);
         for (int i=0; i < args.length; i++) {
             Class<?> paramType = invokingMethod != null
                 ? (isVarArgs && i >= paramTypes.length-1
                    ? paramTypes[paramTypes.length-1].getComponentType()
                    : paramTypes[i])
                 : null;
-            args[i] = convertArgument(args, i, invokingMethod, mapper, allowObjects, paramType);
+            boolean constant = constants != null && i < constants.length && constants[i];
+            args[i] = convertArgument(args, i, invokingMethod, mapper, allowObjects, paramType, constant);
         }
+        return args;
+    }
 
+    private Object invokeConverted(Method invokingMethod, Class<?> returnType, Object[] inArgs, Object[] args, Map<String, ?> options, NativeEvents.Event event) {
+        TypeMapper mapper = (TypeMapper)options.get(Library.OPTION_TYPE_MAPPER);
+        boolean allowObjects = Boolean.TRUE.equals(options.get(Library.OPTION_ALLOW_OBJECTS));
+        int fixedArgs = args.length > 0 && invokingMethod != null ? fixedArgs(invokingMethod) : 0;
         Class<?> nativeReturnType = returnType;
         FromNativeConverter resultConverter = null;
         if (NativeMapped.class.isAssignableFrom(returnType)) {
@@ -361,7 +450,33 @@ public class Function extends Pointer {
             }
         }
 
-        Object result = invoke(args, nativeReturnType, allowObjects, fixedArgs);
+        FunctionInterceptor[] interceptors = InterceptorChain.interceptors(options);
+        Object interceptorContext = interceptors != null
+            ? InterceptorChain.beforeInvoke(interceptors, this, args) : null;
+        Object result;
+        if (event != null) {
+            event.nativeStart();
+        }
+        try {
+            if (Structure.ByValue.class.isAssignableFrom(nativeReturnType)
+                && Boolean.TRUE.equals(options.get(Library.OPTION_REUSE_STRUCTURES))) {
+                result = invokeReusedStructure(args, nativeReturnType, fixedArgs);
+            } else {
+                result = invoke(args, nativeReturnType, allowObjects, fixedArgs);
+            }
+        } catch (RuntimeException | Error e) {
+            if (interceptors != null) {
+                InterceptorChain.afterInvoke(interceptors, this, args, null, e, interceptorContext);
+            }
+            throw e;
+        } finally {
+            if (event != null) {
+                event.nativeEnd();
+            }
+        }
+        if (interceptors != null) {
+            InterceptorChain.afterInvoke(interceptors, this, args, result, null, interceptorContext);
+        }
         // Convert the result to a custom value/type if appropriate
         if (resultConverter != null) {
             FromNativeContext context;
@@ -496,6 +611,30 @@ public class Function extends Pointer {
         return result;
     }
 
+    /** Return a by-value structure into the instance kept for the calling
+     * thread.
+     */
+    private Structure invokeReusedStructure(Object[] args, Class<?> returnType, int fixedArgs) {
+        ThreadLocal<Structure> cache = reusedResult;
+        if (cache == null) {
+            synchronized(this) {
+                cache = reusedResult;
+                if (cache == null) {
+                    reusedResult = cache = new ThreadLocal<>();
+                }
+            }
+        }
+        Structure s = cache.get();
+        if (s == null || s.getClass() != returnType) {
+            s = Structure.newInstance((Class<? extends Structure>)returnType);
+            cache.set(s);
+        }
+        int callFlags = this.callFlags | ((fixedArgs & USE_VARARGS) << USE_VARARGS_SHIFT);
+        Native.invokeStructure(this, this.peer, callFlags, args, s);
+        s.autoRead();
+        return s;
+    }
+
     private Pointer invokePointer(int callFlags, Object[] args) {
         long ptr = Native.invokePointer(this, this.peer, callFlags, args);
         return ptr == 0 ? null : new Pointer(ptr);
@@ -503,7 +642,8 @@ public class Function extends Pointer {
 
     private Object convertArgument(Object[] args, int index,
                                    Method invokingMethod, TypeMapper mapper,
-                                   boolean allowObjects, Class<?> expectedType) {
+                                   boolean allowObjects, Class<?> expectedType,
+                                   boolean constant) {
         Object arg = args[index];
         if (arg != null) {
             Class<?> type = arg.getClass();
@@ -564,10 +704,18 @@ public class Function extends Pointer {
             // than in native code so that the values will be valid until
             // this method returns.
             // Convert String to native pointer (const)
+            if (constant) {
+                return NativeString.getConstant((String)arg, encoding);
+            }
             return new NativeString((String)arg, encoding).getPointer();
         } else if (arg instanceof WString) {
             // Convert WString to native pointer (const)
+            if (constant) {
+                return NativeString.getConstant(arg.toString(), NativeString.WIDE_STRING);
+            }
             return new NativeString(arg.toString(), true).getPointer();
+        } else if (arg instanceof InternedString) {
+            return ((InternedString)arg).getPointer(encoding);
         } else if (arg instanceof Boolean) {
             // Default conversion of boolean to int; if you want something
             // different, use a ToNativeConverter
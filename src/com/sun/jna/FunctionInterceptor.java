@@ -0,0 +1,57 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+/** Hooks run around every call of a native function, installed as a
+ * list with {@link Library#OPTION_INTERCEPTORS}.  Unlike an
+ * {@link InvocationMapper}, interceptors do not replace the invocation and
+ * may be combined; they apply to interface mapped libraries, to
+ * {@link Function} invocations with options and to direct mapped classes
+ * registered with a {@link NativeLibrary} which has the option.<p>
+ * For interface mapping, the arguments are those passed to the native
+ * function after conversion (e.g. by a {@link TypeMapper}) and the result
+ * is the native result before conversion.  For direct mapping, the
+ * arguments and the result are those of the Java method.  The argument
+ * array must not be modified.<p>
+ * {@link #beforeInvoke} runs in list order, {@link #afterInvoke} in
+ * reverse order.  Both run on the calling thread, and must be thread safe.
+ * @see FunctionMetrics
+ */
+public interface FunctionInterceptor {
+
+    /** Called before the native function is invoked.
+     * @param function the function about to be called
+     * @param args the arguments
+     * @return a context passed to {@link #afterInvoke}, may be null
+     */
+    Object beforeInvoke(Function function, Object[] args);
+
+    /** Called after the native function returned or failed.
+     * @param function the function called
+     * @param args the arguments
+     * @param result the result, null if the function failed or returns void
+     * @param error the exception thrown by the call, null if none
+     * @param context the value returned by {@link #beforeInvoke}
+     */
+    void afterInvoke(Function function, Object[] args, Object result, Throwable error, Object context);
+}
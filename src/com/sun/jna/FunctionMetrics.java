@@ -0,0 +1,215 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/** A {@link FunctionInterceptor} counting the calls and errors of each
+ * native function and recording their latency in a histogram, to find the
+ * functions which take most time.  Recording takes no locks.  The
+ * statistics are available from {@link #getStatistics} and, after
+ * {@link #registerMBean}, through JMX.
+ * <blockquote>
+ * <pre><code>
+ * FunctionMetrics metrics = new FunctionMetrics();
+ * metrics.registerMBean("mylib");
+ * MyLibrary lib = Native.load("mylib", MyLibrary.class,
+ *     Collections.singletonMap(Library.OPTION_INTERCEPTORS, metrics));
+ * </code></pre>
+ * </blockquote>
+ * Latencies are kept in buckets with a relative width of at most 1/16
+ * (about 6%), like those of HdrHistogram with one significant digit.
+ */
+public class FunctionMetrics implements FunctionInterceptor, FunctionMetricsMXBean {
+
+    private final ConcurrentHashMap<Function, Recorder> recorders = new ConcurrentHashMap<>();
+
+    @Override
+    public Object beforeInvoke(Function function, Object[] args) {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void afterInvoke(Function function, Object[] args, Object result, Throwable error, Object context) {
+        long elapsed = System.nanoTime() - (Long) context;
+        Recorder recorder = recorders.get(function);
+        if (recorder == null) {
+            recorder = new Recorder(function);
+            Recorder existing = recorders.putIfAbsent(function, recorder);
+            if (existing != null) {
+                recorder = existing;
+            }
+        }
+        recorder.record(elapsed, error != null);
+    }
+
+    @Override
+    public Map<String, Statistics> getStatistics() {
+        Map<String, Statistics> result = new TreeMap<>();
+        for (Recorder recorder : recorders.values()) {
+            Statistics statistics = recorder.statistics();
+            result.put(statistics.getLibrary() + ":" + statistics.getFunction(), statistics);
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        recorders.clear();
+    }
+
+    /** Register this object with the platform MBean server, under
+     * <code>com.sun.jna:type=FunctionMetrics,name=</code><em>name</em>.
+     * @param name distinguishes instances
+     * @return the name registered
+     * @throws JMException if registration fails
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.sun.jna:type=FunctionMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /** Latency statistics of a single function; times are in nanoseconds,
+     * percentiles are the upper bounds of histogram buckets.
+     */
+    public static class Statistics {
+        private final String library;
+        private final String function;
+        private final long calls;
+        private final long errors;
+        private final long totalTime;
+        private final long maxTime;
+        private final long[] percentiles;
+
+        Statistics(String library, String function, long calls, long errors, long totalTime, long maxTime, long[] percentiles) {
+            this.library = library;
+            this.function = function;
+            this.calls = calls;
+            this.errors = errors;
+            this.totalTime = totalTime;
+            this.maxTime = maxTime;
+            this.percentiles = percentiles;
+        }
+
+        public String getLibrary() { return library; }
+        public String getFunction() { return function; }
+        public long getCalls() { return calls; }
+        public long getErrors() { return errors; }
+        public long getTotalTime() { return totalTime; }
+        public long getMeanTime() { return calls == 0 ? 0 : totalTime / calls; }
+        public long getMaxTime() { return maxTime; }
+        public long getMedianTime() { return percentiles[0]; }
+        public long getP90Time() { return percentiles[1]; }
+        public long getP99Time() { return percentiles[2]; }
+        public long getP999Time() { return percentiles[3]; }
+
+        @Override
+        public String toString() {
+            return library + ":" + function + " calls=" + calls + " errors=" + errors
+                + " total=" + totalTime + "ns mean=" + getMeanTime() + "ns p50=" + getMedianTime()
+                + "ns p99=" + getP99Time() + "ns max=" + maxTime + "ns";
+        }
+    }
+
+    private static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    /** Bits of a value below its highest bit which select a sub-bucket. */
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** @return the largest value in the given bucket */
+    static long bucketLimit(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long width = 1L << (exp - SUB_BITS);
+        return ((SUB_BUCKETS + sub) << (exp - SUB_BITS)) + width - 1;
+    }
+
+    private static final class Recorder {
+        private final String library;
+        private final String function;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalTime = new LongAdder();
+        private final LongAccumulator maxTime = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        Recorder(Function f) {
+            this.library = f.getLibraryName();
+            this.function = f.getName();
+        }
+
+        void record(long elapsed, boolean error) {
+            calls.increment();
+            if (error) {
+                errors.increment();
+            }
+            totalTime.add(elapsed);
+            maxTime.accumulate(elapsed);
+            histogram.incrementAndGet(bucket(elapsed));
+        }
+
+        Statistics statistics() {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i=0;i < BUCKETS;i++) {
+                counts[i] = histogram.get(i);
+                total += counts[i];
+            }
+            long[] percentiles = new long[PERCENTILES.length];
+            long seen = 0;
+            int p = 0;
+            for (int i=0;i < BUCKETS && p < percentiles.length;i++) {
+                seen += counts[i];
+                while (p < percentiles.length && counts[i] > 0 && seen >= Math.ceil(PERCENTILES[p] * total)) {
+                    percentiles[p++] = bucketLimit(i);
+                }
+            }
+            return new Statistics(library, function, calls.sum(), errors.sum(),
+                                  totalTime.sum(), maxTime.get(), percentiles);
+        }
+    }
+}
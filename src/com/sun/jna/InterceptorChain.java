@@ -0,0 +1,93 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.util.Collection;
+import java.util.Map;
+
+/** The interceptors of a function; called by {@link Function} and by the
+ * native dispatch of direct mapped methods.
+ */
+final class InterceptorChain {
+
+    private static final FunctionInterceptor[] EMPTY = new FunctionInterceptor[0];
+
+    private final Function function;
+    private final FunctionInterceptor[] interceptors;
+
+    InterceptorChain(Function function, FunctionInterceptor[] interceptors) {
+        this.function = function;
+        this.interceptors = interceptors;
+    }
+
+    /** @return the interceptors in the given options, null if none */
+    static FunctionInterceptor[] interceptors(Map<String, ?> options) {
+        Object value = options.get(Library.OPTION_INTERCEPTORS);
+        if (value == null) {
+            return null;
+        }
+        FunctionInterceptor[] result;
+        if (value instanceof FunctionInterceptor[]) {
+            result = (FunctionInterceptor[]) value;
+        } else if (value instanceof FunctionInterceptor) {
+            result = new FunctionInterceptor[] { (FunctionInterceptor) value };
+        } else if (value instanceof Collection) {
+            result = ((Collection<?>) value).toArray(EMPTY);
+        } else {
+            throw new IllegalArgumentException("Invalid value for " + Library.OPTION_INTERCEPTORS + ": " + value);
+        }
+        return result.length > 0 ? result : null;
+    }
+
+    static Object beforeInvoke(FunctionInterceptor[] interceptors, Function function, Object[] args) {
+        if (interceptors.length == 1) {
+            return interceptors[0].beforeInvoke(function, args);
+        }
+        Object[] contexts = new Object[interceptors.length];
+        for (int i=0;i < interceptors.length;i++) {
+            contexts[i] = interceptors[i].beforeInvoke(function, args);
+        }
+        return contexts;
+    }
+
+    static void afterInvoke(FunctionInterceptor[] interceptors, Function function, Object[] args, Object result, Throwable error, Object context) {
+        if (interceptors.length == 1) {
+            interceptors[0].afterInvoke(function, args, result, error, context);
+            return;
+        }
+        Object[] contexts = (Object[]) context;
+        for (int i=interceptors.length-1;i >= 0;i--) {
+            interceptors[i].afterInvoke(function, args, result, error, contexts[i]);
+        }
+    }
+
+    // Called from native code
+    Object beforeInvoke(Object[] args) {
+        return beforeInvoke(interceptors, function, args);
+    }
+
+    // Called from native code
+    void afterInvoke(Object[] args, Object result, Throwable error, Object context) {
+        afterInvoke(interceptors, function, args, result, error, context);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+/** Wrapper class to identify a <code>const char*</code> argument whose native
+ * copy may be shared between calls.  The native representation is obtained
+ * from the same cache as arguments annotated with {@link ConstantString},
+ * using the encoding of the function being called.
+ *
+ * @see ConstantString
+ */
+public final class InternedString implements CharSequence, Comparable {
+    private final String string;
+    public InternedString(String s) {
+        if (s == null) {
+            throw new NullPointerException("String initializer must be non-null");
+        }
+        this.string = s;
+    }
+    /** @return the native copy of this string in the given encoding, which
+     * is shared with other users of the same value and must not be modified
+     */
+    public Pointer getPointer(String encoding) {
+        return NativeString.getConstant(string, encoding);
+    }
+    @Override
+    public String toString() {
+        return string;
+    }
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof InternedString) && toString().equals(o.toString());
+    }
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+    @Override
+    public int compareTo(Object o) {
+        return toString().compareTo(o.toString());
+    }
+    @Override
+    public int length() {
+        return toString().length();
+    }
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reader for the glibc dynamic linker cache (<code>/etc/ld.so.cache</code>),
+ * which lists the libraries known to <code>ldconfig</code> and where they
+ * live.
+ *
+ * <p>Both the old (<code>ld.so-1.7.0</code>) and the new
+ * (<code>glibc-ld.so.cache1.1</code>) formats are understood, including
+ * files which carry both.  Reading the cache directly avoids running
+ * <code>ldconfig -p</code> in a child process.</p>
+ */
+final class LdSoCache {
+
+    static final String CACHE_FILE = "/etc/ld.so.cache";
+
+    private static final String OLD_MAGIC = "ld.so-1.7.0";
+    private static final String NEW_MAGIC = "glibc-ld.so.cache";
+    private static final String NEW_VERSION = "1.1";
+    private static final int OLD_HEADER_SIZE = 16;
+    private static final int OLD_ENTRY_SIZE = 12;
+    private static final int NEW_HEADER_SIZE = 48;
+    private static final int NEW_ENTRY_SIZE = 24;
+
+    private static final int FLAG_TYPE_MASK = 0x00ff;
+    private static final int FLAG_ELF = 0x0001;
+    private static final int FLAG_ELF_LIBC6 = 0x0003;
+    private static final int FLAG_REQUIRED_MASK = 0xff00;
+    // Architecture flags, from glibc's ldconfig.h
+    private static final int FLAG_NONE = 0x0000;
+    private static final int FLAG_SPARC_LIB64 = 0x0100;
+    private static final int FLAG_IA64_LIB64 = 0x0200;
+    private static final int FLAG_X8664_LIB64 = 0x0300;
+    private static final int FLAG_S390_LIB64 = 0x0400;
+    private static final int FLAG_POWERPC_LIB64 = 0x0500;
+    private static final int FLAG_MIPS64_LIBN32 = 0x0600;
+    private static final int FLAG_MIPS64_LIBN64 = 0x0700;
+    private static final int FLAG_X8664_LIBX32 = 0x0800;
+    private static final int FLAG_ARM_LIBHF = 0x0900;
+    private static final int FLAG_AARCH64_LIB64 = 0x0a00;
+    private static final int FLAG_ARM_LIBSF = 0x0b00;
+    private static final int FLAG_MIPS_LIB32_NAN2008 = 0x0c00;
+    private static final int FLAG_MIPS64_LIBN32_NAN2008 = 0x0d00;
+    private static final int FLAG_MIPS64_LIBN64_NAN2008 = 0x0e00;
+    private static final int FLAG_RISCV_FLOAT_ABI_DOUBLE = 0x1000;
+    private static final int FLAG_LARCH_FLOAT_ABI_DOUBLE = 0x1200;
+
+    private static final class Holder {
+        static final LdSoCache INSTANCE = load(new File(CACHE_FILE));
+    }
+
+    private final List<String> directories;
+    private final Map<String, String> libraries;
+
+    private LdSoCache(List<String> directories, Map<String, String> libraries) {
+        this.directories = directories;
+        this.libraries = libraries;
+    }
+
+    /**
+     * @return the system linker cache, read once per JVM, or
+     * <code>null</code> if it is missing or could not be parsed
+     */
+    static LdSoCache getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static LdSoCache load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                         getArchFlags(Platform.ARCH, Native.POINTER_SIZE == 8));
+        }
+        catch(IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return the architecture flags <code>ldconfig</code> records for
+     * libraries usable by a process of the given architecture and ABI.
+     *
+     * @param arch canonical architecture, as in {@link Platform#ARCH}
+     * @param is64Bit whether the process uses 64-bit pointers
+     * @return the accepted flags, empty if the architecture is unknown
+     */
+    static int[] getArchFlags(String arch, boolean is64Bit) {
+        switch (arch) {
+            case "x86":
+            case "ppc":
+            case "s390":
+            case "sparc":
+                return new int[] { FLAG_NONE };
+            case "x86-64":
+                return new int[] { is64Bit ? FLAG_X8664_LIB64 : FLAG_X8664_LIBX32 };
+            case "ia64":
+                return new int[] { FLAG_IA64_LIB64 };
+            case "ppc64":
+            case "ppc64le":
+                return new int[] { FLAG_POWERPC_LIB64 };
+            case "s390x":
+                return new int[] { FLAG_S390_LIB64 };
+            case "sparcv9":
+                return new int[] { FLAG_SPARC_LIB64 };
+            case "aarch64":
+                return new int[] { FLAG_AARCH64_LIB64 };
+            // Libraries whose float ABI could not be determined carry no flag
+            case "arm":
+                return new int[] { FLAG_ARM_LIBHF, FLAG_NONE };
+            case "armel":
+                return new int[] { FLAG_ARM_LIBSF, FLAG_NONE };
+            // The NaN encoding of the process is not known, accept both
+            case "mips":
+            case "mipsel":
+                return new int[] { FLAG_NONE, FLAG_MIPS_LIB32_NAN2008 };
+            case "mips64":
+            case "mips64el":
+                return is64Bit
+                    ? new int[] { FLAG_MIPS64_LIBN64, FLAG_MIPS64_LIBN64_NAN2008 }
+                    : new int[] { FLAG_MIPS64_LIBN32, FLAG_MIPS64_LIBN32_NAN2008 };
+            case "riscv64":
+                return new int[] { FLAG_RISCV_FLOAT_ABI_DOUBLE };
+            case "loongarch64":
+                return new int[] { FLAG_LARCH_FLOAT_ABI_DOUBLE };
+            default:
+                return new int[0];
+        }
+    }
+
+    /**
+     * Parse the contents of a linker cache.
+     *
+     * @param buffer cache contents, in native byte order
+     * @param archFlags architecture flags of the libraries the library map
+     * should hold, from {@link #getArchFlags}
+     * @throws IOException if the contents are not a recognized cache
+     */
+    static LdSoCache parse(ByteBuffer buffer, int[] archFlags) throws IOException {
+        ByteBuffer buf = buffer.duplicate().order(ByteOrder.nativeOrder());
+        List<String> directories = new ArrayList<>();
+        Map<String, String> libraries = new LinkedHashMap<>();
+        if (startsWith(buf, 0, NEW_MAGIC)) {
+            parseNew(buf, 0, archFlags, directories, libraries);
+        }
+        else if (startsWith(buf, 0, OLD_MAGIC)) {
+            int nlibs = buf.getInt(OLD_MAGIC.length() + 1);
+            if (nlibs < 0 || (long)nlibs * OLD_ENTRY_SIZE > buf.limit() - OLD_HEADER_SIZE) {
+                throw new IOException("Invalid library count " + nlibs);
+            }
+            int end = OLD_HEADER_SIZE + nlibs * OLD_ENTRY_SIZE;
+            // A new format cache may follow the old entries, aligned for
+            // its 64-bit fields
+            int next = (end + 7) & ~7;
+            if (startsWith(buf, next, NEW_MAGIC)) {
+                parseNew(buf, next, archFlags, directories, libraries);
+            }
+            else {
+                for (int i=0;i < nlibs;i++) {
+                    int entry = OLD_HEADER_SIZE + i * OLD_ENTRY_SIZE;
+                    add(buf.getInt(entry), readString(buf, end, buf.getInt(entry + 4)),
+                        readString(buf, end, buf.getInt(entry + 8)), archFlags, directories, libraries);
+                }
+            }
+        }
+        else {
+            throw new IOException("Unrecognized linker cache format");
+        }
+        return new LdSoCache(Collections.unmodifiableList(directories), Collections.unmodifiableMap(libraries));
+    }
+
+    private static void parseNew(ByteBuffer buf, int base, int[] archFlags,
+                                 List<String> directories, Map<String, String> libraries) throws IOException {
+        if (!startsWith(buf, base + NEW_MAGIC.length(), NEW_VERSION)) {
+            throw new IOException("Unsupported linker cache version");
+        }
+        int nlibs = buf.getInt(base + 20);
+        if (nlibs < 0 || (long)nlibs * NEW_ENTRY_SIZE > buf.limit() - base - NEW_HEADER_SIZE) {
+            throw new IOException("Invalid library count " + nlibs);
+        }
+        for (int i=0;i < nlibs;i++) {
+            int entry = base + NEW_HEADER_SIZE + i * NEW_ENTRY_SIZE;
+            add(buf.getInt(entry), readString(buf, base, buf.getInt(entry + 4)),
+                readString(buf, base, buf.getInt(entry + 8)), archFlags, directories, libraries);
+        }
+    }
+
+    private static void add(int flags, String name, String path, int[] archFlags,
+                            List<String> directories, Map<String, String> libraries) {
+        int slash = path.lastIndexOf('/');
+        if (slash > 0) {
+            String dir = path.substring(0, slash);
+            if (!directories.contains(dir)) {
+                directories.add(dir);
+            }
+        }
+        // Entries are sorted by preference; keep the first usable one
+        if (isCompatible(flags, archFlags) && !libraries.containsKey(name)) {
+            libraries.put(name, path);
+        }
+    }
+
+    private static boolean isCompatible(int flags, int[] archFlags) {
+        int type = flags & FLAG_TYPE_MASK;
+        if (type != FLAG_ELF && type != FLAG_ELF_LIBC6) {
+            return false;
+        }
+        int arch = flags & FLAG_REQUIRED_MASK;
+        for (int flag : archFlags) {
+            if (arch == flag) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(ByteBuffer buf, int offset, String magic) {
+        if (offset < 0 || offset + magic.length() > buf.limit()) {
+            return false;
+        }
+        for (int i=0;i < magic.length();i++) {
+            if (buf.get(offset + i) != magic.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String readString(ByteBuffer buf, int base, int offset) throws IOException {
+        int start = base + offset;
+        if (offset < 0 || start >= buf.limit()) {
+            throw new IOException("Invalid string offset " + offset);
+        }
+        int end = start;
+        while (end < buf.limit() && buf.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i=0;i < bytes.length;i++) {
+            bytes[i] = buf.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return directories of all cached libraries, in order of first
+     * appearance, as listed by <code>ldconfig -p</code>
+     */
+    List<String> getDirectories() {
+        return directories;
+    }
+
+    /**
+     * @return map of library file name (usually the soname, e.g.
+     * <code>libc.so.6</code>) to absolute path, for libraries matching
+     * the architecture and ABI of this JVM
+     */
+    Map<String, String> getLibraries() {
+        return libraries;
+    }
+
+    /**
+     * @param name library file name
+     * @return the cached path of the library, or <code>null</code>
+     */
+    String getPath(String name) {
+        return libraries.get(name);
+    }
+}
@@ -25,10 +25,23 @@ package com.sun.jna;
 import com.sun.jna.internal.ReflectionUtils;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
 
 /** Derive from this interface for all native library definitions.
  *
@@ -71,6 +84,19 @@ import java.util.WeakHashMap;
  * fields will be used to determine customization settings for structures and
  * methods defined within the interface.
  * <p>
+ * <b>Asynchronous calls</b><br>
+ * A method may return a {@link CompletableFuture} of its native result
+ * type, e.g. <code>CompletableFuture&lt;Integer&gt;</code> or
+ * <code>CompletableFuture&lt;Void&gt;</code>.  Alternatively, a
+ * <code>void</code> method may take a {@link BiConsumer} of the result and
+ * the error as its last parameter, which is not passed to the native
+ * function.  The arguments are converted on the calling thread; the native
+ * call, the conversion of its result and the reading back of structures and
+ * arrays modified by the call are done by
+ * {@link NativeLibrary#getAsyncExecutor()} or the
+ * {@link #OPTION_ASYNC_EXECUTOR} before the future completes.  Arguments must
+ * not be modified until then.
+ * <p>
  *
  * @author  Todd Fast, todd.fast@sun.com
  * @author  Timothy Wall, twalljava@dev.java.net
@@ -119,6 +145,51 @@ public interface Library {
      */
     String OPTION_SYMBOL_PROVIDER = "symbol-provider";
 
+    /** <p>{@link java.util.concurrent.Executor} on which callbacks declared
+     * by the library that return <code>void</code> are run.  The native
+     * thread invoking such a callback only converts the arguments and
+     * returns immediately, without waiting for the Java callback to finish
+     * (see {@link Native#setCallbackExecutor}).</p>
+     */
+    String OPTION_CALLBACK_EXECUTOR = "callback-executor";
+
+    /** <p>Boolean flag to reuse {@link Structure} instances, see
+     * {@link ReuseStructures}.  Applies to all methods of the library and
+     * to the callbacks it declares.</p>
+     */
+    String OPTION_REUSE_STRUCTURES = "reuse-structures";
+
+    /** <p>Resolve the native functions of all methods of the library
+     * interface when the library is loaded, instead of on first use.  Any
+     * missing symbols are reported together in a single
+     * {@link UnsatisfiedLinkError} thrown by {@link Native#load}.</p>
+     * The value is either {@link Boolean#TRUE}, or an
+     * {@link java.util.concurrent.Executor} on which the methods are
+     * resolved in parallel.
+     */
+    String OPTION_EAGER_BIND = "eager-bind";
+
+    /** <p>{@link FunctionInterceptor}s called around every native call of
+     * the library, as a {@link java.util.List} or a single interceptor.
+     * Also applies to classes registered for direct mapping with a
+     * {@link NativeLibrary} loaded with this option.</p>
+     * @see FunctionMetrics
+     */
+    String OPTION_INTERCEPTORS = "interceptors";
+
+    /** <p>Option key for an {@link Executor} making the native calls of
+     * methods returning {@link CompletableFuture}, instead of the pool of the
+     * {@link NativeLibrary}.</p>
+     * @see NativeLibrary#getAsyncExecutor()
+     */
+    String OPTION_ASYNC_EXECUTOR = "async-executor";
+
+    /** <p>Option key for a {@link Boolean} marking all methods of the
+     * library as {@link Blocking}, so that calls from virtual threads are
+     * made on platform threads.</p>
+     */
+    String OPTION_BLOCKING = "blocking";
+
     static class Handler implements InvocationHandler {
 
         static final Method OBJECT_TOSTRING;
@@ -138,7 +209,7 @@ public interface Library {
         /**
          * FunctionInfo has to be immutable to to make the object visible
          * to other threads fully initialized. This is a prerequisite for
-         * using the class in the double checked locking scenario of {@link Handler#invoke(Object, Method, Object[])}
+         * using the class in the lock-free lookup of {@link Handler#invoke(Object, Method, Object[])}
          */
         private static final class FunctionInfo {
             final InvocationHandler handler;
@@ -147,6 +218,14 @@ public interface Library {
             final Object methodHandle;
             final Map<String, ?> options;
             final Class<?>[] parameterTypes;
+            // Result type of an asynchronous call, or null
+            final Class<?> asyncType;
+            // Whether the last argument receives the result
+            final boolean completion;
+            // Whether calls from virtual threads are offloaded
+            final boolean blocking;
+            // Options of offloaded calls, without structure reuse
+            final Map<String, ?> blockingOptions;
 
             FunctionInfo(Object mh) {
                 this.handler = null;
@@ -155,24 +234,62 @@ public interface Library {
                 this.options = null;
                 this.parameterTypes = null;
                 this.methodHandle = mh;
+                this.asyncType = null;
+                this.completion = false;
+                this.blocking = false;
+                this.blockingOptions = null;
             }
 
-            FunctionInfo(InvocationHandler handler, Function function, Class<?>[] parameterTypes, boolean isVarArgs, Map<String, ?> options) {
+            FunctionInfo(InvocationHandler handler, Function function, Class<?>[] parameterTypes, boolean isVarArgs, Map<String, ?> options, Class<?> asyncType, boolean completion, boolean blocking) {
                 this.handler = handler;
                 this.function = function;
                 this.isVarArgs = isVarArgs;
                 this.options = options;
                 this.parameterTypes = parameterTypes;
                 this.methodHandle = null;
+                this.asyncType = asyncType;
+                this.completion = completion;
+                this.blocking = blocking;
+                if (blocking && options.containsKey(OPTION_REUSE_STRUCTURES)) {
+                    // The result is returned to another thread than the one
+                    // making the call
+                    Map<String, Object> copy = new HashMap<>(options);
+                    copy.remove(OPTION_REUSE_STRUCTURES);
+                    this.blockingOptions = copy;
+                } else {
+                    this.blockingOptions = options;
+                }
             }
         }
 
+        /** @return the class of the value of a {@link CompletableFuture} or
+         * the first argument of a {@link BiConsumer} type
+         */
+        private static Class<?> asyncResultType(Method method, Type type) {
+            if (type instanceof ParameterizedType) {
+                Type arg = ((ParameterizedType)type).getActualTypeArguments()[0];
+                if (arg instanceof WildcardType) {
+                    Type[] lower = ((WildcardType)arg).getLowerBounds();
+                    arg = lower.length > 0 ? lower[0] : ((WildcardType)arg).getUpperBounds()[0];
+                }
+                if (arg instanceof ParameterizedType) {
+                    arg = ((ParameterizedType)arg).getRawType();
+                }
+                if (arg instanceof Class && arg != Object.class) {
+                    return (Class<?>)arg;
+                }
+            }
+            throw new IllegalArgumentException("Asynchronous method " + method.getName()
+                                               + " must declare its result type: " + type);
+        }
+
         private final NativeLibrary nativeLibrary;
         private final Class<?> interfaceClass;
         // Library invocation options
         private final Map<String, Object> options;
         private final InvocationMapper invocationMapper;
-        private final Map<Method, FunctionInfo> functions = new WeakHashMap<>();
+        // Read without locking on every invocation
+        private final ConcurrentHashMap<Method, FunctionInfo> functions = new ConcurrentHashMap<>();
         public Handler(String libname, Class<?> interfaceClass, Map<String, ?> options) {
 
             if (libname != null && "".equals(libname.trim())) {
@@ -195,7 +312,118 @@ public interface Library {
                 this.options.put(OPTION_CLASSLOADER, interfaceClass.getClassLoader());
             }
             this.nativeLibrary = NativeLibrary.getInstance(libname, this.options);
+            if (this.options.containsKey(OPTION_INTERCEPTORS)) {
+                // Avoid converting the option on each call
+                this.options.put(OPTION_INTERCEPTORS, InterceptorChain.interceptors(this.options));
+            }
             invocationMapper = (InvocationMapper)this.options.get(OPTION_INVOCATION_MAPPER);
+            Object eager = this.options.get(OPTION_EAGER_BIND);
+            if (eager instanceof Executor || Boolean.TRUE.equals(eager)) {
+                bind(eager instanceof Executor ? (Executor)eager : null);
+            }
+        }
+
+        /** Resolve all abstract methods of the interface.
+         * @param executor resolves methods in parallel, if not null
+         */
+        private void bind(Executor executor) {
+            List<Method> methods = new ArrayList<>();
+            for (Method method : interfaceClass.getMethods()) {
+                if (!Modifier.isStatic(method.getModifiers())
+                    && !ReflectionUtils.isDefault(method)) {
+                    methods.add(method);
+                }
+            }
+            final List<String> missing = Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch done = new CountDownLatch(methods.size());
+            for (final Method method : methods) {
+                Runnable task = new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            getFunctionInfo(method);
+                        }
+                        catch(UnsatisfiedLinkError | Exception e) {
+                            missing.add(method.getName() + ": " + e.getMessage());
+                        }
+                        finally {
+                            done.countDown();
+                        }
+                    }
+                };
+                if (executor != null) {
+                    executor.execute(task);
+                } else {
+                    task.run();
+                }
+            }
+            try {
+                done.await();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UnsatisfiedLinkError("Interrupted while binding " + interfaceClass.getName());
+            }
+            if (!missing.isEmpty()) {
+                throw new UnsatisfiedLinkError("Unable to bind " + missing.size()
+                                               + " method(s) of " + interfaceClass.getName()
+                                               + " to " + nativeLibrary.getName() + ": " + missing);
+            }
+        }
+
+        private FunctionInfo getFunctionInfo(Method method) throws Exception {
+            FunctionInfo f = functions.get(method);
+            if (f != null) {
+                return f;
+            }
+            if (!ReflectionUtils.isDefault(method)) {
+                boolean isVarArgs = Function.isVarArgs(method);
+                InvocationHandler handler = null;
+                if (invocationMapper != null) {
+                    handler = invocationMapper.getInvocationHandler(nativeLibrary, method);
+                }
+                Function function = null;
+                Class<?>[] parameterTypes = null;
+                Map<String, Object> options = null;
+                Class<?> asyncType = null;
+                boolean completion = false;
+                if (handler == null) {
+                    // Find the function to invoke
+                    function = nativeLibrary.getFunction(method.getName(), method);
+                    parameterTypes = method.getParameterTypes();
+                    int last = parameterTypes.length - 1;
+                    if (method.getReturnType() == CompletableFuture.class) {
+                        asyncType = asyncResultType(method, method.getGenericReturnType());
+                    } else if (method.getReturnType() == void.class && last >= 0
+                               && parameterTypes[last] == BiConsumer.class && !isVarArgs) {
+                        asyncType = asyncResultType(method, method.getGenericParameterTypes()[last]);
+                        completion = true;
+                        parameterTypes = Arrays.copyOf(parameterTypes, last);
+                    }
+                    options = new HashMap<>(this.options);
+                    options.put(Function.OPTION_INVOKING_METHOD, method);
+                    boolean[] constants = NativeString.getConstantParameters(method);
+                    if (constants != null) {
+                        options.put(Function.OPTION_CONSTANT_STRINGS, constants);
+                    }
+                    if (asyncType != null) {
+                        // The result is returned to another thread than the
+                        // one making the call
+                        options.remove(OPTION_REUSE_STRUCTURES);
+                    } else if (method.isAnnotationPresent(ReuseStructures.class)) {
+                        options.put(OPTION_REUSE_STRUCTURES, Boolean.TRUE);
+                    }
+                }
+                boolean blocking = handler == null && asyncType == null
+                    && (method.isAnnotationPresent(Blocking.class)
+                        || interfaceClass.isAnnotationPresent(Blocking.class)
+                        || Boolean.TRUE.equals(this.options.get(OPTION_BLOCKING)));
+                f = new FunctionInfo(handler, function, parameterTypes, isVarArgs, options, asyncType, completion, blocking);
+            } else {
+                f = new FunctionInfo(ReflectionUtils.getMethodHandle(method));
+            }
+            FunctionInfo existing = functions.putIfAbsent(method, f);
+            return existing != null ? existing : f;
         }
 
         public NativeLibrary getNativeLibrary() {
@@ -210,6 +438,22 @@ public interface Library {
             return interfaceClass;
         }
 
+        @SuppressWarnings("unchecked")
+        private Object invokeAsync(FunctionInfo f, Method method, Object[] inArgs) {
+            Executor executor = (Executor)options.get(OPTION_ASYNC_EXECUTOR);
+            if (executor == null) {
+                executor = nativeLibrary.getAsyncExecutor();
+            }
+            if (!f.completion) {
+                return f.function.invokeAsync(method, f.parameterTypes, f.asyncType, inArgs, f.options, executor);
+            }
+            BiConsumer<Object, Throwable> consumer = (BiConsumer<Object, Throwable>)inArgs[inArgs.length - 1];
+            Object[] args = Arrays.copyOf(inArgs, inArgs.length - 1);
+            f.function.invokeAsync(method, f.parameterTypes, f.asyncType, args, f.options, executor)
+                .whenComplete(consumer);
+            return null;
+        }
+
         @Override
         public Object invoke(Object proxy, Method method, Object[] inArgs)
             throws Throwable {
@@ -227,37 +471,7 @@ public interface Library {
                 return Boolean.FALSE;
             }
 
-            // Using the double-checked locking pattern to speed up function calls
-            FunctionInfo f = functions.get(method);
-            if(f == null) {
-                synchronized(functions) {
-                    f = functions.get(method);
-                    if (f == null) {
-                        boolean isDefault = ReflectionUtils.isDefault(method);
-                        if(! isDefault) {
-                            boolean isVarArgs = Function.isVarArgs(method);
-                            InvocationHandler handler = null;
-                            if (invocationMapper != null) {
-                                handler = invocationMapper.getInvocationHandler(nativeLibrary, method);
-                            }
-                            Function function = null;
-                            Class<?>[] parameterTypes = null;
-                            Map<String, Object> options = null;
-                            if (handler == null) {
-                                // Find the function to invoke
-                                function = nativeLibrary.getFunction(method.getName(), method);
-                                parameterTypes = method.getParameterTypes();
-                                options = new HashMap<>(this.options);
-                                options.put(Function.OPTION_INVOKING_METHOD, method);
-                            }
-                            f = new FunctionInfo(handler, function, parameterTypes, isVarArgs, options);
-                        } else {
-                            f = new FunctionInfo(ReflectionUtils.getMethodHandle(method));
-                        }
-                        functions.put(method, f);
-                    }
-                }
-            }
+            FunctionInfo f = getFunctionInfo(method);
             if (f.methodHandle != null) {
                 return ReflectionUtils.invokeDefaultMethod(proxy, f.methodHandle, inArgs);
             } else {
@@ -267,6 +481,19 @@ public interface Library {
                 if (f.handler != null) {
                     return f.handler.invoke(proxy, method, inArgs);
                 }
+                if (f.asyncType != null) {
+                    return invokeAsync(f, method, inArgs);
+                }
+                if (f.blocking && BlockingCalls.isVirtual(Thread.currentThread())) {
+                    final FunctionInfo info = f;
+                    final Object[] args = inArgs;
+                    return BlockingCalls.invoke(new Callable<Object>() {
+                        @Override
+                        public Object call() {
+                            return info.function.invoke(method, info.parameterTypes, method.getReturnType(), args, info.blockingOptions);
+                        }
+                    });
+                }
                 return f.function.invoke(method, f.parameterTypes, method.getReturnType(), inArgs, f.options);
             }
         }
@@ -22,7 +22,10 @@
  */
 package com.sun.jna;
 
+import java.io.BufferedReader;
 import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
@@ -30,6 +33,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.sun.jna.internal.Cleaner;
 
@@ -58,6 +63,41 @@ public class Memory extends Pointer implements Closeable {
 
     private static final WeakMemoryHolder buffers = new WeakMemoryHolder();
 
+    private static final Logger LOG = Logger.getLogger(Memory.class.getName());
+
+    /** Map flag requesting explicit huge pages (<code>MAP_HUGETLB</code>).
+     * The size of the mapping is rounded up to a multiple of the huge page
+     * size given by the system property <code>jna.memory.hugepagesize</code>,
+     * or else the default huge page size reported by the system (2 MiB if it
+     * cannot be determined).  If no huge pages are available, regular pages
+     * are used instead.
+     */
+    public static final int MAP_HUGETLB = Native.MAP_HUGETLB;
+    /** Map flag requesting transparent huge pages
+     * (<code>madvise(MADV_HUGEPAGE)</code>) where supported.
+     */
+    public static final int MAP_ADVISE_HUGEPAGE = Native.MAP_ADVISE_HUGEPAGE;
+    /** Map flag requesting that all pages are faulted in up front
+     * (<code>MAP_POPULATE</code>) where supported.
+     */
+    public static final int MAP_POPULATE = Native.MAP_POPULATE;
+
+    /** Allocations of at least this many bytes made with
+     * {@link #Memory(long)} or {@link #calloc(long)} are mapped instead of
+     * taken from the native heap; set with the system property
+     * <code>jna.memory.mapthreshold</code>.  Zero disables mapping.
+     */
+    private static final long MAP_THRESHOLD = Long.getLong("jna.memory.mapthreshold", 0);
+    /** Flags used for mappings due to {@link #MAP_THRESHOLD}; set with the
+     * system property <code>jna.memory.mapflags</code>.
+     */
+    private static final int MAP_FLAGS = Integer.getInteger("jna.memory.mapflags", MAP_ADVISE_HUGEPAGE);
+
+    private static final int ALLOC_MALLOC = 0;
+    private static final int ALLOC_CALLOC = 1;
+    private static final int ALLOC_ALIGNED = 2;
+    private static final int ALLOC_MAPPED = 3;
+
     /** Force cleanup of memory that has associated NIO Buffers which have
         been GC'd.
     */
@@ -110,16 +150,149 @@ public class Memory extends Pointer implements Closeable {
      * @param size number of <em>bytes</em> of space to allocate
      */
     public Memory(long size) {
+        this(size, isMapped(size) ? ALLOC_MAPPED : ALLOC_MALLOC, MAP_FLAGS);
+    }
+
+    /**
+     * @param allocation how to obtain the memory
+     * @param param alignment for {@link #ALLOC_ALIGNED}, flags for
+     * {@link #ALLOC_MAPPED}
+     */
+    private Memory(long size, int allocation, long param) {
         this.size = size;
         if (size <= 0) {
             throw new IllegalArgumentException("Allocation size must be greater than zero");
         }
-        peer = malloc(size);
+        NativeEvents.Event event = NativeEvents.MEMORY_ALLOCATE.begin();
+        long length = size;
+        switch (allocation) {
+            case ALLOC_CALLOC:
+                peer = Native.calloc(size);
+                break;
+            case ALLOC_ALIGNED:
+                peer = Native.alignedMalloc(size, param);
+                break;
+            case ALLOC_MAPPED:
+                int flags = (int) param;
+                if ((flags & MAP_HUGETLB) != 0) {
+                    long pageSize = HugePages.SIZE;
+                    length = (size + pageSize - 1) / pageSize * pageSize;
+                    peer = Native.mmap(length, flags);
+                    if (peer == 0) {
+                        length = size;
+                        flags &= ~MAP_HUGETLB;
+                    }
+                }
+                if (peer == 0) {
+                    peer = Native.mmap(size, flags);
+                }
+                break;
+            default:
+                peer = malloc(size);
+        }
         if (peer == 0)
             throw new OutOfMemoryError("Cannot allocate " + size + " bytes");
 
         allocatedMemory.put(peer, new WeakReference<>(this));
-        cleanable = Cleaner.getCleaner().register(this, new MemoryDisposer(peer));
+        MemoryAccounting.Allocation tracked = MemoryAccounting.INSTANCE.allocated(peer, length);
+        cleanable = Cleaner.getCleaner().register(this, new MemoryDisposer(peer, allocation, length, tracked));
+        if (event != null) {
+            event.commit(peer, length);
+        }
+    }
+
+    /** Lazily determined size of explicit huge pages. */
+    private static final class HugePages {
+        static final long SIZE = hugePageSize();
+
+        private static long hugePageSize() {
+            Long size = Long.getLong("jna.memory.hugepagesize");
+            if (size != null && size > 0) {
+                return size;
+            }
+            if (Platform.isLinux() || Platform.isAndroid()) {
+                // Line format: "Hugepagesize:       2048 kB"
+                try (BufferedReader reader = new BufferedReader(new FileReader("/proc/meminfo"))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.startsWith("Hugepagesize:")) {
+                            String[] fields = line.substring(13).trim().split("\\s+");
+                            long kb = Long.parseLong(fields[0]);
+                            if (kb > 0) {
+                                return kb << 10;
+                            }
+                            break;
+                        }
+                    }
+                } catch (IOException | NumberFormatException e) {
+                    // fall through to the default
+                }
+            }
+            return 2L << 20;
+        }
+    }
+
+    /** Returns the huge page size used to round {@link #MAP_HUGETLB}
+     * mappings.
+     */
+    static long getHugePageSize() {
+        return HugePages.SIZE;
+    }
+
+    private static boolean isMapped(long size) {
+        return MAP_THRESHOLD > 0 && size >= MAP_THRESHOLD;
+    }
+
+    /**
+     * Allocate zeroed space in the native heap via a call to C's
+     * <code>calloc</code>.  This is cheaper than allocating and then calling
+     * {@link #clear()}, in particular for large blocks, which the system may
+     * provide as already zeroed pages.
+     *
+     * @param size number of <em>bytes</em> of space to allocate
+     * @return the allocated memory
+     */
+    public static Memory calloc(long size) {
+        return new Memory(size, isMapped(size) ? ALLOC_MAPPED : ALLOC_CALLOC, MAP_FLAGS);
+    }
+
+    /**
+     * Allocate space by mapping anonymous memory with <code>mmap</code>
+     * (<code>VirtualAlloc</code> on Windows) rather than from the native
+     * heap.  This gives control over the page size used for large buffers,
+     * reducing TLB misses.  Mapped memory is initially zeroed, and is
+     * unmapped when this object is closed or garbage collected.
+     *
+     * @param size number of <em>bytes</em> of space to map
+     * @param flags a combination of {@link #MAP_HUGETLB},
+     * {@link #MAP_ADVISE_HUGEPAGE} and {@link #MAP_POPULATE}, or zero; flags
+     * not supported by the platform are ignored
+     * @return the mapped memory
+     */
+    public static Memory mapped(long size, int flags) {
+        return new Memory(size, ALLOC_MAPPED, flags);
+    }
+
+    /**
+     * Allocate space in the native heap whose address is a multiple of
+     * <code>alignment</code>, via a call to C's <code>posix_memalign</code>
+     * (<code>_aligned_malloc</code> on Windows).  Unlike {@link #align(int)},
+     * no additional space is allocated to obtain the alignment.
+     *
+     * @param size number of <em>bytes</em> of space to allocate
+     * @param alignment required alignment in bytes; must be a power of two
+     * @return the allocated memory
+     * @throws IllegalArgumentException if the requested alignment is not
+     * a positive power of two.
+     */
+    public static Memory aligned(long size, int alignment) {
+        if (alignment <= 0) {
+            throw new IllegalArgumentException("Byte boundary must be positive: " + alignment);
+        }
+        if ((alignment & (alignment - 1)) != 0) {
+            throw new IllegalArgumentException("Byte boundary must be a power of two");
+        }
+        return new Memory(size, ALLOC_ALIGNED, alignment);
     }
 
     protected Memory() {
@@ -151,7 +324,10 @@ public class Memory extends Pointer implements Closeable {
         return new SharedMemory(offset, sz);
     }
 
-    /** Provide a view onto this structure with the given alignment.
+    /** Provide a view onto this structure with the given alignment.  The
+     * view is obtained from the existing allocation, so the memory must have
+     * been allocated with sufficient additional space; use
+     * {@link #aligned(long, int)} to allocate aligned memory directly.
      * @param byteBoundary Align memory to this number of bytes; should be a
      * power of two.
      * @throws IndexOutOfBoundsException if the requested alignment can
@@ -595,6 +771,22 @@ public class Memory extends Pointer implements Closeable {
         return b;
     }
 
+    @Override
+    public String[] getStringArray(long offset, int length, String encoding) {
+        if (length != -1) {
+            boundsCheck(offset, length * (long) Native.POINTER_SIZE);
+            return super.getStringArray(offset, length, encoding);
+        }
+        // Only look for the terminating NULL element within bounds
+        boundsCheck(offset, 0);
+        int max = (int) Math.min((size - offset) / Native.POINTER_SIZE, Integer.MAX_VALUE);
+        String[] strings = Native.getStringArray(this, offset, max, true, encoding);
+        if (strings.length == max) {
+            boundsCheck(offset + max * (long) Native.POINTER_SIZE, Native.POINTER_SIZE);
+        }
+        return strings;
+    }
+
     @Override
     public String getString(long offset, String encoding) {
         // NOTE: we only make sure the start of the string is within bounds
@@ -725,12 +917,6 @@ public class Memory extends Pointer implements Closeable {
         super.setPointer(offset, value);
     }
 
-    @Override
-    public void setString(long offset, String value, String encoding) {
-        boundsCheck(offset, Native.getBytes(value, encoding).length + 1L);
-        super.setString(offset, value, encoding);
-    }
-
     @Override
     public void setWideString(long offset, String value) {
         boundsCheck(offset, (value.length() + 1L) * Native.WCHAR_SIZE);
@@ -783,18 +969,47 @@ public class Memory extends Pointer implements Closeable {
     private static final class MemoryDisposer implements Runnable {
 
         private long peer;
+        private final int allocation;
+        private final long length;
+        private final MemoryAccounting.Allocation tracked;
 
-        public MemoryDisposer(long peer) {
+        public MemoryDisposer(long peer, int allocation, long length, MemoryAccounting.Allocation tracked) {
             this.peer = peer;
+            this.allocation = allocation;
+            this.length = length;
+            this.tracked = tracked;
         }
 
         @Override
         public synchronized void run() {
+            NativeEvents.Event event = peer != 0 ? NativeEvents.MEMORY_FREE.begin() : null;
+            long address = peer;
             try {
-                free(peer);
+                if (allocation == ALLOC_ALIGNED) {
+                    if (peer != 0) {
+                        Native.alignedFree(peer);
+                    }
+                } else if (allocation == ALLOC_MAPPED) {
+                    if (peer != 0) {
+                        int error = Native.munmap(peer, length);
+                        if (error != 0) {
+                            LOG.log(Level.WARNING, "Failed to unmap {0} bytes at 0x{1} (error {2})",
+                                    new Object[] { length, Long.toHexString(peer), error });
+                        }
+                    }
+                } else {
+                    free(peer);
+                }
             } finally {
                 allocatedMemory.remove(peer);
                 peer = 0;
+                if (address != 0) {
+                    boolean leaked = Cleaner.isCleanerThread();
+                    MemoryAccounting.INSTANCE.freed(length, tracked, leaked);
+                    if (event != null) {
+                        event.commit(address, length, leaked);
+                    }
+                }
             }
         }
 
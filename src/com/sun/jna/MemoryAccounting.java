@@ -0,0 +1,236 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Accounting of the native memory allocated by {@link Memory}.  Totals
+ * are always kept; the allocation stacks of a sample of allocations, or of
+ * all of them in debug mode, are recorded to attribute memory to call sites
+ * and to report long lived allocations.
+ */
+final class MemoryAccounting implements NativeMemoryMXBean {
+
+    private static final Logger LOG = Logger.getLogger(MemoryAccounting.class.getName());
+
+    /** Record the stack of one in this many allocations; zero disables
+     * sampling.
+     */
+    static final int SAMPLE_INTERVAL = Integer.getInteger("jna.memory.sample", 0);
+    /** In debug mode, the age in milliseconds above which allocations still
+     * live at shutdown are reported; negative if not in debug mode.
+     */
+    static final long DEBUG_THRESHOLD = Long.getLong("jna.memory.debug", -1);
+
+    static final MemoryAccounting INSTANCE = new MemoryAccounting();
+
+    /** Classes allocating memory on behalf of their caller. */
+    private static final Set<String> ALLOCATORS = new HashSet<>(Arrays.asList(
+        MemoryAccounting.class.getName(), Memory.class.getName(), Pointer.class.getName(),
+        Structure.class.getName(), Native.class.getName(), NativeString.class.getName(),
+        StringArray.class.getName(), Function.class.getName(), CallbackReference.class.getName()));
+
+    private static final int SIZE_CLASSES = 64;
+
+    private final AtomicLong liveBytes = new AtomicLong();
+    private final AtomicLong peakBytes = new AtomicLong();
+    private final LongAdder liveCount = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder allocationCount = new LongAdder();
+    private final LongAdder leakedBytes = new LongAdder();
+    private final LongAdder leakedCount = new LongAdder();
+    private final AtomicLongArray sizeClassLive = new AtomicLongArray(SIZE_CLASSES);
+    private final AtomicLongArray sizeClassAllocations = new AtomicLongArray(SIZE_CLASSES);
+    private final Map<Long, Allocation> tracked = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> callSites = new ConcurrentHashMap<>();
+
+    static {
+        if (DEBUG_THRESHOLD >= 0) {
+            Runtime.getRuntime().addShutdownHook(new Thread("JNA memory report") {
+                @Override
+                public void run() {
+                    String report = INSTANCE.dumpAllocations(DEBUG_THRESHOLD);
+                    if (!report.isEmpty()) {
+                        // Logging may already be shut down
+                        System.err.print(report);
+                    }
+                }
+            });
+        }
+    }
+
+    /** An allocation whose stack was recorded. */
+    static final class Allocation {
+        final long peer;
+        final long length;
+        final long time;
+        final String site;
+        final StackTraceElement[] stack;
+
+        Allocation(long peer, long length, StackTraceElement[] stack) {
+            this.peer = peer;
+            this.length = length;
+            this.time = System.nanoTime();
+            this.stack = stack;
+            this.site = callSite(stack);
+        }
+    }
+
+    private MemoryAccounting() { }
+
+    static int sizeClass(long length) {
+        return length <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(length - 1);
+    }
+
+    private static String callSite(StackTraceElement[] stack) {
+        for (StackTraceElement e : stack) {
+            String cls = e.getClassName();
+            int nested = cls.indexOf('$');
+            if (!ALLOCATORS.contains(nested == -1 ? cls : cls.substring(0, nested))
+                && !cls.startsWith("com.sun.jna.ptr.")) {
+                return e.toString();
+            }
+        }
+        return "unknown";
+    }
+
+    /** Account for new memory.
+     * @return the record of the allocation if its stack was recorded, or
+     * null
+     */
+    Allocation allocated(long peer, long length) {
+        long live = liveBytes.addAndGet(length);
+        if (live > peakBytes.get()) {
+            peakBytes.accumulateAndGet(live, Math::max);
+        }
+        liveCount.increment();
+        allocatedBytes.add(length);
+        allocationCount.increment();
+        int sizeClass = sizeClass(length);
+        sizeClassLive.incrementAndGet(sizeClass);
+        sizeClassAllocations.incrementAndGet(sizeClass);
+        if (DEBUG_THRESHOLD < 0
+            && (SAMPLE_INTERVAL <= 0 || ThreadLocalRandom.current().nextInt(SAMPLE_INTERVAL) != 0)) {
+            return null;
+        }
+        Allocation allocation = new Allocation(peer, length, new Throwable().getStackTrace());
+        tracked.put(peer, allocation);
+        callSites.computeIfAbsent(allocation.site, k -> new AtomicLong()).addAndGet(length);
+        return allocation;
+    }
+
+    /** Account for freed memory.
+     * @param allocation the record returned by {@link #allocated}, or null
+     * @param leaked whether the memory was freed by the garbage collector
+     * rather than explicitly
+     */
+    void freed(long length, Allocation allocation, boolean leaked) {
+        liveBytes.addAndGet(-length);
+        liveCount.decrement();
+        sizeClassLive.decrementAndGet(sizeClass(length));
+        if (leaked) {
+            leakedBytes.add(length);
+            leakedCount.increment();
+        }
+        if (allocation != null) {
+            tracked.remove(allocation.peer);
+            callSites.get(allocation.site).addAndGet(-length);
+            if (leaked && DEBUG_THRESHOLD >= 0) {
+                Throwable t = new Throwable("Allocated at");
+                t.setStackTrace(allocation.stack);
+                LOG.log(Level.WARNING, "JNA: " + length + " bytes of native memory were not closed and have been freed by the garbage collector", t);
+            }
+        }
+    }
+
+    @Override
+    public MemoryStats getMemoryStats() {
+        long[] live = new long[SIZE_CLASSES];
+        long[] allocations = new long[SIZE_CLASSES];
+        for (int i=0;i < SIZE_CLASSES;i++) {
+            live[i] = sizeClassLive.get(i);
+            allocations[i] = sizeClassAllocations.get(i);
+        }
+        Map<String, Long> sites = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> e : callSites.entrySet()) {
+            long bytes = e.getValue().get();
+            if (bytes != 0) {
+                sites.put(e.getKey(), bytes);
+            }
+        }
+        return new MemoryStats(liveBytes.get(), peakBytes.get(), liveCount.sum(),
+                               allocatedBytes.sum(), allocationCount.sum(),
+                               leakedBytes.sum(), leakedCount.sum(),
+                               live, allocations, sites);
+    }
+
+    @Override
+    public void resetPeak() {
+        peakBytes.set(liveBytes.get());
+    }
+
+    @Override
+    public String dumpAllocations(long minAgeMillis) {
+        long now = System.nanoTime();
+        List<Allocation> old = new ArrayList<>();
+        long bytes = 0;
+        for (Allocation a : tracked.values()) {
+            if (TimeUnit.NANOSECONDS.toMillis(now - a.time) >= minAgeMillis) {
+                old.add(a);
+                bytes += a.length;
+            }
+        }
+        if (old.isEmpty()) {
+            return "";
+        }
+        Collections.sort(old, (a, b) -> Long.compare(a.time, b.time));
+        String nl = System.getProperty("line.separator");
+        StringBuilder sb = new StringBuilder();
+        sb.append("JNA: ").append(old.size()).append(" native memory allocations (")
+            .append(bytes).append(" bytes) older than ").append(minAgeMillis).append(" ms").append(nl);
+        for (Allocation a : old) {
+            sb.append(a.length).append(" bytes at 0x").append(Long.toHexString(a.peer))
+                .append(", ").append(TimeUnit.NANOSECONDS.toMillis(now - a.time))
+                .append(" ms old, allocated").append(nl);
+            for (StackTraceElement e : a.stack) {
+                sb.append("\tat ").append(e).append(nl);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/** A snapshot of the native memory allocated through {@link Memory},
+ * obtained with {@link Native#getMemoryStats()}.  Sizes are in bytes and
+ * include the rounding of mapped memory to pages.  Memory obtained by
+ * native code, or with {@link Native#malloc} directly, is not counted.
+ */
+public class MemoryStats {
+
+    private final long liveBytes;
+    private final long peakBytes;
+    private final long liveCount;
+    private final long allocatedBytes;
+    private final long allocationCount;
+    private final long leakedBytes;
+    private final long leakedCount;
+    private final long[] sizeClassLiveCounts;
+    private final long[] sizeClassAllocationCounts;
+    private final Map<String, Long> callSiteLiveBytes;
+
+    MemoryStats(long liveBytes, long peakBytes, long liveCount,
+                long allocatedBytes, long allocationCount,
+                long leakedBytes, long leakedCount,
+                long[] sizeClassLiveCounts, long[] sizeClassAllocationCounts,
+                Map<String, Long> callSiteLiveBytes) {
+        this.liveBytes = liveBytes;
+        this.peakBytes = peakBytes;
+        this.liveCount = liveCount;
+        this.allocatedBytes = allocatedBytes;
+        this.allocationCount = allocationCount;
+        this.leakedBytes = leakedBytes;
+        this.leakedCount = leakedCount;
+        this.sizeClassLiveCounts = sizeClassLiveCounts;
+        this.sizeClassAllocationCounts = sizeClassAllocationCounts;
+        this.callSiteLiveBytes = Collections.unmodifiableMap(callSiteLiveBytes);
+    }
+
+    /** @return bytes currently allocated */
+    public long getLiveBytes() { return liveBytes; }
+
+    /** @return the largest number of bytes allocated at any time since
+     * startup or the last reset of the peak
+     */
+    public long getPeakBytes() { return peakBytes; }
+
+    /** @return number of allocations not yet freed */
+    public long getLiveCount() { return liveCount; }
+
+    /** @return bytes allocated since startup, including freed memory */
+    public long getAllocatedBytes() { return allocatedBytes; }
+
+    /** @return number of allocations since startup */
+    public long getAllocationCount() { return allocationCount; }
+
+    /** @return bytes freed by the garbage collector because their
+     * {@link Memory} was not closed
+     */
+    public long getLeakedBytes() { return leakedBytes; }
+
+    /** @return number of allocations freed by the garbage collector because
+     * their {@link Memory} was not closed
+     */
+    public long getLeakedCount() { return leakedCount; }
+
+    /** @return number of live allocations per size class; element
+     * <em>i</em> counts sizes greater than 2<sup><em>i</em>-1</sup> and at
+     * most 2<sup><em>i</em></sup> bytes
+     */
+    public long[] getSizeClassLiveCounts() {
+        return sizeClassLiveCounts.clone();
+    }
+
+    /** @return number of allocations since startup per size class, as in
+     * {@link #getSizeClassLiveCounts()}
+     */
+    public long[] getSizeClassAllocationCounts() {
+        return sizeClassAllocationCounts.clone();
+    }
+
+    /** @return bytes currently allocated by each call site, keyed by the
+     * first stack frame outside of JNA.  Only allocations whose stack was
+     * sampled (see <code>jna.memory.sample</code>) or recorded in debug mode
+     * (see <code>jna.memory.debug</code>) are included.
+     */
+    public Map<String, Long> getCallSiteLiveBytes() {
+        return callSiteLiveBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "live=" + liveBytes + " bytes in " + liveCount + " allocations, peak=" + peakBytes
+            + ", allocated=" + allocatedBytes + " bytes in " + allocationCount
+            + " allocations, leaked=" + leakedBytes + " bytes in " + leakedCount
+            + " allocations, live size classes=" + Arrays.toString(sizeClassLiveCounts);
+    }
+}
@@ -27,12 +27,13 @@ import java.awt.Component;
 import java.awt.GraphicsEnvironment;
 import java.awt.HeadlessException;
 import java.awt.Window;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Array;
@@ -41,16 +42,28 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
+import java.net.JarURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.net.URLConnection;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.UserPrincipal;
 import java.security.AccessController;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -60,6 +73,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
 
 import com.sun.jna.Callback.UncaughtExceptionHandler;
 import com.sun.jna.Structure.FFIType;
@@ -92,6 +109,31 @@ import java.util.logging.Logger;
  * failure if the JNA native library is not properly installed on the system),
  * set the system property <code>jna.nounpack=true</code>.
  * </p>
+ * <p>With <code>jna.unpack.cache=true</code>, libraries extracted from jar
+ * files are kept in a cache directory below the JNA temporary directory,
+ * named by the checksum of their contents, and reused by later runs and
+ * other processes instead of being extracted again.  Cached files are
+ * verified against their checksum and owner before use, and the cache is
+ * not used when the JNA temporary directory is the shared system one.</p>
+ * <p>With <code>jna.jfr=true</code> on a VM with JDK Flight Recorder, JNA
+ * emits the events <code>com.sun.jna.NativeCall</code>,
+ * <code>NativeCallback</code>, <code>NativeMemoryAllocate</code>,
+ * <code>NativeMemoryFree</code> and <code>NativeLibraryLoad</code> to
+ * recordings which enable them.  Calls to and callbacks from
+ * {@linkplain #register(String) direct mapped} methods are not recorded.</p>
+ * <p>{@link Memory} allocations are accounted for in
+ * {@link #getMemoryStats()}.  With <code>jna.memory.sample=</code><em>N</em>,
+ * the stack of one in <em>N</em> allocations is recorded to attribute live
+ * memory to call sites.  With <code>jna.memory.debug=</code><em>ms</em>, the
+ * stack of every allocation is recorded, memory freed by the garbage
+ * collector rather than closed is logged, and allocations older than the
+ * given number of milliseconds still live at shutdown are reported on
+ * standard error.</p>
+ * <p>With <code>jna.calltime=true</code>, the wall and thread CPU time of
+ * native calls are accumulated per function, see
+ * {@link #getCallTimeStats(boolean)}.  With <code>jna.calltrace=true</code>,
+ * the most recent native calls of each thread are kept for post-mortem
+ * analysis, see {@link #dumpCallTrace()}.</p>
  * <p>While this class and its corresponding native library are loaded, the
  * system property <code>jna.loaded</code> will be set.  The property will be
  * cleared when native support has been unloaded (i.e. the Native class and
@@ -150,6 +192,8 @@ public final class Native implements Version {
     private static final Map<Class<?>, Map<String, Object>> typeOptions = Collections.synchronizedMap(new WeakHashMap<Class<?>, Map<String, Object>>());
     private static final Map<Class<?>, Reference<?>> libraries = Collections.synchronizedMap(new WeakHashMap<Class<?>, Reference<?>>());
     private static final String _OPTION_ENCLOSING_LIBRARY = "enclosing-library";
+    /** Charsets by encoding name, avoids a lookup on every string conversion. */
+    private static final Map<String, Charset> charsets = new ConcurrentHashMap<>();
     private static final UncaughtExceptionHandler DEFAULT_HANDLER =
         new UncaughtExceptionHandler() {
             @Override
@@ -181,6 +225,10 @@ public final class Native implements Version {
     private static final int TYPE_BOOL = 4;
     private static final int TYPE_LONG_DOUBLE = 5;
 
+    static final int MAP_HUGETLB = 1;
+    static final int MAP_ADVISE_HUGEPAGE = 2;
+    static final int MAP_POPULATE = 4;
+
     static final int MAX_ALIGNMENT;
     static final int MAX_PADDING;
 
@@ -255,6 +303,12 @@ public final class Native implements Version {
             || (Platform.isAndroid() && !Platform.isIntel())
             ? 8 : LONG_SIZE;
         MAX_PADDING = (Platform.isMac() && Platform.isPPC()) ? 8 : MAX_ALIGNMENT;
+        if (Boolean.getBoolean("jna.calltime")) {
+            setCallTiming(true);
+        }
+        if (Boolean.getBoolean("jna.calltrace")) {
+            setCallTracing(true);
+        }
         System.setProperty("jna.loaded", "true");
     }
 
@@ -391,11 +445,11 @@ public final class Native implements Version {
      * @return The charset belonging to the given {@code encoding} or the platform default.
      * Never {@code null}.
      */
-    private static Charset getCharset(String encoding) {
+    static Charset getCharset(String encoding) {
         Charset charset = null;
         if (encoding != null) {
             try {
-                charset = Charset.forName(encoding);
+                charset = lookupCharset(encoding);
             }
             catch(IllegalCharsetNameException | UnsupportedCharsetException  e) {
                 LOG.log(Level.WARNING, "JNA Warning: Encoding ''{0}'' is unsupported ({1})",
@@ -409,6 +463,30 @@ public final class Native implements Version {
         return charset;
     }
 
+    /**
+     * Same as {@link #getCharset(String)}, but silently falls back to the
+     * JVM default charset, as {@link String#String(byte[], String)} does.
+     */
+    private static Charset getCharsetOrDefault(String encoding) {
+        if (encoding != null) {
+            try {
+                return lookupCharset(encoding);
+            }
+            catch(IllegalCharsetNameException | UnsupportedCharsetException  e) {
+            }
+        }
+        return Charset.defaultCharset();
+    }
+
+    private static Charset lookupCharset(String encoding) {
+        Charset charset = charsets.get(encoding);
+        if (charset == null) {
+            charset = Charset.forName(encoding);
+            charsets.put(encoding, charset);
+        }
+        return charset;
+    }
+
     /**
      * Obtain a Java String from the given native byte array.  If there is
      * no NUL terminator, the String will comprise the entire array.  The
@@ -460,11 +538,7 @@ public final class Native implements Version {
             }
         }
 
-        if (len == 0) {
-            return "";
-        }
-
-        return new String(buf, 0, len, charset);
+        return StringCodec.get().decode(buf, len, charset);
     }
 
     /**
@@ -914,10 +988,9 @@ public final class Native implements Version {
      * @see #getBytes(String, String)
      */
     public static byte[] toByteArray(String s, Charset charset) {
-        byte[] bytes = Native.getBytes(s, charset);
-        byte[] buf = new byte[bytes.length+1];
-        System.arraycopy(bytes, 0, buf, 0, bytes.length);
-        return buf;
+        StringCodec codec = StringCodec.get();
+        int len = codec.encode(s, charset);
+        return Arrays.copyOf(codec.getEncoded(), len + 1);
     }
 
     /**
@@ -1058,7 +1131,148 @@ public final class Native implements Version {
 
     /** Identify temporary files unpacked from classpath jar files. */
     static boolean isUnpacked(File file) {
-        return file.getName().startsWith(JNA_TMPLIB_PREFIX);
+        return file.getName().startsWith(JNA_TMPLIB_PREFIX) && !isCached(file);
+    }
+
+    static final String JNA_CACHE_DIR = "cache";
+    private static final Object CACHE_LOCK = new Object();
+
+    /** Identify files in the extracted library cache, which are kept. */
+    static boolean isCached(File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        return dir != null && dir.getParentFile() != null
+            && JNA_CACHE_DIR.equals(dir.getParentFile().getName());
+    }
+
+    /** Obtain a library resource from the extracted library cache,
+     * extracting it if it is not yet cached.  Entries are stored as
+     * <code>cache/&lt;checksum&gt;/&lt;name&gt;</code>, where the checksum
+     * is the CRC-32 and size recorded in the jar file or, failing that, the
+     * SHA-256 of the content.  Files are only made visible by an atomic
+     * rename; writers in this and other processes are serialized with a
+     * file lock.  A cached file is only used if it and its directories are
+     * owned by the current user and its content still matches the
+     * checksum; a mismatching file is extracted again.  The cache is not
+     * used in the shared system temporary directory.
+     */
+    private static File extractToCache(URL url, String resourcePath) throws IOException {
+        URLConnection conn = url.openConnection();
+        String key = null;
+        if (conn instanceof JarURLConnection) {
+            JarEntry entry = ((JarURLConnection)conn).getJarEntry();
+            if (entry != null && entry.getCrc() != -1 && entry.getSize() != -1) {
+                key = crc32Key(entry.getCrc(), entry.getSize());
+            }
+        }
+        byte[] content = null;
+        if (key == null) {
+            content = readFully(conn.getInputStream());
+            key = sha256Key(content);
+        }
+        File tmpdir = getTempDir();
+        if (System.getProperty("jna.tmpdir") == null
+            && tmpdir.getAbsoluteFile().equals(new File(System.getProperty("java.io.tmpdir")).getAbsoluteFile())) {
+            throw new IOException("Library cache not used in the shared temporary directory " + tmpdir);
+        }
+        File root = new File(tmpdir, JNA_CACHE_DIR);
+        File dir = new File(root, key);
+        File lib = new File(dir, resourcePath.substring(resourcePath.lastIndexOf('/') + 1));
+        if (lib.isFile() && isValidCacheEntry(root, lib, key)) {
+            return lib;
+        }
+        synchronized (CACHE_LOCK) {
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Can't create cache directory " + dir);
+            }
+            checkCacheOwner(root, dir);
+            try (FileChannel lockChannel = FileChannel.open(new File(dir, ".lock").toPath(),
+                                                            StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // Released when the channel is closed
+                lockChannel.lock();
+                if (lib.isFile() && isValidCacheEntry(root, lib, key)) {
+                    return lib;
+                }
+                File tmp = File.createTempFile(JNA_TMPLIB_PREFIX, ".tmp", dir);
+                try {
+                    InputStream is = content != null ? new ByteArrayInputStream(content) : conn.getInputStream();
+                    try {
+                        Files.copy(is, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    finally {
+                        is.close();
+                    }
+                    try {
+                        Files.move(tmp.toPath(), lib.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    catch(AtomicMoveNotSupportedException e) {
+                        Files.move(tmp.toPath(), lib.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                finally {
+                    tmp.delete();
+                }
+            }
+        }
+        return lib;
+    }
+
+    private static String crc32Key(long crc, long size) {
+        return String.format("crc32-%08x-%d", Long.valueOf(crc), Long.valueOf(size));
+    }
+
+    private static String sha256Key(byte[] content) throws IOException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder sb = new StringBuilder("sha256-");
+            for (byte b : digest) {
+                sb.append(String.format("%02x", Integer.valueOf(b & 0xFF)));
+            }
+            return sb.toString();
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /** Check that a cached library is owned by the current user and that
+     * its content matches the checksum it is stored under.
+     */
+    private static boolean isValidCacheEntry(File root, File lib, String key) throws IOException {
+        checkCacheOwner(root, lib.getParentFile(), lib);
+        byte[] content = Files.readAllBytes(lib.toPath());
+        if (key.startsWith("crc32-")) {
+            CRC32 crc = new CRC32();
+            crc.update(content, 0, content.length);
+            return key.equals(crc32Key(crc.getValue(), content.length));
+        }
+        return key.equals(sha256Key(content));
+    }
+
+    /** Refuse cache files which another user could have created. */
+    private static void checkCacheOwner(File... files) throws IOException {
+        UserPrincipal user = FileSystems.getDefault().getUserPrincipalLookupService()
+            .lookupPrincipalByName(System.getProperty("user.name"));
+        for (File file : files) {
+            UserPrincipal owner = Files.getOwner(file.toPath(), LinkOption.NOFOLLOW_LINKS);
+            if (!owner.equals(user)) {
+                throw new IOException("Library cache file " + file + " is owned by " + owner.getName());
+            }
+        }
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int count;
+            while ((count = is.read(buf, 0, buf.length)) > 0) {
+                bos.write(buf, 0, count);
+            }
+            return bos.toByteArray();
+        }
+        finally {
+            is.close();
+        }
     }
 
     /** Attempt to extract a native library from the current resource path,
@@ -1156,6 +1370,16 @@ public final class Native implements Version {
             }
         }
         else if (!Boolean.getBoolean("jna.nounpack")) {
+            if (Boolean.getBoolean("jna.unpack.cache")) {
+                try {
+                    lib = extractToCache(url, resourcePath);
+                    LOG.log(DEBUG, "Using cached library {0}", lib.getAbsolutePath());
+                    return lib;
+                }
+                catch(IOException e) {
+                    LOG.log(DEBUG, "Failed to use library cache: {0}", e.getMessage());
+                }
+            }
             InputStream is = url.openStream();
             if (is == null) {
                 throw new IOException("Can't obtain InputStream for " + resourcePath);
@@ -1216,6 +1440,12 @@ public final class Native implements Version {
      */
     public static native int getLastError();
 
+    /** Return whether the thread running the current callback had to be
+     * attached to the VM for the callback, i.e. is a native thread which was
+     * not attached before.  Returns false outside of callbacks.
+     */
+    static native boolean isCallbackAttached();
+
     /** Set the OS last error code.  The value will be saved on a per-thread
      * basis.
      */
@@ -1548,6 +1778,47 @@ public final class Native implements Version {
         CallbackReference.setCallbackThreadInitializer(cb, initializer);
     }
 
+    /**
+     * Run invocations of the given callback asynchronously on an
+     * {@link Executor}, overriding {@link Library#OPTION_CALLBACK_EXECUTOR}.
+     * Only callbacks returning <code>void</code> may be dispatched this way.
+     * <p>The native thread converts the arguments, copying
+     * <code>String</code>, <code>WString</code>, string array and
+     * {@link Structure} arguments out of native memory, hands the
+     * invocation to the executor and returns without waiting for it.
+     * Changes made to {@link Structure} arguments by the callback are not
+     * written back to native memory.  {@link Pointer} arguments are passed
+     * as is and must remain valid until the callback runs.</p>
+     * <p>The executor must be set before the callback is first passed to
+     * native code.</p>
+     * @param cb The callback to invoke
+     * @param executor The executor on which the callback runs, or
+     * {@code null} to run the callback synchronously
+     * @throws IllegalArgumentException if the callback does not return
+     * <code>void</code>
+     */
+    public static void setCallbackExecutor(Callback cb, Executor executor) {
+        CallbackReference.setCallbackExecutor(cb, executor);
+    }
+
+    /**
+     * @param cb A callback dispatched onto an {@link Executor}
+     * @return the statistics for the asynchronous invocations of the
+     * callback, or {@code null} if the callback is not dispatched onto an
+     * executor or has not been passed to native code
+     */
+    public static CallbackQueueStats getCallbackQueueStats(Callback cb) {
+        return CallbackReference.getCallbackQueueStats(cb);
+    }
+
+    /**
+     * @return the statistics for {@link Blocking} calls made from virtual
+     * threads on platform threads
+     */
+    public static BlockingCallStats getBlockingCallStats() {
+        return BlockingCalls.STATS;
+    }
+
     private static final Map<Class<?>, long[]> registeredClasses = new WeakHashMap<>();
     private static final Map<Class<?>, NativeLibrary> registeredLibraries = new WeakHashMap<>();
 
@@ -1786,6 +2057,12 @@ public final class Native implements Version {
         Map<String, ?> options = lib.getOptions();
         TypeMapper mapper = (TypeMapper) options.get(Library.OPTION_TYPE_MAPPER);
         boolean allowObjects = Boolean.TRUE.equals(options.get(Library.OPTION_ALLOW_OBJECTS));
+        FunctionInterceptor[] interceptors = InterceptorChain.interceptors(options);
+        // Encoding of the library's functions, for constant strings
+        String encoding = (String) options.get(Library.OPTION_STRING_ENCODING);
+        if (encoding == null) {
+            encoding = getDefaultStringEncoding();
+        }
         options = cacheOptions(cls, options, null);
 
         for (Method m : methods) {
@@ -1806,6 +2083,7 @@ public final class Native implements Version {
             int[] cvt = new int[ptypes.length];
             ToNativeConverter[] toNative = new ToNativeConverter[ptypes.length];
             FromNativeConverter fromNative = null;
+            boolean[] constants = NativeString.getConstantParameters(method);
             int rcvt = getConversion(rclass, mapper, allowObjects);
             boolean throwLastError = false;
             switch (rcvt) {
@@ -1845,6 +2123,12 @@ public final class Native implements Version {
                 Class<?> type = ptypes[t];
                 sig += getSignature(type);
                 int conversionType = getConversion(type, mapper, allowObjects);
+                if (type == InternedString.class
+                    || (constants != null && constants[t]
+                        && (type == String.class || type == WString.class))) {
+                    conversionType = CVT_TYPE_MAPPER;
+                    toNative[t] = new NativeString.ConstantConverter(type == WString.class ? NativeString.WIDE_STRING : encoding);
+                }
                 cvt[t] = conversionType;
                 if (conversionType == CVT_UNSUPPORTED) {
                     throw new IllegalArgumentException(type + " is not a supported argument type (in method " + method.getName() + " in " + cls + ")");
@@ -1854,9 +2138,10 @@ public final class Native implements Version {
                     || (conversionType == CVT_NATIVE_MAPPED_WSTRING)
                     || (conversionType == CVT_INTEGER_TYPE)) {
                     type = NativeMappedConverter.getInstance(type).nativeType();
-                } else if ((conversionType == CVT_TYPE_MAPPER)
+                } else if (((conversionType == CVT_TYPE_MAPPER)
                         || (conversionType == CVT_TYPE_MAPPER_STRING)
-                        || (conversionType == CVT_TYPE_MAPPER_WSTRING)) {
+                        || (conversionType == CVT_TYPE_MAPPER_WSTRING))
+                        && toNative[t] == null) {
                     toNative[t] = mapper.getToNativeConverter(type);
                 }
 
@@ -1907,7 +2192,8 @@ public final class Native implements Version {
                                             f.peer, f.getCallingConvention(),
                                             throwLastError,
                                             toNative, fromNative,
-                                            f.encoding);
+                                            f.encoding,
+                                            interceptors != null ? new InterceptorChain(f, interceptors) : null);
             } catch(NoSuchMethodError e) {
                 throw new UnsatisfiedLinkError("No method " + method.getName() + " with signature " + sig + " in " + cls);
             }
@@ -2006,7 +2292,8 @@ public final class Native implements Version {
                                               boolean throwLastError,
                                               ToNativeConverter[] toNative,
                                               FromNativeConverter fromNative,
-                                              String encoding);
+                                              String encoding,
+                                              InterceptorChain interceptors);
 
 
     // Called from native code
@@ -2074,6 +2361,12 @@ public final class Native implements Version {
     /** Free the given callback trampoline. */
     static synchronized native void freeNativeCallback(long ptr);
 
+    /** Bind an existing callback trampoline to another callback object with
+     * the same signature, or to none if <code>callback</code> is
+     * <code>null</code>.
+     */
+    static native void rebindNativeCallback(long ptr, Callback callback);
+
     /** Use direct mapping for callback. */
     static final int CB_OPTION_DIRECT = 1;
     /** Return a DLL-resident fucntion pointer. */
@@ -2089,6 +2382,26 @@ public final class Native implements Version {
                                                          int flags,
                                                          String encoding);
 
+    /** Create a native function which records its arguments in a ring
+     * buffer of the given capacity, a power of two.
+     * @return the ring, whose first field is the function address
+     */
+    static native long createEventRing(long[] argTypes, long returnType,
+                                       int callingConvention, int capacity,
+                                       int policy);
+
+    /** Free an event ring created by {@link #createEventRing}. */
+    static native void freeEventRing(long ring);
+
+    /** Copy up to <code>max</code> recorded events into the given buffer,
+     * removing them from the ring.
+     * @return the number of events copied
+     */
+    static native int drainEventRing(long ring, long buffer, int max);
+
+    /** @return the number of events discarded because the ring was full */
+    static native long getEventRingDropped(long ring);
+
     /**
      * Call the native function.
      *
@@ -2315,21 +2628,70 @@ public final class Native implements Version {
     }
 
     static String getString(Pointer pointer, long offset, String encoding) {
-        byte[] data = getStringBytes(pointer, pointer.peer, offset);
-        if (encoding != null) {
-            try {
-                return new String(data, encoding);
-            }
-            catch(UnsupportedEncodingException e) {
-            }
+        StringCodec codec = StringCodec.get();
+        byte[] buf = codec.getBuffer(0);
+        int len = readStringBytes(pointer, pointer.peer, offset, buf);
+        if (len > buf.length) {
+            buf = codec.getBuffer(len);
+            read(pointer, pointer.peer, offset, buf, 0, len);
         }
-        return new String(data);
+        return codec.decode(buf, len, getCharsetOrDefault(encoding));
     }
 
     static native byte[] getStringBytes(Pointer pointer, long baseaddr, long offset);
 
+    /**
+     * Decode a native array of <code>char*</code> or <code>wchar_t*</code>
+     * (if <code>encoding</code> is {@link NativeString#WIDE_STRING}).
+     *
+     * @param length the number of elements to decode, or the maximum
+     * number of elements to examine if <code>terminated</code>
+     * @param terminated whether the array ends with a NULL element
+     * @return the decoded strings, NULL elements are returned as
+     * <code>null</code>
+     */
+    static String[] getStringArray(Pointer pointer, long offset, int length, boolean terminated, String encoding) {
+        if (NativeString.WIDE_STRING.equals(encoding)) {
+            return getWideStringArray(pointer, pointer.peer, offset, length, terminated);
+        }
+        byte[][] data = getStringArrayBytes(pointer, pointer.peer, offset, length, terminated);
+        Charset charset = getCharsetOrDefault(encoding);
+        StringCodec codec = StringCodec.get();
+        String[] strings = new String[data.length];
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != null) {
+                strings[i] = codec.decode(data[i], data[i].length, charset);
+            }
+        }
+        return strings;
+    }
+
+    /**
+     * Copy the elements of a native <code>char*</code> array in a single
+     * call. Counting stops at the first NULL element if
+     * <code>terminated</code>, but never exceeds <code>length</code>.
+     */
+    static native byte[][] getStringArrayBytes(Pointer pointer, long baseaddr, long offset, int length, boolean terminated);
+
+    /** Same as {@link #getStringArrayBytes}, but for <code>wchar_t*</code>. */
+    static native String[] getWideStringArray(Pointer pointer, long baseaddr, long offset, int length, boolean terminated);
+
+    /**
+     * Copy a NUL-terminated native string into <code>buf</code>, if it fits.
+     *
+     * @return the length of the native string, excluding the terminating
+     * NUL. Nothing is copied if the result exceeds the size of
+     * <code>buf</code>.
+     */
+    static native int readStringBytes(Pointer pointer, long baseaddr, long offset, byte[] buf);
+
     static native void setMemory(Pointer pointer, long baseaddr, long offset, long length, byte value);
 
+    /** Copy <code>length</code> bytes between non-overlapping native
+     * memory blocks.
+     */
+    static native void copyMemory(long dst, long src, long length);
+
     static native void setByte(Pointer pointer, long baseaddr, long offset, byte value);
 
     static native void setShort(Pointer pointer, long baseaddr, long offset, short value);
@@ -2365,6 +2727,175 @@ public final class Native implements Version {
      */
     public static native void free(long ptr);
 
+    /**
+     * Call the real native calloc
+     * @param size size of the memory to be allocated
+     * @return native address of the allocated and zeroed memory block; zero
+     * if the allocation failed.
+     */
+    public static native long calloc(long size);
+
+    /**
+     * Allocate memory with the given alignment, using
+     * <code>posix_memalign</code> (or <code>_aligned_malloc</code> on
+     * Windows).
+     * @param size size of the memory to be allocated
+     * @param alignment a power of two
+     * @return native address of the allocated memory block; zero if the
+     * allocation failed.  The memory must be released with
+     * {@link #alignedFree}.
+     */
+    public static native long alignedMalloc(long size, long alignment);
+
+    /**
+     * Free memory obtained from {@link #alignedMalloc}
+     * @param ptr native address to be freed; a value of zero has no effect.
+     */
+    public static native void alignedFree(long ptr);
+
+    /**
+     * Map anonymous, private, read/write memory using <code>mmap</code>
+     * (<code>VirtualAlloc</code> on Windows, where the flags are ignored).
+     * @param size size of the mapping
+     * @param flags combination of {@link Memory#MAP_HUGETLB},
+     * {@link Memory#MAP_ADVISE_HUGEPAGE} and {@link Memory#MAP_POPULATE}
+     * @return native address of the mapping; zero if the mapping failed.
+     */
+    static native long mmap(long size, int flags);
+
+    /**
+     * Release memory obtained from {@link #mmap}
+     * @param ptr native address of the mapping
+     * @param size size of the mapping
+     * @return zero on success, otherwise the system error code
+     */
+    static native int munmap(long ptr, long size);
+
+    /**
+     * @return statistics of the native memory allocated through
+     * {@link Memory}: live and peak bytes, counts per size class, memory freed
+     * by the garbage collector instead of {@link Memory#close()}, and, for
+     * sampled allocations, live bytes per call site.
+     */
+    public static MemoryStats getMemoryStats() {
+        return MemoryAccounting.INSTANCE.getMemoryStats();
+    }
+
+    /**
+     * Describe the {@link Memory} allocations still live which are at least
+     * the given age, with the stacks which allocated them.  Only allocations
+     * whose stack was recorded are included: all of them in debug mode
+     * (<code>jna.memory.debug</code>), otherwise those sampled
+     * (<code>jna.memory.sample</code>).
+     * @param minAgeMillis minimum age in milliseconds
+     * @return the report, empty if there are no such allocations
+     */
+    public static String dumpMemoryAllocations(long minAgeMillis) {
+        return MemoryAccounting.INSTANCE.dumpAllocations(minAgeMillis);
+    }
+
+    /**
+     * Enable or disable accounting of the wall and thread CPU time spent in
+     * each native function, for interface and direct mapped calls.  This
+     * may also be enabled at startup with the system property
+     * <code>jna.calltime=true</code>.  Reading the clocks adds a fraction of a
+     * microsecond to each call.
+     * @param enable whether to measure calls from now on
+     * @see #getCallTimeStats(boolean)
+     */
+    public static void setCallTimeAccounting(boolean enable) {
+        setCallTiming(enable);
+    }
+
+    /**
+     * Read the times accumulated for all functions called while call time
+     * accounting was enabled, in one native call.  Up to 4096 distinct
+     * functions are counted.
+     * @param reset whether to clear the counters read
+     * @return statistics for each function called, in decreasing order of
+     * wall time
+     * @see #setCallTimeAccounting(boolean)
+     */
+    public static List<CallTimeStats> getCallTimeStats(boolean reset) {
+        long[] values = getCallTimes(reset);
+        Map<Long, Function> functions = NativeLibrary.getFunctionsByAddress();
+        List<CallTimeStats> result = new ArrayList<>(values.length / 4);
+        for (int i=0;i < values.length;i += 4) {
+            if (values[i + 1] != 0) {
+                result.add(new CallTimeStats(values[i], functions.get(values[i]),
+                                             values[i + 1], values[i + 2], values[i + 3]));
+            }
+        }
+        Collections.sort(result, (a, b) -> Long.compare(b.getWallTime(), a.getWallTime()));
+        return result;
+    }
+
+    private static native void setCallTiming(boolean enable);
+
+    /** @return the address, number of calls, wall time and CPU time of each
+     * function counted, consecutively
+     */
+    private static native long[] getCallTimes(boolean reset);
+
+    /**
+     * Enable or disable recording of the last 64 native calls of each
+     * thread, for interface and direct mapped calls, into fixed size native
+     * buffers which are reused rather than allocated per call.  This may also
+     * be enabled at startup with the system property
+     * <code>jna.calltrace=true</code>.  Besides {@link #dumpCallTrace()},
+     * native crash or signal handlers may write the traces with the exported
+     * function <code>void jna_dump_call_trace(int fd)</code> of the JNA
+     * native library, or read them from the list headed by the exported
+     * variable <code>jna_call_traces</code>.
+     * @param enable whether to record calls from now on
+     */
+    public static void setCallTrace(boolean enable) {
+        setCallTracing(enable);
+    }
+
+    /**
+     * Describe the most recent native calls of each thread which made any
+     * while tracing was enabled, oldest first.  A call without a duration
+     * was still in progress, or did not return normally.
+     * @return the trace
+     * @see #setCallTrace(boolean)
+     */
+    public static String dumpCallTrace() {
+        Object[] traces = getCallTraces();
+        long now = ((long[]) traces[0])[0];
+        Map<Long, Function> functions = NativeLibrary.getFunctionsByAddress();
+        String nl = System.getProperty("line.separator");
+        StringBuilder sb = new StringBuilder("JNA call trace").append(nl);
+        for (int i=1;i < traces.length;i += 2) {
+            long[] values = (long[]) traces[i + 1];
+            if (values[2] == 0) {
+                continue;
+            }
+            sb.append("Thread \"").append(traces[i]).append("\" (id ").append(values[0])
+                .append(values[1] != 0 ? ")" : ", terminated)").append(nl);
+            for (int j=3;j < values.length;j += 4) {
+                long start = values[j];
+                long end = values[j + 1];
+                Function f = functions.get(values[j + 2]);
+                sb.append("    ")
+                    .append(f != null ? f.getLibraryName() + ":" + f.getName() : "0x" + Long.toHexString(values[j + 2]))
+                    .append(" (").append(values[j + 3]).append(" args) ")
+                    .append((now - start) / 1000).append(" us ago, ")
+                    .append(end != 0 ? "took " + (end - start) / 1000 + " us" : "in progress")
+                    .append(nl);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static native void setCallTracing(boolean enable);
+
+    /** @return the current time, then the thread name and the thread ID,
+     * liveness, number of calls and the start, end, address and argument
+     * count of each recorded call, for each traced thread
+     */
+    private static native Object[] getCallTraces();
+
     private static final ThreadLocal<Memory> nativeThreadTerminationFlag =
         new ThreadLocal<Memory>() {
             @Override
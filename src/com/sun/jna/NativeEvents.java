@@ -0,0 +1,313 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * JDK Flight Recorder events for native calls, callbacks, memory and
+ * library loading.  Recording is enabled with the system property
+ * <code>jna.jfr=true</code>; JNA targets Java 8, so the event types are
+ * defined at runtime through <code>jdk.jfr.EventFactory</code>.  When the
+ * property is not set, or the running VM has no <code>jdk.jfr</code> module,
+ * {@link #ENABLED} is false and every event site reduces to a constant
+ * check.
+ * <p>
+ * The events are:
+ * <ul>
+ * <li><code>com.sun.jna.NativeCall</code>: calls through {@link Function}
+ * and interface mapped libraries, with the time spent converting arguments
+ * and results; calls to direct mapped methods are not recorded.  Default
+ * threshold 20 ms.</li>
+ * <li><code>com.sun.jna.NativeCallback</code>: callbacks from native code,
+ * and whether the native thread had to be attached to the VM.  Callbacks
+ * passed to direct mapped methods are not recorded; with events enabled,
+ * other callbacks are always invoked through a proxy.  Default threshold
+ * 20 ms.</li>
+ * <li><code>com.sun.jna.NativeMemoryAllocate</code> and
+ * <code>com.sun.jna.NativeMemoryFree</code>: {@link Memory} allocations and
+ * whether the free was triggered by {@link Memory#close} or by the cleaner.
+ * Disabled by default.</li>
+ * <li><code>com.sun.jna.NativeLibraryLoad</code>: library loads, with the
+ * path found and the time spent searching for it.</li>
+ * </ul>
+ */
+final class NativeEvents {
+
+    private static final Logger LOG = Logger.getLogger(NativeEvents.class.getName());
+
+    /** Whether events may be recorded.  Constant, so that the JIT removes
+     * event sites when JFR support is off.
+     */
+    static final boolean ENABLED;
+
+    static final Type NATIVE_CALL;
+    static final Type NATIVE_CALLBACK;
+    static final Type MEMORY_ALLOCATE;
+    static final Type MEMORY_FREE;
+    static final Type LIBRARY_LOAD;
+
+    static {
+        Factory factory = null;
+        if (Boolean.getBoolean("jna.jfr")) {
+            try {
+                factory = new Factory();
+            } catch (Throwable t) {
+                LOG.log(Level.WARNING, "JFR events not available: " + t);
+            }
+        }
+        Type call = null, callback = null, allocate = null, free = null, load = null;
+        if (factory != null) {
+            try {
+                call = factory.create("NativeCall", "Native Call",
+                                      "Call of a native function", "20 ms", true,
+                                      field(String.class, "library", "Library"),
+                                      field(String.class, "function", "Function"),
+                                      field(long.class, "marshalling", "Marshalling Time", "Timespan", "NANOSECONDS"));
+                callback = factory.create("NativeCallback", "Native Callback",
+                                          "Callback from native code into Java", "20 ms", true,
+                                          field(Class.class, "callbackType", "Callback Type"),
+                                          field(boolean.class, "attached", "Thread Attached"));
+                allocate = factory.create("NativeMemoryAllocate", "Native Memory Allocate",
+                                          "Allocation of native memory", null, false,
+                                          field(long.class, "address", "Address", "MemoryAddress", null),
+                                          field(long.class, "size", "Size", "DataAmount", "BYTES"));
+                free = factory.create("NativeMemoryFree", "Native Memory Free",
+                                      "Release of native memory", null, false,
+                                      field(long.class, "address", "Address", "MemoryAddress", null),
+                                      field(long.class, "size", "Size", "DataAmount", "BYTES"),
+                                      field(boolean.class, "cleaner", "Freed by Cleaner"));
+                load = factory.create("NativeLibraryLoad", "Native Library Load",
+                                      "Load of a native library", null, true,
+                                      field(String.class, "name", "Name"),
+                                      field(String.class, "path", "Path"),
+                                      field(long.class, "searchTime", "Search Time", "Timespan", "NANOSECONDS"));
+            } catch (Throwable t) {
+                LOG.log(Level.WARNING, "Failed to define JFR events", t);
+                call = callback = allocate = free = load = null;
+            }
+        }
+        ENABLED = load != null;
+        NATIVE_CALL = call != null ? call : new Type();
+        NATIVE_CALLBACK = callback != null ? callback : new Type();
+        MEMORY_ALLOCATE = allocate != null ? allocate : new Type();
+        MEMORY_FREE = free != null ? free : new Type();
+        LIBRARY_LOAD = load != null ? load : new Type();
+    }
+
+    private NativeEvents() { }
+
+    /** Field definition: type, name, label, and an optional annotation
+     * from <code>jdk.jfr</code> with its value.
+     */
+    private static Object[] field(Class<?> type, String name, String label) {
+        return field(type, name, label, null, null);
+    }
+
+    private static Object[] field(Class<?> type, String name, String label, String annotation, String value) {
+        return new Object[] { type, name, label, annotation, value };
+    }
+
+    /** An event type; all methods are no-ops if events are disabled. */
+    static class Type {
+        private final Factory factory;
+        private final MethodHandle isEnabled;
+        private final MethodHandle newEvent;
+
+        Type() {
+            this(null, null, null);
+        }
+
+        Type(Factory factory, MethodHandle isEnabled, MethodHandle newEvent) {
+            this.factory = factory;
+            this.isEnabled = isEnabled;
+            this.newEvent = newEvent;
+        }
+
+        /** @return whether a recording currently has this event enabled */
+        boolean isEnabled() {
+            if (!ENABLED) {
+                return false;
+            }
+            try {
+                return (boolean) isEnabled.invokeExact();
+            } catch (Throwable t) {
+                return false;
+            }
+        }
+
+        /** Start timing an event.
+         * @return the new event, or null if the event is not enabled
+         */
+        Event begin() {
+            if (!isEnabled()) {
+                return null;
+            }
+            try {
+                Object event = newEvent.invoke();
+                factory.begin.invoke(event);
+                return new Event(factory, event);
+            } catch (Throwable t) {
+                LOG.log(Level.FINE, "Failed to create JFR event", t);
+                return null;
+            }
+        }
+    }
+
+    /** An event in progress. */
+    static final class Event {
+        private final Factory factory;
+        private final Object event;
+        private final long start = System.nanoTime();
+        private long mark;
+        private long nativeStart;
+        private long nativeTime;
+
+        private Event(Factory factory, Object event) {
+            this.factory = factory;
+            this.event = event;
+        }
+
+        /** Record the current time, see {@link #sinceStartToMark}. */
+        void mark() {
+            mark = System.nanoTime();
+        }
+
+        /** @return nanoseconds from the start of the event to the last {@link #mark} */
+        long sinceStartToMark() {
+            return mark == 0 ? 0 : mark - start;
+        }
+
+        /** Start timing native code, which is excluded from {@link #outsideNative}. */
+        void nativeStart() {
+            nativeStart = System.nanoTime();
+        }
+
+        void nativeEnd() {
+            nativeTime += System.nanoTime() - nativeStart;
+        }
+
+        /** @return nanoseconds since the start of the event, not spent in native code */
+        long outsideNative() {
+            return System.nanoTime() - start - nativeTime;
+        }
+
+        /** End the event and commit it if it passes the recording's
+         * threshold, with the given values for the event's fields in order.
+         */
+        void commit(Object... values) {
+            try {
+                factory.end.invoke(event);
+                if ((boolean) factory.shouldCommit.invoke(event)) {
+                    for (int i=0;i < values.length;i++) {
+                        factory.set.invoke(event, i, values[i]);
+                    }
+                    factory.commit.invoke(event);
+                }
+            } catch (Throwable t) {
+                LOG.log(Level.FINE, "Failed to commit JFR event", t);
+            }
+        }
+    }
+
+    /** Reflective access to <code>jdk.jfr</code>. */
+    private static final class Factory {
+        private final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        private final Constructor<?> annotation;
+        private final Constructor<?> descriptor;
+        private final Class<?> annotationElement;
+        private final MethodHandle create;
+        private final MethodHandle eventType;
+        private final MethodHandle isEnabled;
+        private final MethodHandle newEvent;
+        final MethodHandle begin;
+        final MethodHandle end;
+        final MethodHandle shouldCommit;
+        final MethodHandle set;
+        final MethodHandle commit;
+
+        Factory() throws Exception {
+            annotationElement = jfr("AnnotationElement");
+            annotation = annotationElement.getConstructor(Class.class, Object.class);
+            Class<?> valueDescriptor = jfr("ValueDescriptor");
+            descriptor = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+            Class<?> eventFactory = jfr("EventFactory");
+            Class<?> event = jfr("Event");
+            Class<?> type = jfr("EventType");
+            create = lookup.findStatic(eventFactory, "create", MethodType.methodType(eventFactory, List.class, List.class));
+            eventType = lookup.findVirtual(eventFactory, "getEventType", MethodType.methodType(type));
+            newEvent = lookup.findVirtual(eventFactory, "newEvent", MethodType.methodType(event));
+            isEnabled = lookup.findVirtual(type, "isEnabled", MethodType.methodType(boolean.class));
+            begin = lookup.findVirtual(event, "begin", MethodType.methodType(void.class));
+            end = lookup.findVirtual(event, "end", MethodType.methodType(void.class));
+            shouldCommit = lookup.findVirtual(event, "shouldCommit", MethodType.methodType(boolean.class));
+            set = lookup.findVirtual(event, "set", MethodType.methodType(void.class, int.class, Object.class));
+            commit = lookup.findVirtual(event, "commit", MethodType.methodType(void.class));
+        }
+
+        private static Class<?> jfr(String name) throws ClassNotFoundException {
+            return Class.forName("jdk.jfr." + name);
+        }
+
+        private Object annotation(String name, Object value) throws Exception {
+            return annotation.newInstance(jfr(name), value);
+        }
+
+        Type create(String name, String label, String description, String threshold,
+                    boolean enabled, Object[]... fields) throws Throwable {
+            List<Object> annotations = new ArrayList<>();
+            annotations.add(annotation("Name", "com.sun.jna." + name));
+            annotations.add(annotation("Label", label));
+            annotations.add(annotation("Description", description));
+            Object category = Array.newInstance(String.class, 1);
+            Array.set(category, 0, "Java Native Access");
+            annotations.add(annotation("Category", category));
+            if (threshold != null) {
+                annotations.add(annotation("Threshold", threshold));
+            }
+            annotations.add(annotation("Enabled", enabled));
+            List<Object> descriptors = new ArrayList<>();
+            for (Object[] field : fields) {
+                List<Object> fieldAnnotations = new ArrayList<>();
+                fieldAnnotations.add(annotation("Label", field[2]));
+                if (field[3] != null) {
+                    fieldAnnotations.add(field[4] != null
+                                         ? annotation((String) field[3], field[4])
+                                         : annotationElement.getConstructor(Class.class).newInstance(jfr((String) field[3])));
+                }
+                descriptors.add(descriptor.newInstance(field[0], field[1], fieldAnnotations));
+            }
+            Object factory = create.invoke(annotations, descriptors);
+            Object type = eventType.invoke(factory);
+            return new Type(this, isEnabled.bindTo(type), newEvent.bindTo(factory));
+        }
+    }
+}
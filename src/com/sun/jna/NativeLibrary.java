@@ -49,7 +49,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -99,13 +108,21 @@ public class NativeLibrary implements Closeable {
     private volatile long handle;
     private final String libraryName;
     private final String libraryPath;
-    private final Map<String, Function> functions = new HashMap<>();
+    private final ConcurrentHashMap<FunctionKey, Function> functions = new ConcurrentHashMap<>();
     private final SymbolProvider symbolProvider;
     private final int callFlags;
     private final String encoding;
     private final Map<String, ?> options;
+    private volatile ThreadPoolExecutor asyncExecutor;
+
+    /** Default number of threads of {@link #getAsyncExecutor()}, set with
+     * the system property <code>jna.async.threads</code>.
+     */
+    private static final int ASYNC_THREADS = Integer.getInteger("jna.async.threads", Runtime.getRuntime().availableProcessors());
 
     private static final Map<String, Reference<NativeLibrary>> libraries = new HashMap<>();
+    // Loads in progress, guarded by the libraries lock
+    private static final Map<String, FutureTask<NativeLibrary>> loading = new HashMap<>();
 
     private static final Map<String, List<String>> searchPaths = new ConcurrentHashMap<>();
     private static final LinkedHashSet<String> librarySearchPath = new LinkedHashSet<>();
@@ -116,8 +133,36 @@ public class NativeLibrary implements Closeable {
             throw new Error("Native library not initialized");
     }
 
-    private static String functionKey(String name, int flags, String encoding) {
-        return name + "|" + flags + "|" + encoding;
+    private static final class FunctionKey {
+        private final String name;
+        private final int flags;
+        private final String encoding;
+        private final int hashCode;
+
+        FunctionKey(String name, int flags, String encoding) {
+            this.name = name;
+            this.flags = flags;
+            this.encoding = encoding;
+            this.hashCode = (name.hashCode() * 31 + flags) * 31
+                + (encoding != null ? encoding.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FunctionKey)) {
+                return false;
+            }
+            FunctionKey other = (FunctionKey)o;
+            return hashCode == other.hashCode
+                && flags == other.flags
+                && name.equals(other.name)
+                && (encoding == null ? other.encoding == null : encoding.equals(other.encoding));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
     }
 
     @SuppressWarnings("LeakingThisInConstructor")
@@ -146,20 +191,18 @@ public class NativeLibrary implements Closeable {
         // Special workaround for w32 kernel32.GetLastError
         // Short-circuit the function to use built-in GetLastError access
         if (Platform.isWindows() && "kernel32".equals(this.libraryName.toLowerCase())) {
-            synchronized(functions) {
-                Function f = new Function(this, "GetLastError", Function.ALT_CONVENTION, encoding) {
-                        @Override
-                        Object invoke(Object[] args, Class<?> returnType, boolean b, int fixedArgs) {
-                            return Integer.valueOf(Native.getLastError());
-                        }
+            Function f = new Function(this, "GetLastError", Function.ALT_CONVENTION, encoding) {
+                    @Override
+                    Object invoke(Object[] args, Class<?> returnType, boolean b, int fixedArgs) {
+                        return Integer.valueOf(Native.getLastError());
+                    }
 
-                        @Override
-                        Object invoke(Method invokingMethod, Class<?>[] paramTypes, Class<?> returnType, Object[] inArgs, Map<String, ?> options) {
-                            return Integer.valueOf(Native.getLastError());
-                        }
-                    };
-                functions.put(functionKey("GetLastError", callFlags, encoding), f);
-            }
+                    @Override
+                    Object invoke(Method invokingMethod, Class<?>[] paramTypes, Class<?> returnType, Object[] inArgs, Map<String, ?> options) {
+                        return Integer.valueOf(Native.getLastError());
+                    }
+                };
+            functions.put(new FunctionKey("GetLastError", callFlags, encoding), f);
         }
     }
 
@@ -173,6 +216,28 @@ public class NativeLibrary implements Closeable {
     }
 
     private static NativeLibrary loadLibrary(final String libraryName, final Map<String, ?> options) {
+        NativeEvents.Event event = NativeEvents.LIBRARY_LOAD.begin();
+        if (event == null) {
+            return loadLibrary(libraryName, options, null);
+        }
+        NativeLibrary library = null;
+        try {
+            library = loadLibrary(libraryName, options, event);
+            return library;
+        } finally {
+            event.commit(libraryName, library != null ? library.libraryPath : null, event.sinceStartToMark());
+        }
+    }
+
+    /** Open a library, marking the end of the search in the load event. */
+    private static long open(String path, int openFlags, NativeEvents.Event event) {
+        if (event != null) {
+            event.mark();
+        }
+        return Native.open(path, openFlags);
+    }
+
+    private static NativeLibrary loadLibrary(final String libraryName, final Map<String, ?> options, NativeEvents.Event event) {
         LOG.log(DEBUG_LOAD_LEVEL, "Looking for library '" + libraryName + "'");
 
         List<Throwable> exceptions = new ArrayList<>();
@@ -210,7 +275,7 @@ public class NativeLibrary implements Closeable {
         //
         try {
             LOG.log(DEBUG_LOAD_LEVEL, "Trying " + libraryPath);
-            handle = Native.open(libraryPath, openFlags);
+            handle = open(libraryPath, openFlags, event);
         } catch(UnsatisfiedLinkError e) {
             // Add the system paths back for all fallback searching
             LOG.log(DEBUG_LOAD_LEVEL, "Loading failed with message: " + e.getMessage());
@@ -223,7 +288,7 @@ public class NativeLibrary implements Closeable {
             if (handle == 0) {
                 libraryPath = findLibraryPath(libraryName, searchPath);
                 LOG.log(DEBUG_LOAD_LEVEL, "Trying " + libraryPath);
-                handle = Native.open(libraryPath, openFlags);
+                handle = open(libraryPath, openFlags, event);
                 if (handle == 0) {
                     throw new UnsatisfiedLinkError("Failed to load library '" + libraryName + "'");
                 }
@@ -238,7 +303,7 @@ public class NativeLibrary implements Closeable {
                 try {
                     LOG.log(DEBUG_LOAD_LEVEL, "Preload (via System.loadLibrary) " + libraryName);
                     System.loadLibrary(libraryName);
-                    handle = Native.open(libraryPath, openFlags);
+                    handle = open(libraryPath, openFlags, event);
                 }
                 catch(UnsatisfiedLinkError e2) {
                     LOG.log(DEBUG_LOAD_LEVEL, "Loading failed with message: " + e2.getMessage());
@@ -254,7 +319,7 @@ public class NativeLibrary implements Closeable {
                 if (libraryPath != null) {
                     LOG.log(DEBUG_LOAD_LEVEL, "Trying " + libraryPath);
                     try {
-                        handle = Native.open(libraryPath, openFlags);
+                        handle = open(libraryPath, openFlags, event);
                     }
                     catch(UnsatisfiedLinkError e2) {
                         LOG.log(DEBUG_LOAD_LEVEL, "Loading failed with message: " + e2.getMessage());
@@ -267,7 +332,7 @@ public class NativeLibrary implements Closeable {
                 for(String frameworkName : matchFramework(libraryName)) {
                     try {
                         LOG.log(DEBUG_LOAD_LEVEL, "Trying " + frameworkName);
-                        handle = Native.open(frameworkName, openFlags);
+                        handle = open(frameworkName, openFlags, event);
                         break;
                     }
                     catch(UnsatisfiedLinkError e2) {
@@ -283,7 +348,7 @@ public class NativeLibrary implements Closeable {
                 if (libraryPath != null) {
                     LOG.log(DEBUG_LOAD_LEVEL, "Trying " + libraryPath);
                     try {
-                        handle = Native.open(libraryPath, openFlags);
+                        handle = open(libraryPath, openFlags, event);
                     } catch(UnsatisfiedLinkError e2) {
                         LOG.log(DEBUG_LOAD_LEVEL, "Loading failed with message: " + e2.getMessage());
                         exceptions.add(e2);
@@ -297,7 +362,7 @@ public class NativeLibrary implements Closeable {
                     File embedded = Native.extractFromResourcePath(libraryName, (ClassLoader)options.get(Library.OPTION_CLASSLOADER));
                     if (embedded != null) {
                         try {
-                            handle = Native.open(embedded.getAbsolutePath(), openFlags);
+                            handle = open(embedded.getAbsolutePath(), openFlags, event);
                             libraryPath = embedded.getAbsolutePath();
                         } finally {
                             // Don't leave temporary files around
@@ -448,7 +513,9 @@ public class NativeLibrary implements Closeable {
      * The library is loaded if not already loaded.  If already loaded, the
      * existing instance is returned.<p>
      * More than one name may map to the same NativeLibrary instance; only
-     * a single instance will be provided for any given unique file path.
+     * a single instance will be provided for any given unique file path.<p>
+     * Distinct libraries may be loaded concurrently from different threads;
+     * concurrent requests for the same library wait for a single load.
      *
      * @param libraryName The library name to load.
      *      This can be short form (e.g. "c"),
@@ -469,27 +536,102 @@ public class NativeLibrary implements Closeable {
             && Platform.C_LIBRARY_NAME.equals(libraryName)) {
             libraryName = null;
         }
+        final String key = libraryName + options;
+        final String name = libraryName;
+        final Map<String, Object> loadOptions = options;
+        FutureTask<NativeLibrary> task;
+        boolean owner = false;
         synchronized (libraries) {
-            Reference<NativeLibrary> ref = libraries.get(libraryName + options);
+            Reference<NativeLibrary> ref = libraries.get(key);
             NativeLibrary library = (ref != null) ? ref.get() : null;
-
-            if (library == null) {
-                if (libraryName == null) {
-                    library = new NativeLibrary("<process>", null, Native.open(null, openFlags(options)), options);
+            if (library != null) {
+                return library;
+            }
+            task = loading.get(key);
+            if (task == null) {
+                task = new FutureTask<>(new Callable<NativeLibrary>() {
+                    @Override
+                    public NativeLibrary call() {
+                        NativeLibrary library;
+                        if (name == null) {
+                            library = new NativeLibrary("<process>", null, Native.open(null, openFlags(loadOptions)), loadOptions);
+                        }
+                        else {
+                            library = loadLibrary(name, loadOptions);
+                        }
+                        return register(library, key, loadOptions);
+                    }
+                });
+                loading.put(key, task);
+                owner = true;
+            }
+        }
+        // Search, extract and open outside of the lock, so that distinct
+        // libraries load concurrently
+        if (owner) {
+            try {
+                task.run();
+            }
+            finally {
+                synchronized (libraries) {
+                    loading.remove(key);
                 }
-                else {
-                    library = loadLibrary(libraryName, options);
+            }
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
                 }
-                ref = new WeakReference<>(library);
-                libraries.put(library.getName() + options, ref);
-                File file = library.getFile();
-                if (file != null) {
-                    libraries.put(file.getAbsolutePath() + options, ref);
-                    libraries.put(file.getName() + options, ref);
+                catch(InterruptedException e) {
+                    interrupted = true;
                 }
             }
-            return library;
         }
+        catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Record a newly opened library under the requested key, its name and
+     * its file names.  If the same file has already been recorded under a
+     * different name, the new handle is closed and the existing library
+     * returned, and recorded under the requested key as well.
+     */
+    private static NativeLibrary register(NativeLibrary library, String key, Map<String, ?> options) {
+        File file = library.getFile();
+        synchronized (libraries) {
+            if (file != null) {
+                Reference<NativeLibrary> existing = libraries.get(file.getAbsolutePath() + options);
+                NativeLibrary lib = (existing != null) ? existing.get() : null;
+                if (lib != null) {
+                    library.close();
+                    libraries.put(key, existing);
+                    return lib;
+                }
+            }
+            Reference<NativeLibrary> ref = new WeakReference<>(library);
+            libraries.put(key, ref);
+            libraries.put(library.getName() + options, ref);
+            if (file != null) {
+                libraries.put(file.getAbsolutePath() + options, ref);
+                libraries.put(file.getName() + options, ref);
+            }
+        }
+        return library;
     }
 
     /**
@@ -611,15 +753,18 @@ public class NativeLibrary implements Closeable {
         if (functionName == null) {
             throw new NullPointerException("Function name may not be null");
         }
-        synchronized (functions) {
-            String key = functionKey(functionName, callFlags, encoding);
-            Function function = functions.get(key);
-            if (function == null) {
-                function = new Function(this, functionName, callFlags, encoding);
-                functions.put(key, function);
+        FunctionKey key = new FunctionKey(functionName, callFlags, encoding);
+        Function function = functions.get(key);
+        if (function == null) {
+            // Concurrent lookups of the same symbol may both resolve it, but
+            // only one Function is kept
+            function = new Function(this, functionName, callFlags, encoding);
+            Function existing = functions.putIfAbsent(key, function);
+            if (existing != null) {
+                function = existing;
             }
-            return function;
         }
+        return function;
     }
 
     /** @return this native library instance's options. */
@@ -655,6 +800,44 @@ public class NativeLibrary implements Closeable {
     public String toString() {
         return "Native Library <" + libraryPath + "@" + handle + ">";
     }
+    /**
+     * Returns the pool of threads which makes the native calls of library
+     * methods returning {@link java.util.concurrent.CompletableFuture}, unless
+     * the library has its own {@link Library#OPTION_ASYNC_EXECUTOR}.  The pool
+     * is created on first use with <code>jna.async.threads</code> daemon
+     * threads (by default, the number of processors), which terminate when
+     * idle; use {@link ThreadPoolExecutor#setCorePoolSize} and
+     * {@link ThreadPoolExecutor#setMaximumPoolSize} to resize it, e.g. for
+     * calls which block.  When this library is closed, the pool is shut
+     * down, calls which have not started fail with an
+     * {@link IllegalStateException} and {@link #close()} waits for those in
+     * progress before the library is unloaded.
+     */
+    public ThreadPoolExecutor getAsyncExecutor() {
+        ThreadPoolExecutor executor = asyncExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = asyncExecutor;
+                if (executor == null) {
+                    final String prefix = "JNA async " + libraryName + " ";
+                    executor = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                            private final AtomicInteger count = new AtomicInteger();
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new AsyncThread(NativeLibrary.this, r, prefix + count.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+                    executor.allowCoreThreadTimeOut(true);
+                    asyncExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
     /** Returns the simple name of this library. */
     public String getName() {
         return libraryName;
@@ -683,6 +866,24 @@ public class NativeLibrary implements Closeable {
         }
     }
 
+    /** @return the functions looked up in all open libraries, by address */
+    static Map<Long, Function> getFunctionsByAddress() {
+        Set<Reference<NativeLibrary>> values;
+        synchronized(libraries) {
+            values = new LinkedHashSet<>(libraries.values());
+        }
+        Map<Long, Function> result = new HashMap<>();
+        for (Reference<NativeLibrary> ref : values) {
+            NativeLibrary lib = ref.get();
+            if (lib != null) {
+                for (Function f : lib.functions.values()) {
+                    result.put(f.peer, f);
+                }
+            }
+        }
+        return result;
+    }
+
     /** Close the native library we're mapped to. */
     public void close() {
         Set<String> keys = new HashSet<>();
@@ -699,6 +900,18 @@ public class NativeLibrary implements Closeable {
             }
         }
 
+        // Stop asynchronous calls before the library is unloaded
+        ThreadPoolExecutor executor;
+        synchronized(this) {
+            executor = asyncExecutor;
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+        if (executor != null) {
+            shutdownAsyncExecutor(executor);
+        }
+
         synchronized(this) {
             if (handle != 0) {
                 handle = 0;
@@ -707,6 +920,54 @@ public class NativeLibrary implements Closeable {
         }
     }
 
+    /** Fail the asynchronous calls which have not started and wait for
+     * those in progress, unless called from the pool itself.
+     */
+    private void shutdownAsyncExecutor(ThreadPoolExecutor executor) {
+        List<Runnable> pending = new ArrayList<>();
+        executor.getQueue().drainTo(pending);
+        for (Runnable task : pending) {
+            if (task instanceof Function.AsyncCall) {
+                ((Function.AsyncCall)task).fail(new IllegalStateException("Library " + libraryName + " has been closed"));
+            }
+            else if (task instanceof Future) {
+                ((Future<?>)task).cancel(false);
+            }
+        }
+        if (Thread.currentThread() instanceof AsyncThread
+            && ((AsyncThread)Thread.currentThread()).library == this) {
+            return;
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    if (executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                        break;
+                    }
+                }
+                catch(InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Thread of the pool returned by {@link #getAsyncExecutor()}. */
+    private static final class AsyncThread extends Thread {
+        final NativeLibrary library;
+
+        AsyncThread(NativeLibrary library, Runnable r, String name) {
+            super(r, name);
+            this.library = library;
+        }
+    }
+
     @Deprecated
     public void dispose() {
         close();
@@ -742,10 +1003,15 @@ public class NativeLibrary implements Closeable {
         // Get the system name for the library (e.g. libfoo.so)
         //
         String name = mapSharedLibraryName(libName);
+        LdSoCache cache = Platform.isLinux() ? LdSoCache.getInstance() : null;
+        String cached = cache != null ? cache.getPath(name) : null;
 
         // Search in the JNA paths for it
         for (String path : searchPath) {
             File file = new File(path, name);
+            if (cached != null && file.getPath().equals(cached)) {
+                return cached;
+            }
             if (file.exists()) {
                 return file.getAbsolutePath();
             }
@@ -851,7 +1117,29 @@ public class NativeLibrary implements Closeable {
             };
 
         Collection<File> matches = new LinkedList<>();
+        // Directories indexed by ldconfig are matched against its cache
+        // rather than listed
+        LdSoCache cache = Platform.isLinux() && !lib.isAbsolute() ? LdSoCache.getInstance() : null;
+        Set<String> cachedDirs = Collections.emptySet();
+        if (cache != null) {
+            cachedDirs = new HashSet<>(cache.getDirectories());
+            for (String path : cache.getLibraries().values()) {
+                File f = new File(path);
+                if (searchPath.contains(f.getParent())
+                    && filter.accept(f.getParentFile(), f.getName())) {
+                    matches.add(f);
+                }
+            }
+        }
+        // List the cached directories as well if the cache found nothing,
+        // in case its entries were not recognized as usable
+        if (matches.isEmpty()) {
+            cachedDirs = Collections.emptySet();
+        }
         for (String path : searchPath) {
+            if (cachedDirs.contains(path)) {
+                continue;
+            }
             File[] files = new File(path).listFiles(filter);
             if (files != null && files.length > 0) {
                 matches.addAll(Arrays.asList(files));
@@ -1013,9 +1301,15 @@ public class NativeLibrary implements Closeable {
     }
 
     /**
-     * Get the library paths from ldconfig cache. Tested against ldconfig 2.13.
+     * Get the library paths from ldconfig cache.  The cache file is read
+     * directly; <code>ldconfig -p</code> is only run if it cannot be parsed.
+     * Tested against ldconfig 2.13.
      */
     private static ArrayList<String> getLinuxLdPaths() {
+        LdSoCache cache = LdSoCache.getInstance();
+        if (cache != null) {
+            return new ArrayList<>(cache.getDirectories());
+        }
         ArrayList<String> ldPaths = new ArrayList<>();
         Process process = null;
         BufferedReader reader = null;
@@ -0,0 +1,51 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/** Registers JNA's management interfaces with the platform MBean server.
+ * This is kept apart from {@link Native} so that the
+ * <code>java.management</code> module is only needed by applications
+ * which use it.
+ */
+public final class NativeManagement {
+
+    private NativeManagement() { }
+
+    /**
+     * Register the native memory statistics with the platform MBean server,
+     * as <code>com.sun.jna:type=NativeMemory</code>.
+     * @return the name registered
+     * @throws JMException if registration fails
+     * @see NativeMemoryMXBean
+     */
+    public static ObjectName registerMemoryMBean() throws JMException {
+        ObjectName name = new ObjectName("com.sun.jna:type=NativeMemory");
+        ManagementFactory.getPlatformMBeanServer().registerMBean(MemoryAccounting.INSTANCE, name);
+        return name;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+/** Management interface of the native memory accounting, registered with
+ * {@link NativeManagement#registerMemoryMBean()}.
+ */
+public interface NativeMemoryMXBean {
+
+    /** @return the current statistics */
+    MemoryStats getMemoryStats();
+
+    /** Set the peak to the number of bytes currently allocated. */
+    void resetPeak();
+
+    /** @param minAgeMillis minimum age of the allocations to report
+     * @return a description of the tracked allocations still live
+     * @see Native#dumpMemoryAllocations(long)
+     */
+    String dumpAllocations(long minAgeMillis);
+}
@@ -22,6 +22,11 @@
  */
 package com.sun.jna;
 
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
 /** Provides a temporary allocation of an immutable C string
  * (<code>const char*</code> or <code>const wchar_t*</code>) for use when
  * converting a Java String into a native memory function argument.
@@ -33,6 +38,142 @@ class NativeString implements CharSequence, Comparable {
 
     static final String WIDE_STRING = "--WIDE-STRING--";
 
+    /** Maximum number of native copies kept for constant strings, from the
+     * system property <code>jna.string.cachesize</code>.  Zero disables
+     * caching.
+     */
+    static final int CONSTANT_CACHE_SIZE = Integer.getInteger("jna.string.cachesize", 256);
+
+    /** Native copies of constant strings.  Lookups do not lock; when the
+     * cache is full, entries not used since the previous eviction sweep are
+     * evicted first (an approximation of least-recently-used order).
+     * Evicted entries are not freed explicitly, since a call in progress
+     * may still use them; their memory is released by the {@link Memory}
+     * cleaner once they are no longer referenced.
+     */
+    private static final ConcurrentHashMap<ConstantKey, Constant> constants = new ConcurrentHashMap<>();
+
+    private static final class Constant {
+        final Pointer pointer;
+        volatile boolean used = true;
+        Constant(Pointer pointer) {
+            this.pointer = pointer;
+        }
+    }
+
+    private static final class ConstantKey {
+        private final String value;
+        private final String encoding;
+        ConstantKey(String value, String encoding) {
+            this.value = value;
+            this.encoding = encoding;
+        }
+        @Override
+        public int hashCode() {
+            return value.hashCode() * 31 + encoding.hashCode();
+        }
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ConstantKey)) {
+                return false;
+            }
+            ConstantKey other = (ConstantKey) o;
+            return value.equals(other.value) && encoding.equals(other.encoding);
+        }
+    }
+
+    /** Obtain a shared native copy of the given string.
+     * @param string value to convert
+     * @param encoding the encoding used to convert the string, or
+     * {@link #WIDE_STRING} for a <code>wchar_t</code> string
+     * @return a native copy which must not be modified; it remains valid for
+     * as long as the returned reference is held
+     */
+    static Pointer getConstant(String string, String encoding) {
+        if (encoding == null) {
+            encoding = Native.getDefaultStringEncoding();
+        }
+        if (CONSTANT_CACHE_SIZE <= 0) {
+            return new NativeString(string, encoding).getPointer();
+        }
+        ConstantKey key = new ConstantKey(string, encoding);
+        Constant c = constants.get(key);
+        if (c == null) {
+            Constant created = new Constant(new NativeString(string, encoding).getPointer());
+            c = constants.putIfAbsent(key, created);
+            if (c == null) {
+                if (constants.size() > CONSTANT_CACHE_SIZE) {
+                    evictConstants();
+                }
+                return created.pointer;
+            }
+        }
+        if (!c.used) {
+            c.used = true;
+        }
+        return c.pointer;
+    }
+
+    /** @return the number of cached constant strings */
+    static int getConstantCount() {
+        return constants.size();
+    }
+
+    /** Evict entries until the cache is within its bounds, giving entries
+     * used since the last sweep a second chance.
+     */
+    private static void evictConstants() {
+        for (int pass=0;pass < 2 && constants.size() > CONSTANT_CACHE_SIZE;pass++) {
+            Iterator<Constant> i = constants.values().iterator();
+            while (i.hasNext() && constants.size() > CONSTANT_CACHE_SIZE) {
+                Constant c = i.next();
+                if (c.used) {
+                    c.used = false;
+                }
+                else {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    /** Converts arguments of directly mapped methods to shared native
+     * copies.
+     */
+    static final class ConstantConverter implements ToNativeConverter {
+        private final String encoding;
+        ConstantConverter(String encoding) {
+            this.encoding = encoding;
+        }
+        @Override
+        public Object toNative(Object value, ToNativeContext context) {
+            return value == null ? null : getConstant(value.toString(), encoding);
+        }
+        @Override
+        public Class<?> nativeType() {
+            return Pointer.class;
+        }
+    }
+
+    /** Returns which parameters of the given method are annotated with
+     * {@link ConstantString}, or <code>null</code> if there are none.
+     */
+    static boolean[] getConstantParameters(Method method) {
+        Annotation[][] annotations = method.getParameterAnnotations();
+        boolean[] constant = null;
+        for (int i=0;i < annotations.length;i++) {
+            for (Annotation a : annotations[i]) {
+                if (a instanceof ConstantString) {
+                    if (constant == null) {
+                        constant = new boolean[annotations.length];
+                    }
+                    constant[i] = true;
+                }
+            }
+        }
+        return constant;
+    }
+
     private Pointer pointer;
     private String encoding;
 
@@ -86,10 +227,10 @@ class NativeString implements CharSequence, Comparable {
             pointer = new StringMemory(len);
             pointer.setWideString(0, string);
         } else {
-            byte[] data = Native.getBytes(string, encoding);
-            pointer = new StringMemory(data.length + 1);
-            pointer.write(0, data, 0, data.length);
-            pointer.setByte(data.length, (byte)0);
+            StringCodec codec = StringCodec.get();
+            int len = codec.encode(string, Native.getCharset(encoding));
+            pointer = new StringMemory(len + 1);
+            pointer.write(0, codec.getEncoded(), 0, len + 1);
         }
     }
 
@@ -811,33 +811,10 @@ public class Pointer {
      * @param encoding
      */
     public String[] getStringArray(long offset, int length, String encoding) {
-        List<String> strings = new ArrayList<>();
-        Pointer p;
-        int addOffset = 0;
-        if (length != -1) {
-            p = getPointer(offset + addOffset);
-            int count = 0;
-            while (count++ < length) {
-                String s = p == null
-                    ? null
-                    : (NativeString.WIDE_STRING.equals(encoding)
-                       ? p.getWideString(0) : p.getString(0, encoding));
-                strings.add(s);
-                if (count < length) {
-                    addOffset += Native.POINTER_SIZE;
-                    p = getPointer(offset + addOffset);
-                }
-            }
-        } else {
-            while ((p = getPointer(offset + addOffset)) != null) {
-                String s = NativeString.WIDE_STRING.equals(encoding)
-                        ? p.getWideString(0)
-                        : p.getString(0, encoding);
-                strings.add(s);
-                addOffset += Native.POINTER_SIZE;
-            }
+        if (length == -1) {
+            return Native.getStringArray(this, offset, Integer.MAX_VALUE, true, encoding);
         }
-        return strings.toArray(new String[0]);
+        return Native.getStringArray(this, offset, length, false, encoding);
     }
 
     //////////////////////////////////////////////////////////////////////////
@@ -1150,9 +1127,9 @@ public class Pointer {
      * @param encoding desired encoding
      */
     public void setString(long offset, String value, String encoding) {
-        byte[] data = Native.getBytes(value, encoding);
-        write(offset, data, 0, data.length);
-        setByte(offset + data.length, (byte)0);
+        StringCodec codec = StringCodec.get();
+        int len = codec.encode(value, Native.getCharset(encoding));
+        write(offset, codec.getEncoded(), 0, len + 1);
     }
 
     /** Dump memory for debugging purposes. */
@@ -1320,6 +1297,10 @@ public class Pointer {
             throw new UnsupportedOperationException(MSG);
         }
         @Override
+        public String[] getStringArray(long offset, int length, String encoding) {
+            throw new UnsupportedOperationException(MSG);
+        }
+        @Override
         public void setByte(long bOff, byte value) {
             throw new UnsupportedOperationException(MSG);
         }
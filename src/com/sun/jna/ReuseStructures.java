@@ -0,0 +1,63 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Requests that {@link Structure} instances be reused instead of created
+ * anew on every call.
+ * <p>
+ * On a {@link Callback} interface or its callback method, each thread keeps
+ * one instance per {@link Structure} argument.  A by-reference argument is
+ * pointed at the native memory passed to the callback and read, and a
+ * {@link Structure.ByValue} argument is overwritten with a copy of the
+ * passed value.  On a {@link Library} method returning a
+ * {@link Structure.ByValue}, each thread receives the same instance from
+ * every call, overwritten with the returned value.
+ * <pre><code>
+ * interface EventLibrary extends Library {
+ *     &#64;ReuseStructures
+ *     interface EventCallback extends Callback {
+ *         void invoke(Event.ByReference event);
+ *     }
+ *     &#64;ReuseStructures
+ *     Point.ByValue getCursor();
+ * }
+ * </code></pre>
+ * A reused instance is only valid until the next call on the same thread;
+ * copy any values which must be kept longer.  Reuse may be enabled for a
+ * whole library with {@link Library#OPTION_REUSE_STRUCTURES}.  Structures
+ * are not reused by callbacks dispatched onto an
+ * {@link java.util.concurrent.Executor}, by asynchronous library methods,
+ * by {@link Blocking} calls made from virtual threads or by directly mapped
+ * methods.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface ReuseStructures {
+}
@@ -23,18 +23,20 @@
  */
 package com.sun.jna;
 
-import java.util.ArrayList;
+import java.nio.charset.Charset;
 import java.util.Arrays;
-import java.util.List;
 
 /** Handle native array of <code>char*</code> or <code>wchar_t*</code> type
  * by managing allocation/disposal of native strings within an array of
  * pointers.  An extra NULL pointer is always added to the end of the native
  * pointer array for convenience.
+ * <p>
+ * The pointer array and the strings it references are stored in a single
+ * contiguous block of native memory: the pointer array comes first, followed
+ * by the NUL-terminated string data.
  */
 public class StringArray extends Memory implements Function.PostCallRead {
     private String encoding;
-    private List<NativeString> natives = new ArrayList<>();
     private Object[] original;
     /** Create a native array of strings. */
     public StringArray(String[] strings) {
@@ -53,20 +55,89 @@ public class StringArray extends Memory implements Function.PostCallRead {
         this(strings, NativeString.WIDE_STRING);
     }
     private StringArray(Object[] strings, String encoding) {
-        super((strings.length + 1) * Native.POINTER_SIZE);
+        this(strings, encoding, new Layout(strings, encoding));
+    }
+    private StringArray(Object[] strings, String encoding, Layout layout) {
+        super(layout.tableSize + layout.dataSize);
         this.original = strings;
         this.encoding = encoding;
-        for (int i=0;i < strings.length;i++) {
-            Pointer p = null;
-            if (strings[i] != null) {
-                NativeString ns = new NativeString(strings[i].toString(), encoding);
-                natives.add(ns);
-                p = ns.getPointer();
+        long base = peer + layout.tableSize;
+        long[] offsets = layout.offsets;
+        if (Native.POINTER_SIZE == 8) {
+            long[] table = new long[offsets.length];
+            for (int i=0;i < offsets.length;i++) {
+                table[i] = offsets[i] < 0 ? 0 : base + offsets[i];
+            }
+            write(0, table, 0, table.length);
+        } else {
+            int[] table = new int[offsets.length];
+            for (int i=0;i < offsets.length;i++) {
+                table[i] = offsets[i] < 0 ? 0 : (int)(base + offsets[i]);
+            }
+            write(0, table, 0, table.length);
+        }
+        if (layout.data != null) {
+            write(layout.tableSize, layout.data, 0, (int)layout.dataSize);
+        } else {
+            for (int i=0;i < strings.length;i++) {
+                if (strings[i] != null) {
+                    setWideString(layout.tableSize + offsets[i], strings[i].toString());
+                }
+            }
+        }
+    }
+
+    /** Sizes and offsets of the packed pointer array and string data. */
+    private static final class Layout {
+        final long tableSize;
+        /** Offset of each string relative to the string data, -1 for NULL;
+         * the last entry is the terminating NULL pointer.
+         */
+        final long[] offsets;
+        /** Encoded string data, or <code>null</code> for wide strings. */
+        final byte[] data;
+        final long dataSize;
+
+        Layout(Object[] strings, String encoding) {
+            tableSize = (long)(strings.length + 1) * Native.POINTER_SIZE;
+            offsets = new long[strings.length + 1];
+            offsets[strings.length] = -1;
+            if (NativeString.WIDE_STRING.equals(encoding)) {
+                long size = 0;
+                for (int i=0;i < strings.length;i++) {
+                    if (strings[i] == null) {
+                        offsets[i] = -1;
+                    } else {
+                        offsets[i] = size;
+                        size += (long)(strings[i].toString().length() + 1) * Native.WCHAR_SIZE;
+                    }
+                }
+                data = null;
+                dataSize = size;
+            } else {
+                Charset charset = Native.getCharset(encoding);
+                StringCodec codec = StringCodec.get();
+                byte[] buf = new byte[0];
+                int size = 0;
+                for (int i=0;i < strings.length;i++) {
+                    if (strings[i] == null) {
+                        offsets[i] = -1;
+                        continue;
+                    }
+                    int len = codec.encode(strings[i].toString(), charset) + 1;
+                    if (size + len > buf.length) {
+                        buf = Arrays.copyOf(buf, Math.max(size + len, buf.length * 2));
+                    }
+                    System.arraycopy(codec.getEncoded(), 0, buf, size, len);
+                    offsets[i] = size;
+                    size += len;
+                }
+                data = buf;
+                dataSize = size;
             }
-            setPointer(Native.POINTER_SIZE * i, p);
         }
-        setPointer(Native.POINTER_SIZE * strings.length, null);
     }
+
     /** Read back from native memory. */
     @Override
     public void read() {
@@ -0,0 +1,294 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.nio.charset.Charset;
+
+/**
+ * Per-thread conversion between Java {@link String}s and native
+ * NUL-terminated <code>char</code> strings.
+ *
+ * <p>UTF-8, ISO-8859-1 and US-ASCII are encoded and decoded directly from
+ * reusable scratch buffers, so that converting a string requires no
+ * allocation besides the result itself. Other charsets are delegated to
+ * {@link String}. The results are identical to those of
+ * {@link String#String(byte[], int, int, Charset)} and
+ * {@link String#getBytes(Charset)}, including the substitution of malformed
+ * and unmappable input.</p>
+ *
+ * <p>Java 9 and later decode these three charsets from a byte array into
+ * the compact String representation without any intermediate copy, which
+ * is faster than the decoders here, so decoding is only specialized on
+ * older VMs.</p>
+ *
+ * <p>Instances are bound to a thread and must not be shared.</p>
+ */
+final class StringCodec {
+
+    /** Scratch buffers larger than this are not kept between calls. */
+    static final int MAX_RETAINED_SIZE = 8192;
+
+    /** Largest array size supported by common VMs. */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final boolean DECODE_DIRECT =
+        System.getProperty("java.specification.version", "").startsWith("1.");
+
+    private static final char REPLACEMENT_CHAR = '\uFFFD';
+    private static final byte REPLACEMENT_BYTE = (byte) '?';
+
+    private static final ThreadLocal<StringCodec> codecs = new ThreadLocal<StringCodec>() {
+        @Override
+        protected StringCodec initialValue() {
+            return new StringCodec();
+        }
+    };
+
+    /** @return the codec bound to the calling thread */
+    static StringCodec get() {
+        return codecs.get();
+    }
+
+    private byte[] bytes = new byte[256];
+    private char[] chars = new char[256];
+    private byte[] encoded;
+
+    private StringCodec() {
+    }
+
+    /**
+     * @param size minimum buffer size
+     * @return a scratch buffer of at least <code>size</code> bytes; the
+     * contents are only valid until the next use of this codec
+     */
+    byte[] getBuffer(int size) {
+        if (size <= bytes.length) {
+            return bytes;
+        }
+        byte[] buf = new byte[size];
+        if (size <= MAX_RETAINED_SIZE) {
+            bytes = buf;
+        }
+        return buf;
+    }
+
+    private char[] getCharBuffer(int size) {
+        if (size <= chars.length) {
+            return chars;
+        }
+        char[] buf = new char[size];
+        if (size <= MAX_RETAINED_SIZE) {
+            chars = buf;
+        }
+        return buf;
+    }
+
+    /**
+     * Decode the first <code>length</code> bytes of <code>buf</code>.
+     *
+     * @param buf encoded bytes, usually obtained from {@link #getBuffer}
+     * @param length number of bytes to decode
+     * @param charset the charset used to decode the bytes
+     * @return the decoded String
+     */
+    String decode(byte[] buf, int length, Charset charset) {
+        if (length == 0) {
+            return "";
+        }
+        if (!DECODE_DIRECT) {
+            return new String(buf, 0, length, charset);
+        }
+        return decodeDirect(buf, length, charset);
+    }
+
+    /** Decode without delegating to {@link String} where possible. */
+    String decodeDirect(byte[] buf, int length, Charset charset) {
+        if (UTF_8.equals(charset)) {
+            return decodeUTF8(buf, length);
+        }
+        if (ISO_8859_1.equals(charset)) {
+            char[] dst = getCharBuffer(length);
+            for (int i = 0; i < length; i++) {
+                dst[i] = (char) (buf[i] & 0xFF);
+            }
+            return new String(dst, 0, length);
+        }
+        if (US_ASCII.equals(charset)) {
+            char[] dst = getCharBuffer(length);
+            for (int i = 0; i < length; i++) {
+                byte b = buf[i];
+                dst[i] = b >= 0 ? (char) b : REPLACEMENT_CHAR;
+            }
+            return new String(dst, 0, length);
+        }
+        return new String(buf, 0, length, charset);
+    }
+
+    /** Decodes well-formed input directly, anything else is left to the
+     * JDK decoder so that malformed sequences are replaced consistently.
+     */
+    private String decodeUTF8(byte[] buf, int length) {
+        char[] dst = getCharBuffer(length);
+        int sp = 0;
+        int dp = 0;
+        while (sp < length) {
+            int b1 = buf[sp];
+            if (b1 >= 0) {
+                dst[dp++] = (char) b1;
+                sp++;
+                continue;
+            }
+            b1 &= 0xFF;
+            if (b1 >= 0xC2 && b1 <= 0xDF && sp + 1 < length) {
+                int b2 = buf[sp + 1];
+                if (isContinuation(b2)) {
+                    dst[dp++] = (char) (((b1 & 0x1F) << 6) | (b2 & 0x3F));
+                    sp += 2;
+                    continue;
+                }
+            } else if (b1 >= 0xE0 && b1 <= 0xEF && sp + 2 < length) {
+                int b2 = buf[sp + 1] & 0xFF;
+                int b3 = buf[sp + 2];
+                if (isContinuation(b2) && isContinuation(b3)
+                    && (b1 != 0xE0 || b2 >= 0xA0)
+                    && (b1 != 0xED || b2 < 0xA0)) {
+                    dst[dp++] = (char) (((b1 & 0x0F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F));
+                    sp += 3;
+                    continue;
+                }
+            } else if (b1 >= 0xF0 && b1 <= 0xF4 && sp + 3 < length) {
+                int b2 = buf[sp + 1] & 0xFF;
+                int b3 = buf[sp + 2];
+                int b4 = buf[sp + 3];
+                if (isContinuation(b2) && isContinuation(b3) && isContinuation(b4)
+                    && (b1 != 0xF0 || b2 >= 0x90)
+                    && (b1 != 0xF4 || b2 < 0x90)) {
+                    int cp = ((b1 & 0x07) << 18) | ((b2 & 0x3F) << 12)
+                        | ((b3 & 0x3F) << 6) | (b4 & 0x3F);
+                    dst[dp++] = Character.highSurrogate(cp);
+                    dst[dp++] = Character.lowSurrogate(cp);
+                    sp += 4;
+                    continue;
+                }
+            }
+            return new String(buf, 0, length, UTF_8);
+        }
+        return new String(dst, 0, dp);
+    }
+
+    private static boolean isContinuation(int b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    /**
+     * Encode <code>s</code> as a NUL-terminated string. The result is
+     * available once from {@link #getEncoded}, until the next use of this
+     * codec.
+     *
+     * @param s the string to encode. Must not be {@code null}.
+     * @param charset the charset used to encode {@code s}
+     * @return the number of encoded bytes, excluding the terminating NUL
+     */
+    int encode(String s, Charset charset) {
+        int length = s.length();
+        // Strings whose worst case UTF-8 size would overflow an array are
+        // left to String
+        if (UTF_8.equals(charset) && length * 3L + 1 <= MAX_ARRAY_SIZE) {
+            encoded = getBuffer(length * 3 + 1);
+            length = encodeUTF8(s, encoded);
+        } else if (ISO_8859_1.equals(charset)) {
+            encoded = getBuffer(length + 1);
+            length = encodeSingleByte(s, encoded, 0xFF);
+        } else if (US_ASCII.equals(charset)) {
+            encoded = getBuffer(length + 1);
+            length = encodeSingleByte(s, encoded, 0x7F);
+        } else {
+            byte[] data = s.getBytes(charset);
+            length = data.length;
+            encoded = getBuffer(length + 1);
+            System.arraycopy(data, 0, encoded, 0, length);
+        }
+        encoded[length] = 0;
+        return length;
+    }
+
+    /** @return the buffer holding the result of the last {@link #encode};
+     * the codec does not keep a reference to it afterwards
+     */
+    byte[] getEncoded() {
+        byte[] buf = encoded;
+        encoded = null;
+        return buf;
+    }
+
+    private static int encodeSingleByte(String s, byte[] dst, int max) {
+        int dp = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c <= max) {
+                dst[dp++] = (byte) c;
+            } else {
+                // a surrogate pair is a single unmappable character
+                if (Character.isHighSurrogate(c) && i + 1 < n
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    i++;
+                }
+                dst[dp++] = REPLACEMENT_BYTE;
+            }
+        }
+        return dp;
+    }
+
+    private static int encodeUTF8(String s, byte[] dst) {
+        int dp = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                dst[dp++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[dp++] = (byte) (0xC0 | (c >> 6));
+                dst[dp++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < n
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    dst[dp++] = (byte) (0xF0 | (cp >> 18));
+                    dst[dp++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    dst[dp++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    dst[dp++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    dst[dp++] = REPLACEMENT_BYTE;
+                }
+            } else {
+                dst[dp++] = (byte) (0xE0 | (c >> 12));
+                dst[dp++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dst[dp++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return dp;
+    }
+}
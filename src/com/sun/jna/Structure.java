@@ -170,6 +170,8 @@ public abstract class Structure {
     private int actualAlignType;
     private int structAlignment;
     private Map<String, StructField> structFields;
+    // Whether the layout was computed at compile time
+    private boolean layoutPrecomputed;
     // Keep track of native C strings which have been allocated,
     // corresponding to String fields of this Structure
     private final Map<String, NativeStringTracking> nativeStrings = new HashMap<>(8);
@@ -212,7 +214,11 @@ public abstract class Structure {
         setAlignType(alignType);
         setStringEncoding(Native.getStringEncoding(getClass()));
         initializeTypeMapper(mapper);
-        validateFields();
+        // Field types were checked when the layout was precomputed; fields
+        // are validated once a layout has to be derived instead
+        if (getPrecomputedLayout() == null) {
+            validateFields();
+        }
         if (p != null) {
             useMemory(p, 0, true);
         }
@@ -292,18 +298,26 @@ public abstract class Structure {
     protected void setAlignType(int alignType) {
         this.alignType = alignType;
         if (alignType == ALIGN_DEFAULT) {
-            alignType = Native.getStructureAlignment(getClass());
-            if (alignType == ALIGN_DEFAULT) {
-                if (Platform.isWindows())
-                    alignType = ALIGN_MSVC;
-                else
-                    alignType = ALIGN_GNUC;
-            }
+            alignType = getDefaultAlignType(getClass());
         }
         this.actualAlignType = alignType;
         layoutChanged();
     }
 
+    /** @return the alignment used for the given class when it requests
+     * {@link #ALIGN_DEFAULT}
+     */
+    static int getDefaultAlignType(Class<?> cls) {
+        int alignType = Native.getStructureAlignment(cls);
+        if (alignType == ALIGN_DEFAULT) {
+            if (Platform.isWindows())
+                alignType = ALIGN_MSVC;
+            else
+                alignType = ALIGN_GNUC;
+        }
+        return alignType;
+    }
+
     /**
      * Obtain auto-allocated memory for use with struct represenations.
      * @param size desired size
@@ -1236,6 +1250,7 @@ public abstract class Structure {
         if (info != null) {
             this.structAlignment = info.alignment;
             this.structFields = info.fields;
+            this.layoutPrecomputed = info.precomputed;
 
             if (!info.variable) {
                 cacheStructureLock.readLock().lock();
@@ -1277,6 +1292,7 @@ public abstract class Structure {
         private int alignType = ALIGN_DEFAULT;
         private TypeMapper typeMapper;
         private boolean variable;
+        private boolean precomputed;
     }
 
     private void validateField(String name, Class<?> type) {
@@ -1333,6 +1349,11 @@ public abstract class Structure {
         members.
      */
     private LayoutInfo deriveLayout(boolean force, boolean avoidFFIType) {
+        LayoutInfo precomputed = precomputedLayout(avoidFFIType);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        validateFields();
         int calculatedSize = 0;
         List<Field> fields = getFields(force);
         if (fields == null) {
@@ -1473,6 +1494,85 @@ public abstract class Structure {
                                            + "all fields are public)");
     }
 
+    /** @return the layout computed at compile time for this class and
+     * platform, or null if there is none or this instance uses non-default
+     * alignment or a type mapper
+     */
+    private StructureLayouts.Layout getPrecomputedLayout() {
+        if (alignType != ALIGN_DEFAULT || typeMapper != null) {
+            return null;
+        }
+        return StructureLayouts.getDefault(getClass());
+    }
+
+    /** Build the layout from one computed at compile time, if available
+     * for this class and platform.  The precomputed layout is only used with
+     * default alignment, without a type mapper, if its fields still match
+     * the declared fields and if the layouts of all nested structures were
+     * precomputed as well.
+     * @return the layout, or null if it must be derived
+     */
+    private LayoutInfo precomputedLayout(boolean avoidFFIType) {
+        StructureLayouts.Layout layout = getPrecomputedLayout();
+        if (layout == null) {
+            return null;
+        }
+        List<Field> fields = getFields(false);
+        if (fields == null || fields.size() != layout.names.length) {
+            return null;
+        }
+        for (int i=0;i < layout.names.length;i++) {
+            Field field = fields.get(i);
+            if (!field.getName().equals(layout.names[i])
+                || !field.getType().getName().equals(layout.types[i])) {
+                return null;
+            }
+        }
+
+        LayoutInfo info = new LayoutInfo();
+        info.alignType = this.alignType;
+        info.precomputed = true;
+        info.size = layout.size;
+        info.alignment = layout.alignment;
+        for (int i=0;i < layout.names.length;i++) {
+            Field field = fields.get(i);
+            int modifiers = field.getModifiers();
+            StructField structField = new StructField();
+            structField.isVolatile = Modifier.isVolatile(modifiers);
+            structField.isReadOnly = Modifier.isFinal(modifiers);
+            if (structField.isReadOnly) {
+                if (!Platform.RO_FIELDS) {
+                    throw new IllegalArgumentException("This VM does not support read-only fields (field '"
+                                                       + field.getName() + "' within " + getClass() + ")");
+                }
+                field.setAccessible(true);
+            }
+            structField.field = field;
+            structField.name = field.getName();
+            structField.type = field.getType();
+            structField.offset = layout.offsets[i];
+            structField.size = layout.sizes[i];
+            Object value = getFieldValue(field);
+            if (value == null) {
+                value = initializeField(field, structField.type);
+            }
+            // The compile time layout assumes that nested structures use
+            // default alignment and no type mapper
+            if (value instanceof Structure && !(value instanceof ByReference)) {
+                Structure s = (Structure)value;
+                s.ensureAllocated();
+                if (!s.layoutPrecomputed) {
+                    return null;
+                }
+            }
+            info.fields.put(structField.name, structField);
+        }
+        if (this instanceof ByValue && !avoidFFIType) {
+            getTypeInfo();
+        }
+        return info;
+    }
+
     /**
      * Initialize any null-valued fields that should have a non-null default
      * value.
@@ -0,0 +1,210 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Structure layouts computed at compile time by the JNA annotation
+ * processor.
+ *
+ * <p>The processor writes the resource {@value #RESOURCE}, a properties file
+ * mapping <code>&lt;class binary name&gt;@&lt;ABI&gt;</code> to the size,
+ * alignment and field offsets of a {@link Structure} subclass.  The ABI key
+ * (see {@link #getABI}) covers every platform property the layout depends
+ * on, so a layout is only used on a matching host.  Set
+ * <code>jna.structure.layouts=false</code> to ignore precomputed
+ * layouts.</p>
+ */
+final class StructureLayouts {
+
+    private static final Logger LOG = Logger.getLogger(StructureLayouts.class.getName());
+
+    static final String RESOURCE = "META-INF/jna/structure-layouts";
+
+    private static final boolean ENABLED = !"false".equals(System.getProperty("jna.structure.layouts"));
+
+    private static final Map<ClassLoader, Map<String, Layout>> layouts = new WeakHashMap<>();
+
+    /** Result of the lookup for each class with default alignment, so that
+     * constructing a structure does not repeat it.
+     */
+    private static final ClassValue<Optional<Layout>> defaultLayouts = new ClassValue<Optional<Layout>>() {
+        @Override
+        protected Optional<Layout> computeValue(Class<?> type) {
+            return Optional.ofNullable(StructureLayouts.get(type, getABI(Structure.getDefaultAlignType(type))));
+        }
+    };
+
+    /** Precomputed layout of one structure class for one ABI. */
+    static final class Layout {
+        final int size;
+        final int alignment;
+        final String[] names;
+        final String[] types;
+        final int[] offsets;
+        final int[] sizes;
+
+        Layout(int size, int alignment, String[] names, String[] types, int[] offsets, int[] sizes) {
+            this.size = size;
+            this.alignment = alignment;
+            this.names = names;
+            this.types = types;
+            this.offsets = offsets;
+            this.sizes = sizes;
+        }
+    }
+
+    private StructureLayouts() { }
+
+    /**
+     * @param actualAlignType effective alignment of a structure
+     * @return key identifying the layout rules for the given alignment on
+     * this platform, or <code>null</code> if precomputed layouts do not
+     * apply
+     */
+    static String getABI(int actualAlignType) {
+        // Platforms which special case the alignment of some fields
+        if (Platform.isAIX() || (Platform.isMac() && Platform.isPPC())) {
+            return null;
+        }
+        int maxAlignment;
+        if (actualAlignType == Structure.ALIGN_GNUC) {
+            maxAlignment = Native.MAX_ALIGNMENT;
+        }
+        else if (actualAlignType == Structure.ALIGN_MSVC) {
+            maxAlignment = 8;
+        }
+        else {
+            return null;
+        }
+        return "p" + Native.POINTER_SIZE + "w" + Native.WCHAR_SIZE + "a" + maxAlignment;
+    }
+
+    /**
+     * @param cls structure class
+     * @param abi key from {@link #getABI}
+     * @return the precomputed layout, or <code>null</code>
+     */
+    static Layout get(Class<?> cls, String abi) {
+        if (!ENABLED || abi == null) {
+            return null;
+        }
+        return getLayouts(cls.getClassLoader()).get(cls.getName() + "@" + abi);
+    }
+
+    /**
+     * @param cls structure class
+     * @return the precomputed layout of the class with default alignment,
+     * or <code>null</code>
+     */
+    static Layout getDefault(Class<?> cls) {
+        return defaultLayouts.get(cls).orElse(null);
+    }
+
+    private static Map<String, Layout> getLayouts(ClassLoader loader) {
+        if (loader == null) {
+            return Collections.emptyMap();
+        }
+        synchronized (layouts) {
+            Map<String, Layout> map = layouts.get(loader);
+            if (map == null) {
+                map = load(loader);
+                layouts.put(loader, map);
+            }
+            return map;
+        }
+    }
+
+    /** Read all layout resources visible to the given class loader. */
+    static Map<String, Layout> load(ClassLoader loader) {
+        Map<String, Layout> map = new HashMap<>();
+        try {
+            Enumeration<URL> resources = loader.getResources(RESOURCE);
+            while (resources.hasMoreElements()) {
+                URL url = resources.nextElement();
+                Properties props = new Properties();
+                try (InputStream is = url.openStream()) {
+                    props.load(is);
+                }
+                for (String key : props.stringPropertyNames()) {
+                    try {
+                        map.put(key, parse(props.getProperty(key)));
+                    }
+                    catch(IllegalArgumentException e) {
+                        LOG.log(Level.FINE, "Ignoring invalid structure layout " + key + " in " + url, e);
+                    }
+                }
+            }
+        }
+        catch(IOException e) {
+            LOG.log(Level.FINE, "Failed to read structure layouts", e);
+        }
+        return map;
+    }
+
+    /**
+     * Parse a layout of the form
+     * <code>size,alignment;name,type,offset,size;...</code>.
+     * @throws IllegalArgumentException if the layout is malformed
+     */
+    static Layout parse(String value) {
+        String[] parts = value.trim().split(";");
+        String[] header = parts[0].split(",");
+        if (header.length != 2) {
+            throw new IllegalArgumentException("Invalid layout header '" + parts[0] + "'");
+        }
+        int count = parts.length - 1;
+        String[] names = new String[count];
+        String[] types = new String[count];
+        int[] offsets = new int[count];
+        int[] sizes = new int[count];
+        for (int i=0;i < count;i++) {
+            String[] field = parts[i+1].split(",");
+            if (field.length != 4) {
+                throw new IllegalArgumentException("Invalid field layout '" + parts[i+1] + "'");
+            }
+            names[i] = field[0];
+            types[i] = field[1];
+            offsets[i] = Integer.parseInt(field[2]);
+            sizes[i] = Integer.parseInt(field[3]);
+        }
+        int size = Integer.parseInt(header[0]);
+        int alignment = Integer.parseInt(header[1]);
+        if (size <= 0 || alignment <= 0 || count == 0) {
+            throw new IllegalArgumentException("Invalid layout '" + value + "'");
+        }
+        return new Layout(size, alignment, names, types, offsets, sizes);
+    }
+}
@@ -52,6 +52,13 @@ public class Cleaner {
         referenceQueue = new ReferenceQueue<>();
     }
 
+    /** @return whether the current thread is the thread running cleanup
+     * tasks of unreachable objects
+     */
+    public static boolean isCleanerThread() {
+        return Thread.currentThread() instanceof CleanerThread;
+    }
+
     public synchronized Cleanable register(Object obj, Runnable cleanupTask) {
         // The important side effect is the PhantomReference, that is yielded
         // after the referent is GCed
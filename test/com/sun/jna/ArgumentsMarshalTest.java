@@ -344,6 +344,40 @@ public class ArgumentsMarshalTest extends TestCase {
                      lib.returnPointerArgument(s.getPointer()));
     }
 
+    public interface ConstantStringLibrary extends Library {
+        Pointer returnStringArgument(@ConstantString String s);
+        Pointer returnStringArgument(InternedString s);
+        Pointer returnWStringArgument(@ConstantString WString s);
+    }
+    protected ConstantStringLibrary loadConstantStringLibrary() {
+        return Native.load("testlib", ConstantStringLibrary.class);
+    }
+    public void testConstantStringArgument() {
+        ConstantStringLibrary lib = loadConstantStringLibrary();
+        final String VALUE = getName() + UNICODE;
+        Pointer p = lib.returnStringArgument(VALUE);
+        assertEquals("Wrong string value", VALUE, p.getString(0));
+        assertEquals("Native copy not reused", p, lib.returnStringArgument(new String(VALUE)));
+        assertEquals("Native copy not shared with InternedString",
+                     p, lib.returnStringArgument(new InternedString(VALUE)));
+        assertNull("Expect null pointer", lib.returnStringArgument((String)null));
+
+        Pointer wp = lib.returnWStringArgument(new WString(VALUE));
+        assertEquals("Wrong wide string value", VALUE, wp.getWideString(0));
+        assertEquals("Native wide copy not reused", wp, lib.returnWStringArgument(new WString(VALUE)));
+        assertFalse("Wide and narrow copies must differ", p.equals(wp));
+    }
+
+    public void testConstantStringCacheBounded() {
+        Pointer hot = NativeString.getConstant(getName() + "-hot", "UTF-8");
+        for (int i=0;i < NativeString.CONSTANT_CACHE_SIZE * 4;i++) {
+            NativeString.getConstant(getName() + "-" + i, "UTF-8");
+            assertEquals("Frequently used constant evicted", hot, NativeString.getConstant(getName() + "-hot", "UTF-8"));
+        }
+        assertTrue("Cache exceeds its bound: " + NativeString.getConstantCount(),
+                   NativeString.getConstantCount() <= NativeString.CONSTANT_CACHE_SIZE + 1);
+    }
+
     static final String MAGIC = "magic" + UNICODE;
     public void testStringArgumentReturn() {
         assertEquals("Expect null pointer", null, lib.returnStringArgument(null));
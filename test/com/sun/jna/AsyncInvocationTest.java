@@ -0,0 +1,224 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import junit.framework.TestCase;
+
+public class AsyncInvocationTest extends TestCase {
+
+    @Structure.FieldOrder({ "values" })
+    public static class Buffer extends Structure {
+        public int[] values = new int[4];
+    }
+
+    public interface TestLibrary extends Library {
+        CompletableFuture<Integer> returnInt32Argument(int arg);
+        CompletableFuture<String> returnStringArgument(String arg);
+        CompletableFuture<Void> fillInt32Buffer(int[] buf, int len, int value);
+        CompletableFuture<Void> fillInt32Buffer(Buffer buf, int len, int value);
+        void returnInt32Argument(int arg, BiConsumer<? super Integer, ? super Throwable> completion);
+        @SuppressWarnings("rawtypes")
+        CompletableFuture returnInt64Argument(long arg);
+    }
+
+    public void testCompleteWithResult() throws Exception {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        assertEquals("Wrong result", Integer.valueOf(42), lib.returnInt32Argument(42).get(5, TimeUnit.SECONDS));
+        assertEquals("Wrong string result", "hello", lib.returnStringArgument("hello").get(5, TimeUnit.SECONDS));
+    }
+
+    public void testCallOnLibraryPool() throws Exception {
+        NativeLibrary nativeLibrary = NativeLibrary.getInstance("testlib");
+        TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        final AtomicReference<String> thread = new AtomicReference<>();
+        lib.returnInt32Argument(1).thenRun(new Runnable() {
+            @Override
+            public void run() {
+                thread.set(Thread.currentThread().getName());
+            }
+        }).get(5, TimeUnit.SECONDS);
+        assertNotNull("No pool", nativeLibrary.getAsyncExecutor());
+        String name = thread.get();
+        assertTrue("Call not made on the library pool: " + name,
+                   name.equals(Thread.currentThread().getName()) || name.startsWith("JNA async "));
+        assertTrue("Pool not sized", nativeLibrary.getAsyncExecutor().getCorePoolSize() > 0);
+    }
+
+    public void testReadBackBeforeCompletion() throws Exception {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        int[] array = new int[4];
+        lib.fillInt32Buffer(array, array.length, 7).get(5, TimeUnit.SECONDS);
+        for (int i=0;i < array.length;i++) {
+            assertEquals("Array not written back", 7, array[i]);
+        }
+        Buffer buffer = new Buffer();
+        lib.fillInt32Buffer(buffer, buffer.values.length, 9).get(5, TimeUnit.SECONDS);
+        for (int i=0;i < buffer.values.length;i++) {
+            assertEquals("Structure not read back", 9, buffer.values[i]);
+        }
+    }
+
+    public void testCompletionCallback() throws Exception {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Object> result = new AtomicReference<>();
+        lib.returnInt32Argument(5, new BiConsumer<Integer, Throwable>() {
+            @Override
+            public void accept(Integer value, Throwable error) {
+                result.set(error != null ? error : value);
+                done.countDown();
+            }
+        });
+        assertTrue("Completion not called", done.await(5, TimeUnit.SECONDS));
+        assertEquals("Wrong result", Integer.valueOf(5), result.get());
+    }
+
+    public void testCustomExecutor() throws Exception {
+        final AtomicReference<Runnable> task = new AtomicReference<>();
+        TestLibrary lib = Native.load("testlib", TestLibrary.class,
+                                      Collections.singletonMap(Library.OPTION_ASYNC_EXECUTOR, new Executor() {
+                                          @Override
+                                          public void execute(Runnable command) {
+                                              task.set(command);
+                                          }
+                                      }));
+        CompletableFuture<Integer> f = lib.returnInt32Argument(3);
+        assertFalse("Call should wait for the executor", f.isDone());
+        task.get().run();
+        assertEquals("Wrong result", Integer.valueOf(3), f.get());
+    }
+
+    public void testErrorCompletesExceptionally() throws Exception {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class,
+                                      Collections.singletonMap(Library.OPTION_ASYNC_EXECUTOR, new Executor() {
+                                          @Override
+                                          public void execute(Runnable command) {
+                                              throw new RejectedExecutionException("full");
+                                          }
+                                      }));
+        try {
+            lib.returnInt32Argument(3).get();
+            fail("Future should fail");
+        } catch(ExecutionException e) {
+            assertTrue("Wrong error: " + e.getCause(), e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    public interface ReuseTestLibrary extends Library {
+        CompletableFuture<ReturnTypesTest.TestLibrary.TestSmallStructure.ByValue> returnSmallStructureByValue();
+    }
+
+    public void testStructureResultNotReused() throws Exception {
+        Map<String, Object> options = new HashMap<>();
+        options.put(Library.OPTION_REUSE_STRUCTURES, Boolean.TRUE);
+        // Run every call on the same thread
+        options.put(Library.OPTION_ASYNC_EXECUTOR, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        ReuseTestLibrary lib = Native.load("testlib", ReuseTestLibrary.class, options);
+        ReturnTypesTest.TestLibrary.TestSmallStructure.ByValue s1 = lib.returnSmallStructureByValue().get();
+        ReturnTypesTest.TestLibrary.TestSmallStructure.ByValue s2 = lib.returnSmallStructureByValue().get();
+        assertEquals("Wrong result", 3, s1.s);
+        assertNotSame("Asynchronous results should not be reused", s1, s2);
+    }
+
+    public void testCloseFailsPendingCalls() throws Exception {
+        // Distinct options give a library instance of its own
+        TestLibrary lib = Native.load("testlib", TestLibrary.class,
+                                      Collections.singletonMap(getName(), Long.valueOf(System.nanoTime())));
+        final NativeLibrary nativeLibrary = ((Library.Handler)Proxy.getInvocationHandler(lib)).getNativeLibrary();
+        ThreadPoolExecutor executor = nativeLibrary.getAsyncExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaximumPoolSize(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue("Pool thread not started", started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Integer> pending = lib.returnInt32Argument(1);
+        Thread closer = new Thread() {
+            @Override
+            public void run() {
+                nativeLibrary.close();
+            }
+        };
+        closer.start();
+        try {
+            pending.get(5, TimeUnit.SECONDS);
+            fail("Pending call should fail");
+        } catch(ExecutionException e) {
+            assertTrue("Wrong error: " + e.getCause(), e.getCause() instanceof IllegalStateException);
+        }
+        closer.join(200);
+        assertTrue("Close should wait for running calls", closer.isAlive());
+        release.countDown();
+        closer.join(5000);
+        assertFalse("Close did not finish", closer.isAlive());
+        assertTrue("Pool not terminated", executor.isTerminated());
+        try {
+            lib.returnInt32Argument(2).get(5, TimeUnit.SECONDS);
+            fail("Calls after close should fail");
+        } catch(ExecutionException e) {
+            assertTrue("Wrong error: " + e.getCause(), e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    public void testUndeclaredResultType() {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        try {
+            lib.returnInt64Argument(1);
+            fail("Raw future should be rejected");
+        } catch(IllegalArgumentException e) {
+        }
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(AsyncInvocationTest.class);
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+public class BlockingTest extends TestCase {
+
+    public interface TestLibrary extends Library {
+        @Blocking
+        int returnInt32Argument(int arg);
+        int returnInt32Magic();
+    }
+
+    @Blocking
+    public interface BlockingLibrary extends Library {
+        int returnInt32Argument(int arg);
+    }
+
+    public void testPlatformThreadCallsInline() {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        BlockingLibrary blocking = Native.load("testlib", BlockingLibrary.class);
+        TestLibrary option = Native.load("testlib", TestLibrary.class,
+            Collections.singletonMap(Library.OPTION_BLOCKING, Boolean.TRUE));
+        long submitted = Native.getBlockingCallStats().getSubmittedCount();
+        assertEquals("Wrong result", 42, lib.returnInt32Argument(42));
+        assertEquals("Wrong result", 42, blocking.returnInt32Argument(42));
+        assertEquals("Wrong result", 42, option.returnInt32Argument(42));
+        assertEquals("Platform thread call offloaded", submitted,
+                     Native.getBlockingCallStats().getSubmittedCount());
+    }
+
+    public void testOffloadedCall() {
+        BlockingCallStats stats = Native.getBlockingCallStats();
+        long submitted = stats.getSubmittedCount();
+        long completed = stats.getCompletedCount();
+        Object name = BlockingCalls.invoke(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return Thread.currentThread().getName();
+            }
+        });
+        assertTrue("Call not made on the blocking pool: " + name,
+                   String.valueOf(name).startsWith("JNA blocking "));
+        assertEquals("Call not counted", submitted + 1, stats.getSubmittedCount());
+        assertEquals("Call not completed", completed + 1, stats.getCompletedCount());
+        assertTrue("No call time", stats.getAverageCallTime() >= 0);
+    }
+
+    public void testExceptionPropagated() {
+        final IllegalStateException e = new IllegalStateException("failed");
+        try {
+            BlockingCalls.invoke(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    throw e;
+                }
+            });
+            fail("Exception not propagated");
+        } catch (IllegalStateException thrown) {
+            assertSame("Wrong exception", e, thrown);
+        }
+    }
+
+    public void testLastErrorPropagated() {
+        Native.setLastError(0);
+        BlockingCalls.invoke(new Callable<Object>() {
+            @Override
+            public Object call() {
+                Native.setLastError(42);
+                return null;
+            }
+        });
+        assertEquals("Last error not copied to the caller", 42, Native.getLastError());
+    }
+
+    public void testVirtualThreadCallOffloaded() throws Exception {
+        Method ofVirtual;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException e) {
+            // Virtual threads require Java 21
+            return;
+        }
+        final TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        final AtomicReference<Object> result = new AtomicReference<>();
+        final AtomicReference<Object> magic = new AtomicReference<>();
+        Runnable r = new Runnable() {
+            @Override
+            public void run() {
+                assertTrue("Not a virtual thread", BlockingCalls.isVirtual(Thread.currentThread()));
+                result.set(lib.returnInt32Argument(42));
+                magic.set(lib.returnInt32Magic());
+            }
+        };
+        long submitted = Native.getBlockingCallStats().getSubmittedCount();
+        Object builder = ofVirtual.invoke(null);
+        Method start = Class.forName("java.lang.Thread$Builder").getMethod("start", Runnable.class);
+        Thread thread = (Thread) start.invoke(builder, r);
+        thread.join(5000);
+        assertEquals("Wrong result", 42, result.get());
+        assertEquals("Wrong result", 0x12345678, magic.get());
+        assertEquals("Only the blocking call should be offloaded", submitted + 1,
+                     Native.getBlockingCallStats().getSubmittedCount());
+    }
+
+    public interface ReuseLibrary extends Library {
+        @Blocking
+        @ReuseStructures
+        ReturnTypesTest.TestLibrary.TestSmallStructure.ByValue returnSmallStructureByValue();
+    }
+
+    public void testVirtualThreadStructureNotReused() throws Exception {
+        Method ofVirtual;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException e) {
+            // Virtual threads require Java 21
+            return;
+        }
+        final ReuseLibrary lib = Native.load("testlib", ReuseLibrary.class);
+        final Set<Object> results = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Runnable r = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // More calls than pool threads, so that a pool thread
+                    // makes more than one of them
+                    for (int i=0;i <= BlockingCalls.THREADS;i++) {
+                        ReturnTypesTest.TestLibrary.TestSmallStructure.ByValue s = lib.returnSmallStructureByValue();
+                        assertEquals("Wrong result", 3, s.s);
+                        assertTrue("Offloaded result should not be reused", results.add(s));
+                    }
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        };
+        Object builder = ofVirtual.invoke(null);
+        Method start = Class.forName("java.lang.Thread$Builder").getMethod("start", Runnable.class);
+        Thread thread = (Thread) start.invoke(builder, r);
+        thread.join(10000);
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        assertEquals("Calls not made", BlockingCalls.THREADS + 1, results.size());
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(BlockingTest.class);
+    }
+}
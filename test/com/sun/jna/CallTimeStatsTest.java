@@ -0,0 +1,112 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import junit.framework.TestCase;
+
+public class CallTimeStatsTest extends TestCase {
+
+    public interface TestLibrary extends Library {
+        int returnInt32Argument(int arg);
+    }
+
+    public static class DirectTestLibrary {
+        public static native int returnInt32Argument(int arg);
+        static {
+            Native.register(NativeLibrary.getInstance("testlib"));
+        }
+    }
+
+    public interface CLibrary extends Library {
+        int usleep(int usec);
+        Pointer memset(Pointer p, int c, long n);
+    }
+
+    @Override
+    protected void tearDown() {
+        Native.setCallTimeAccounting(false);
+        Native.getCallTimeStats(true);
+    }
+
+    private static CallTimeStats find(String name) {
+        for (CallTimeStats s : Native.getCallTimeStats(false)) {
+            if (s.getFunction() != null && name.equals(s.getFunction().getName())) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    public void testCountCalls() {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        Native.setCallTimeAccounting(true);
+        Native.getCallTimeStats(true);
+        for (int i=0;i < 10;i++) {
+            lib.returnInt32Argument(i);
+            DirectTestLibrary.returnInt32Argument(i);
+        }
+        CallTimeStats s = find("returnInt32Argument");
+        assertNotNull("Calls not counted: " + Native.getCallTimeStats(false), s);
+        assertEquals("Interface and direct calls should be counted", 20, s.getCalls());
+        assertTrue("No wall time", s.getWallTime() > 0);
+        assertTrue("CPU time exceeds wall time", s.getCpuRatio() <= 1);
+
+        Native.getCallTimeStats(true);
+        assertNull("Counters not reset", find("returnInt32Argument"));
+    }
+
+    public void testDisabled() {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        Native.setCallTimeAccounting(true);
+        lib.returnInt32Argument(0);
+        Native.setCallTimeAccounting(false);
+        Native.getCallTimeStats(true);
+        lib.returnInt32Argument(0);
+        assertNull("Calls counted while disabled", find("returnInt32Argument"));
+    }
+
+    public void testDistinguishBlockingCalls() {
+        if (Platform.isWindows()) {
+            return;
+        }
+        CLibrary lib = Native.load(Platform.C_LIBRARY_NAME, CLibrary.class);
+        Memory m = new Memory(32 << 20);
+        Native.setCallTimeAccounting(true);
+        Native.getCallTimeStats(true);
+        lib.usleep(50000);
+        lib.memset(m, 1, m.size());
+        CallTimeStats sleep = find("usleep");
+        CallTimeStats compute = find("memset");
+        assertNotNull("usleep not counted", sleep);
+        assertNotNull("memset not counted", compute);
+        assertTrue("Sleep too short: " + sleep, sleep.getWallTime() >= 50000000L);
+        assertTrue("Sleep should be mostly waiting: " + sleep, sleep.getWaitTime() > sleep.getCpuTime());
+        assertTrue("memset should use more CPU than sleeping: " + compute + ", " + sleep,
+                   compute.getCpuRatio() > sleep.getCpuRatio());
+        m.close();
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(CallTimeStatsTest.class);
+    }
+}
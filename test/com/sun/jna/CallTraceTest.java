@@ -0,0 +1,137 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+public class CallTraceTest extends TestCase {
+
+    public interface TestLibrary extends Library {
+        int returnInt32Argument(int arg);
+    }
+
+    public static class DirectTestLibrary {
+        public static native long returnInt64Argument(long arg);
+        static {
+            Native.register(NativeLibrary.getInstance("testlib"));
+        }
+    }
+
+    public interface CLibrary extends Library {
+        int creat(String path, int mode);
+        int close(int fd);
+    }
+
+    @Override
+    protected void tearDown() {
+        Native.setCallTrace(false);
+    }
+
+    private static int count(String s, String part) {
+        int count = 0;
+        for (int i=s.indexOf(part);i != -1;i=s.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    public void testTraceCalls() {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        Native.setCallTrace(true);
+        lib.returnInt32Argument(1);
+        DirectTestLibrary.returnInt64Argument(2);
+        String trace = Native.dumpCallTrace();
+        String thread = "Thread \"" + Thread.currentThread().getName() + "\"";
+        assertTrue("Thread not traced: " + trace, trace.contains(thread));
+        trace = trace.substring(trace.indexOf(thread));
+        int call = trace.indexOf(":returnInt32Argument (1 args)");
+        int direct = trace.indexOf(":returnInt64Argument (1 args)");
+        assertTrue("Interface mapped call not traced: " + trace, call != -1);
+        assertTrue("Direct mapped call not traced: " + trace, direct != -1);
+        assertTrue("Calls out of order: " + trace, call < direct);
+        assertTrue("Call duration missing: " + trace, trace.substring(direct).contains("took"));
+    }
+
+    public void testRingSize() {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        Native.setCallTrace(true);
+        for (int i=0;i < 200;i++) {
+            lib.returnInt32Argument(i);
+        }
+        String trace = Native.dumpCallTrace();
+        String thread = "Thread \"" + Thread.currentThread().getName() + "\"";
+        trace = trace.substring(trace.indexOf(thread));
+        int next = trace.indexOf("Thread \"", 1);
+        if (next != -1) {
+            trace = trace.substring(0, next);
+        }
+        assertEquals("Wrong number of calls kept: " + trace, 64, count(trace, "us ago"));
+    }
+
+    public void testDisabled() {
+        Thread thread = new Thread("untraced") {
+            @Override
+            public void run() {
+                Native.load("testlib", TestLibrary.class).returnInt32Argument(0);
+            }
+        };
+        thread.start();
+        try {
+            thread.join();
+        } catch(InterruptedException e) {
+            fail("Interrupted");
+        }
+        assertFalse("Untraced thread recorded", Native.dumpCallTrace().contains("\"untraced\""));
+    }
+
+    public void testNativeDump() throws Exception {
+        if (Platform.isWindows()) {
+            return;
+        }
+        CLibrary libc = Native.load(Platform.C_LIBRARY_NAME, CLibrary.class);
+        Function dump = NativeLibrary.getInstance(Native.jnidispatchPath != null ? Native.jnidispatchPath : "jnidispatch")
+            .getFunction("jna_dump_call_trace");
+        File file = File.createTempFile("calltrace", ".txt");
+        file.deleteOnExit();
+        Native.setCallTrace(true);
+        int fd = libc.creat(file.getAbsolutePath(), 0600);
+        assertTrue("Can't open " + file, fd >= 0);
+        try {
+            dump.invokeVoid(new Object[] { fd });
+        } finally {
+            libc.close(fd);
+        }
+        String trace = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertTrue("No trace header: " + trace, trace.startsWith("JNA call trace at "));
+        assertTrue("Thread not traced: " + trace, trace.contains("thread \"" + Thread.currentThread().getName() + "\""));
+        assertTrue("Dump call not in progress: " + trace, trace.contains(" args=1 start=") && trace.contains("in progress"));
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(CallTraceTest.class);
+    }
+}
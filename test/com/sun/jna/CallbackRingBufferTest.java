@@ -0,0 +1,195 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import junit.framework.TestCase;
+
+public class CallbackRingBufferTest extends TestCase {
+
+    public interface Int32Callback extends Callback {
+        int callback(int arg, int arg2);
+    }
+    public interface DoubleCallback extends Callback {
+        double callback(double arg, double arg2);
+    }
+    public interface VoidCallback extends Callback {
+        void callback();
+    }
+    public interface StringCallback extends Callback {
+        void callback(String arg);
+    }
+
+    public interface TestLibrary extends Library {
+        int callInt32Callback(Pointer cb, int arg, int arg2);
+        int callInt32CallbackRepeatedly(Pointer cb, int arg, int arg2, int count);
+        double callDoubleCallback(Pointer cb, double arg, double arg2);
+        void callVoidCallbackThreaded(Pointer cb, int count, int ms, String name, int stacksize);
+    }
+
+    private static class Recorder implements CallbackRingBuffer.EventHandler {
+        final StringBuilder values = new StringBuilder();
+        int count;
+        @Override
+        public void handleEvent(CallbackRingBuffer.Event event) {
+            ++count;
+            for (int i=0;i < event.getArgumentCount();i++) {
+                values.append(event.getInt(i)).append(' ');
+            }
+        }
+    }
+
+    private TestLibrary lib;
+
+    @Override
+    protected void setUp() {
+        lib = Native.load("testlib", TestLibrary.class);
+    }
+
+    public void testRecordEvents() {
+        CallbackRingBuffer events = new CallbackRingBuffer(Int32Callback.class, 16);
+        try {
+            for (int i=0;i < 5;i++) {
+                assertEquals("Native caller should receive zero",
+                             0, lib.callInt32Callback(events.getFunctionPointer(), i, -i));
+            }
+            Recorder r = new Recorder();
+            assertEquals("Wrong number of events", 5, events.drain(r));
+            assertEquals("Wrong event arguments",
+                         "0 0 1 -1 2 -2 3 -3 4 -4 ", r.values.toString());
+            assertEquals("Buffer should be empty", 0, events.drain(r));
+            assertEquals("No events should be dropped", 0, events.getDroppedCount());
+        }
+        finally {
+            events.close();
+        }
+    }
+
+    public void testDrainLimit() {
+        CallbackRingBuffer events = new CallbackRingBuffer(Int32Callback.class, 1024);
+        try {
+            lib.callInt32CallbackRepeatedly(events.getFunctionPointer(), 1, 2, 1000);
+            Recorder r = new Recorder();
+            assertEquals("Wrong number of events", 300, events.drain(r, 300));
+            assertEquals("Wrong number of events", 700, events.drain(r));
+            assertEquals("Wrong number of events", 1000, r.count);
+        }
+        finally {
+            events.close();
+        }
+    }
+
+    public void testDoubleArguments() {
+        CallbackRingBuffer events = new CallbackRingBuffer(DoubleCallback.class, 4);
+        try {
+            lib.callDoubleCallback(events.getFunctionPointer(), 1.5, -2.25);
+            final double[] values = new double[2];
+            events.drain(new CallbackRingBuffer.EventHandler() {
+                @Override
+                public void handleEvent(CallbackRingBuffer.Event event) {
+                    values[0] = event.getDouble(0);
+                    values[1] = event.getDouble(1);
+                }
+            });
+            assertEquals("Wrong first argument", 1.5, values[0], 0);
+            assertEquals("Wrong second argument", -2.25, values[1], 0);
+        }
+        finally {
+            events.close();
+        }
+    }
+
+    public void testDropWhenFull() {
+        CallbackRingBuffer events = new CallbackRingBuffer(Int32Callback.class, 3);
+        try {
+            for (int i=0;i < 10;i++) {
+                lib.callInt32Callback(events.getFunctionPointer(), i, 0);
+            }
+            Recorder r = new Recorder();
+            assertEquals("Capacity should be rounded up to a power of two", 4, events.drain(r));
+            assertEquals("Oldest events should be kept", "0 0 1 0 2 0 3 0 ", r.values.toString());
+            assertEquals("Wrong number of dropped events", 6, events.getDroppedCount());
+        }
+        finally {
+            events.close();
+        }
+    }
+
+    public void testConcurrentProducers() throws Exception {
+        final int THREADS = 4;
+        final int COUNT = 1000;
+        CallbackRingBuffer events = new CallbackRingBuffer(VoidCallback.class, 256,
+                                                           CallbackRingBuffer.OverflowPolicy.BLOCK);
+        try {
+            for (int i=0;i < THREADS;i++) {
+                lib.callVoidCallbackThreaded(events.getFunctionPointer(), COUNT, 0, getName(), 0);
+            }
+            Recorder r = new Recorder();
+            long start = System.currentTimeMillis();
+            while (r.count < THREADS * COUNT) {
+                if (events.drain(r) == 0) {
+                    if (System.currentTimeMillis() - start > 20000) {
+                        fail("Timed out waiting for events, received " + r.count);
+                    }
+                    Thread.sleep(1);
+                }
+            }
+            assertEquals("Wrong number of events", THREADS * COUNT, r.count);
+            assertEquals("No events should be dropped", 0, events.getDroppedCount());
+            // let the native threads exit before the function is released
+            Thread.sleep(100);
+        }
+        finally {
+            events.close();
+        }
+    }
+
+    public void testUnsupportedArguments() {
+        try {
+            new CallbackRingBuffer(StringCallback.class, 16);
+            fail("String arguments can not be recorded");
+        }
+        catch(IllegalArgumentException e) {
+        }
+        try {
+            new CallbackRingBuffer(VoidCallback.class, 0);
+            fail("Capacity must be positive");
+        }
+        catch(IllegalArgumentException e) {
+        }
+    }
+
+    public void testDrainAfterClose() {
+        CallbackRingBuffer events = new CallbackRingBuffer(VoidCallback.class, 16);
+        events.close();
+        try {
+            events.drain(new Recorder());
+            fail("Closed buffer can not be drained");
+        }
+        catch(IllegalStateException e) {
+        }
+    }
+
+    public static void main(java.lang.String[] argList) {
+        junit.textui.TestRunner.run(CallbackRingBufferTest.class);
+    }
+}
@@ -28,6 +28,7 @@ import java.io.PrintStream;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
@@ -35,6 +36,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.sun.jna.Callback.UncaughtExceptionHandler;
 import com.sun.jna.CallbacksTest.TestLibrary.CbCallback;
@@ -426,6 +430,202 @@ public class CallbacksTest extends TestCase implements Paths {
         assertEquals("Wrong callback return", -3, value);
     }
 
+    public void testPrimitiveCallbackInvokedDirectly() {
+        TestLibrary.Int32Callback cb = new TestLibrary.Int32Callback() {
+            @Override
+            public int callback(int arg, int arg2) {
+                return arg + arg2;
+            }
+        };
+        assertEquals("Wrong callback value", 3, lib.callInt32Callback(cb, 1, 2));
+        CallbackReference ref = callbackCache().get(cb);
+        assertNotNull("Callback not cached", ref);
+        assertNull("Primitive callback should not use a proxy", ref.proxy);
+    }
+
+    public static interface ReuseStructuresTestLibrary extends Library {
+        @ReuseStructures
+        interface StructureCallback extends Callback {
+            SmallTestStructure callback(SmallTestStructure arg);
+        }
+        SmallTestStructure callStructureCallback(StructureCallback c, SmallTestStructure arg);
+        @ReuseStructures
+        interface ByValueCallback extends Callback {
+            TestStructure.ByValue callback(TestStructure.ByValue s);
+        }
+        @ReuseStructures
+        TestStructure.ByValue callCallbackWithStructByValue(ByValueCallback callback, TestStructure.ByValue cbstruct);
+    }
+
+    public void testReuseStructureArgument() {
+        ReuseStructuresTestLibrary lib = Native.load("testlib", ReuseStructuresTestLibrary.class);
+        final List<SmallTestStructure> args = new ArrayList<>();
+        ReuseStructuresTestLibrary.StructureCallback cb = new ReuseStructuresTestLibrary.StructureCallback() {
+            @Override
+            public SmallTestStructure callback(SmallTestStructure arg) {
+                args.add(arg);
+                assertEquals("Wrong structure value", args.size(), arg.value, 0);
+                arg.value = -args.size();
+                return arg;
+            }
+        };
+        SmallTestStructure s1 = new SmallTestStructure();
+        s1.value = 1;
+        SmallTestStructure s2 = new SmallTestStructure();
+        s2.value = 2;
+        lib.callStructureCallback(cb, s1);
+        lib.callStructureCallback(cb, s2);
+        assertEquals("Callback not called", 2, args.size());
+        assertSame("Structure argument should be reused", args.get(0), args.get(1));
+        assertEquals("Structure argument not written back", -1, s1.value, 0);
+        assertEquals("Structure argument not written back", -2, s2.value, 0);
+    }
+
+    public void testReuseStructureByValue() {
+        ReuseStructuresTestLibrary lib = Native.load("testlib", ReuseStructuresTestLibrary.class);
+        final List<TestStructure.ByValue> args = new ArrayList<>();
+        ReuseStructuresTestLibrary.ByValueCallback cb = new ReuseStructuresTestLibrary.ByValueCallback() {
+            @Override
+            public TestStructure.ByValue callback(TestStructure.ByValue s) {
+                args.add(s);
+                return s;
+            }
+        };
+        TestStructure.ByValue s = new TestStructure.ByValue();
+        s.i = 1;
+        TestStructure.ByValue r1 = lib.callCallbackWithStructByValue(cb, s);
+        assertEquals("Wrong first result", 1, r1.i);
+        s.i = 2;
+        TestStructure.ByValue r2 = lib.callCallbackWithStructByValue(cb, s);
+        assertEquals("Wrong second result", 2, r2.i);
+        assertSame("By-value argument should be reused", args.get(0), args.get(1));
+        assertEquals("Wrong by-value argument", 2, args.get(1).i);
+        assertSame("By-value result should be reused", r1, r2);
+        assertNotSame("Argument should not be shared with the result", r2, args.get(1));
+    }
+
+    public void testConcurrentFunctionPointerLookup() throws Exception {
+        final TestLibrary.VoidCallback[] callbacks = new TestLibrary.VoidCallback[16];
+        for (int i=0;i < callbacks.length;i++) {
+            callbacks[i] = new TestLibrary.VoidCallback() {
+                @Override
+                public void callback() { }
+            };
+        }
+        final Pointer[][] results = new Pointer[8][callbacks.length];
+        final CountDownLatch go = new CountDownLatch(1);
+        Thread[] threads = new Thread[results.length];
+        for (int t=0;t < threads.length;t++) {
+            final Pointer[] result = results[t];
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                    }
+                    catch(InterruptedException e) {
+                        return;
+                    }
+                    for (int i=0;i < callbacks.length;i++) {
+                        result[i] = CallbackReference.getFunctionPointer(callbacks[i]);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i=0;i < callbacks.length;i++) {
+            for (int t=1;t < results.length;t++) {
+                assertEquals("Callback " + i + " should have a single trampoline", results[0][i], results[t][i]);
+            }
+            assertSame("Wrong callback for trampoline", callbacks[i],
+                       CallbackReference.getCallback(TestLibrary.VoidCallback.class, results[0][i]));
+        }
+    }
+
+    public void testTrampolineReused() {
+        final int[] called = { 0, 0 };
+        TestLibrary.VoidCallback cb = new TestLibrary.VoidCallback() {
+            @Override
+            public void callback() {
+                ++called[0];
+            }
+        };
+        lib.callVoidCallback(cb);
+        CallbackReference ref = callbackCache().get(cb);
+        int live = CallbackReference.getLiveTrampolineCount();
+        int pooled = CallbackReference.getPooledTrampolineCount();
+        ref.close();
+        assertEquals("Closed trampoline should not be live", live - 1, CallbackReference.getLiveTrampolineCount());
+        assertEquals("Closed trampoline should be pooled", pooled + 1, CallbackReference.getPooledTrampolineCount());
+
+        TestLibrary.VoidCallback cb2 = new TestLibrary.VoidCallback() {
+            @Override
+            public void callback() {
+                ++called[1];
+            }
+        };
+        long created = CallbackReference.getCreatedTrampolineCount();
+        lib.callVoidCallback(cb2);
+        assertEquals("Trampoline should be reused", created, CallbackReference.getCreatedTrampolineCount());
+        assertEquals("Old callback should not be called", 1, called[0]);
+        assertEquals("New callback not called", 1, called[1]);
+        assertSame("Trampoline should map to the new callback", cb2,
+                   CallbackReference.getCallback(TestLibrary.VoidCallback.class, callbackCache().get(cb2).getTrampoline()));
+    }
+
+    public interface ReusedTrampolineCallback extends Callback {
+        void callback();
+    }
+
+    public void testReusedTrampolineMappingSurvivesGC() throws Exception {
+        ReusedTrampolineCallback cb = new ReusedTrampolineCallback() {
+            @Override
+            public void callback() { }
+        };
+        CallbackReference.getFunctionPointer(cb);
+        CallbackReference ref = CallbackReference.callbackMap.get(cb);
+        long address = Pointer.nativeValue(ref.getTrampoline());
+        Reference<Pointer> oldTrampoline = new WeakReference<>(ref.getTrampoline());
+        ref.close();
+        ref = null;
+        cb = null;
+
+        // Bind new callbacks until one reuses the closed trampoline
+        List<ReusedTrampolineCallback> callbacks = new ArrayList<>();
+        ReusedTrampolineCallback cb2 = null;
+        for (int i = 0; i < 10 && cb2 == null; ++i) {
+            ReusedTrampolineCallback next = new ReusedTrampolineCallback() {
+                @Override
+                public void callback() { }
+            };
+            callbacks.add(next);
+            if (Pointer.nativeValue(CallbackReference.getFunctionPointer(next)) == address) {
+                cb2 = next;
+            }
+        }
+        assertNotNull("Trampoline should be reused", cb2);
+
+        for (int i = 0; i < 100 && oldTrampoline.get() != null; ++i) {
+            System.gc();
+            Thread.sleep(10);
+            // Purge the old callback's entry, which refers to its trampoline
+            CallbackReference.callbackMap.size();
+        }
+        assertNull("Old trampoline pointer not collected", oldTrampoline.get());
+        // Purge stale keys once they have been enqueued
+        for (int i = 0; i < 10; ++i) {
+            System.gc();
+            Thread.sleep(10);
+            CallbackReference.pointerCallbackMap.size();
+        }
+        assertSame("Trampoline should still map to the new callback", cb2,
+                   CallbackReference.getCallback(ReusedTrampolineCallback.class, new Pointer(address)));
+    }
+
     public void testCallInt64Callback() {
         final long MAGIC = 0x1111111111111111L;
         final boolean[] called = { false };
@@ -1205,6 +1405,170 @@ public class CallbacksTest extends TestCase implements Paths {
         assertEquals("Incorrect result of callback invocation", -3, result, 0);
     }
 
+    /** Holds submitted tasks until they are explicitly run. */
+    protected static class QueueExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+        @Override
+        public synchronized void execute(Runnable task) {
+            tasks.add(task);
+        }
+        public synchronized int runAll() {
+            int count = tasks.size();
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            tasks.clear();
+            return count;
+        }
+    }
+
+    public static interface AsyncCallbackTestLibrary extends Library {
+        final QueueExecutor _EXECUTOR = new QueueExecutor();
+        final Map<String, ?> _OPTIONS = Collections.singletonMap(Library.OPTION_CALLBACK_EXECUTOR, _EXECUTOR);
+
+        interface VoidStringCallback extends Callback {
+            void callback(String arg, String arg2);
+        }
+        // The callback result returned by the native function is ignored
+        void callStringCallback(VoidStringCallback c, String arg, String arg2);
+        interface VoidStructureCallback extends Callback {
+            void callback(SmallTestStructure arg);
+        }
+        void callStructureCallback(VoidStructureCallback c, SmallTestStructure arg);
+        interface Int32Callback extends Callback {
+            int callback(int arg, int arg2);
+        }
+        int callInt32Callback(Int32Callback c, int arg, int arg2);
+    }
+
+    protected AsyncCallbackTestLibrary loadAsyncCallbackTestLibrary() {
+        return Native.load("testlib", AsyncCallbackTestLibrary.class, AsyncCallbackTestLibrary._OPTIONS);
+    }
+
+    public void testCallbackExecutorFromLibraryOptions() throws Exception {
+        AsyncCallbackTestLibrary lib = loadAsyncCallbackTestLibrary();
+        final String[] ARGS = new String[2];
+        AsyncCallbackTestLibrary.VoidStringCallback cb = new AsyncCallbackTestLibrary.VoidStringCallback() {
+            @Override
+            public void callback(String arg, String arg2) {
+                ARGS[0] = arg;
+                ARGS[1] = arg2;
+            }
+        };
+        lib.callStringCallback(cb, getName(), "magic");
+        assertNull("Callback should not run on the native thread", ARGS[0]);
+        CallbackQueueStats stats = Native.getCallbackQueueStats(cb);
+        assertNotNull("Missing callback statistics", stats);
+        assertEquals("Wrong queue depth", 1, stats.getQueueDepth());
+
+        assertEquals("Wrong number of queued invocations", 1, AsyncCallbackTestLibrary._EXECUTOR.runAll());
+        assertEquals("Wrong first callback argument", getName(), ARGS[0]);
+        assertEquals("Wrong second callback argument", "magic", ARGS[1]);
+        assertEquals("Wrong queue depth", 0, stats.getQueueDepth());
+        assertEquals("Wrong submitted count", 1, stats.getSubmittedCount());
+        assertEquals("Wrong completed count", 1, stats.getCompletedCount());
+        assertTrue("Latency should be recorded", stats.getMaxLatency() > 0);
+    }
+
+    public void testCallbackExecutorCopiesStructureArgument() throws Exception {
+        AsyncCallbackTestLibrary lib = loadAsyncCallbackTestLibrary();
+        final SmallTestStructure[] ARGS = new SmallTestStructure[1];
+        AsyncCallbackTestLibrary.VoidStructureCallback cb = new AsyncCallbackTestLibrary.VoidStructureCallback() {
+            @Override
+            public void callback(SmallTestStructure arg) {
+                ARGS[0] = arg;
+                arg.value = -1;
+            }
+        };
+        SmallTestStructure s = new SmallTestStructure();
+        s.value = 42;
+        lib.callStructureCallback(cb, s);
+        s.value = 0;
+        s.write();
+
+        AsyncCallbackTestLibrary._EXECUTOR.runAll();
+        assertNotNull("Callback not invoked", ARGS[0]);
+        assertNotSame("Structure argument should be a copy", s.getPointer(), ARGS[0].getPointer());
+        assertEquals("Structure argument not copied at the time of the call", 42d, ARGS[0].getPointer().getDouble(0), 0);
+        s.read();
+        assertEquals("Structure argument should not be written back", 0d, s.value, 0);
+    }
+
+    public void testCallbackExecutorIgnoredForResult() throws Exception {
+        AsyncCallbackTestLibrary lib = loadAsyncCallbackTestLibrary();
+        AsyncCallbackTestLibrary.Int32Callback cb = new AsyncCallbackTestLibrary.Int32Callback() {
+            @Override
+            public int callback(int arg, int arg2) {
+                return arg + arg2;
+            }
+        };
+        assertEquals("Callback with a result should run synchronously", 3, lib.callInt32Callback(cb, 1, 2));
+        assertNull("Synchronous callback has no statistics", Native.getCallbackQueueStats(cb));
+    }
+
+    public void testSetCallbackExecutor() throws Exception {
+        final int[] called = { 0 };
+        TestLibrary.VoidCallback cb = new TestLibrary.VoidCallback() {
+            @Override
+            public void callback() {
+                ++called[0];
+            }
+        };
+        QueueExecutor executor = new QueueExecutor();
+        Native.setCallbackExecutor(cb, executor);
+        lib.callVoidCallback(cb);
+        lib.callVoidCallback(cb);
+        assertEquals("Callback should not run on the native thread", 0, called[0]);
+        assertEquals("Wrong queue depth", 2, Native.getCallbackQueueStats(cb).getQueueDepth());
+        executor.runAll();
+        assertEquals("Callback not invoked", 2, called[0]);
+
+        TestLibrary.Int32Callback cb2 = new TestLibrary.Int32Callback() {
+            @Override
+            public int callback(int arg, int arg2) {
+                return 0;
+            }
+        };
+        try {
+            Native.setCallbackExecutor(cb2, executor);
+            fail("Callbacks with a result can not run asynchronously");
+        }
+        catch(IllegalArgumentException e) {
+        }
+    }
+
+    public void testCallbackExecutorRejection() throws Exception {
+        final Throwable[] ERROR = { null };
+        UncaughtExceptionHandler old = Native.getCallbackExceptionHandler();
+        Native.setCallbackExceptionHandler(new UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Callback c, Throwable e) {
+                ERROR[0] = e;
+            }
+        });
+        try {
+            TestLibrary.VoidCallback cb = new TestLibrary.VoidCallback() {
+                @Override
+                public void callback() {
+                }
+            };
+            Native.setCallbackExecutor(cb, new Executor() {
+                @Override
+                public void execute(Runnable task) {
+                    throw new RejectedExecutionException("full");
+                }
+            });
+            lib.callVoidCallback(cb);
+            assertTrue("Rejection not reported", ERROR[0] instanceof RejectedExecutionException);
+            CallbackQueueStats stats = Native.getCallbackQueueStats(cb);
+            assertEquals("Wrong rejected count", 1, stats.getRejectedCount());
+            assertEquals("Wrong queue depth", 0, stats.getQueueDepth());
+        }
+        finally {
+            Native.setCallbackExceptionHandler(old);
+        }
+    }
+
     protected void callThreadedCallback(TestLibrary.VoidCallback cb,
                                         CallbackThreadInitializer cti,
                                         int repeat, int sleepms,
@@ -0,0 +1,112 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class ConcurrentWeakMapTest extends TestCase {
+
+    private static final class Key {
+        private final int value;
+        Key(int value) {
+            this.value = value;
+        }
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key)o).value == value;
+        }
+        @Override
+        public int hashCode() {
+            return value;
+        }
+    }
+
+    public void testIdentityKeys() {
+        Map<Key, String> map = new ConcurrentWeakMap<>(true);
+        Key k1 = new Key(1);
+        Key k2 = new Key(1);
+        map.put(k1, "one");
+        assertEquals("Wrong value", "one", map.get(k1));
+        assertNull("Equal key should not match", map.get(k2));
+        map.put(k2, "two");
+        assertEquals("Wrong size", 2, map.size());
+        assertEquals("Previous value not returned", "one", map.put(k1, "three"));
+        assertEquals("Wrong value after replacement", "three", map.get(k1));
+        assertEquals("Wrong removed value", "two", map.remove(k2));
+        assertFalse("Key not removed", map.containsKey(k2));
+        assertTrue("Value not found", map.containsValue("three"));
+    }
+
+    public void testEqualKeys() {
+        Map<Key, String> map = new ConcurrentWeakMap<>(false);
+        Key k1 = new Key(1);
+        map.put(k1, "one");
+        assertEquals("Equal key should match", "one", map.get(new Key(1)));
+        map.put(new Key(1), "two");
+        assertEquals("Equal key should replace the value", 1, map.size());
+        assertEquals("Wrong value", "two", map.get(k1));
+    }
+
+    public void testIteration() {
+        Map<Key, String> map = new ConcurrentWeakMap<>(true);
+        Key k1 = new Key(1);
+        Key k2 = new Key(2);
+        map.put(k1, "one");
+        map.put(k2, "two");
+        int count = 0;
+        for (Map.Entry<Key, String> e : map.entrySet()) {
+            assertEquals("Wrong entry value", e.getKey() == k1 ? "one" : "two", e.getValue());
+            ++count;
+        }
+        assertEquals("Wrong number of entries", 2, count);
+        for (Iterator<Key> i = map.keySet().iterator();i.hasNext();) {
+            if (i.next() == k1) {
+                i.remove();
+            }
+        }
+        assertFalse("Entry not removed", map.containsKey(k1));
+        assertTrue("Wrong entry removed", map.containsKey(k2));
+    }
+
+    public void testCollectedKeysRemoved() throws Exception {
+        Map<Key, String> map = new ConcurrentWeakMap<>(true);
+        Key key = new Key(1);
+        map.put(key, "one");
+        WeakReference<Key> ref = new WeakReference<>(key);
+        key = null;
+        for (int i=0;i < 100 && (ref.get() != null || map.size() > 0);i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("Key not collected", ref.get());
+        assertEquals("Entry not removed", 0, map.size());
+    }
+
+    public static void main(java.lang.String[] argList) {
+        junit.textui.TestRunner.run(ConcurrentWeakMapTest.class);
+    }
+}
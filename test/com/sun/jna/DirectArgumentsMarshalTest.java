@@ -157,6 +157,22 @@ public class DirectArgumentsMarshalTest extends ArgumentsMarshalTest {
         return new DirectNativeMappedLibrary();
     }
 
+    public static class DirectConstantStringLibrary implements ConstantStringLibrary {
+        @Override
+        public native Pointer returnStringArgument(@ConstantString String s);
+        @Override
+        public native Pointer returnStringArgument(InternedString s);
+        @Override
+        public native Pointer returnWStringArgument(@ConstantString WString s);
+        static {
+            Native.register("testlib");
+        }
+    }
+    @Override
+    protected ConstantStringLibrary loadConstantStringLibrary() {
+        return new DirectConstantStringLibrary();
+    }
+
     // This test crashes on w32 IBM J9 unless -Xint is used
     // (jvmwi3260-20080415_18762)
     @Override
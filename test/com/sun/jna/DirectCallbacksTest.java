@@ -114,6 +114,23 @@ public class DirectCallbacksTest extends CallbacksTest {
         return new DirectCallbackTestLibrary();
     }
 
+    public static class DirectAsyncCallbackTestLibrary implements AsyncCallbackTestLibrary {
+        @Override
+        public native void callStringCallback(VoidStringCallback c, String arg, String arg2);
+        @Override
+        public native void callStructureCallback(VoidStructureCallback c, SmallTestStructure arg);
+        @Override
+        public native int callInt32Callback(Int32Callback c, int arg, int arg2);
+        static {
+            Native.register(NativeLibrary.getInstance("testlib", _OPTIONS));
+        }
+    }
+
+    @Override
+    protected AsyncCallbackTestLibrary loadAsyncCallbackTestLibrary() {
+        return new DirectAsyncCallbackTestLibrary();
+    }
+
     // Currently unsupported tests
     @Override
     public void testCallStringArrayCallback() { }
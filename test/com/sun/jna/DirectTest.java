@@ -347,5 +347,17 @@ public class DirectTest extends TestCase implements Paths {
         assertEquals("Failed to access MethodResultContext", "returnPointerArgument", FromNativeTests.returnPointerArgument(new PointerNativeMapped()).nativeMethodName);
         assertEquals("Failed to access MethodResultContext", "returnPointerArgument", FromNativeTests.returnPointerArgument(new PointerTypeMapped()).nativeMethodName);
     }
-}
 
+    public static class UnsupportedArgument {
+        static native void missingFunction(Thread arg);
+    }
+    public void testUnsupportedArgumentReportedBeforeLookup() {
+        try {
+            Native.register(UnsupportedArgument.class, NativeLibrary.getInstance("testlib"));
+            fail("Unsupported argument type should be rejected");
+        }
+        catch(IllegalArgumentException e) {
+            // expected, even though the function does not exist
+        }
+    }
+}
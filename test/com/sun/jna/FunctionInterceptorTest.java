@@ -0,0 +1,255 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+public class FunctionInterceptorTest extends TestCase {
+
+    static class RecordingInterceptor implements FunctionInterceptor {
+        final String name;
+        final List<String> log;
+        RecordingInterceptor(String name, List<String> log) {
+            this.name = name;
+            this.log = log;
+        }
+        @Override
+        public Object beforeInvoke(Function function, Object[] args) {
+            log.add(name + ":before:" + function.getName() + Arrays.asList(args));
+            return name + "-context";
+        }
+        @Override
+        public void afterInvoke(Function function, Object[] args, Object result, Throwable error, Object context) {
+            log.add(name + ":after:" + function.getName() + "=" + result
+                    + (error != null ? ":" + error.getClass().getSimpleName() : "")
+                    + ":" + context);
+        }
+    }
+
+    static final List<String> DIRECT_LOG = Collections.synchronizedList(new ArrayList<String>());
+
+    static Map<String, Object> options(Object interceptors) {
+        Map<String, Object> options = new HashMap<>();
+        options.put(Library.OPTION_INTERCEPTORS, interceptors);
+        options.put(Library.OPTION_FUNCTION_MAPPER, new FunctionMapper() {
+            @Override
+            public String getFunctionName(NativeLibrary library, Method m) {
+                return m.getName().equals("throwLastError") ? "setLastError" : m.getName();
+            }
+        });
+        return options;
+    }
+
+    public interface TestLibrary extends Library {
+        int returnInt32Argument(int arg);
+        void throwLastError(int code) throws LastErrorException;
+    }
+
+    public static class DirectTestLibrary implements TestLibrary {
+        @Override
+        public native int returnInt32Argument(int arg);
+        @Override
+        public native void throwLastError(int code) throws LastErrorException;
+        static {
+            Native.register(NativeLibrary.getInstance("testlib", options(Arrays.asList(
+                new RecordingInterceptor("outer", DIRECT_LOG),
+                new RecordingInterceptor("inner", DIRECT_LOG)))));
+        }
+    }
+
+    public void testInterceptInterfaceMapping() {
+        List<String> log = new ArrayList<>();
+        TestLibrary lib = Native.load("testlib", TestLibrary.class,
+                                      options(new RecordingInterceptor("single", log)));
+        assertEquals("Wrong result", 42, lib.returnInt32Argument(42));
+        assertEquals("Wrong calls", Arrays.asList("single:before:returnInt32Argument[42]",
+                                                  "single:after:returnInt32Argument=42:single-context"),
+                     log);
+    }
+
+    static final List<String> PRIMITIVE_LOG = Collections.synchronizedList(new ArrayList<String>());
+    static final List<String> PRIMITIVE_TYPES = Collections.synchronizedList(new ArrayList<String>());
+
+    public static class DirectPrimitiveLibrary {
+        public static native boolean returnBooleanArgument(boolean arg);
+        public static native byte returnInt8Argument(byte arg);
+        public static native short returnInt16Argument(short arg);
+        public static native char returnWideCharArgument(char arg);
+        static {
+            Native.register(NativeLibrary.getInstance("testlib",
+                Collections.singletonMap(Library.OPTION_INTERCEPTORS, Arrays.asList(
+                    new RecordingInterceptor("direct", PRIMITIVE_LOG),
+                    new FunctionInterceptor() {
+                        @Override
+                        public Object beforeInvoke(Function function, Object[] args) {
+                            return null;
+                        }
+                        @Override
+                        public void afterInvoke(Function function, Object[] args, Object result, Throwable error, Object context) {
+                            PRIMITIVE_TYPES.add(args[0].getClass().getSimpleName() + "->" + result.getClass().getSimpleName());
+                        }
+                    }))));
+        }
+    }
+
+    public void testInterceptDirectMappingPrimitives() {
+        PRIMITIVE_LOG.clear();
+        PRIMITIVE_TYPES.clear();
+        assertTrue("Wrong result", DirectPrimitiveLibrary.returnBooleanArgument(true));
+        assertEquals("Wrong result", (byte)-3, DirectPrimitiveLibrary.returnInt8Argument((byte)-3));
+        assertEquals("Wrong result", (short)-300, DirectPrimitiveLibrary.returnInt16Argument((short)-300));
+        assertEquals("Wrong result", 'A', DirectPrimitiveLibrary.returnWideCharArgument('A'));
+        assertEquals("Wrong calls",
+                     Arrays.asList("direct:before:returnBooleanArgument[true]",
+                                   "direct:after:returnBooleanArgument=true:direct-context",
+                                   "direct:before:returnInt8Argument[-3]",
+                                   "direct:after:returnInt8Argument=-3:direct-context",
+                                   "direct:before:returnInt16Argument[-300]",
+                                   "direct:after:returnInt16Argument=-300:direct-context",
+                                   "direct:before:returnWideCharArgument[A]",
+                                   "direct:after:returnWideCharArgument=A:direct-context"),
+                     PRIMITIVE_LOG);
+        assertEquals("Wrong boxed types",
+                     Arrays.asList("Boolean->Boolean", "Byte->Byte", "Short->Short", "Character->Character"),
+                     PRIMITIVE_TYPES);
+    }
+
+    public void testInterceptorOrder() {
+        List<String> log = new ArrayList<>();
+        TestLibrary lib = Native.load("testlib", TestLibrary.class,
+                                      options(new FunctionInterceptor[] {
+                                          new RecordingInterceptor("outer", log),
+                                          new RecordingInterceptor("inner", log) }));
+        lib.returnInt32Argument(1);
+        assertEquals("After hooks should run in reverse order",
+                     Arrays.asList("outer:before:returnInt32Argument[1]",
+                                   "inner:before:returnInt32Argument[1]",
+                                   "inner:after:returnInt32Argument=1:inner-context",
+                                   "outer:after:returnInt32Argument=1:outer-context"),
+                     log);
+    }
+
+    public void testInterceptError() {
+        List<String> log = new ArrayList<>();
+        TestLibrary lib = Native.load("testlib", TestLibrary.class,
+                                      options(new RecordingInterceptor("single", log)));
+        try {
+            lib.throwLastError(-1);
+            fail("Method should throw LastErrorException");
+        } catch(LastErrorException e) {
+        }
+        assertEquals("Error not reported", "single:after:setLastError=null:LastErrorException:single-context",
+                     log.get(1));
+    }
+
+    public void testInterceptDirectMapping() {
+        TestLibrary lib = new DirectTestLibrary();
+        DIRECT_LOG.clear();
+        assertEquals("Wrong result", 7, lib.returnInt32Argument(7));
+        try {
+            lib.throwLastError(-1);
+            fail("Method should throw LastErrorException");
+        } catch(LastErrorException e) {
+        }
+        assertEquals("Wrong calls",
+                     Arrays.asList("outer:before:returnInt32Argument[7]",
+                                   "inner:before:returnInt32Argument[7]",
+                                   "inner:after:returnInt32Argument=7:inner-context",
+                                   "outer:after:returnInt32Argument=7:outer-context",
+                                   "outer:before:setLastError[-1]",
+                                   "inner:before:setLastError[-1]",
+                                   "inner:after:setLastError=null:LastErrorException:inner-context",
+                                   "outer:after:setLastError=null:LastErrorException:outer-context"),
+                     DIRECT_LOG);
+    }
+
+    public void testInvalidInterceptorOption() {
+        try {
+            Native.load("testlib", TestLibrary.class,
+                        Collections.singletonMap(Library.OPTION_INTERCEPTORS, "metrics"));
+            fail("Invalid interceptor option should be rejected");
+        } catch(IllegalArgumentException e) {
+        }
+    }
+
+    public void testFunctionMetrics() throws Exception {
+        FunctionMetrics metrics = new FunctionMetrics();
+        TestLibrary lib = Native.load("testlib", TestLibrary.class, options(metrics));
+        for (int i=0;i < 100;i++) {
+            lib.returnInt32Argument(i);
+        }
+        try {
+            lib.throwLastError(-1);
+            fail("Method should throw LastErrorException");
+        } catch(LastErrorException e) {
+        }
+        Map<String, FunctionMetrics.Statistics> statistics = metrics.getStatistics();
+        String key = NativeLibrary.getInstance("testlib").getName() + ":returnInt32Argument";
+        FunctionMetrics.Statistics s = statistics.get(key);
+        assertNotNull("No statistics for " + key + " in " + statistics.keySet(), s);
+        assertEquals("Wrong call count", 100, s.getCalls());
+        assertEquals("Wrong error count", 0, s.getErrors());
+        assertTrue("Median should not exceed maximum", s.getMedianTime() <= s.getP99Time());
+        assertTrue("Maximum should be within last bucket", s.getMaxTime() <= s.getP999Time());
+        assertEquals("Wrong mean", s.getTotalTime() / 100, s.getMeanTime());
+        FunctionMetrics.Statistics errors = statistics.get(NativeLibrary.getInstance("testlib").getName() + ":setLastError");
+        assertEquals("Error not counted", 1, errors.getErrors());
+
+        ObjectName name = metrics.registerMBean("testlib");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertTrue("MBean not registered", server.isRegistered(name));
+            assertNotNull("Statistics not exposed", server.getAttribute(name, "Statistics"));
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            assertTrue("Statistics not reset", metrics.getStatistics().isEmpty());
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    public void testHistogramBuckets() {
+        for (long v : new long[] { 0, 1, 15, 16, 17, 31, 32, 1000, 123456789L, Long.MAX_VALUE }) {
+            int bucket = FunctionMetrics.bucket(v);
+            assertTrue("Value " + v + " above bucket limit", v <= FunctionMetrics.bucketLimit(bucket));
+            if (bucket > 0) {
+                assertTrue("Value " + v + " within previous bucket", v > FunctionMetrics.bucketLimit(bucket - 1));
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(FunctionInterceptorTest.class);
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class LdSoCacheTest extends TestCase {
+
+    private static final int LIBC6 = 0x0003;
+    private static final int X86_64 = 0x0300;
+    private static final int[] AMD64 = LdSoCache.getArchFlags("x86-64", true);
+    private static final int[] I386 = LdSoCache.getArchFlags("x86", false);
+
+    /** Build a cache holding the given (flags, name, path) entries. */
+    private static ByteBuffer buildCache(boolean oldFormat, boolean newFormat, Object[][] entries) {
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        int[][] offsets = new int[entries.length][2];
+        for (int i=0;i < entries.length;i++) {
+            for (int j=0;j < 2;j++) {
+                offsets[i][j] = strings.size();
+                byte[] b = ((String)entries[i][j+1]).getBytes(StandardCharsets.UTF_8);
+                strings.write(b, 0, b.length);
+                strings.write(0);
+            }
+        }
+        int oldSize = oldFormat ? 16 + entries.length * 12 : 0;
+        int newBase = oldFormat ? (oldSize + 7) & ~7 : 0;
+        int newSize = newFormat ? 48 + entries.length * 24 : 0;
+        int stringBase = newFormat ? newBase + newSize : oldSize;
+        ByteBuffer buf = ByteBuffer.allocate(stringBase + strings.size()).order(ByteOrder.nativeOrder());
+        if (oldFormat) {
+            buf.put("ld.so-1.7.0".getBytes(StandardCharsets.US_ASCII));
+            buf.putInt(12, entries.length);
+            for (int i=0;i < entries.length;i++) {
+                int entry = 16 + i * 12;
+                buf.putInt(entry, ((Integer)entries[i][0]).intValue());
+                buf.putInt(entry + 4, stringBase - oldSize + offsets[i][0]);
+                buf.putInt(entry + 8, stringBase - oldSize + offsets[i][1]);
+            }
+        }
+        if (newFormat) {
+            byte[] magic = "glibc-ld.so.cache1.1".getBytes(StandardCharsets.US_ASCII);
+            for (int i=0;i < magic.length;i++) {
+                buf.put(newBase + i, magic[i]);
+            }
+            buf.putInt(newBase + 20, entries.length);
+            buf.putInt(newBase + 24, strings.size());
+            for (int i=0;i < entries.length;i++) {
+                int entry = newBase + 48 + i * 24;
+                buf.putInt(entry, ((Integer)entries[i][0]).intValue());
+                buf.putInt(entry + 4, stringBase - newBase + offsets[i][0]);
+                buf.putInt(entry + 8, stringBase - newBase + offsets[i][1]);
+            }
+        }
+        byte[] b = strings.toByteArray();
+        for (int i=0;i < b.length;i++) {
+            buf.put(stringBase + i, b[i]);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    private static final Object[][] ENTRIES = {
+        { Integer.valueOf(LIBC6 | X86_64), "libz.so.1", "/lib/x86_64-linux-gnu/libz.so.1" },
+        { Integer.valueOf(LIBC6), "libz.so.1", "/lib/i386-linux-gnu/libz.so.1" },
+        { Integer.valueOf(LIBC6 | X86_64), "libc.so.6", "/lib/x86_64-linux-gnu/libc.so.6" },
+        { Integer.valueOf(LIBC6), "libm.so.6", "/usr/lib32/libm.so.6" },
+    };
+
+    private void checkEntries(LdSoCache cache) {
+        assertEquals("Wrong directories",
+                     Arrays.asList("/lib/x86_64-linux-gnu", "/lib/i386-linux-gnu", "/usr/lib32"),
+                     cache.getDirectories());
+        assertEquals("Wrong 64-bit path", "/lib/x86_64-linux-gnu/libz.so.1", cache.getPath("libz.so.1"));
+        assertEquals("Wrong 64-bit path", "/lib/x86_64-linux-gnu/libc.so.6", cache.getPath("libc.so.6"));
+        assertNull("32-bit library should not be mapped", cache.getPath("libm.so.6"));
+    }
+
+    public void testParseNewFormat() throws IOException {
+        checkEntries(LdSoCache.parse(buildCache(false, true, ENTRIES), AMD64));
+    }
+
+    public void testParseOldFormat() throws IOException {
+        checkEntries(LdSoCache.parse(buildCache(true, false, ENTRIES), AMD64));
+    }
+
+    public void testParseCombinedFormat() throws IOException {
+        checkEntries(LdSoCache.parse(buildCache(true, true, ENTRIES), AMD64));
+    }
+
+    public void testParse32Bit() throws IOException {
+        LdSoCache cache = LdSoCache.parse(buildCache(false, true, ENTRIES), I386);
+        assertEquals("Wrong 32-bit path", "/lib/i386-linux-gnu/libz.so.1", cache.getPath("libz.so.1"));
+        assertEquals("Wrong 32-bit path", "/usr/lib32/libm.so.6", cache.getPath("libm.so.6"));
+        assertNull("64-bit library should not be mapped", cache.getPath("libc.so.6"));
+    }
+
+    public void testArchitectureFlags() throws IOException {
+        Object[][] entries = {
+            { Integer.valueOf(LIBC6 | 0x1200), "liblarch.so.1", "/usr/lib64/liblarch.so.1" },
+            { Integer.valueOf(LIBC6 | 0x0e00), "libmips.so.1", "/usr/lib64/libmips.so.1" },
+            { Integer.valueOf(LIBC6 | 0x1000), "libriscv.so.1", "/usr/lib64/libriscv.so.1" },
+            { Integer.valueOf(LIBC6 | 0x7f00), "libfuture.so.1", "/usr/lib64/libfuture.so.1" },
+            { Integer.valueOf(LIBC6 | 0x0b00), "libarm.so.1", "/usr/lib/arm-linux-gnueabi/libarm.so.1" },
+            { Integer.valueOf(LIBC6 | 0x0900), "libarm.so.1", "/usr/lib/arm-linux-gnueabihf/libarm.so.1" },
+            { Integer.valueOf(LIBC6 | 0x0800), "libc.so.6", "/usr/libx32/libc.so.6" },
+            { Integer.valueOf(LIBC6 | X86_64), "libc.so.6", "/usr/lib64/libc.so.6" },
+            { Integer.valueOf(LIBC6), "libc.so.6", "/usr/lib32/libc.so.6" },
+        };
+        ByteBuffer buf = buildCache(false, true, entries);
+        LdSoCache cache = LdSoCache.parse(buf, LdSoCache.getArchFlags("loongarch64", true));
+        assertEquals("Wrong loongarch64 library", "/usr/lib64/liblarch.so.1", cache.getPath("liblarch.so.1"));
+        assertNull("x86-64 library should not be mapped", cache.getPath("libc.so.6"));
+        cache = LdSoCache.parse(buf, LdSoCache.getArchFlags("mips64el", true));
+        assertNotNull("mips64 NaN2008 library should be mapped", cache.getPath("libmips.so.1"));
+        cache = LdSoCache.parse(buf, LdSoCache.getArchFlags("riscv64", true));
+        assertNotNull("RISC-V library should be mapped", cache.getPath("libriscv.so.1"));
+        assertNull("loongarch64 library should not be mapped", cache.getPath("liblarch.so.1"));
+
+        cache = LdSoCache.parse(buf, AMD64);
+        assertEquals("Wrong x86-64 library", "/usr/lib64/libc.so.6", cache.getPath("libc.so.6"));
+        assertNull("Library with unknown flags should not be mapped", cache.getPath("libfuture.so.1"));
+        cache = LdSoCache.parse(buf, I386);
+        assertEquals("Wrong i386 library", "/usr/lib32/libc.so.6", cache.getPath("libc.so.6"));
+        cache = LdSoCache.parse(buf, LdSoCache.getArchFlags("x86-64", false));
+        assertEquals("Wrong x32 library", "/usr/libx32/libc.so.6", cache.getPath("libc.so.6"));
+
+        cache = LdSoCache.parse(buf, LdSoCache.getArchFlags("arm", false));
+        assertEquals("Wrong hard-float library", "/usr/lib/arm-linux-gnueabihf/libarm.so.1", cache.getPath("libarm.so.1"));
+        cache = LdSoCache.parse(buf, LdSoCache.getArchFlags("armel", false));
+        assertEquals("Wrong soft-float library", "/usr/lib/arm-linux-gnueabi/libarm.so.1", cache.getPath("libarm.so.1"));
+
+        cache = LdSoCache.parse(buf, LdSoCache.getArchFlags("unknown", true));
+        assertTrue("Unknown architecture should map no libraries", cache.getLibraries().isEmpty());
+        assertFalse("Directories should be listed", cache.getDirectories().isEmpty());
+    }
+
+    public void testRejectInvalidCache() {
+        try {
+            LdSoCache.parse(ByteBuffer.wrap("not a cache".getBytes(StandardCharsets.US_ASCII)), AMD64);
+            fail("Invalid cache should be rejected");
+        }
+        catch(IOException e) {
+            // expected
+        }
+        ByteBuffer buf = buildCache(false, true, ENTRIES);
+        buf.putInt(20, Integer.MAX_VALUE);
+        try {
+            LdSoCache.parse(buf, AMD64);
+            fail("Truncated cache should be rejected");
+        }
+        catch(IOException e) {
+            // expected
+        }
+    }
+
+    public void testMatchesLdconfig() throws Exception {
+        if (!Platform.isLinux() || !new File("/sbin/ldconfig").canExecute()) {
+            return;
+        }
+        LdSoCache cache = LdSoCache.getInstance();
+        assertNotNull("System linker cache not parsed", cache);
+        List<String> ldPaths = new ArrayList<>();
+        Process process = Runtime.getRuntime().exec(new String[] { "/sbin/ldconfig", "-p" });
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int start = line.indexOf(" => ");
+                int end = line.lastIndexOf('/');
+                if (start != -1 && end != -1 && start < end) {
+                    String path = line.substring(start + 4, end);
+                    if (!ldPaths.contains(path)) {
+                        ldPaths.add(path);
+                    }
+                    String name = line.trim().substring(0, line.trim().indexOf(' '));
+                    assertTrue("Missing cache directory for " + line, cache.getDirectories().contains(path));
+                    String cached = cache.getPath(name);
+                    assertTrue("Wrong cached path for " + name, cached == null || new File(cached).getName().equals(name));
+                }
+            }
+        }
+        process.waitFor();
+        assertEquals("Wrong directory order", ldPaths, cache.getDirectories());
+    }
+}
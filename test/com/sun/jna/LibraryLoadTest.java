@@ -80,6 +80,76 @@ public class LibraryLoadTest extends TestCase implements Paths {
         assertNotNull(Native.extractFromResourcePath("/com/sun/jna/LibraryLoadTest.class", null));
     }
 
+    private static void deleteRecursively(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteRecursively(f);
+            }
+        }
+        file.delete();
+    }
+
+    public void testExtractToCache() throws Exception {
+        final File tmpdir = new File(Native.getTempDir(), getName() + System.nanoTime());
+        String oldTmpdir = System.getProperty("jna.tmpdir");
+        System.setProperty("jna.tmpdir", tmpdir.getAbsolutePath());
+        System.setProperty("jna.unpack.cache", "true");
+        try {
+            final ClassLoader loader = new TestLoader(new File(TESTJAR));
+            final int COUNT = 4;
+            final File[] files = new File[COUNT];
+            final Throwable[] errors = new Throwable[COUNT];
+            Thread[] threads = new Thread[COUNT];
+            for (int i=0;i < COUNT;i++) {
+                final int index = i;
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            files[index] = Native.extractFromResourcePath("testlib-jar", loader);
+                        }
+                        catch(Throwable e) {
+                            errors[index] = e;
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (int i=0;i < COUNT;i++) {
+                threads[i].join();
+                assertNull("Extraction failed: " + errors[i], errors[i]);
+                assertEquals("Concurrent extractions should share one cached file", files[0], files[i]);
+            }
+            File lib = files[0];
+            assertTrue("Cached library missing: " + lib, lib.isFile());
+            assertTrue("Library not in cache: " + lib, Native.isCached(lib));
+            assertFalse("Cached library should not be removed after load", Native.isUnpacked(lib));
+            assertEquals("Cached library should keep its name",
+                         NativeLibrary.mapSharedLibraryName("testlib-jar"), lib.getName());
+            long modified = lib.lastModified();
+            assertEquals("Cached library should be reused", lib, Native.extractFromResourcePath("testlib-jar", loader));
+            assertEquals("Cached library should not be rewritten", modified, lib.lastModified());
+            long length = lib.length();
+            try (FileOutputStream fos = new FileOutputStream(lib)) {
+                fos.write(new byte[] { 1, 2, 3 });
+            }
+            assertEquals("Modified cached library should be extracted again", lib, Native.extractFromResourcePath("testlib-jar", loader));
+            assertEquals("Modified cached library not replaced", length, lib.length());
+            NativeLibrary.getInstance(lib.getAbsolutePath());
+        }
+        finally {
+            deleteRecursively(tmpdir);
+            System.clearProperty("jna.unpack.cache");
+            if (oldTmpdir != null) {
+                System.setProperty("jna.tmpdir", oldTmpdir);
+            }
+            else {
+                System.clearProperty("jna.tmpdir");
+            }
+        }
+    }
+
     public void testLoadFromJNALibraryPath() {
         // Tests are already configured to load from this path
         NativeLibrary.getInstance("testlib");
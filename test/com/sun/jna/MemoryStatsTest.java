@@ -0,0 +1,122 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+public class MemoryStatsTest extends TestCase {
+
+    static {
+        // Record the stack of every allocation
+        System.setProperty("jna.memory.sample", "1");
+    }
+
+    public void testSizeClass() {
+        assertEquals(0, MemoryAccounting.sizeClass(1));
+        assertEquals(1, MemoryAccounting.sizeClass(2));
+        assertEquals(2, MemoryAccounting.sizeClass(3));
+        assertEquals(10, MemoryAccounting.sizeClass(1024));
+        assertEquals(11, MemoryAccounting.sizeClass(1025));
+        assertEquals(63, MemoryAccounting.sizeClass(Long.MAX_VALUE));
+    }
+
+    public void testLiveAndPeakBytes() {
+        MemoryStats before = Native.getMemoryStats();
+        Memory m = new Memory(1000);
+        MemoryStats allocated = Native.getMemoryStats();
+        assertEquals("Wrong live bytes", before.getLiveBytes() + 1000, allocated.getLiveBytes());
+        assertEquals("Wrong live count", before.getLiveCount() + 1, allocated.getLiveCount());
+        assertEquals("Wrong allocation count", before.getAllocationCount() + 1, allocated.getAllocationCount());
+        assertTrue("Peak below live bytes", allocated.getPeakBytes() >= allocated.getLiveBytes());
+        assertEquals("Wrong size class count", before.getSizeClassLiveCounts()[10] + 1,
+                     allocated.getSizeClassLiveCounts()[10]);
+
+        m.close();
+        MemoryStats closed = Native.getMemoryStats();
+        assertEquals("Closed memory still live", before.getLiveBytes(), closed.getLiveBytes());
+        assertEquals("Closed memory still counted", before.getSizeClassLiveCounts()[10],
+                     closed.getSizeClassLiveCounts()[10]);
+        assertEquals("Closed memory counted as leaked", before.getLeakedCount(), closed.getLeakedCount());
+        assertEquals("Allocations not cumulative", allocated.getAllocatedBytes(), closed.getAllocatedBytes());
+        assertTrue("Peak not kept", closed.getPeakBytes() >= allocated.getLiveBytes());
+        m.close();
+        assertEquals("Memory freed twice", closed.getLiveBytes(), Native.getMemoryStats().getLiveBytes());
+    }
+
+    public void testLeakedToGC() throws Exception {
+        long leaked = Native.getMemoryStats().getLeakedCount();
+        new Memory(64);
+        for (int i=0;i < GCWaits.GC_WAITS && Native.getMemoryStats().getLeakedCount() == leaked;i++) {
+            GCWaits.gcRun();
+        }
+        MemoryStats stats = Native.getMemoryStats();
+        assertTrue("Memory freed by GC not counted", stats.getLeakedCount() > leaked);
+        assertTrue("Leaked bytes not counted", stats.getLeakedBytes() >= 64);
+    }
+
+    public void testCallSite() {
+        Memory m = new Memory(4096);
+        try {
+            String site = null;
+            for (String key : Native.getMemoryStats().getCallSiteLiveBytes().keySet()) {
+                if (key.startsWith(getClass().getName() + ".testCallSite(")) {
+                    site = key;
+                }
+            }
+            assertNotNull("Call site not recorded: " + Native.getMemoryStats().getCallSiteLiveBytes(), site);
+            assertEquals("Wrong call site bytes", Long.valueOf(4096),
+                         Native.getMemoryStats().getCallSiteLiveBytes().get(site));
+            String report = Native.dumpMemoryAllocations(0);
+            assertTrue("Allocation not reported: " + report, report.contains("4096 bytes at 0x" + Long.toHexString(Pointer.nativeValue(m))));
+            assertEquals("Young allocation reported", "", Native.dumpMemoryAllocations(Long.MAX_VALUE));
+        } finally {
+            m.close();
+        }
+        assertFalse("Closed memory still attributed to call site",
+                    Native.getMemoryStats().getCallSiteLiveBytes().containsValue(4096L));
+    }
+
+    public void testMemoryMBean() throws Exception {
+        ObjectName name = NativeManagement.registerMemoryMBean();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertNotNull("Statistics not exposed", server.getAttribute(name, "MemoryStats"));
+            Memory m = new Memory(1 << 20);
+            m.close();
+            assertTrue("No peak", Native.getMemoryStats().getPeakBytes() >= 1 << 20);
+            server.invoke(name, "resetPeak", new Object[0], new String[0]);
+            assertTrue("Peak not reset", Native.getMemoryStats().getPeakBytes() < 1 << 20);
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(MemoryStatsTest.class);
+    }
+}
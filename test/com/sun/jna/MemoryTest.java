@@ -126,6 +126,71 @@ public class MemoryTest extends TestCase {
         }
     }
 
+    public void testAlignedAllocation() {
+        for (int align=1;align <= 4096;align *= 2) {
+            Memory m = Memory.aligned(100, align);
+            long mask = ~((long)align - 1);
+            assertEquals("Memory not aligned (" + align + ")",
+                         m.peer & mask, m.peer);
+            assertEquals("Wrong size", 100, m.size());
+            m.setByte(99, (byte)1);
+            m.close();
+        }
+        int[] alignments = { -1, 0, 3, 5, 9, 13 };
+        for (int i=0;i < alignments.length;i++) {
+            try {
+                Memory.aligned(128, alignments[i]);
+                fail("Power-of-two alignments required");
+            }
+            catch(IllegalArgumentException e) { }
+        }
+    }
+
+    public void testZeroedAllocation() {
+        final int SIZE = 1<<20;
+        Memory m = Memory.calloc(SIZE);
+        assertEquals("Wrong size", SIZE, m.size());
+        byte[] data = m.getByteArray(0, SIZE);
+        for (int i=0;i < data.length;i++) {
+            assertEquals("Memory not zeroed at " + i, 0, data[i]);
+        }
+        try {
+            Memory.calloc(0);
+            fail("Zero-sized allocation should fail");
+        }
+        catch(IllegalArgumentException e) { }
+    }
+
+    public void testMappedAllocation() {
+        final int SIZE = 3<<20;
+        int[] flags = { 0, Memory.MAP_ADVISE_HUGEPAGE, Memory.MAP_POPULATE,
+                        Memory.MAP_HUGETLB | Memory.MAP_POPULATE };
+        for (int i=0;i < flags.length;i++) {
+            Memory m = Memory.mapped(SIZE, flags[i]);
+            assertEquals("Wrong size", SIZE, m.size());
+            assertEquals("Mapping not zeroed", 0, m.getLong(SIZE - 8));
+            m.setLong(SIZE - 8, -1L);
+            assertEquals("Wrong value", -1L, m.getLong(SIZE - 8));
+            try {
+                m.getByte(SIZE);
+                fail("Mapped memory should be bounds checked");
+            }
+            catch(IndexOutOfBoundsException e) { }
+            m.close();
+            assertFalse("Mapping not released", m.valid());
+        }
+    }
+
+    public void testHugePageSize() {
+        long size = Memory.getHugePageSize();
+        assertTrue("Huge page size must be positive", size > 0);
+        assertEquals("Huge page size must be a power of two", 0, size & (size - 1));
+        Long override = Long.getLong("jna.memory.hugepagesize");
+        if (override == null && Platform.isLinux()) {
+            assertTrue("Huge page size should be at least a regular page", size >= 4096);
+        }
+    }
+
     public void testAvoidGCWithExtantBuffer() throws Exception {
         if (!Platform.HAS_BUFFERS) return;
 
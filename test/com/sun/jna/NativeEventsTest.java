@@ -0,0 +1,208 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/** JFR is accessed reflectively, since the tests are compiled for Java 8. */
+public class NativeEventsTest extends TestCase {
+
+    static {
+        System.setProperty("jna.jfr", "true");
+    }
+
+    public interface TestLibrary extends Library {
+        interface VoidCallback extends Callback {
+            void callback();
+        }
+        interface Int32Callback extends Callback {
+            int callback(int arg, int arg2);
+        }
+        int returnInt32Argument(int arg);
+        int callInt32Callback(Int32Callback cb, int arg, int arg2);
+        void callVoidCallbackThreaded(VoidCallback c, int count, int ms, String name, int stacksize);
+    }
+
+    private TestLibrary lib;
+    private Object recording;
+
+    @Override
+    protected void setUp() throws Exception {
+        lib = Native.load("testlib", TestLibrary.class);
+        if (!NativeEvents.ENABLED) {
+            return;
+        }
+        recording = Class.forName("jdk.jfr.Recording").getConstructor().newInstance();
+        Class<?> duration = Class.forName("java.time.Duration");
+        Object zero = duration.getField("ZERO").get(null);
+        for (String name : new String[] { "NativeCall", "NativeCallback", "NativeMemoryAllocate", "NativeMemoryFree", "NativeLibraryLoad" }) {
+            Object settings = invoke(recording, "enable", "com.sun.jna." + name);
+            settings.getClass().getMethod("withThreshold", duration).invoke(settings, zero);
+        }
+        invoke(recording, "start");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (recording != null) {
+            invoke(recording, "close");
+        }
+    }
+
+    private static Object invoke(Object target, String name, Object... args) throws Exception {
+        methods:
+        for (Method m : target.getClass().getMethods()) {
+            Class<?>[] types = m.getParameterTypes();
+            if (!m.getName().equals(name) || types.length != args.length) {
+                continue;
+            }
+            for (int i=0;i < types.length;i++) {
+                if (!types[i].isInstance(args[i])) {
+                    continue methods;
+                }
+            }
+            m.setAccessible(true);
+            return m.invoke(target, args);
+        }
+        throw new NoSuchMethodException(name);
+    }
+
+    /** Stop the recording and return the values of the named field of
+     * events of the given type.
+     */
+    private List<Object> recorded(String type, String field) throws Exception {
+        invoke(recording, "stop");
+        Path file = Files.createTempFile("jna", ".jfr");
+        try {
+            invoke(recording, "dump", file);
+            List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+                .getMethod("readAllEvents", Path.class).invoke(null, file);
+            List<Object> values = new ArrayList<>();
+            for (Object event : events) {
+                Object eventType = invoke(event, "getEventType");
+                if (("com.sun.jna." + type).equals(invoke(eventType, "getName"))) {
+                    values.add(invoke(event, "getValue", field));
+                }
+            }
+            return values;
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public void testNativeCall() throws Exception {
+        if (!NativeEvents.ENABLED) {
+            return;
+        }
+        assertEquals(42, lib.returnInt32Argument(42));
+        assertTrue("No native call event recorded",
+                   recorded("NativeCall", "function").contains("returnInt32Argument"));
+    }
+
+    public void testCallback() throws Exception {
+        if (!NativeEvents.ENABLED) {
+            return;
+        }
+        TestLibrary.Int32Callback cb = new TestLibrary.Int32Callback() {
+            @Override
+            public int callback(int arg, int arg2) {
+                return arg + arg2;
+            }
+        };
+        assertEquals(3, lib.callInt32Callback(cb, 1, 2));
+        List<Object> attached = recorded("NativeCallback", "attached");
+        assertEquals("Wrong number of callback events", 1, attached.size());
+        assertEquals("Java thread should not need attaching", Boolean.FALSE, attached.get(0));
+    }
+
+    public void testCallbackOnNativeThread() throws Exception {
+        if (!NativeEvents.ENABLED) {
+            return;
+        }
+        final CountDownLatch called = new CountDownLatch(1);
+        TestLibrary.VoidCallback cb = new TestLibrary.VoidCallback() {
+            @Override
+            public void callback() {
+                called.countDown();
+            }
+        };
+        lib.callVoidCallbackThreaded(cb, 1, 0, getName(), 0);
+        assertTrue("Callback not called", called.await(10, TimeUnit.SECONDS));
+        // Let the callback return and commit its event
+        Thread.sleep(200);
+        List<Object> attached = recorded("NativeCallback", "attached");
+        assertEquals("Wrong number of callback events", 1, attached.size());
+        assertEquals("Native thread should need attaching", Boolean.TRUE, attached.get(0));
+        assertFalse("Attach flag should not leak out of callbacks", Native.isCallbackAttached());
+    }
+
+    public void testMemoryAllocateAndFree() throws Exception {
+        if (!NativeEvents.ENABLED) {
+            return;
+        }
+        Memory m = new Memory(1234);
+        m.close();
+        assertTrue("No allocation event recorded", recorded("NativeMemoryAllocate", "size").contains(1234L));
+        // The recording is stopped, read the free event from a new one
+        tearDown();
+        setUp();
+        m = new Memory(4321);
+        m.close();
+        List<Object> sizes = recorded("NativeMemoryFree", "size");
+        assertTrue("No free event recorded", sizes.contains(4321L));
+    }
+
+    public void testExplicitFreeIsNotByCleaner() throws Exception {
+        if (!NativeEvents.ENABLED) {
+            return;
+        }
+        new Memory(1234).close();
+        List<Object> cleaner = recorded("NativeMemoryFree", "cleaner");
+        assertFalse("No free event recorded", cleaner.isEmpty());
+        assertFalse("Explicit close attributed to the cleaner", cleaner.contains(Boolean.TRUE));
+    }
+
+    public void testLibraryLoad() throws Exception {
+        if (!NativeEvents.ENABLED) {
+            return;
+        }
+        NativeLibrary library = NativeLibrary.getInstance("testlib2");
+        try {
+            List<Object> paths = recorded("NativeLibraryLoad", "path");
+            assertEquals("Wrong number of load events", 1, paths.size());
+            assertEquals("Wrong library path", library.getFile().getAbsolutePath(),
+                         new File((String) paths.get(0)).getAbsolutePath());
+        } finally {
+            library.close();
+        }
+    }
+}
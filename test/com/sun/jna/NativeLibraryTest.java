@@ -26,11 +26,21 @@ package com.sun.jna;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
+import java.lang.reflect.Field;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.sun.jna.win32.W32APIOptions;
 
@@ -149,6 +159,23 @@ public class NativeLibraryTest extends TestCase {
         assertEquals("Simple library name not aliased", count + 1, count2);
     }
 
+    public void testAliasRecordedForExistingLibrary() throws Exception {
+        // Distinct options give keys not yet loaded by other tests
+        Map<String, Object> options = Collections.<String, Object>singletonMap(getName(), Long.valueOf(System.nanoTime()));
+        File file = NativeLibrary.getInstance("testlib").getFile();
+        NativeLibrary lib = NativeLibrary.getInstance(file.getAbsolutePath(), options);
+        assertSame("Alias should resolve to the existing library",
+                   lib, NativeLibrary.getInstance("testlib", options));
+        Field field = NativeLibrary.class.getDeclaredField("libraries");
+        field.setAccessible(true);
+        Map<?, ?> libraries = (Map<?, ?>) field.get(null);
+        Map<String, Object> expected = new HashMap<>(options);
+        expected.put(Library.OPTION_CALLING_CONVENTION, Integer.valueOf(Function.C_CONVENTION));
+        synchronized (libraries) {
+            assertTrue("Alias not recorded", libraries.containsKey("testlib" + expected));
+        }
+    }
+
     public void testRejectNullFunctionName() {
         NativeLibrary lib = NativeLibrary.getInstance("testlib");
         try {
@@ -335,6 +362,95 @@ public class NativeLibraryTest extends TestCase {
         Native.load("testlib", TestLibrary.class, Collections.singletonMap(Library.OPTION_OPEN_FLAGS, Integer.valueOf(-1)));
     }
 
+    public void testConcurrentGetInstance() throws Exception {
+        // Distinct options give keys not yet loaded by other tests
+        final Map<String, Object> options = Collections.<String, Object>singletonMap(getName(), Long.valueOf(System.nanoTime()));
+        final int COUNT = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(COUNT);
+        try {
+            List<Future<NativeLibrary>> results = new ArrayList<>();
+            for (int i=0;i < COUNT;i++) {
+                final String name = i % 2 == 0 ? "testlib" : "testlib2";
+                results.add(executor.submit(new Callable<NativeLibrary>() {
+                    @Override
+                    public NativeLibrary call() throws Exception {
+                        start.await();
+                        return NativeLibrary.getInstance(name, options);
+                    }
+                }));
+            }
+            start.countDown();
+            NativeLibrary lib = results.get(0).get();
+            NativeLibrary lib2 = results.get(1).get();
+            assertNotSame("Distinct libraries should not share an instance", lib, lib2);
+            for (int i=0;i < COUNT;i++) {
+                assertSame("Concurrent loads of the same library should share one instance",
+                           i % 2 == 0 ? lib : lib2, results.get(i).get());
+            }
+            assertSame("Loaded library not cached", lib, NativeLibrary.getInstance("testlib", options));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testGetInstanceRetriesAfterFailure() {
+        for (int i=0;i < 2;i++) {
+            try {
+                NativeLibrary.getInstance("testlib-" + getName());
+                fail("Missing library should not load");
+            }
+            catch(UnsatisfiedLinkError e) {
+                // expected
+            }
+        }
+    }
+
+    public interface EagerTestLibrary extends Library {
+        int callCount();
+        int returnInt32Argument(int arg);
+        default int callCountTwice() { return callCount() + callCount(); }
+    }
+
+    public interface MissingSymbolTestLibrary extends Library {
+        int callCount();
+        void missingFunctionOne();
+        void missingFunctionTwo();
+    }
+
+    public void testEagerBind() {
+        EagerTestLibrary lib = Native.load("testlib", EagerTestLibrary.class,
+                                           Collections.singletonMap(Library.OPTION_EAGER_BIND, Boolean.TRUE));
+        assertEquals("Wrong result from eagerly bound method", 42, lib.returnInt32Argument(42));
+    }
+
+    public void testEagerBindWithExecutor() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            EagerTestLibrary lib = Native.load("testlib", EagerTestLibrary.class,
+                                               Collections.singletonMap(Library.OPTION_EAGER_BIND, executor));
+            assertEquals("Wrong result from eagerly bound method", 42, lib.returnInt32Argument(42));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testEagerBindReportsAllMissingSymbols() {
+        try {
+            Native.load("testlib", MissingSymbolTestLibrary.class,
+                        Collections.singletonMap(Library.OPTION_EAGER_BIND, Boolean.TRUE));
+            fail("Missing symbols should fail the load");
+        }
+        catch(UnsatisfiedLinkError e) {
+            assertTrue("Expect first missing symbol in error: " + e.getMessage(),
+                       e.getMessage().contains("missingFunctionOne"));
+            assertTrue("Expect second missing symbol in error: " + e.getMessage(),
+                       e.getMessage().contains("missingFunctionTwo"));
+        }
+    }
+
     public interface Kernel32 {
         int GetLastError();
         void SetLastError(int code);
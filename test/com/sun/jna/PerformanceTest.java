@@ -30,6 +30,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Map;
 import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
 import java.lang.reflect.Method;
 
 import com.sun.jna.DirectTest.TestInterface;
@@ -511,6 +512,71 @@ public class PerformanceTest extends TestCase implements Paths {
         tlib.callLongCallbackRepeatedly(nlcb, new NativeLong(1), new NativeLong(2), COUNT);
         delta = System.currentTimeMillis() - start;
         System.out.println("callback w/NativeMapped (JNA direct): " + delta + "ms");
+
+        checkCallbackContention(32, COUNT / 10);
+    }
+
+    /** Pass shared and newly created callbacks to native code from many
+     * threads at once.
+     */
+    static void checkCallbackContention(final int threads, final int count) {
+        final TestInterface tlib = Native.load("testlib", TestInterface.class);
+        final TestInterface.Int32Callback[] shared = new TestInterface.Int32Callback[64];
+        for (int i=0;i < shared.length;i++) {
+            shared[i] = new TestInterface.Int32Callback() {
+                @Override
+                public int invoke(int arg1, int arg2) {
+                    return arg1 + arg2;
+                }
+            };
+        }
+        for (final boolean create : new boolean[] { false, true }) {
+            final CountDownLatch ready = new CountDownLatch(threads);
+            final CountDownLatch go = new CountDownLatch(1);
+            Thread[] workers = new Thread[threads];
+            for (int t=0;t < threads;t++) {
+                final int offset = t;
+                workers[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        ready.countDown();
+                        try {
+                            go.await();
+                        }
+                        catch(InterruptedException e) {
+                            return;
+                        }
+                        for (int i=0;i < count;i++) {
+                            TestInterface.Int32Callback cb = create
+                                ? new TestInterface.Int32Callback() {
+                                    @Override
+                                    public int invoke(int arg1, int arg2) {
+                                        return arg1 + arg2;
+                                    }
+                                }
+                                : shared[(offset + i) % shared.length];
+                            tlib.callInt32CallbackRepeatedly(cb, 1, 2, 1);
+                        }
+                    }
+                };
+                workers[t].start();
+            }
+            try {
+                ready.await();
+                long start = System.currentTimeMillis();
+                go.countDown();
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                long delta = System.currentTimeMillis() - start;
+                System.out.println("callback " + (create ? "registration" : "lookup")
+                                   + " (" + threads + " threads): " + delta + "ms");
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
     }
 }
 
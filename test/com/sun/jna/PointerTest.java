@@ -28,6 +28,7 @@ package com.sun.jna;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 
 import junit.framework.TestCase;
@@ -83,6 +84,72 @@ public class PointerTest extends TestCase {
         assertEquals("Wrong decoded value", VALUE, m.getString(0, ENCODING));
     }
 
+    public void testGetSetStringMatchesJavaEncoding() throws Exception {
+        char[] large = new char[StringCodec.MAX_RETAINED_SIZE * 2];
+        Arrays.fill(large, '\u00e9');
+        String[] values = {
+            "",
+            "ascii",
+            "latin1 \u00e4\u00f6\u00fc\u00ff",
+            "bmp \u0444\u20ac\uffee",
+            "supplementary \ud83d\ude00",
+            "lone surrogates \ud83d x \ude00",
+            new String(large),
+        };
+        for (String encoding : new String[] {"UTF-8", "ISO-8859-1", "US-ASCII", "UTF-16LE"}) {
+            for (String value : values) {
+                byte[] expected = value.getBytes(encoding);
+                Memory m = new Memory(expected.length + 2);
+                m.setString(0, value, encoding);
+                assertTrue("Wrong " + encoding + " encoding of " + value,
+                           Arrays.equals(expected, m.getByteArray(0, expected.length)));
+                if (!"UTF-16LE".equals(encoding)) {
+                    assertEquals("Missing NUL terminator", 0, m.getByte(expected.length));
+                    assertEquals("Wrong " + encoding + " decoding of " + value,
+                                 new String(expected, encoding), m.getString(0, encoding));
+                    assertEquals("Wrong direct " + encoding + " decoding of " + value,
+                                 new String(expected, encoding),
+                                 StringCodec.get().decodeDirect(expected, expected.length, Charset.forName(encoding)));
+                }
+            }
+        }
+    }
+
+    public void testEncodedBufferNotRetained() {
+        StringCodec codec = StringCodec.get();
+        char[] large = new char[StringCodec.MAX_RETAINED_SIZE * 2];
+        Arrays.fill(large, 'a');
+        int len = codec.encode(new String(large), Charset.forName("UTF-8"));
+        assertEquals("Wrong encoded length", large.length, len);
+        assertNotNull("Missing encoded bytes", codec.getEncoded());
+        assertNull("Encoded bytes should not be kept", codec.getEncoded());
+    }
+
+    public void testGetStringWithMalformedInput() throws Exception {
+        byte[][] values = {
+            {(byte)0x80, 'a'},
+            {'a', (byte)0xc3},
+            {(byte)0xc0, (byte)0xaf},
+            {(byte)0xe0, (byte)0x80, (byte)0xaf},
+            {(byte)0xed, (byte)0xa0, (byte)0x80},
+            {(byte)0xf4, (byte)0x90, (byte)0x80, (byte)0x80},
+            {(byte)0xf0, (byte)0x9f, (byte)0x98},
+            {(byte)0xff, (byte)0xfe, 'b'},
+        };
+        for (String encoding : new String[] {"UTF-8", "ISO-8859-1", "US-ASCII"}) {
+            for (byte[] value : values) {
+                Memory m = new Memory(value.length + 1);
+                m.write(0, value, 0, value.length);
+                m.setByte(value.length, (byte)0);
+                assertEquals("Wrong " + encoding + " decoding of " + Arrays.toString(value),
+                             new String(value, encoding), m.getString(0, encoding));
+                assertEquals("Wrong direct " + encoding + " decoding of " + Arrays.toString(value),
+                             new String(value, encoding),
+                             StringCodec.get().decodeDirect(value, value.length, Charset.forName(encoding)));
+            }
+        }
+    }
+
     public static class TestPointerType extends PointerType {
         public TestPointerType() { }
         public TestPointerType(Pointer p) { super(p); }
@@ -150,6 +217,74 @@ public class PointerTest extends TestCase {
                      Arrays.asList(p.getWideStringArray(0, 2)));
     }
 
+    public void testGetStringArrayWithNullElements() {
+        Pointer p = new Memory(Native.POINTER_SIZE*3);
+        final String VALUE = getName() + UNICODE;
+        final String ENCODING = "utf8";
+
+        p.setPointer(0, null);
+        p.setPointer(Native.POINTER_SIZE, new NativeString(VALUE, ENCODING).getPointer());
+        p.setPointer(Native.POINTER_SIZE*2, null);
+
+        assertEquals("Wrong null-terminated String array",
+                     0, p.getStringArray(0, ENCODING).length);
+        assertEquals("Wrong length-specified String array",
+                     Arrays.asList(new String[] { null, VALUE, null }),
+                     Arrays.asList(p.getStringArray(0, 3, ENCODING)));
+        assertEquals("Wrong length-specified wide String array",
+                     Arrays.asList(new String[] { null }),
+                     Arrays.asList(p.getWideStringArray(0, 1)));
+        assertEquals("Wrong empty String array",
+                     0, p.getStringArray(0, 0, ENCODING).length);
+    }
+
+    public void testGetStringArrayWithoutTerminator() {
+        Memory m = new Memory(Native.POINTER_SIZE*2);
+        m.setPointer(0, new NativeString(getName()).getPointer());
+        m.setPointer(Native.POINTER_SIZE, new NativeString(getName()).getPointer());
+        try {
+            m.getStringArray(0);
+            fail("Reading past the end of memory should fail");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        assertEquals("Wrong length-specified String array",
+                     Arrays.asList(new String[] { getName(), getName() }),
+                     Arrays.asList(m.getStringArray(0, 2)));
+        try {
+            m.getStringArray(0, 3);
+            fail("Reading past the end of memory should fail");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    public void testStringArrayLayout() {
+        final String[] VALUES = { getName() + UNICODE, null, "", "last" };
+        final String ENCODING = "utf8";
+        StringArray sa = new StringArray(VALUES, ENCODING);
+        long tableSize = (VALUES.length + 1) * Native.POINTER_SIZE;
+        assertEquals("Pointer array and string data should be allocated together",
+                     tableSize + Native.getBytes(VALUES[0], ENCODING).length + 1 + 1 + 5,
+                     sa.size());
+        assertEquals("First string should follow the pointer array",
+                     Pointer.nativeValue(sa) + tableSize,
+                     Pointer.nativeValue(sa.getPointer(0)));
+        assertNull("Missing NULL element", sa.getPointer(Native.POINTER_SIZE));
+        assertNull("Missing terminating NULL", sa.getPointer(Native.POINTER_SIZE * VALUES.length));
+        assertEquals("Wrong String array",
+                     Arrays.asList(VALUES),
+                     Arrays.asList(sa.getStringArray(0, VALUES.length, ENCODING)));
+
+        StringArray wide = new StringArray(new WString[] { new WString(VALUES[0]), null });
+        assertEquals("Wrong wide String array",
+                     Arrays.asList(new String[] { VALUES[0], null }),
+                     Arrays.asList(wide.getWideStringArray(0, 2)));
+        assertEquals("Wrong terminated wide String array",
+                     Arrays.asList(new String[] { VALUES[0] }),
+                     Arrays.asList(wide.getWideStringArray(0)));
+    }
+
     public void testReadPointerArray() {
         Pointer mem = new Memory(Native.POINTER_SIZE * 2);
         Pointer[] p = new Pointer[2];
@@ -0,0 +1,166 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class StructureLayoutsTest extends TestCase {
+
+    public void testParseLayout() {
+        StructureLayouts.Layout layout = StructureLayouts.parse("16,8;a,int,0,4;p,com.sun.jna.Pointer,8,8");
+        assertEquals("Wrong size", 16, layout.size);
+        assertEquals("Wrong alignment", 8, layout.alignment);
+        assertEquals("Wrong field count", 2, layout.names.length);
+        assertEquals("Wrong field name", "p", layout.names[1]);
+        assertEquals("Wrong field type", "com.sun.jna.Pointer", layout.types[1]);
+        assertEquals("Wrong field offset", 8, layout.offsets[1]);
+        assertEquals("Wrong field size", 8, layout.sizes[1]);
+    }
+
+    public void testRejectInvalidLayout() {
+        String[] invalid = { "", "16", "16,8", "0,8;a,int,0,4", "16,8;a,int,0", "x,8;a,int,0,4" };
+        for (String value : invalid) {
+            try {
+                StructureLayouts.parse(value);
+                fail("Invalid layout should be rejected: '" + value + "'");
+            }
+            catch(IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testABI() {
+        String abi = StructureLayouts.getABI(Structure.ALIGN_GNUC);
+        if (abi != null) {
+            assertTrue("ABI should include pointer size: " + abi, abi.startsWith("p" + Native.POINTER_SIZE + "w"));
+        }
+        assertNull("No layouts without alignment", StructureLayouts.getABI(Structure.ALIGN_NONE));
+    }
+
+    @Structure.FieldOrder({ "b", "i" })
+    public static class PackedInner extends Structure {
+        public byte b;
+        public int i;
+        public PackedInner() {
+            super(ALIGN_NONE);
+        }
+    }
+
+    @Structure.FieldOrder({ "c", "inner" })
+    public static class PackedOuter extends Structure {
+        public byte c;
+        public PackedInner inner;
+    }
+
+    @Structure.FieldOrder({ "b", "i" })
+    public static class DefaultInner extends Structure {
+        public byte b;
+        public int i;
+    }
+
+    @Structure.FieldOrder({ "c", "inner" })
+    public static class DefaultOuter extends Structure {
+        public byte c;
+        public DefaultInner inner;
+    }
+
+    @Structure.FieldOrder({ "b", "i" })
+    public static class CachedLookup extends Structure {
+        public byte b;
+        public int i;
+    }
+
+    @Structure.FieldOrder({ "o" })
+    public static class InvalidField extends Structure {
+        public Object o;
+    }
+
+    /** Add a precomputed layout for a test class. */
+    @SuppressWarnings("unchecked")
+    private static boolean addLayout(Class<?> cls, String layout) throws Exception {
+        String abi = StructureLayouts.getABI(Structure.ALIGN_GNUC);
+        if (abi == null) {
+            return false;
+        }
+        StructureLayouts.get(cls, abi);
+        Field f = StructureLayouts.class.getDeclaredField("layouts");
+        f.setAccessible(true);
+        Map<ClassLoader, Map<String, StructureLayouts.Layout>> layouts = (Map<ClassLoader, Map<String, StructureLayouts.Layout>>)f.get(null);
+        layouts.get(cls.getClassLoader()).put(cls.getName() + "@" + abi, StructureLayouts.parse(layout));
+        return true;
+    }
+
+    public void testNestedLayoutUsed() throws Exception {
+        // Sizes differ from the derived layout to tell them apart
+        if (!addLayout(DefaultInner.class, "16,4;b,byte,0,1;i,int,4,4")
+            || !addLayout(DefaultOuter.class, "20,4;c,byte,0,1;inner," + DefaultInner.class.getName() + ",4,16")) {
+            return;
+        }
+        DefaultOuter s = new DefaultOuter();
+        assertEquals("Precomputed layout not used", 20, s.size());
+        assertEquals("Wrong nested offset", 4, s.fieldOffset("inner"));
+    }
+
+    public void testNestedNonDefaultAlignmentDerived() throws Exception {
+        if (!addLayout(PackedInner.class, "8,4;b,byte,0,1;i,int,4,4")
+            || !addLayout(PackedOuter.class, "12,4;c,byte,0,1;inner," + PackedInner.class.getName() + ",4,8")) {
+            return;
+        }
+        PackedOuter s = new PackedOuter();
+        assertEquals("Nested packed structure should not be precomputed", 6, s.size());
+        assertEquals("Wrong nested offset", 1, s.fieldOffset("inner"));
+    }
+
+    public void testFieldsValidatedWithUnusedLayout() throws Exception {
+        // Stale layout which does not match the declared field type
+        if (!addLayout(InvalidField.class, "4,4;o,int,0,4")) {
+            return;
+        }
+        try {
+            new InvalidField().size();
+            fail("Invalid field type should be rejected");
+        }
+        catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testLookupCachedPerClass() throws Exception {
+        assertEquals("Wrong derived size", 8, new CachedLookup().size());
+        // Layouts are looked up once per class, not on each construction
+        if (!addLayout(CachedLookup.class, "16,4;b,byte,0,1;i,int,4,4")) {
+            return;
+        }
+        assertNull("Lookup should be cached", StructureLayouts.getDefault(CachedLookup.class));
+        assertEquals("Wrong derived size", 8, new CachedLookup().size());
+    }
+
+    public void testNoLayoutWithoutResource() {
+        assertNull("Unexpected precomputed layout",
+                   StructureLayouts.get(StructureTest.TestStructure0.class, StructureLayouts.getABI(Structure.ALIGN_GNUC)));
+    }
+}